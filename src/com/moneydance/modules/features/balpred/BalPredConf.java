@@ -29,6 +29,7 @@ public class BalPredConf
   public JRadioButton rbReminders = new JRadioButton();
   public JRadioButton rbTransactions = new JRadioButton();
   public ReminderSet rs = null;
+  public ReminderOccurrences occurrences = null;
   public String dateFormatStr = "MM/dd/yyyy";
   
   public BalPredConf(AccountBook book, Resources rr, String extensionName) {
@@ -0,0 +1,162 @@
+/************************************************************\
+ *        Copyright 2017 The Infinite Kind, Limited         *
+\************************************************************/
+
+package com.moneydance.modules.features.balpred;
+
+import com.infinitekind.moneydance.model.*;
+
+/**
+ * The end of day balance of an account on every day from its first transaction to
+ * today or its last transaction, whichever is later. The transactions are read once
+ * into a delta per day, so past balances, period averages and extremes are answered
+ * from arrays instead of going over the transactions for every day asked about.
+ */
+class BalanceHistory {
+  private final int firstDay;
+  // the balance at the end of each day, starting at firstDay
+  private final long balances[];
+  // sums[i] is the sum of balances[0] to balances[i-1]
+  private final long sums[];
+  // the balance before the first day
+  private final long opening;
+
+  /**
+   * @param balance The balance of the account including all of its transactions.
+   * @param txns    The transactions of the account.
+   * @param today   Today's date, the history reaches at least this far.
+   */
+  BalanceHistory(long balance, TxnSet txns, int today) {
+    int first = toDayNumber(today);
+    int last = first;
+    for (AbstractTxn txn : txns) {
+      int day = toDayNumber(txn.getDateInt());
+      first = Math.min(first, day);
+      last = Math.max(last, day);
+    }
+    firstDay = first;
+
+    int numDays = last - first + 1;
+    long deltas[] = new long[numDays];
+    for (AbstractTxn txn : txns) {
+      deltas[toDayNumber(txn.getDateInt()) - first] += txn.getValue();
+    }
+
+    // the balance includes every transaction, so the history is built back from the last day
+    balances = new long[numDays];
+    balances[numDays-1] = balance;
+    for (int i=numDays-1; i>0; i--) {
+      balances[i-1] = balances[i] - deltas[i];
+    }
+    opening = balances[0] - deltas[0];
+
+    sums = new long[numDays+1];
+    for (int i=0; i<numDays; i++) {
+      sums[i+1] = sums[i] + balances[i];
+    }
+  }
+
+  /**
+   * The balance at the end of a day.
+   */
+  long getBalance(int date) {
+    return getBalanceOnDay(toDayNumber(date));
+  }
+
+  /**
+   * The average of the end of day balances for the days after d1 up to and including d2.
+   */
+  long getAverage(int d1, int d2) {
+    int from = toDayNumber(d1) + 1;
+    int to = toDayNumber(d2);
+    if (to < from) return 0;
+    return Math.round(1.0*getSum(from, to)/(to - from + 1));
+  }
+
+  /**
+   * The highest end of day balance from d1 up to and including d2.
+   */
+  long getMaximum(int d1, int d2) {
+    int from = toDayNumber(d1);
+    int to = toDayNumber(d2);
+    long maxb = getBalanceOnDay(from);
+    for (int day=from+1; day<=to; day++) {
+      maxb = Math.max(maxb, getBalanceOnDay(day));
+    }
+    return maxb;
+  }
+
+  /**
+   * The lowest end of day balance from d1 up to and including d2.
+   */
+  long getMinimum(int d1, int d2) {
+    int from = toDayNumber(d1);
+    int to = toDayNumber(d2);
+    long minb = getBalanceOnDay(from);
+    for (int day=from+1; day<=to; day++) {
+      minb = Math.min(minb, getBalanceOnDay(day));
+    }
+    return minb;
+  }
+
+  private long getBalanceOnDay(int day) {
+    int index = day - firstDay;
+    if (index < 0) return opening;
+    if (index >= balances.length) return balances[balances.length-1];
+    return balances[index];
+  }
+
+  private long getSum(int from, int to) {
+    int last = firstDay + balances.length - 1;
+    long sum = 0;
+    if (from < firstDay) {
+      sum += opening * (Math.min(to, firstDay - 1) - from + 1);
+    }
+    if (to > last) {
+      sum += balances[balances.length-1] * (to - Math.max(from, last + 1) + 1);
+    }
+    int lo = Math.max(from, firstDay) - firstDay;
+    int hi = Math.min(to, last) - firstDay;
+    if (lo <= hi) {
+      sum += sums[hi+1] - sums[lo];
+    }
+    return sum;
+  }
+
+  /**
+   * The number of days from 1970-01-01 to a date in the form YYYYMMDD.
+   */
+  static int toDayNumber(int date) {
+    int y = date / 10000;
+    int m = (date / 100) % 100;
+    int d = date % 100;
+    if (m <= 2) y--;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yoe = y - era * 400;
+    int doy = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+    int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  /**
+   * The moving average of a series of balances over a window reaching width points to either
+   * side. Where the window runs off either end of the series, the point's own balance is
+   * counted in place of the missing ones.
+   */
+  static long[] movingAverage(long balances[], int width) {
+    int n = balances.length;
+    long prefix[] = new long[n+1];
+    for (int i=0; i<n; i++) {
+      prefix[i+1] = prefix[i] + balances[i];
+    }
+    int count = 2*width + 1;
+    long result[] = new long[n];
+    for (int i=0; i<n; i++) {
+      int lo = Math.max(0, i - width);
+      int hi = Math.min(n - 1, i + width);
+      long avg = prefix[hi+1] - prefix[lo] + balances[i] * (count - (hi - lo + 1));
+      result[i] = Math.round((1.0*avg)/count);
+    }
+    return result;
+  }
+}
@@ -36,6 +36,7 @@ public class BalancePredicter
   private GridBagLayout gbl = new GridBagLayout();
   private HashMap<Reminder,Boolean> remindersStatus = new HashMap<Reminder, Boolean>();
   private DateLabeler dateLabeler;
+  private BalanceHistory history = null;
   
   public BalancePredicter(Resources rr, BalPredConf balpredConf) {
     this.rr = rr;
@@ -152,6 +153,7 @@ public class BalancePredicter
   }
   
   private void updateGraph() {
+    history = null;
     if (balpredConf.getBasedOn()==balpredConf.basedonReminders) {
       calcPredictedRBalance();
     } else {
@@ -193,7 +195,6 @@ public class BalancePredicter
     long currentBalance = getAccountBalance(balpredConf.getAccount());
     long changes = 0;
     Vector<DataPoint> dataPoints = new Vector<DataPoint>();
-    Vector<DataPoint> averagePoints = new Vector<DataPoint>();
     Account cacct = balpredConf.getAccount();
     
     setWaitCursor();
@@ -239,14 +240,14 @@ public class BalancePredicter
     if (stop < curr) return;
     ParentTxn ptxn = null;
     SplitTxn  stxn = null;
-    Calendar tmp = Calendar.getInstance();
     TxnSet txns = balpredConf.getTxnSet();
     DataPoint lastPoint = null;
+    ReminderOccurrences.Occurrences due = balpredConf.occurrences.getOccurrences(curr, stop);
+    int nextDue = due.indexOf(curr);
     while(curr <= stop) {
-      Calendar cal = Calendar.getInstance();
-      DateUtil.setCalendarDate(cal, curr);
-      for(Reminder r : balpredConf.rs.getRemindersOnDay(cal)) {
-        if ((r.getReminderType() == Reminder.Type.TRANSACTION) && remindersStatus.get(r)) {
+      for(; nextDue<due.size() && due.getDate(nextDue)<=curr; nextDue++) {
+        Reminder r = due.getReminder(nextDue);
+        if (remindersStatus.get(r)) {
           ptxn = r.getTransaction();
           if(ptxn==null) continue;
           if (ptxn.getAccount().equals(cacct)) {
@@ -287,35 +288,24 @@ public class BalancePredicter
       curr = DateUtil.incrementDate(curr, 0, 0, 1);
     }
     
-    long avg;
     int width = 14;
     int numDataPoints = dataPoints.size();
+    long balances[] = new long[numDataPoints];
     for (int i=0; i<numDataPoints; i++) {
-      int count = 0;
-      avg = 0;
-      DataPoint dataPoint = (DataPoint)dataPoints.elementAt(i);
-      for (int j=(i-width); j<=(i+width); j++) {
-        count++;
-        if (j<0 || j>=dataPoints.size()) {
-          avg += dataPoint.balance;
-        } else {
-          avg += ((DataPoint)dataPoints.elementAt(j)).balance;
-        }
-      }
-      averagePoints.addElement(new DataPoint(dataPoint.date, Math.round((1.0*avg)/count)));
+      balances[i] = dataPoints.elementAt(i).balance;
     }
+    long averages[] = BalanceHistory.movingAverage(balances, width);
     
     double xvalues[] = new double[numDataPoints];
     double yvalues[] = new double[numDataPoints];
     double xvaluesA[] = new double[numDataPoints];
     double yvaluesA[] = new double[numDataPoints];
     for (int i=0; i<numDataPoints; i++) {
-      DataPoint dataPoint = (DataPoint)dataPoints.elementAt(i);
-      DataPoint avgPoint = (DataPoint)averagePoints.elementAt(i);
+      DataPoint dataPoint = dataPoints.elementAt(i);
       xvalues[i] = (double)dataPoint.date;
       yvalues[i] = (double)dataPoint.balance;
-      xvaluesA[i] = (double)avgPoint.date;
-      yvaluesA[i] = (double)avgPoint.balance;
+      xvaluesA[i] = (double)dataPoint.date;
+      yvaluesA[i] = (double)averages[i];
     }
     
     XYGraphDataSet gDataSet[] = new XYGraphDataSet[2];
@@ -356,6 +346,7 @@ public class BalancePredicter
     for (int i=0;i<txns.getSize();i++) {
       mind = Math.min(txns.getTxnAt(i).getDateInt(), mind);
     }
+    history = new BalanceHistory(cacct.getBalance(), txns, today);
     
     if (DateUtil.incrementDate(mind, 0, 3, 0) > today) {
       gp.add(new JLabel(" "), AwtUtil.getConstraints(0,0,1,1,1,1,true,false));
@@ -468,15 +459,14 @@ public class BalancePredicter
     yvaluesTop[k] = yvaluesMid[k];
     xvaluesBot[k] = xvaluesMid[k];
     yvaluesBot[k] = yvaluesMid[k];
+    long lastBalance = history.getBalance(tmpCal);
     while(tmpCal < today) {
       tmpCal = DateUtil.incrementDate(tmpCal, 0, 0, 1);
       k++;
       xvaluesMid[k] = (double)DateUtil.convertIntDateToLong(tmpCal).getTime();
-      yvaluesMid[k] = yvaluesMid[k-1];
-      for (AbstractTxn txn : txns) {
-        if (txn.getDateInt()==tmpCal)
-          yvaluesMid[k] += txn.getAccount().getCurrencyType().getDoubleValue(txn.getValue());
-      }
+      long balance = history.getBalance(tmpCal);
+      yvaluesMid[k] = yvaluesMid[k-1] + cacct.getCurrencyType().getDoubleValue(balance - lastBalance);
+      lastBalance = balance;
       xvaluesTop[k] = xvaluesMid[k];
       yvaluesTop[k] = yvaluesMid[k];
       xvaluesBot[k] = xvaluesMid[k];
@@ -675,75 +665,31 @@ public class BalancePredicter
   }
 
   public long getPastBalance(int d) {
-    long bal = balpredConf.getAccount().getBalance();
-    int td;
-    TxnSet txns = balpredConf.getTxnSet();
-    for (AbstractTxn txn : txns) {
-      td = txn.getDateInt();
-      if (td > d) {
-        bal -= txn.getValue();
-      }
-    }
-    return bal;
+    return getHistory().getBalance(d);
   }
 
   public long getAvgPeriodBalance(int d1, int d2) {
-    long sum = 0, changes;
-    int days = DateUtil.calculateDaysBetween(d1, d2);
-    long bal = getPastBalance(d1);
-    TxnSet txns = balpredConf.returnTxnSet();
-    for (int j=0; j<days; j++) {
-      d1 = DateUtil.incrementDate(d1,0,0,1);
-      changes = 0;
-      for (AbstractTxn txn : txns) {
-        if (txn.getDateInt()==d1) {
-          changes += txn.getValue();
-        }
-      }
-      bal = bal + changes;
-      sum += bal;
-    }
-    return Math.round(1.0*sum/days);
+    return getHistory().getAverage(d1, d2);
   }
   
   public long getMaxPeriodBalance(int d1, int d2) {
-    long changes;
-    int days = DateUtil.calculateDaysBetween(d1, d2);
-    long bal = getPastBalance(d1);
-    long maxb = bal;
-    TxnSet txns = balpredConf.returnTxnSet();
-    for (int j=0; j<days; j++) {
-      d1 = DateUtil.incrementDate(d1,0,0,1);
-      changes = 0;
-      for (AbstractTxn txn : txns) {
-        if (txn.getDateInt()==d1) {
-          changes += txn.getValue();
-        }
-      }
-      bal = bal + changes;
-      maxb = Math.max(maxb, bal);
-    }
-    return maxb;
+    return getHistory().getMaximum(d1, d2);
   }
 
   public long getMinPeriodBalance(int d1, int d2) {
-    long changes;
-    int days = DateUtil.calculateDaysBetween(d1, d2);
-    long bal = getPastBalance(d1);
-    long minb = bal;
-    TxnSet txns = balpredConf.returnTxnSet();
-    for (int j=0;j<days;j++) {
-      d1 = DateUtil.incrementDate(d1,0,0,1);
-      changes = 0;
-      for (AbstractTxn txn : txns) {
-        if (txn.getDateInt()==d1) {
-          changes += txn.getValue();
-        }
-      }
-      bal = bal + changes;
-      minb = Math.min(minb, bal);
+    return getHistory().getMinimum(d1, d2);
+  }
+
+  /**
+   * The balance history of the selected account, read from its transactions when the
+   * transaction based forecast was last calculated.
+   */
+  private BalanceHistory getHistory() {
+    if (history == null) {
+      history = new BalanceHistory(balpredConf.getAccount().getBalance(), balpredConf.getTxnSet(),
+                                   DateUtil.getStrippedDateInt());
     }
-    return minb;
+    return history;
   }
 
   class DataPoint {
@@ -21,6 +21,7 @@ public class Main
   public String command;
   public String parameters;
   private BalancePredicter predicter = null;
+  private ReminderOccurrences occurrences = null;
   
   public void setParameters(String par) { parameters = par; }
   public void setCommand(String cmd) { command = cmd; }
@@ -73,9 +74,26 @@ public class Main
     return getContext().getRootAccount().getBook();
   }
 
+  public void cleanup() {
+    if(occurrences!=null) {
+      occurrences.close();
+      occurrences = null;
+    }
+  }
+
+  /** The reminder occurrences of the data file, shared by every forecast until it is closed */
+  private synchronized ReminderOccurrences getOccurrences(ReminderSet rs) {
+    if(occurrences==null || occurrences.getReminderSet()!=rs) {
+      if(occurrences!=null) occurrences.close();
+      occurrences = new ReminderOccurrences(rs);
+    }
+    return occurrences;
+  }
+
   private synchronized void showBalancePredicter() {
     if(predicter==null) {
       BalPredConf conf = new BalPredConf(getRoot(), rr, getName());
+      conf.occurrences = getOccurrences(conf.rs);
       FeatureModuleContext context = getContext();
       if(context instanceof com.moneydance.apps.md.controller.Main) {
         conf.dateFormatStr = ((com.moneydance.apps.md.controller.Main)context).getPreferences().getShortDateFormat();
@@ -0,0 +1,143 @@
+/************************************************************\
+ *        Copyright 2017 The Infinite Kind, Limited         *
+\************************************************************/
+
+package com.moneydance.modules.features.balpred;
+
+import com.infinitekind.moneydance.model.*;
+import com.infinitekind.util.DateUtil;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The dates on which the transaction reminders come due over a span of days, sorted by
+ * date. Each reminder's schedule is expanded once by stepping from one occurrence to the
+ * next, instead of asking the reminder set for the reminders of every day. The expansion
+ * is kept until a reminder is added, changed or removed, or dates outside of it are asked
+ * for.
+ */
+class ReminderOccurrences
+  implements ReminderListener
+{
+  private final ReminderSet reminders;
+  private Occurrences cached = null;
+
+  ReminderOccurrences(ReminderSet reminders) {
+    this.reminders = reminders;
+    reminders.addReminderListener(this);
+  }
+
+  /**
+   * Stop listening to the reminders, when the data file is closed.
+   */
+  synchronized void close() {
+    reminders.removeReminderListener(this);
+    cached = null;
+  }
+
+  ReminderSet getReminderSet() {
+    return reminders;
+  }
+
+  /**
+   * The occurrences of the transaction reminders from firstDate up to and including lastDate.
+   * The result may also hold occurrences outside of those dates.
+   */
+  synchronized Occurrences getOccurrences(int firstDate, int lastDate) {
+    if (cached == null || firstDate < cached.firstDate || lastDate > cached.lastDate) {
+      cached = expand(firstDate, lastDate);
+    }
+    return cached;
+  }
+
+  private Occurrences expand(int firstDate, int lastDate) {
+    List<Reminder> all = reminders.getAllReminders();
+    // date in the high half, reminder index in the low half, so sorting orders by date and then
+    // by the reminder's position in the reminder set, as getRemindersOnDay does
+    long keys[] = new long[64];
+    int count = 0;
+    for (int i=0; i<all.size(); i++) {
+      Reminder r = all.get(i);
+      if (r.getReminderType() != Reminder.Type.TRANSACTION || r.getTransaction() == null) continue;
+
+      int date = DateUtil.incrementDate(firstDate, 0, 0, -1);
+      while (true) {
+        int next = r.getNextOccurance(date);
+        if (next <= 0 || next > lastDate || next < date) break;
+        if (next == date) {
+          // an occurrence on the date itself was returned, look from the following day
+          date = DateUtil.incrementDate(date, 0, 0, 1);
+          continue;
+        }
+        if (count == keys.length) keys = Arrays.copyOf(keys, count*2);
+        keys[count++] = ((long)next << 32) | i;
+        date = next;
+      }
+    }
+    Arrays.sort(keys, 0, count);
+
+    int dates[] = new int[count];
+    Reminder dueReminders[] = new Reminder[count];
+    for (int i=0; i<count; i++) {
+      dates[i] = (int)(keys[i] >>> 32);
+      dueReminders[i] = all.get((int)keys[i]);
+    }
+    return new Occurrences(firstDate, lastDate, dates, dueReminders);
+  }
+
+  public synchronized void reminderAdded(Reminder r) {
+    cached = null;
+  }
+
+  public synchronized void reminderModified(Reminder r) {
+    cached = null;
+  }
+
+  public synchronized void reminderRemoved(Reminder r) {
+    cached = null;
+  }
+
+  /**
+   * Reminder occurrences in date order.
+   */
+  static class Occurrences {
+    private final int firstDate;
+    private final int lastDate;
+    private final int dates[];
+    private final Reminder reminders[];
+
+    Occurrences(int firstDate, int lastDate, int dates[], Reminder reminders[]) {
+      this.firstDate = firstDate;
+      this.lastDate = lastDate;
+      this.dates = dates;
+      this.reminders = reminders;
+    }
+
+    int size() {
+      return dates.length;
+    }
+
+    int getDate(int index) {
+      return dates[index];
+    }
+
+    Reminder getReminder(int index) {
+      return reminders[index];
+    }
+
+    /**
+     * The index of the first occurrence on or after a date.
+     */
+    int indexOf(int date) {
+      int lo = 0;
+      int hi = dates.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (dates[mid] < date) lo = mid + 1;
+        else hi = mid;
+      }
+      return lo;
+    }
+  }
+}
@@ -14,6 +14,8 @@ import com.infinitekind.moneydance.model.Account;
 import com.infinitekind.moneydance.model.ParentTxn;
 import com.infinitekind.moneydance.model.SplitTxn;
 
+import java.util.BitSet;
+
 /**
  * <p>Filters out transactions that are filtered by an account filter and/or category filter. An
  * {@link AccountFilter account filter} is capable of checking if the account is contained in a
@@ -88,6 +90,73 @@ class AccountTxnFilter extends TransactionFilterBase implements ITransactionFilt
         return matches;
     }
 
+    /**
+     * Same logic as {@link #containsTxn}, applied to whole bitmaps of accounts at once.
+     *
+     * @param index The index of all transactions in the data file.
+     * @return The slots of the indexed transactions that match.
+     */
+    public BitSet getCandidateSlots(final TxnSearchIndex index)
+    {
+        final BitSet accountOwn = (_accountFilter == null) ? null : index.getAccountSlots(_accountFilter, false);
+        final BitSet accountParent = (_accountFilter == null) ? null : index.getAccountSlots(_accountFilter, true);
+        final BitSet categoryOwn = (_categoryFilter == null) ? null : index.getAccountSlots(_categoryFilter, false);
+        final BitSet categoryParent = (_categoryFilter == null) ? null : index.getAccountSlots(_categoryFilter, true);
+
+        // parent transactions can be tested only for an account or category
+        final BitSet parents = (accountOwn != null) ? (BitSet)accountOwn.clone() : new BitSet();
+        if (categoryOwn != null)
+        {
+            if (isRequired())
+            {
+                parents.and(categoryOwn);
+            }
+            else
+            {
+                parents.or(categoryOwn);
+            }
+        }
+        parents.and(index.getParentSlots());
+
+        // split transactions check both sides of the split, like checkAccounts()
+        final BitSet splits;
+        if ((_accountFilter == null) && (_categoryFilter == null))
+        {
+            splits = (BitSet)index.getSplitSlots().clone();
+        }
+        else
+        {
+            splits = checkAccountSlots(accountParent, categoryOwn);
+            splits.or(checkAccountSlots(accountOwn, categoryParent));
+            splits.and(index.getSplitSlots());
+        }
+
+        parents.or(splits);
+        return parents;
+    }
+
+    private BitSet checkAccountSlots(final BitSet fromSlots, final BitSet toSlots)
+    {
+        if (fromSlots == null)
+        {
+            // with no account filter, the category side alone decides for both AND and OR
+            return (BitSet)toSlots.clone();
+        }
+        final BitSet result = (BitSet)fromSlots.clone();
+        if (toSlots != null)
+        {
+            if (isRequired())
+            {
+                result.and(toSlots);
+            }
+            else
+            {
+                result.or(toSlots);
+            }
+        }
+        return result;
+    }
+
     private boolean checkAccounts(Account from, Account to)
     {
         if ((_accountFilter == null) && (_categoryFilter == null))
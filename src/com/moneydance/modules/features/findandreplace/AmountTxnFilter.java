@@ -12,6 +12,8 @@ import com.infinitekind.moneydance.model.AbstractTxn;
 import com.infinitekind.moneydance.model.CurrencyType;
 import com.infinitekind.moneydance.model.CurrencyUtil;
 
+import java.util.BitSet;
+
 /**
  * <p>Filters transactions on whether they are within a specified amount range.</p>
  *  
@@ -86,4 +88,55 @@ class AmountTxnFilter extends TransactionFilterBase implements ITransactionFilte
         return ((searchAmount >= _minimum) && (searchAmount <= _maximum));
     }
 
-}
\ No newline at end of file
+    /**
+     * Look up the amount range in the amount-sorted columns of the index, one currency at a time.
+     * Amounts in other currencies depend on the exchange rate as of each transaction's date, so
+     * those transactions are still tested individually.
+     *
+     * @param index The index of all transactions in the data file.
+     * @return The slots of the indexed transactions that match.
+     */
+    public BitSet getCandidateSlots(final TxnSearchIndex index)
+    {
+        final BitSet result = new BitSet();
+        final BitSet convertSlots = new BitSet();
+        for (final CurrencyType txnCurrency : index.getAmountCurrencies())
+        {
+            final boolean isSecurity = (txnCurrency.getCurrencyType() == CurrencyType.Type.SECURITY);
+            if (_isSharesCurrency != isSecurity)
+            {
+                // wrong kind of currency
+                continue;
+            }
+            if (_isSharesCurrency)
+            {
+                // scale the range down rather than each transaction amount up
+                long factor = 1;
+                final int difference = _currency.getDecimalPlaces() - txnCurrency.getDecimalPlaces();
+                for (int ii = 0; ii < difference; ii++) factor *= 10;
+                final long minimum = (_minimum + factor - 1) / factor;
+                final long maximum = _maximum / factor;
+                index.addAmountSlots(txnCurrency, minimum, maximum, result);
+            }
+            else if (txnCurrency.equals(_currency))
+            {
+                index.addAmountSlots(txnCurrency, _minimum, _maximum, result);
+            }
+            else
+            {
+                index.addCurrencySlots(txnCurrency, convertSlots);
+            }
+        }
+
+        convertSlots.andNot(index.getStaleSlots());
+        for (int slot = convertSlots.nextSetBit(0); slot >= 0; slot = convertSlots.nextSetBit(slot + 1))
+        {
+            if (containsTxn(index.getTxn(slot)))
+            {
+                result.set(slot);
+            }
+        }
+        return result;
+    }
+
+}
@@ -11,6 +11,8 @@ package com.moneydance.modules.features.findandreplace;
 import com.infinitekind.moneydance.model.AbstractTxn;
 import com.infinitekind.moneydance.model.ParentTxn;
 
+import java.util.BitSet;
+
 /**
  * <p>Filter to determine if a transaction's cleared status meets search criteria.</p>
 
@@ -60,5 +62,28 @@ class ClearedTxnFilter extends TransactionFilterBase implements ITransactionFilt
         return false;
     }
 
+    /**
+     * Combine the cleared status bitmaps of the index.
+     *
+     * @param index The index of all transactions in the data file.
+     * @return The slots of the indexed transactions that match.
+     */
+    public BitSet getCandidateSlots(final TxnSearchIndex index)
+    {
+        final BitSet result = new BitSet();
+        if (_allowCleared)
+        {
+            result.or(index.getStatusSlots(AbstractTxn.STATUS_CLEARED));
+        }
+        if (_allowReconciling)
+        {
+            result.or(index.getStatusSlots(AbstractTxn.STATUS_RECONCILING));
+        }
+        if (_allowUncleared)
+        {
+            result.or(index.getStatusSlots(AbstractTxn.STATUS_UNRECONCILED));
+        }
+        return result;
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,356 @@
+/*************************************************************************\
+* Copyright (C) 2009-2015 Mennē Software Solutions, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.findandreplace;
+
+import com.infinitekind.moneydance.model.*;
+import com.moneydance.apps.md.view.gui.MoneydanceGUI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Records the replacements the user has applied in the results table. Rows are grouped by
+ * their parent transaction so that each parent is reported as modified once, no matter how many
+ * of its splits were changed, and the parents are recorded in chunks with refresh and balance
+ * recalculation suspended for the whole chunk. Balances are recalculated once at the end.</p>
+ *
+ * <p>A dry run walks the same rows and collects the changes the commands would make, without
+ * modifying the data file. A real commit writes what it changed to the {@link ReplaceJournal}
+ * when one is given, so it can be undone.</p>
+ *
+ * @version Build 95
+ * @since Build 95
+ */
+class CommitPipeline
+{
+    private final AccountBook _book;
+    private final MoneydanceGUI _mdGui;
+    private final List<ReplaceCommand> _commands;
+    private final boolean _dryRun;
+    private final int _chunkSize;
+    private ReplaceJournal.BatchWriter _journal = null;
+
+    CommitPipeline(final AccountBook book, final MoneydanceGUI mdGui,
+                   final List<ReplaceCommand> commands, final boolean dryRun)
+    {
+        this(book, mdGui, commands, dryRun, N12EFindAndReplace.COMMIT_BATCH_PARENTS);
+    }
+
+    CommitPipeline(final AccountBook book, final MoneydanceGUI mdGui,
+                   final List<ReplaceCommand> commands, final boolean dryRun, final int chunkSize)
+    {
+        _book = book;
+        _mdGui = mdGui;
+        _commands = commands;
+        _dryRun = dryRun;
+        _chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * @param journal Where to record the changes for undo, or <code>null</code> to not record.
+     * The caller owns the writer and closes it once {@link #run} returns.
+     */
+    void setJournal(final ReplaceJournal.BatchWriter journal)
+    {
+        _journal = journal;
+    }
+
+    /**
+     * Record (or preview) every row that has been applied and is marked for use in replace.
+     * @param results The find results.
+     * @return What was changed, or would have been changed in a dry run.
+     */
+    Result run(final FindResultsTableModel results) throws IOException
+    {
+        final long start = System.currentTimeMillis();
+        final List<ParentTxn> parents = new ArrayList<ParentTxn>();
+        final Map<ParentTxn, List<FindResultsTableEntry>> entriesByParent =
+                new IdentityHashMap<ParentTxn, List<FindResultsTableEntry>>();
+        int rowCount = 0;
+        final int count = results.getRowCount();
+        for (int rowIndex = 0; rowIndex < count; rowIndex++)
+        {
+            final FindResultsTableEntry entry = results.getEntry(rowIndex);
+            if (entry.isApplied() && entry.isUseInReplace() && (entry.getParentTxn() != null))
+            {
+                List<FindResultsTableEntry> entries = entriesByParent.get(entry.getParentTxn());
+                if (entries == null)
+                {
+                    entries = new ArrayList<FindResultsTableEntry>();
+                    entriesByParent.put(entry.getParentTxn(), entries);
+                    parents.add(entry.getParentTxn());
+                }
+                entries.add(entry);
+                ++rowCount;
+            }
+        }
+
+        final Result result = new Result(_dryRun, rowCount);
+        if (_dryRun)
+        {
+            for (final ParentTxn parent : parents)
+            {
+                previewParent(entriesByParent.get(parent), result);
+            }
+        }
+        else
+        {
+            for (int chunkStart = 0; chunkStart < parents.size(); chunkStart += _chunkSize)
+            {
+                final int chunkEnd = Math.min(chunkStart + _chunkSize, parents.size());
+                commitChunk(parents.subList(chunkStart, chunkEnd), entriesByParent, result);
+            }
+            if (result._changedParents > 0)
+            {
+                // one recalculation for the whole commit instead of one per transaction
+                _book.refreshAccountBalances();
+            }
+        }
+        result._elapsedMillis = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Private Methods
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    private void commitChunk(final List<ParentTxn> chunk,
+                             final Map<ParentTxn, List<FindResultsTableEntry>> entriesByParent,
+                             final Result result) throws IOException
+    {
+        suspendUpdates(true);
+        try
+        {
+            final TransactionSet txnSet = _book.getTransactionSet();
+            for (final ParentTxn parent : chunk)
+            {
+                final ReplaceJournal.TxnState before = (_journal == null) ? null : _journal.capture(parent);
+                boolean changed = false;
+                for (final FindResultsTableEntry entry : entriesByParent.get(parent))
+                {
+                    for (final ReplaceCommand command : _commands)
+                    {
+                        command.setTransactionEntry(entry);
+                        if (command.execute())
+                        {
+                            changed = true;
+                            ++result._changeCount;
+                        }
+                    }
+                }
+                if (changed)
+                {
+                    // this will notify the system of the modification, once per parent
+                    txnSet.txnModified(parent);
+                    ++result._changedParents;
+                    if (_journal != null)
+                    {
+                        _journal.record(before);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            suspendUpdates(false);
+        }
+    }
+
+    private void suspendUpdates(final boolean suspend)
+    {
+        if (_mdGui != null)
+        {
+            _mdGui.setSuspendRefresh(suspend);
+            _book.setRecalcBalances(!suspend);
+        }
+    }
+
+    private void previewParent(final List<FindResultsTableEntry> entries, final Result result)
+    {
+        boolean changed = false;
+        final ParentTxn parent = entries.get(0).getParentTxn();
+        for (final FindResultsTableEntry entry : entries)
+        {
+            final SplitTxn split = entry.getSplitTxn();
+            for (final ReplaceCommand command : _commands)
+            {
+                command.setTransactionEntry(entry);
+                final Account category = command.getPreviewCategory();
+                changed |= previewField(result, parent, L10NFindAndReplace.REPLACE_CAT_LABEL,
+                                        split.getAccount(), category);
+                changed |= previewField(result, parent, L10NFindAndReplace.REPLACE_AMOUNT_LABEL,
+                                        Long.valueOf(Math.abs(split.getAmount())),
+                                        getPreviewSplitAmount(command, split, category));
+                changed |= previewField(result, parent, L10NFindAndReplace.REPLACE_DESCRIPTION_LABEL,
+                                        split.getDescription(), command.getPreviewDescription(false));
+                changed |= previewField(result, parent, L10NFindAndReplace.REPLACE_TAGS_LABEL,
+                                        FarUtil.getTransactionTags(split, null), command.getPreviewTags());
+            }
+        }
+        // the memo and check number belong to the parent, so they are only counted once for it
+        for (final ReplaceCommand command : _commands)
+        {
+            command.setTransactionEntry(entries.get(0));
+            changed |= previewField(result, parent, L10NFindAndReplace.REPLACE_MEMO_LABEL,
+                                    parent.getMemo(), command.getPreviewMemo());
+            changed |= previewField(result, parent, L10NFindAndReplace.REPLACE_CHECK_LABEL,
+                                    parent.getCheckNumber(), command.getPreviewCheckNumber());
+        }
+        if (changed)
+        {
+            ++result._changedParents;
+        }
+    }
+
+    /**
+     * @return The amount the split would have after the command, in the split's currency the same
+     * way {@link ReplaceCommand#execute()} converts it, or <code>null</code> if it is not changed.
+     */
+    private static Long getPreviewSplitAmount(final ReplaceCommand command, final SplitTxn split,
+                                              final Account category)
+    {
+        final Long amount = command.getPreviewAmount();
+        if (amount == null)
+        {
+            return null;
+        }
+        final CurrencyType targetCurr = (category != null) ? category.getCurrencyType()
+                                                           : split.getAccount().getCurrencyType();
+        return Long.valueOf(Math.abs(CurrencyUtil.convertValue(amount.longValue(), command.getAmountCurrency(),
+                                                               targetCurr, split.getDateInt())));
+    }
+
+    private static boolean previewField(final Result result, final ParentTxn parent,
+                                        final String fieldKey, final Object before,
+                                        final Object after)
+    {
+        if ((after == null) || after.equals(before))
+        {
+            // the command leaves this field alone
+            return false;
+        }
+        ++result._changeCount;
+        result._diff.add(new Change(parent, fieldKey, before, after));
+        return true;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Inner Classes
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * One field that a dry run found would change.
+     */
+    static class Change
+    {
+        private final ParentTxn _parent;
+        private final String _fieldKey;
+        private final Object _before;
+        private final Object _after;
+
+        Change(final ParentTxn parent, final String fieldKey, final Object before, final Object after)
+        {
+            _parent = parent;
+            _fieldKey = fieldKey;
+            _before = before;
+            _after = after;
+        }
+
+        ParentTxn getParentTxn()
+        {
+            return _parent;
+        }
+
+        /** @return The resource key of the label for the field. */
+        String getFieldKey()
+        {
+            return _fieldKey;
+        }
+
+        Object getBefore()
+        {
+            return _before;
+        }
+
+        Object getAfter()
+        {
+            return _after;
+        }
+    }
+
+    /**
+     * Summary of a commit or dry run.
+     */
+    static class Result
+    {
+        private final boolean _dryRun;
+        private final int _rowCount;
+        private final List<Change> _diff = new ArrayList<Change>();
+        private int _changedParents = 0;
+        private int _changeCount = 0;
+        private long _elapsedMillis = 0;
+
+        Result(final boolean dryRun, final int rowCount)
+        {
+            _dryRun = dryRun;
+            _rowCount = rowCount;
+        }
+
+        boolean isDryRun()
+        {
+            return _dryRun;
+        }
+
+        /** @return The number of applied rows that were recorded or previewed. */
+        int getRowCount()
+        {
+            return _rowCount;
+        }
+
+        /** @return The number of parent transactions changed, or that would change. */
+        int getChangedParentCount()
+        {
+            return _changedParents;
+        }
+
+        /** @return The number of command applications that changed something. */
+        int getChangeCount()
+        {
+            return _changeCount;
+        }
+
+        /** @return The field changes found by a dry run, empty for a real commit. */
+        List<Change> getDiff()
+        {
+            return _diff;
+        }
+
+        long getElapsedMillis()
+        {
+            return _elapsedMillis;
+        }
+
+        /** @return Parent transactions processed per second. */
+        double getThroughput()
+        {
+            return (_changedParents * 1000.0) / Math.max(1L, _elapsedMillis);
+        }
+
+        @Override
+        public String toString()
+        {
+            return (_dryRun ? "Dry run of " : "Recorded ") + _rowCount + " rows, "
+                    + _changedParents + " transactions changed, " + _changeCount + " changes in "
+                    + _elapsedMillis + " ms (" + Math.round(getThroughput()) + " txns/sec)";
+        }
+    }
+}
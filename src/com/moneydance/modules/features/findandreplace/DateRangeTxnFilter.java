@@ -11,6 +11,8 @@ package com.moneydance.modules.features.findandreplace;
 import com.infinitekind.moneydance.model.AbstractTxn;
 import com.infinitekind.moneydance.model.DateRange;
 
+import java.util.BitSet;
+
 /**
  * <p>Filters transactions based upon whether they are within a specified date range.<p>
  *
@@ -21,6 +23,8 @@ import com.infinitekind.moneydance.model.DateRange;
 class DateRangeTxnFilter extends TransactionFilterBase implements ITransactionFilter
 {
     private final DateRange _dateRange;
+    private final int _minimum;
+    private final int _maximum;
     private final boolean _useTaxDate;
 
     DateRangeTxnFilter(final int minimum, final int maximum, final boolean useTaxDate,
@@ -30,6 +34,8 @@ class DateRangeTxnFilter extends TransactionFilterBase implements ITransactionFi
         int min = Math.min(minimum, maximum);
         int max = Math.max(minimum, maximum);
         _dateRange = new DateRange(min, max);
+        _minimum = min;
+        _maximum = max;
         _useTaxDate = useTaxDate;
     }
 
@@ -53,4 +59,15 @@ class DateRangeTxnFilter extends TransactionFilterBase implements ITransactionFi
         return false;
     }
 
-}
\ No newline at end of file
+    /**
+     * Look up the date range in the date-sorted column of the index.
+     *
+     * @param index The index of all transactions in the data file.
+     * @return The slots of the indexed transactions that match.
+     */
+    public BitSet getCandidateSlots(final TxnSearchIndex index)
+    {
+        return index.getDateSlots(_minimum, _maximum, _useTaxDate);
+    }
+
+}
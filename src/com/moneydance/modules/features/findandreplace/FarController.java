@@ -17,14 +17,18 @@ import com.moneydance.apps.md.view.gui.select.AddRemoveAccountDialog;
 
 import javax.swing.JOptionPane;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import java.awt.Cursor;
-import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
 import java.text.DecimalFormatSymbols;
 import java.awt.Image;
 import java.awt.Point;
-import java.util.Set;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>Controller for the plugin component for Find and Replace. This class brokers method calls
@@ -43,6 +47,12 @@ public class FarController implements IFindAndReplaceController
     private int _replaceViewIndex = -1;
     private final List<ReplaceCommand> _commands = new ArrayList<ReplaceCommand>();
 
+    // runs Find on a separate thread
+    private final ExecutorService _findExecutor = Executors.newFixedThreadPool(1);
+    // tests large numbers of transactions in parallel for the Find thread
+    private final ForkJoinPool _findPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private FindTask _currentFind = null;
+
     private String _initialFreeText = null;
     private String _dateRangeKey = null;
 
@@ -68,10 +78,33 @@ public class FarController implements IFindAndReplaceController
     public void loadData(final AccountBook data)
     {
         _model.setData( data );
+        final TxnSearchIndex index = _model.getSearchIndex();
+        if (index != null)
+        {
+            // index on the Find thread, so the dialog opens right away and a Find queues behind it
+            _findExecutor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    Thread.currentThread().setName(N12EFindAndReplace.FIND_THREAD_NAME);
+                    index.ensureBuilt();
+                }
+            });
+        }
     }
 
     public void cleanUp()
     {
+        discardFind();
+        try
+        {
+            _findExecutor.shutdownNow();
+            _findPool.shutdownNow();
+        }
+        catch (SecurityException ignore)
+        {
+            // do nothing
+        }
         cleanupView();
         _model.setData(null);
     }
@@ -121,6 +154,7 @@ public class FarController implements IFindAndReplaceController
                         N12EFindAndReplace.SETTINGS_DLG_SIZE_SETTING, sizeSetting);
             }
         }
+        discardFind();
         cleanupView();
         _host.cleanUp(this);
     }
@@ -133,74 +167,88 @@ public class FarController implements IFindAndReplaceController
             return;
         }
 
+        // only one search at a time
+        discardFind();
         FilterGroup filter = _model.buildTransactionFilter();
 
         // start with nothing
         _model.getFindResults().reset();
-
-        // run the filter
-        final int matched = filterTransactions(book, filter);
-        if (matched > 0)
-        {
-            _model.getFindResults().refresh();
-        }
-        else
-        {
-            _model.getFindResults().addBlankTransaction();
-        }
-        _model.tableUpdated();
+        _model.getFindResults().fireTableDataChanged();
 
         // reset for the replace operation
         setReplaceViewIndex(0);
         _commands.clear(); // currently only support one command at a time
         _view.getFindResultsTable().clearSelection();
-        _model.resetApply();
-        
+        _model.tableUpdated();
+
+        // run the filter in the background, results are added to the table as they are found
+        _currentFind = new FindTask(book, filter);
+        _view.setFindRunning(true);
+        _findExecutor.execute(_currentFind);
     } // find()
 
     /**
-     * Add all of the matching splits to the report set. When displayed, either the list of splits
-     * will be shown or the parents will be shown. Both lists are derived from the splits list, so
-     * we simply create the split list here.
-     *
-     * @param book The main data account
-     * @param filter      The search filter.
-     * @return The number of splits that matched
+     * Stop the current search. The matches found so far are still shown once it stops.
      */
-    private int filterTransactions(AccountBook book, FilterGroup filter)
+    void cancelFind()
     {
-        // build the list of transactions that match the criteria
-        Set<String> uniqueTxnIDs = new HashSet<String>();
-        final TransactionSet txnSet = book.getTransactionSet();
-        for(AbstractTxn txn : txnSet.iterableTxns())
+        if (_currentFind != null)
         {
-            // both parents and splits will be run through here
-            if (filter.containsTxn(txn))
+            _currentFind.cancel();
+            if (_view != null)
             {
-                // the report set should contain splits only, find any parents and add all of their splits
-                if (txn instanceof ParentTxn)
-                {
-                    for (int ii = txn.getOtherTxnCount() - 1; ii >= 0; ii--)
-                    {
-                        final SplitTxn split = (SplitTxn) txn.getOtherTxn(ii);
-                        final String key = split.getUUID();
-                        if (uniqueTxnIDs.contains(key)) continue;
-                        _model.getFindResults().add(split, false);
-                        uniqueTxnIDs.add(key);
-                    } // for ii
-                }
-                else
-                {
-                    // must be a split transaction, just add it
-                    final SplitTxn split = (SplitTxn) txn;
-                    final String key = split.getUUID();
-                    if (uniqueTxnIDs.contains(key)) continue;
-                    _model.getFindResults().add(split, false);
-                    uniqueTxnIDs.add(key);
-                }
+                _view.setFindRunning(false);
             }
         }
-        return uniqueTxnIDs.size();
+    }
+
+    /**
+     * Stop the current search and drop whatever it has not shown yet, because a new search
+     * replaces it or the window is closing.
+     */
+    private void discardFind()
+    {
+        cancelFind();
+        _currentFind = null;
+    }
+
+    boolean isFindRunning()
+    {
+        return (_currentFind != null) && !_currentFind.isCanceled();
+    }
+
+    /**
+     * Called on the Swing thread once a search has finished or was canceled.
+     * @param task      The search that finished.
+     * @param completed True if the search ran to completion.
+     */
+    private void findFinished(final FindTask task, final boolean completed)
+    {
+        if (_currentFind != task)
+        {
+            // superseded by a newer search
+            return;
+        }
+        _currentFind = null;
+        if (task.getMatchCount() > 0)
+        {
+            // sort the complete list
+            _model.getFindResults().refresh();
+        }
+        else
+        {
+            _model.getFindResults().addBlankTransaction();
+        }
+        _model.resetApply();
+        _model.tableUpdated();
+        if (_view != null)
+        {
+            _view.setFindRunning(false);
+        }
+        if (!completed)
+        {
+            Logger.log("Find was canceled after " + task.getMatchCount() + " matches");
+        }
     }
 
     public void replace()
@@ -280,59 +328,71 @@ public class FarController implements IFindAndReplaceController
         // save everything to the Moneydance file
         if (isDirty())
         {
-            final AccountBook root = _model.getData();
-            final MoneydanceGUI mdGui = getMDGUI();
-            if (mdGui != null)
-            {
-                mdGui.setSuspendRefresh(true);
-                root.setRecalcBalances(false);
-            }
+            runCommit(false);
+        }
+    } // commit()
 
-            boolean changed = false;
-            try
-            {
-                final FindResultsTableModel results = _model.getFindResults();
-                final int count = results.getRowCount();
-                _view.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
-                for (int rowIndex = 0; rowIndex < count; rowIndex++)
-                {
-                    final FindResultsTableEntry entry = results.getEntry(rowIndex);
-                    if (entry.isApplied() && entry.isUseInReplace())
-                    {
-                        for (final ReplaceCommand command : _commands)
-                        {
-                            command.setTransactionEntry(entry);
-                            if (command.execute())
-                            {
-                                changed = true;
-                                // this will notify the system of the modification
-                                root.getTransactionSet().txnModified( command.getParentTransaction() );
-                            }
-                        }
-                    } // if use this entry
-                } // for rowIndex
-
-                _view.setCursor(Cursor.getDefaultCursor());
-            } // try
-            catch (Exception error)
+    /**
+     * @return True if the most recent Record can be undone.
+     */
+    boolean canUndoCommit()
+    {
+        final ReplaceJournal journal = _model.getJournal();
+        return (journal != null) && journal.canUndo();
+    }
+
+    /**
+     * Put back the values changed by the most recent Record.
+     */
+    public void undoCommit()
+    {
+        final ReplaceJournal journal = _model.getJournal();
+        if (journal == null)
+        {
+            return;
+        }
+        _view.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try
+        {
+            final ReplaceJournal.UndoResult result = journal.undoLastBatch(_model.getData(), getMDGUI());
+            if (result != null)
             {
-                Logger.logError("Error replacing data with Find and Replace", error);
+                Logger.log(result.toString());
             }
-            finally
+        }
+        catch (Exception error)
+        {
+            Logger.logError("Error undoing Find and Replace", error);
+        }
+        finally
+        {
+            _view.setCursor(Cursor.getDefaultCursor());
+        }
+    }
+
+    /**
+     * Compute what {@link #commit()} would change without modifying the data file. The changes
+     * are written to the log and summarized in the dialog.
+     */
+    public void previewCommit()
+    {
+        if (isDirty())
+        {
+            final CommitPipeline.Result result = runCommit(true);
+            if (result != null)
             {
-                if (changed)
+                for (final CommitPipeline.Change change : result.getDiff())
                 {
-                    // flag to MoneyDance that the file has been modified
-                    if (mdGui != null)
-                    {
-                        mdGui.setSuspendRefresh(false);
-                    }
-                    root.setRecalcBalances(true);
-                    root.refreshAccountBalances();
+                    final ParentTxn parent = change.getParentTxn();
+                    Logger.log(parent.getDateInt() + N12EFindAndReplace.SPACE + parent.getDescription()
+                               + N12EFindAndReplace.COMMA_SEPARATOR
+                               + getString(change.getFieldKey()) + N12EFindAndReplace.SPACE
+                               + change.getBefore() + " -> " + change.getAfter());
                 }
-            } // finally
-        } // if dirty
-    } // commit()
+                _view.showCommitPreview(result.getChangedParentCount(), result.getChangeCount());
+            }
+        }
+    }
 
     public void reset()
     {
@@ -1033,6 +1093,58 @@ public class FarController implements IFindAndReplaceController
     // Private Methods
     ///////////////////////////////////////////////////////////////////////////////////////////////
 
+    private CommitPipeline.Result runCommit(final boolean dryRun)
+    {
+        final CommitPipeline pipeline = new CommitPipeline(_model.getData(), getMDGUI(),
+                                                           _commands, dryRun);
+        final ReplaceJournal.BatchWriter journal = dryRun ? null : openJournal();
+        pipeline.setJournal(journal);
+        CommitPipeline.Result result = null;
+        _view.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try
+        {
+            result = pipeline.run(_model.getFindResults());
+            if (journal != null)
+            {
+                journal.close();
+            }
+            Logger.log(result.toString());
+        }
+        catch (Exception error)
+        {
+            Logger.logError("Error replacing data with Find and Replace", error);
+        }
+        finally
+        {
+            if (journal != null)
+            {
+                // only a completed Record can be undone
+                journal.abandon();
+            }
+            _view.setCursor(Cursor.getDefaultCursor());
+        }
+        return result;
+    }
+
+    private ReplaceJournal.BatchWriter openJournal()
+    {
+        final ReplaceJournal journal = _model.getJournal();
+        if (journal == null)
+        {
+            return null;
+        }
+        try
+        {
+            return journal.beginBatch();
+        }
+        catch (IOException error)
+        {
+            // still allow the changes, they just can't be undone
+            Logger.logError("Unable to write the Find and Replace undo journal", error);
+            return null;
+        }
+    }
+
     private void createView()
     {
         if (_view == null)
@@ -1113,4 +1225,145 @@ public class FarController implements IFindAndReplaceController
         }
         return result;
     }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Inner Classes
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Runs the filter on the Find thread and hands the matches over to the results table in
+     * batches, so the first rows show up right away and the dialog stays responsive.
+     */
+    private class FindTask implements Runnable, FilterGroup.MatchHandler
+    {
+        private final AccountBook _book;
+        private final FilterGroup _filter;
+        private final AtomicBoolean _canceled = new AtomicBoolean(false);
+
+        // only touched by the Find thread
+        private final MatchedSplits _found = new MatchedSplits();
+        private long _lastFlush = 0;
+
+        FindTask(final AccountBook book, final FilterGroup filter)
+        {
+            _book = book;
+            _filter = filter;
+        }
+
+        void cancel()
+        {
+            _canceled.set(true);
+        }
+
+        boolean isCanceled()
+        {
+            return _canceled.get();
+        }
+
+        int getMatchCount()
+        {
+            return _found.getCount();
+        }
+
+        public void run()
+        {
+            Thread.currentThread().setName(N12EFindAndReplace.FIND_THREAD_NAME);
+            boolean completed = false;
+            try
+            {
+                final TxnSearchIndex index = _model.getSearchIndex();
+                if ((index != null) && (index.getBook() == _book))
+                {
+                    completed = _filter.findMatches(index, this, _findPool);
+                }
+                else
+                {
+                    completed = filterTransactions();
+                }
+            }
+            catch (Exception error)
+            {
+                Logger.logError("Error searching with Find and Replace", error);
+            }
+            flush();
+
+            final boolean done = completed;
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    findFinished(FindTask.this, done);
+                }
+            });
+        }
+
+        /**
+         * Add all of the matching splits to the report set. When displayed, either the list of
+         * splits will be shown or the parents will be shown. Both lists are derived from the
+         * splits list, so we simply collect splits here.
+         *
+         * @param txn A parent or split that matched the filter.
+         * @return True to keep searching, false if the search was canceled.
+         */
+        public boolean matched(final AbstractTxn txn)
+        {
+            if (_canceled.get())
+            {
+                return false;
+            }
+            _found.add(txn);
+
+            if ((_found.getPendingCount() >= N12EFindAndReplace.FIND_BATCH_ROWS) ||
+                (System.currentTimeMillis() - _lastFlush >= N12EFindAndReplace.FIND_BATCH_MILLIS))
+            {
+                flush();
+            }
+            return !_canceled.get();
+        }
+
+        /**
+         * Fallback when there is no index: run every transaction through the filter.
+         * @return True if the search ran to completion.
+         */
+        private boolean filterTransactions()
+        {
+            for (AbstractTxn txn : _book.getTransactionSet().iterableTxns())
+            {
+                // both parents and splits will be run through here
+                if (_filter.containsTxn(txn) && !matched(txn))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void flush()
+        {
+            _lastFlush = System.currentTimeMillis();
+            if (_found.getPendingCount() == 0)
+            {
+                return;
+            }
+            final List<SplitTxn> batch = _found.takePending();
+            final int matchCount = _found.getCount();
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    if (_currentFind != FindTask.this)
+                    {
+                        // superseded by a newer search, drop the batch
+                        return;
+                    }
+                    _model.getFindResults().addBatch(batch);
+                    _model.tableUpdated();
+                    if (_view != null)
+                    {
+                        _view.showFindProgress(matchCount);
+                    }
+                }
+            });
+        }
+    }
 }
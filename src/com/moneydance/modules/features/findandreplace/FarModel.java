@@ -31,6 +31,8 @@ import java.util.*;
 class FarModel extends BasePropertyChangeReporter
 {
     private AccountBook _data;
+    private TxnSearchIndex _searchIndex;
+    private ReplaceJournal _journal;
     private FindResultsTableModel _findResultsModel;
     private boolean _allowEvents = true;
     
@@ -149,6 +151,16 @@ class FarModel extends BasePropertyChangeReporter
 
         // create the full category list, including sub-categories
         loadCategoryFilter();
+
+        // one index per file, built off the event thread by the controller and kept current
+        // through transaction events
+        if ((_searchIndex == null) || (_searchIndex.getBook() != _data))
+        {
+            releaseSearchIndex();
+            _searchIndex = new TxnSearchIndex(_data);
+            _searchIndex.attach();
+            _journal = ReplaceJournal.forBook(_data);
+        }
         
         // to display user-defined tags, we have to have the list
         List<String> allTxnTags = TxnUtil.getListOfAllUsedTransactionTags(_data.getTransactionSet().getAllTxns());
@@ -167,6 +179,19 @@ class FarModel extends BasePropertyChangeReporter
     {
         return _data;
     }
+
+    TxnSearchIndex getSearchIndex()
+    {
+        return _searchIndex;
+    }
+
+    /**
+     * @return The undo journal for the current data file, or <code>null</code> if none is loaded.
+     */
+    ReplaceJournal getJournal()
+    {
+        return _journal;
+    }
     
     void setAllowEvents(final boolean allow)
     {
@@ -578,7 +603,8 @@ class FarModel extends BasePropertyChangeReporter
         {
             result.addFilter(new FreeTextTxnFilter(_freeTextMatch, _freeTextSearchDescription,
                     _freeTextSearchMemo, _freeTextSearchCheck,
-                    _freeTextIncludeSplits, !_combineOr));
+                    _freeTextIncludeSplits, !_combineOr,
+                    (_searchIndex == null) ? null : _searchIndex.getTextCache()));
         }
         if (_useTagsFilter)
         {
@@ -1272,11 +1298,22 @@ class FarModel extends BasePropertyChangeReporter
         }
     }
 
+    private void releaseSearchIndex()
+    {
+        if (_searchIndex != null)
+        {
+            _searchIndex.detach();
+            _searchIndex = null;
+        }
+    }
+
     /**
      * Explicitly release memory for things other than the root data file
      */
     private void cleanUp()
     {
+        releaseSearchIndex();
+        _journal = null;
         _fullAccountList = null;
         _accountFilter.setFullList(null);
         _fullCategoryList = null;
@@ -142,6 +142,8 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
     private JButton _replaceButton;
     private JButton _replaceAllButton;
     private JButton _recordButton;
+    private JButton _previewButton;
+    private JButton _undoButton;
     private JButton _closeButton;
     private JButton _resetButton;
     private JButton _markAllButton;
@@ -600,11 +602,14 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
         if (_controller.isDirty())
         {
             _recordButton.setEnabled(true);
+            _previewButton.setEnabled(true);
         }
         else
         {
             _recordButton.setEnabled(false);
+            _previewButton.setEnabled(false);
         }
+        _undoButton.setEnabled(_controller.canUndoCommit());
 
     } // propertyChange()
 
@@ -623,6 +628,50 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
         }
     }
 
+    /**
+     * Switch the dialog between searching and idle. While a search runs the Find button becomes
+     * a Cancel button and the replace buttons are disabled.
+     * @param running True if a search is running.
+     */
+    void setFindRunning(final boolean running)
+    {
+        _findButton.setText(_controller.getString(running ? L10NFindAndReplace.CANCEL
+                                                          : L10NFindAndReplace.FIND_BUTTON_TEXT));
+        _replaceButton.setEnabled(!running);
+        _replaceAllButton.setEnabled(!running);
+        if (running)
+        {
+            _recordButton.setEnabled(false);
+            _previewButton.setEnabled(false);
+            _undoButton.setEnabled(false);
+            showFindProgress(0);
+        }
+        else
+        {
+            _recordButton.setEnabled(_controller.isDirty());
+            _previewButton.setEnabled(_controller.isDirty());
+            _undoButton.setEnabled(_controller.canUndoCommit());
+            clearProgressText();
+        }
+    }
+
+    void showFindProgress(final int matchCount)
+    {
+        final String format = _controller.getString(L10NFindAndReplace.FINDING_PROGRESS_FMT);
+        _statusLabel.setText(MessageFormat.format(format, Integer.valueOf(matchCount)));
+        _statusLabel.setFont(_resetButton.getFont());
+        _statusLabel.setEnabled(true);
+    }
+
+    void showCommitPreview(final int transactionCount, final int changeCount)
+    {
+        final String format = _controller.getString(L10NFindAndReplace.COMMIT_PREVIEW_FMT);
+        _statusLabel.setText(MessageFormat.format(format, Integer.valueOf(transactionCount),
+                                                  Integer.valueOf(changeCount)));
+        _statusLabel.setFont(_resetButton.getFont());
+        _statusLabel.setEnabled(true);
+    }
+
     void fireFind()
     {
         SwingUtilities.invokeLater(new Runnable()
@@ -775,13 +824,16 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
         {
             public void actionPerformed(final ActionEvent event)
             {
-                final Cursor current = getCursor();
-                setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+                if (_controller.isFindRunning())
+                {
+                    // the button reads Cancel while a search is running
+                    _controller.cancelFind();
+                    return;
+                }
                 if (saveFindEdits())
                 {
                     _controller.find();
                 }
-                setCursor(current);
             }
         });
 
@@ -805,7 +857,7 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
         {
             public void actionPerformed(final ActionEvent event)
             {
-                setProgressText();
+                setProgressText(L10NFindAndReplace.REPLACING_PROGRESS);
                 saveReplaceEdits();
                 _controller.replaceAll();
                 clearProgressText();
@@ -826,11 +878,37 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
         {
             public void actionPerformed(final ActionEvent event)
             {
-                setProgressText();
+                setProgressText(L10NFindAndReplace.REPLACING_PROGRESS);
                 _controller.commit();
+                clearProgressText();
                 // clear the results and run find again to revert colors
                 _controller.find();
+            }
+        });
+
+        _previewButton = createButton(L10NFindAndReplace.PREVIEW_RECORD_BUTTON_TEXT, null, false);
+        _previewButton.setToolTipText(_controller.getString(L10NFindAndReplace.PREVIEW_RECORD_BUTTON_TIP));
+        _previewButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(final ActionEvent event)
+            {
+                // dry run, the results stay as they are so the user can still record them
+                _controller.previewCommit();
+            }
+        });
+
+        _undoButton = createButton(L10NFindAndReplace.UNDO_RECORD_BUTTON_TEXT, null, false);
+        _undoButton.setToolTipText(_controller.getString(L10NFindAndReplace.UNDO_RECORD_BUTTON_TIP));
+        _undoButton.setEnabled(_controller.canUndoCommit());
+        _undoButton.addActionListener(new ActionListener()
+        {
+            public void actionPerformed(final ActionEvent event)
+            {
+                setProgressText(L10NFindAndReplace.UNDOING_PROGRESS);
+                _controller.undoCommit();
                 clearProgressText();
+                // clear the results and run find again to show the restored values
+                _controller.find();
             }
         });
 
@@ -1994,9 +2072,11 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
 
     private JPanel createLowerRightButtonPanel()
     {
-        final JPanel buttons = new JPanel( new GridLayout( 1, 3, UiUtil.HGAP, 0 ) );
+        final JPanel buttons = new JPanel( new GridLayout( 1, 5, UiUtil.HGAP, 0 ) );
 
         buttons.add( _resetButton );
+        buttons.add( _undoButton );
+        buttons.add( _previewButton );
         buttons.add( _recordButton );
         buttons.add( _closeButton );
 
@@ -2026,9 +2106,9 @@ class FarView extends SecondaryFrame implements PropertyChangeListener
         return buttons;
     }
 
-    private void setProgressText()
+    private void setProgressText(final String progressKey)
     {
-        _statusLabel.setText(_controller.getString(L10NFindAndReplace.REPLACING_PROGRESS));
+        _statusLabel.setText(_controller.getString(progressKey));
         _statusLabel.setFont(_resetButton.getFont());
         _statusLabel.setEnabled(true);
         // since we're on the EDT we want to force an immediate repaint
@@ -6,9 +6,16 @@
 package com.moneydance.modules.features.findandreplace;
 
 import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.SplitTxn;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <p>Runs transactions through a list of filters. This is where the boolean AND and OR criteria
@@ -119,6 +126,171 @@ class FilterGroup implements ITransactionFilter
         return false;
     } // checkOptionalFilters()
 
+    /**
+     * Run the filters against the search index instead of testing every transaction in turn.
+     * Matches are handed over in index order as they are found, so the caller can show them
+     * before the search is done. Transactions added or modified since the index was built are
+     * still tested one at a time.
+     *
+     * <p>If a pool is given and many transactions need testing one at a time, the slots are split
+     * into chunks that are tested in parallel. Each worker collects its matches as splits, and the
+     * chunks are handed over in slot order so the rows come out the same as a serial search.</p>
+     * @param index   The index of all transactions in the data file.
+     * @param handler Receives each matching transaction. A serial search hands over parents and
+     *                splits, a parallel search hands over the splits of each match.
+     * @param pool    Pool to test chunks of transactions in parallel, or <code>null</code> to
+     *                search on the calling thread only.
+     * @return False if the handler stopped the search early, true if it ran to completion.
+     */
+    boolean findMatches(final TxnSearchIndex index, final MatchHandler handler,
+                        final ForkJoinPool pool)
+    {
+        if (_filterList.isEmpty())
+        {
+            // nothing to do
+            return true;
+        }
+
+        final List<ITransactionFilter> unindexed = new ArrayList<ITransactionFilter>();
+        final BitSet known;
+        final BitSet stale;
+        final BitSet toVisit;
+        final AbstractTxn[] txns;
+        synchronized (index)
+        {
+            index.ensureCurrent();
+            txns = index.copyTxns();
+            known = getIndexedMatches(index, unindexed);
+            stale = index.getStaleSlots();
+            toVisit = (BitSet)known.clone();
+            toVisit.or(stale);
+            if (!_hasRequiredFilters && !unindexed.isEmpty())
+            {
+                // anything indexed could still match on one of the other filters
+                toVisit.or(index.getIndexedSlots());
+            }
+        }
+
+        // transaction events change the index from here on, so only the copies taken above are used
+        final SlotMatcher matcher = new SlotMatcher(txns, known, stale, unindexed);
+        if ((pool != null) && !unindexed.isEmpty() &&
+            (toVisit.cardinality() >= N12EFindAndReplace.PARALLEL_FIND_THRESHOLD))
+        {
+            return findMatchesParallel(matcher, toVisit, handler, pool);
+        }
+
+        for (int slot = toVisit.nextSetBit(0); slot >= 0; slot = toVisit.nextSetBit(slot + 1))
+        {
+            final AbstractTxn txn = matcher.getMatch(slot);
+            if ((txn != null) && !handler.matched(txn))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean findMatchesParallel(final SlotMatcher matcher, final BitSet toVisit,
+                                        final MatchHandler handler, final ForkJoinPool pool)
+    {
+        final int[] slots = new int[toVisit.cardinality()];
+        int count = 0;
+        for (int slot = toVisit.nextSetBit(0); slot >= 0; slot = toVisit.nextSetBit(slot + 1))
+        {
+            slots[count++] = slot;
+        }
+
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        final List<ChunkTask> chunks = new ArrayList<ChunkTask>();
+        for (int start = 0; start < count; start += N12EFindAndReplace.PARALLEL_FIND_CHUNK)
+        {
+            final int end = Math.min(start + N12EFindAndReplace.PARALLEL_FIND_CHUNK, count);
+            final ChunkTask chunk = new ChunkTask(matcher, slots, start, end, stopped);
+            chunks.add(chunk);
+            pool.execute(chunk);
+        }
+
+        // merge in chunk order, which is slot order, regardless of which worker finished first
+        for (final ChunkTask chunk : chunks)
+        {
+            if (!stopped.get())
+            {
+                for (final SplitTxn split : chunk.join())
+                {
+                    if (!handler.matched(split))
+                    {
+                        stopped.set(true);
+                        break;
+                    }
+                }
+            }
+            if (stopped.get())
+            {
+                chunk.cancel(false);
+            }
+        }
+        return !stopped.get();
+    }
+
+    /**
+     * Combine the bitmaps of the filters that can use the index.
+     * @param index     The index of all transactions in the data file.
+     * @param unindexed Filled with the filters that have to be tested one transaction at a time.
+     * @return The slots that match all (AND) or any (OR) of the indexed filters.
+     */
+    private BitSet getIndexedMatches(final TxnSearchIndex index,
+                                     final List<ITransactionFilter> unindexed)
+    {
+        if (_filterList.isEmpty())
+        {
+            return new BitSet();
+        }
+
+        // required filters dominate
+        final boolean required = _hasRequiredFilters;
+        final BitSet matches = required ? index.getIndexedSlots() : new BitSet();
+        for (final ITransactionFilter filter : _filterList)
+        {
+            if (filter.isRequired() != required)
+            {
+                continue;
+            }
+            final BitSet candidates = (filter instanceof IIndexedTxnFilter)
+                                      ? ((IIndexedTxnFilter)filter).getCandidateSlots(index) : null;
+            if (candidates == null)
+            {
+                unindexed.add(filter);
+            }
+            else if (required)
+            {
+                matches.and(candidates);
+            }
+            else
+            {
+                matches.or(candidates);
+            }
+        }
+        if (!required)
+        {
+            matches.and(index.getIndexedSlots());
+        }
+        return matches;
+    } // getIndexedMatches()
+
+    private static boolean checkUnindexed(final List<ITransactionFilter> unindexed,
+                                          final AbstractTxn txn, final boolean required)
+    {
+        for (final ITransactionFilter filter : unindexed)
+        {
+            if (filter.containsTxn(txn) != required)
+            {
+                // a required filter failed, or an optional one matched
+                return !required;
+            }
+        }
+        return required;
+    }
+
     /**
      * @return True if this filter must be met in order for the transaction to match, or false
      * if other filters can be tested if this one fails.
@@ -129,4 +301,102 @@ class FilterGroup implements ITransactionFilter
         return false;
     }
 
+    /**
+     * Receives the matching transactions as a search over the index runs.
+     */
+    interface MatchHandler
+    {
+        /**
+         * @param txn A transaction that matches the filters, either a parent or a split.
+         * @return True to continue searching, false to stop.
+         */
+        boolean matched(AbstractTxn txn);
+    }
+
+    /**
+     * Decides whether an individual slot matches, given the bitmaps and slot transactions copied
+     * from the index up front. Only reads its own copies, so one instance is used by all workers
+     * of a parallel search while transaction events keep updating the index.
+     */
+    private class SlotMatcher
+    {
+        private final AbstractTxn[] _txns;
+        private final BitSet _known;
+        private final BitSet _stale;
+        private final List<ITransactionFilter> _unindexed;
+
+        SlotMatcher(final AbstractTxn[] txns, final BitSet known, final BitSet stale,
+                    final List<ITransactionFilter> unindexed)
+        {
+            _txns = txns;
+            _known = known;
+            _stale = stale;
+            _unindexed = unindexed;
+        }
+
+        /**
+         * @param slot The slot to test.
+         * @return The transaction in the slot if it matches, or <code>null</code> if it does not.
+         */
+        AbstractTxn getMatch(final int slot)
+        {
+            final AbstractTxn txn = _txns[slot];
+            if (txn == null)
+            {
+                // removed before the search started
+                return null;
+            }
+            final boolean matches;
+            if (_stale.get(slot))
+            {
+                matches = TxnSearchIndex.isAttached(txn) && containsTxn(txn);
+            }
+            else if (_hasRequiredFilters)
+            {
+                matches = checkUnindexed(_unindexed, txn, true);
+            }
+            else
+            {
+                matches = _known.get(slot) || checkUnindexed(_unindexed, txn, false);
+            }
+            return matches ? txn : null;
+        }
+    }
+
+    /**
+     * Tests one chunk of slots on a worker thread, collecting the matches into its own buffer.
+     */
+    private static class ChunkTask extends RecursiveTask<List<SplitTxn>>
+    {
+        private final SlotMatcher _matcher;
+        private final int[] _slots;
+        private final int _start;
+        private final int _end;
+        private final AtomicBoolean _stopped;
+
+        ChunkTask(final SlotMatcher matcher, final int[] slots, final int start, final int end,
+                  final AtomicBoolean stopped)
+        {
+            _matcher = matcher;
+            _slots = slots;
+            _start = start;
+            _end = end;
+            _stopped = stopped;
+        }
+
+        @Override
+        protected List<SplitTxn> compute()
+        {
+            final MatchedSplits result = new MatchedSplits();
+            for (int index = _start; (index < _end) && !_stopped.get(); index++)
+            {
+                final AbstractTxn txn = _matcher.getMatch(_slots[index]);
+                if (txn != null)
+                {
+                    result.add(txn);
+                }
+            }
+            return result.takePending();
+        }
+    }
 }
@@ -57,6 +57,8 @@ public class FindResultsTableModel extends AbstractTableModel
     private final List<FindResultsTableEntry> _splitData;
     /** Display data. Can be the full splits data or could be just one entry per parent. */
     private final List<FindResultsTableEntry> _data;
+    /** Parents already shown while results are streamed in with consolidated splits. */
+    private final Set<String> _streamedParentIDs;
     private final List<String> _columns;
 
     private final IFindAndReplaceController _controller;
@@ -78,6 +80,7 @@ public class FindResultsTableModel extends AbstractTableModel
         super();
         _splitData = new ArrayList<FindResultsTableEntry>();
         _data = new ArrayList<FindResultsTableEntry>();
+        _streamedParentIDs = new HashSet<String>();
         _columns = new ArrayList<String>();
         _controller = controller;
 
@@ -161,6 +164,7 @@ public class FindResultsTableModel extends AbstractTableModel
     {
         _data.clear();
         _splitData.clear();
+        _streamedParentIDs.clear();
     }
     
     private ParentTxn blankTxn = null;
@@ -216,6 +220,31 @@ public class FindResultsTableModel extends AbstractTableModel
         }
     }
 
+    /**
+     * Append a batch of results while a search is still running. Rows show in the order they were
+     * found until {@link #refresh()} sorts the complete list.
+     * @param splits The matching splits.
+     */
+    void addBatch(final List<SplitTxn> splits)
+    {
+        final int firstRow = _data.size();
+        final boolean showParents = _controller.getShowParents();
+        for (final SplitTxn split : splits)
+        {
+            final FindResultsTableEntry entry = new FindResultsTableEntry(split, _controller.getCurrencyType());
+            _splitData.add(entry);
+            if (!showParents || _streamedParentIDs.add(entry.getParentTxn().getUUID()))
+            {
+                _data.add(entry);
+            }
+        }
+        final int lastRow = _data.size() - 1;
+        if (lastRow >= firstRow)
+        {
+            fireTableRowsInserted(firstRow, lastRow);
+        }
+    }
+
     String getToolTipText(final int rowIndex)
     {
         final FindResultsTableEntry entry = _data.get(rowIndex);
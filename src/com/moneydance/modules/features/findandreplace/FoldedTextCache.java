@@ -0,0 +1,113 @@
+/*************************************************************************\
+* Copyright (C) 2009-2015 Mennē Software Solutions, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.findandreplace;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * <p>Case folded description, memo and check number of each transaction that has been searched,
+ * so repeated case insensitive searches do not fold the same text over and over. Entries are
+ * keyed by transaction identity and dropped by {@link TxnSearchIndex} whenever the transaction
+ * is modified or removed.</p>
+ *
+ * <p>The cache is split into stripes so that the parallel find chunks rarely wait on each
+ * other. Text is folded outside the stripe's lock, so each stripe counts its invalidations and
+ * folded text is only stored if none happened while it was being folded.</p>
+ *
+ * @version Build 95
+ * @since Build 95
+ */
+class FoldedTextCache
+{
+    static final int DESCRIPTION = 0;
+    static final int MEMO = 1;
+    static final int CHECK_NUMBER = 2;
+
+    private static final int STRIPE_COUNT = 16;
+
+    private final Map<AbstractTxn, String[]>[] _stripes;
+    /** Number of invalidations of each stripe, guarded by the stripe. */
+    private final int[] _generations = new int[STRIPE_COUNT];
+
+    @SuppressWarnings("unchecked")
+    FoldedTextCache()
+    {
+        _stripes = new Map[STRIPE_COUNT];
+        for (int index = 0; index < STRIPE_COUNT; index++)
+        {
+            _stripes[index] = new IdentityHashMap<AbstractTxn, String[]>();
+        }
+    }
+
+    /**
+     * @param txn   The transaction to get text for.
+     * @param field One of {@link #DESCRIPTION}, {@link #MEMO} or {@link #CHECK_NUMBER}.
+     * @return The folded text of the field, which may be <code>null</code>.
+     */
+    String getFolded(final AbstractTxn txn, final int field)
+    {
+        final int stripeIndex = stripeFor(txn);
+        final Map<AbstractTxn, String[]> stripe = _stripes[stripeIndex];
+        String[] fields;
+        final int generation;
+        synchronized (stripe)
+        {
+            fields = stripe.get(txn);
+            generation = _generations[stripeIndex];
+        }
+        if (fields == null)
+        {
+            fields = new String[] { TextMatcher.fold(txn.getDescription()),
+                                    TextMatcher.fold(FarUtil.getTransactionMemo(txn)),
+                                    TextMatcher.fold(FarUtil.getTransactionCheckNo(txn)) };
+            synchronized (stripe)
+            {
+                // if the transaction changed while folding, the text may be old, so don't keep it
+                if (_generations[stripeIndex] == generation)
+                {
+                    stripe.put(txn, fields);
+                }
+            }
+        }
+        return fields[field];
+    }
+
+    void invalidate(final AbstractTxn txn)
+    {
+        final int stripeIndex = stripeFor(txn);
+        final Map<AbstractTxn, String[]> stripe = _stripes[stripeIndex];
+        synchronized (stripe)
+        {
+            stripe.remove(txn);
+            ++_generations[stripeIndex];
+        }
+    }
+
+    void clear()
+    {
+        for (int stripeIndex = 0; stripeIndex < STRIPE_COUNT; stripeIndex++)
+        {
+            final Map<AbstractTxn, String[]> stripe = _stripes[stripeIndex];
+            synchronized (stripe)
+            {
+                stripe.clear();
+                ++_generations[stripeIndex];
+            }
+        }
+    }
+
+    private static int stripeFor(final AbstractTxn txn)
+    {
+        final int hash = System.identityHashCode(txn);
+        return (hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1);
+    }
+}
@@ -12,13 +12,11 @@ import com.infinitekind.moneydance.model.AbstractTxn;
 import com.infinitekind.moneydance.model.SplitTxn;
 import com.infinitekind.moneydance.model.ParentTxn;
 
-import java.util.regex.Pattern;
-
 /**
  * <p>Filter to find text in the description, memo or check # fields.</p>
  *
  * @author Kevin Menningen
- * @version Build 94
+ * @version Build 95
  * @since 1.0
  */
 class FreeTextTxnFilter extends TransactionFilterBase implements ITransactionFilter
@@ -27,11 +25,13 @@ class FreeTextTxnFilter extends TransactionFilterBase implements ITransactionFil
     private final boolean _searchMemo;
     private final boolean _searchCheck;
     private final boolean _includeSplits;
-    private final Pattern _pattern;
+    private final TextMatcher _matcher;
+    private final FoldedTextCache _textCache;
 
     FreeTextTxnFilter(final String textMatch, final boolean searchDescription,
                       final boolean searchMemo,  final boolean searchCheck,
-                      final boolean includeSplits, final boolean required)
+                      final boolean includeSplits, final boolean required,
+                      final FoldedTextCache textCache)
     {
         super(required);
 
@@ -39,8 +39,9 @@ class FreeTextTxnFilter extends TransactionFilterBase implements ITransactionFil
         _searchMemo = searchMemo;
         _searchCheck = searchCheck;
         _includeSplits = includeSplits;
-        boolean isBlank = "=".equals(textMatch) || FarUtil.isBlank(textMatch);
-        _pattern = isBlank ? null : FarUtil.buildFindPattern(textMatch);
+        _matcher = TextMatcher.compile(textMatch);
+        // folded text is only useful to a case insensitive search
+        _textCache = ((_matcher != null) && _matcher.isIgnoreCase()) ? textCache : null;
     }
 
     /**
@@ -72,21 +73,43 @@ class FreeTextTxnFilter extends TransactionFilterBase implements ITransactionFil
         boolean result = false;
         if (_searchDescription)
         {
-            final String description = txn.getDescription();
-            result = FarUtil.isStringMatch(_pattern, description);
+            final String description = getText(txn, FoldedTextCache.DESCRIPTION);
+            result = TextMatcher.isStringMatch(_matcher, description);
         }
         if (!result && _searchMemo)
         {
             // memo text is only in parent transactions, splits only have descriptions not memos
-            final String memo = FarUtil.getTransactionMemo(txn);
-            result = FarUtil.isStringMatch(_pattern, memo);
+            final String memo = getText(txn, FoldedTextCache.MEMO);
+            result = TextMatcher.isStringMatch(_matcher, memo);
         }
         if (!result && _searchCheck)
         {
-            final String checkNumber = FarUtil.getTransactionCheckNo(txn);
-            result = FarUtil.isStringMatch(_pattern, checkNumber);
+            final String checkNumber = getText(txn, FoldedTextCache.CHECK_NUMBER);
+            result = TextMatcher.isStringMatch(_matcher, checkNumber);
         }
 
         return result;
     }
-}
\ No newline at end of file
+
+    private String getText(final AbstractTxn txn, final int field)
+    {
+        if (_textCache != null)
+        {
+            return _textCache.getFolded(txn, field);
+        }
+        final String text;
+        switch (field)
+        {
+            case FoldedTextCache.DESCRIPTION :
+                text = txn.getDescription();
+                break;
+            case FoldedTextCache.MEMO :
+                text = FarUtil.getTransactionMemo(txn);
+                break;
+            default :
+                text = FarUtil.getTransactionCheckNo(txn);
+                break;
+        }
+        return ((_matcher != null) && _matcher.isIgnoreCase()) ? TextMatcher.fold(text) : text;
+    }
+}
\ No newline at end of file
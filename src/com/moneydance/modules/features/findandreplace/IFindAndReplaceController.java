@@ -37,6 +37,8 @@ public interface IFindAndReplaceController extends IResourceProvider
     void replace();
     void replaceAll();
     void commit();
+    void previewCommit();
+    void undoCommit();
     void reset();
     void updateRow(int modelIndex);
     void cleanUp();
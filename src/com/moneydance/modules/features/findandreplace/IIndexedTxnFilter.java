@@ -0,0 +1,29 @@
+/*************************************************************************\
+* Copyright (C) 2009-2015 Mennē Software Solutions, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.findandreplace;
+
+import java.util.BitSet;
+
+/**
+ * <p>A filter that may be able to answer its criterion from the {@link TxnSearchIndex}. Kept
+ * apart from {@link ITransactionFilter} because the index is internal to this package.</p>
+ *
+ * @version Build 95
+ * @since Build 95
+ */
+interface IIndexedTxnFilter extends ITransactionFilter
+{
+    /**
+     * Answer the filter's criterion from the search index instead of one transaction at a time.
+     * @param index The index of all transactions in the data file.
+     * @return The slots of the indexed transactions that match, or <code>null</code> if this
+     * filter can only be tested with {@link #containsTxn}.
+     */
+    BitSet getCandidateSlots(TxnSearchIndex index);
+}
@@ -92,6 +92,11 @@ class L10NFindAndReplace
     public static final String REPLACE_CHECK_LABEL = "txn_checknum"; //  = Check#:
     public static final String REPLACE_CHECK_MNC = "replaceCheckLabel.mnemonic"; //  = K
     public static final String REPLACING_PROGRESS = "replaceProgress.text"; // Replacing ...
+    public static final String UNDOING_PROGRESS = "undoProgress.text"; // Undoing ...
+    /** 0 = number of transactions found so far. */
+    public static final String FINDING_PROGRESS_FMT = "findProgress.format"; // Searching ... {0} found
+    /** 0 = number of transactions that would change, 1 = number of changes. */
+    public static final String COMMIT_PREVIEW_FMT = "commitPreview.format"; // Preview: {0} transactions, {1} changes
     public static final String REPLACE_FOUND_TEXT_ONLY = "replaceOnlyFound"; // Found text only
     public static final String CONSOLIDATE_SPLITS = "showParents.text"; // Consolidate splits
     public static final String CONSOLIDATE_SPLITS_TIP = "showParents.toolTip";
@@ -170,6 +175,10 @@ class L10NFindAndReplace
     public static final String SPLIT_1 = "split_label1"; // -
     public static final String SPLIT_2 = "split_label2"; // splits -
     public static final String RECORD_BUTTON_TEXT = "record_txn";
+    public static final String PREVIEW_RECORD_BUTTON_TEXT = "previewRecord.text"; // Preview
+    public static final String PREVIEW_RECORD_BUTTON_TIP = "previewRecord.toolTip";
+    public static final String UNDO_RECORD_BUTTON_TEXT = "undoRecord.text"; // Undo Record
+    public static final String UNDO_RECORD_BUTTON_TIP = "undoRecord.toolTip";
     public static final String FIND_BOOL_AND = "srch_op_intersect"; // = And (Intersection)
     public static final String FIND_BOOL_OR = "srch_op_union"; // = Or (Union)
     public static final String FIND_BETWEEN = "srch_range0"; // = Between
@@ -0,0 +1,86 @@
+/*************************************************************************\
+* Copyright (C) 2009-2015 Mennē Software Solutions, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.findandreplace;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.ParentTxn;
+import com.infinitekind.moneydance.model.SplitTxn;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Collects the splits for the results table from matching transactions. The report set
+ * contains splits only, so a matching parent contributes all of its splits. Each split is
+ * collected once, tracked by identity so no UUID strings have to be built or hashed.</p>
+ *
+ * <p>Not thread safe, each Find worker owns its own instance.</p>
+ *
+ * @version Build 95
+ * @since Build 95
+ */
+class MatchedSplits
+{
+    private final Set<SplitTxn> _seen =
+            Collections.newSetFromMap(new IdentityHashMap<SplitTxn, Boolean>());
+    private List<SplitTxn> _pending = new ArrayList<SplitTxn>();
+
+    /**
+     * @param txn A parent or split that matched the filter.
+     */
+    void add(final AbstractTxn txn)
+    {
+        if (txn instanceof ParentTxn)
+        {
+            for (int ii = txn.getOtherTxnCount() - 1; ii >= 0; ii--)
+            {
+                addSplit((SplitTxn) txn.getOtherTxn(ii));
+            } // for ii
+        }
+        else
+        {
+            // must be a split transaction, just add it
+            addSplit((SplitTxn) txn);
+        }
+    }
+
+    /**
+     * @return The number of distinct splits collected so far.
+     */
+    int getCount()
+    {
+        return _seen.size();
+    }
+
+    int getPendingCount()
+    {
+        return _pending.size();
+    }
+
+    /**
+     * @return The splits collected since the last call, in the order they were added.
+     */
+    List<SplitTxn> takePending()
+    {
+        final List<SplitTxn> result = _pending;
+        _pending = new ArrayList<SplitTxn>();
+        return result;
+    }
+
+    private void addSplit(final SplitTxn split)
+    {
+        if (_seen.add(split))
+        {
+            _pending.add(split);
+        }
+    }
+}
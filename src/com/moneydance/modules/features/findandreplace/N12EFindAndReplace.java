@@ -82,6 +82,22 @@ public class N12EFindAndReplace
     //  Properties for Property Change Notifications
     //////////////////////////////////////////////////////////////////////////////////////////////
     public static final String HOME_PAGE_ID = "MennesoftFindAndReplace";
+    /** Name of the thread that runs Find in the background. */
+    public static final String FIND_THREAD_NAME = "FindAndReplaceSearch";
+    /** Number of matches handed to the results table at once while a search runs. */
+    public static final int FIND_BATCH_ROWS = 500;
+    /** Longest time in milliseconds that matches are held back before being shown. */
+    public static final long FIND_BATCH_MILLIS = 100;
+    /** Test transactions in parallel once at least this many have to be checked one at a time. */
+    public static final int PARALLEL_FIND_THRESHOLD = 20000;
+    /** Number of transactions each parallel Find worker tests at once. */
+    public static final int PARALLEL_FIND_CHUNK = 4096;
+    /** Number of parent transactions recorded between suspending and resuming refresh. */
+    public static final int COMMIT_BATCH_PARENTS = 1000;
+    /** Folder under the Moneydance data directory that holds the undo journals. */
+    public static final String JOURNAL_FOLDER = "findandreplace";
+    /** File extension of an undo journal, named for the root account of its data file. */
+    public static final String JOURNAL_EXTENSION = ".farj";
     
     public static final String ALL_PROPERTIES = "UpdateAll";
     public static final String FIND_COMBINATION = "findCombination";
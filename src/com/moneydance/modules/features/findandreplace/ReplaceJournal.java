@@ -0,0 +1,806 @@
+/*************************************************************************\
+* Copyright (C) 2009-2015 Mennē Software Solutions, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.findandreplace;
+
+import com.infinitekind.moneydance.model.*;
+import com.moneydance.apps.md.controller.Common;
+import com.moneydance.apps.md.view.gui.MoneydanceGUI;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Binary log of the before and after values of every field changed by a Record, so that the
+ * most recent Record can be undone. There is one journal per data file, kept in the extension's
+ * folder under the Moneydance data directory.</p>
+ *
+ * <p>Each Record replaces the journal with one batch, since only the most recent Record can be
+ * undone. The new batch is written next to the journal and only replaces it once its end marker is
+ * written, so a Record that fails partway leaves the previous Record to undo. To keep the log
+ * small, every string in a batch (transaction and account IDs, descriptions, memos, tags) is
+ * written once and referred to by number after that, and numbers are written as variable length
+ * integers.</p>
+ *
+ * @version Build 95
+ * @since Build 95
+ */
+class ReplaceJournal
+{
+    private static final int MAGIC = 0x46415231; // FAR1
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int REC_BATCH = 1;
+    private static final int REC_TXN = 2;
+    private static final int REC_END = 3;
+
+    private static final int FIELD_SPLIT_ACCOUNT = 1;
+    private static final int FIELD_SPLIT_AMOUNT = 2;
+    private static final int FIELD_SPLIT_DESCRIPTION = 3;
+    private static final int FIELD_SPLIT_TAGS = 4;
+    private static final int FIELD_DESCRIPTION = 5;
+    private static final int FIELD_MEMO = 6;
+    private static final int FIELD_CHECK_NUMBER = 7;
+
+    /** String reference meaning <code>null</code>. */
+    private static final int STRING_NULL = 0;
+    /** String reference meaning the string itself follows. */
+    private static final int STRING_NEW = 1;
+    /** String references at or above this are an index into the batch's string table. */
+    private static final int STRING_FIRST_INDEX = 2;
+
+    private final File _file;
+    /** The batch being written, which becomes the journal once it is complete. */
+    private final File _newFile;
+    /** Whether there is a batch to undo, or <code>null</code> if the journal must be scanned. */
+    private Boolean _canUndo = null;
+
+    ReplaceJournal(final File file)
+    {
+        _file = file;
+        _newFile = new File(file.getPath() + ".new");
+    }
+
+    /**
+     * @param book The data file.
+     * @return The journal for the data file, which is created on the first Record.
+     */
+    static ReplaceJournal forBook(final AccountBook book)
+    {
+        final File folder = new File(Common.getDataRootDirectory(), N12EFindAndReplace.JOURNAL_FOLDER);
+        return new ReplaceJournal(new File(folder, book.getRootAccount().getUUID()
+                                                   + N12EFindAndReplace.JOURNAL_EXTENSION));
+    }
+
+    /**
+     * @return True if there is a completed Record that can be undone.
+     */
+    synchronized boolean canUndo()
+    {
+        if (_canUndo == null)
+        {
+            boolean canUndo = false;
+            if (_file.isFile())
+            {
+                try
+                {
+                    canUndo = (readBatch() != null);
+                }
+                catch (IOException error)
+                {
+                    Logger.logError("Could not read the Find and Replace journal", error);
+                }
+            }
+            _canUndo = Boolean.valueOf(canUndo);
+        }
+        return _canUndo.booleanValue();
+    }
+
+    /**
+     * Start journaling a Record. The journal keeps the previous batch until this one is closed,
+     * and any incomplete batch left by an earlier failure is discarded.
+     * @return The writer for the new batch, which must be closed when the Record finishes.
+     * @throws IOException If the journal cannot be written.
+     */
+    synchronized BatchWriter beginBatch() throws IOException
+    {
+        _canUndo = null;
+        final File folder = _file.getParentFile();
+        if ((folder != null) && !folder.isDirectory() && !folder.mkdirs())
+        {
+            throw new IOException("Unable to create " + folder);
+        }
+        return new BatchWriter(new BufferedOutputStream(new FileOutputStream(_newFile, false)));
+    }
+
+    /**
+     * Put back the values changed by the most recent Record, last change first, and remove that
+     * Record from the journal. A field that has been edited since the Record is left alone.
+     * @param book  The data file.
+     * @param mdGui The user interface, if any, to suspend refresh on while undoing.
+     * @return The result of the undo, or <code>null</code> if there was nothing to undo.
+     * @throws IOException If the journal cannot be read.
+     */
+    synchronized UndoResult undoLastBatch(final AccountBook book, final MoneydanceGUI mdGui)
+            throws IOException
+    {
+        _canUndo = null;
+        final List<TxnChanges> changes = readBatch();
+        if (changes == null)
+        {
+            return null;
+        }
+        final UndoResult result = new UndoResult();
+        final TransactionSet txnSet = book.getTransactionSet();
+        if (mdGui != null)
+        {
+            mdGui.setSuspendRefresh(true);
+            book.setRecalcBalances(false);
+        }
+        try
+        {
+            for (int index = changes.size() - 1; index >= 0; index--)
+            {
+                final TxnChanges txnChanges = changes.get(index);
+                final AbstractTxn txn = txnSet.getTxnByID(txnChanges._txnID);
+                if (!(txn instanceof ParentTxn))
+                {
+                    // deleted since the Record
+                    result._skippedFields += txnChanges._fields.size();
+                    continue;
+                }
+                if (revert((ParentTxn)txn, txnChanges, book, result))
+                {
+                    txnSet.txnModified(txn);
+                    ++result._revertedTxns;
+                }
+            }
+        }
+        finally
+        {
+            if (mdGui != null)
+            {
+                mdGui.setSuspendRefresh(false);
+                book.setRecalcBalances(true);
+            }
+            if (result._revertedTxns > 0)
+            {
+                book.refreshAccountBalances();
+            }
+        }
+        if (!_file.delete())
+        {
+            throw new IOException("Unable to delete " + _file);
+        }
+        return result;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Private Methods
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Replace the journal with the batch that was just written.
+     */
+    private synchronized void batchCompleted() throws IOException
+    {
+        _canUndo = null;
+        if (_file.exists() && !_file.delete())
+        {
+            throw new IOException("Unable to delete " + _file);
+        }
+        if (!_newFile.renameTo(_file))
+        {
+            throw new IOException("Unable to rename " + _newFile + " to " + _file);
+        }
+    }
+
+    /**
+     * Discard an incomplete batch, leaving the previous one to undo.
+     */
+    private synchronized void batchAbandoned()
+    {
+        _canUndo = null;
+        if (_newFile.exists() && !_newFile.delete())
+        {
+            Logger.log("Unable to delete " + _newFile);
+        }
+    }
+
+    /**
+     * Read the batch in the journal.
+     * @return The changes of each transaction, or <code>null</code> if there is no complete batch.
+     */
+    private List<TxnChanges> readBatch() throws IOException
+    {
+        if (!_file.isFile())
+        {
+            return null;
+        }
+        final JournalInput input = new JournalInput(new FileInputStream(_file));
+        try
+        {
+            if (input.readMagic() != MAGIC)
+            {
+                Logger.log("Ignoring unrecognized Find and Replace journal " + _file);
+                return null;
+            }
+            if (input.readVarInt() != REC_BATCH)
+            {
+                throw new IOException("Corrupt Find and Replace journal " + _file);
+            }
+            input.readVarLong(); // timestamp
+            final List<String> strings = new ArrayList<String>();
+            final List<TxnChanges> result = new ArrayList<TxnChanges>();
+            int record = input.readVarInt();
+            while (record == REC_TXN)
+            {
+                result.add(readTxnChanges(input, strings));
+                record = input.readVarInt();
+            }
+            if (record != REC_END)
+            {
+                throw new IOException("Corrupt Find and Replace journal " + _file);
+            }
+            input.readVarInt(); // transaction count
+            return result;
+        }
+        catch (EOFException endOfJournal)
+        {
+            // a batch that was never finished
+            return null;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    private static TxnChanges readTxnChanges(final JournalInput input, final List<String> strings)
+            throws IOException
+    {
+        final TxnChanges changes = new TxnChanges(input.readString(strings));
+        final int fieldCount = input.readVarInt();
+        for (int index = 0; index < fieldCount; index++)
+        {
+            final FieldChange field = new FieldChange(input.readVarInt());
+            if (field.isSplitField())
+            {
+                field._splitIndex = input.readVarInt();
+            }
+            if (field._field == FIELD_SPLIT_AMOUNT)
+            {
+                field._beforeAmount = input.readSignedVarLong();
+                field._beforeParentAmount = input.readSignedVarLong();
+                field._afterAmount = input.readSignedVarLong();
+                field._afterParentAmount = input.readSignedVarLong();
+            }
+            else if (field._field == FIELD_SPLIT_TAGS)
+            {
+                field._beforeTags = input.readStringList(strings);
+                field._afterTags = input.readStringList(strings);
+            }
+            else
+            {
+                field._before = input.readString(strings);
+                field._after = input.readString(strings);
+            }
+            changes._fields.add(field);
+        }
+        return changes;
+    }
+
+    private static boolean revert(final ParentTxn parent, final TxnChanges changes,
+                                  final AccountBook book, final UndoResult result)
+    {
+        boolean reverted = false;
+        for (int index = changes._fields.size() - 1; index >= 0; index--)
+        {
+            final FieldChange field = changes._fields.get(index);
+            final SplitTxn split = field.isSplitField() && (field._splitIndex < parent.getSplitCount())
+                                   ? parent.getSplit(field._splitIndex) : null;
+            if (field.isSplitField() && (split == null))
+            {
+                ++result._skippedFields;
+                continue;
+            }
+            boolean current;
+            switch (field._field)
+            {
+                case FIELD_SPLIT_ACCOUNT :
+                    final Account before = book.getAccountByUUIDOrLegacyNumber(field._before);
+                    current = (before != null) && equal(getAccountID(split.getAccount()), field._after);
+                    if (current) split.setAccount(before);
+                    break;
+                case FIELD_SPLIT_AMOUNT :
+                    current = (split.getAmount() == field._afterAmount)
+                              && (split.getParentAmount() == field._afterParentAmount);
+                    // setAmount() takes the parent amount negated, see ReplaceCommand.execute()
+                    if (current) split.setAmount(field._beforeAmount, -field._beforeParentAmount);
+                    break;
+                case FIELD_SPLIT_DESCRIPTION :
+                    current = equal(split.getDescription(), field._after);
+                    if (current) split.setDescription(field._before);
+                    break;
+                case FIELD_SPLIT_TAGS :
+                    current = equal(split.getKeywords(), field._afterTags);
+                    if (current) split.setKeywords(field._beforeTags);
+                    break;
+                case FIELD_DESCRIPTION :
+                    current = equal(parent.getDescription(), field._after);
+                    if (current) parent.setDescription(field._before);
+                    break;
+                case FIELD_MEMO :
+                    current = equal(parent.getMemo(), field._after);
+                    if (current) parent.setMemo(field._before);
+                    break;
+                case FIELD_CHECK_NUMBER :
+                    current = equal(parent.getCheckNumber(), field._after);
+                    if (current) parent.setCheckNumber(field._before);
+                    break;
+                default :
+                    current = false;
+                    break;
+            }
+            if (current)
+            {
+                reverted = true;
+                ++result._revertedFields;
+            }
+            else
+            {
+                // edited again since the Record, keep the user's newer value
+                ++result._skippedFields;
+            }
+        }
+        return reverted;
+    }
+
+    private static void addIfChanged(final List<FieldChange> fields, final int fieldType,
+                                     final int splitIndex, final String before, final String after)
+    {
+        if (!equal(before, after))
+        {
+            final FieldChange field = new FieldChange(fieldType);
+            field._splitIndex = splitIndex;
+            field._before = before;
+            field._after = after;
+            fields.add(field);
+        }
+    }
+
+    private static String getAccountID(final Account account)
+    {
+        return (account == null) ? null : account.getUUID();
+    }
+
+    private static boolean equal(final Object first, final Object second)
+    {
+        return (first == null) ? (second == null) : first.equals(second);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Inner Classes
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes one batch. Call {@link #capture} before a transaction is changed, and
+     * {@link #record} afterwards with what it returned.
+     */
+    class BatchWriter
+    {
+        private final OutputStream _output;
+        private final Map<String, Integer> _strings = new HashMap<String, Integer>();
+        private final byte[] _buffer = new byte[10];
+        private int _txnCount = 0;
+        private boolean _closed = false;
+
+        private BatchWriter(final OutputStream output) throws IOException
+        {
+            _output = output;
+            writeMagic();
+            writeVarLong(REC_BATCH);
+            writeVarLong(System.currentTimeMillis());
+        }
+
+        /**
+         * @param parent The transaction that is about to be changed.
+         * @return The values that can be changed.
+         */
+        TxnState capture(final ParentTxn parent)
+        {
+            return new TxnState(parent);
+        }
+
+        /**
+         * Write the fields that have changed since the state was captured.
+         * @param before The state before the transaction was changed.
+         * @throws IOException If the journal cannot be written.
+         */
+        void record(final TxnState before) throws IOException
+        {
+            final TxnState after = new TxnState(before._parent);
+            final List<FieldChange> fields = new ArrayList<FieldChange>();
+            addIfChanged(fields, FIELD_DESCRIPTION, 0, before._description, after._description);
+            addIfChanged(fields, FIELD_MEMO, 0, before._memo, after._memo);
+            addIfChanged(fields, FIELD_CHECK_NUMBER, 0, before._checkNumber, after._checkNumber);
+            final int splitCount = Math.min(before._splitAccounts.length, after._splitAccounts.length);
+            for (int index = 0; index < splitCount; index++)
+            {
+                addIfChanged(fields, FIELD_SPLIT_ACCOUNT, index,
+                             before._splitAccounts[index], after._splitAccounts[index]);
+                if ((before._splitAmounts[index] != after._splitAmounts[index])
+                    || (before._splitParentAmounts[index] != after._splitParentAmounts[index]))
+                {
+                    final FieldChange field = new FieldChange(FIELD_SPLIT_AMOUNT);
+                    field._splitIndex = index;
+                    field._beforeAmount = before._splitAmounts[index];
+                    field._beforeParentAmount = before._splitParentAmounts[index];
+                    field._afterAmount = after._splitAmounts[index];
+                    field._afterParentAmount = after._splitParentAmounts[index];
+                    fields.add(field);
+                }
+                addIfChanged(fields, FIELD_SPLIT_DESCRIPTION, index,
+                             before._splitDescriptions[index], after._splitDescriptions[index]);
+                if (!equal(before._splitTags[index], after._splitTags[index]))
+                {
+                    final FieldChange field = new FieldChange(FIELD_SPLIT_TAGS);
+                    field._splitIndex = index;
+                    field._beforeTags = before._splitTags[index];
+                    field._afterTags = after._splitTags[index];
+                    fields.add(field);
+                }
+            }
+            if (fields.isEmpty())
+            {
+                return;
+            }
+
+            writeVarLong(REC_TXN);
+            writeString(before._parent.getUUID());
+            writeVarLong(fields.size());
+            for (final FieldChange field : fields)
+            {
+                writeVarLong(field._field);
+                if (field.isSplitField())
+                {
+                    writeVarLong(field._splitIndex);
+                }
+                if (field._field == FIELD_SPLIT_AMOUNT)
+                {
+                    writeSignedVarLong(field._beforeAmount);
+                    writeSignedVarLong(field._beforeParentAmount);
+                    writeSignedVarLong(field._afterAmount);
+                    writeSignedVarLong(field._afterParentAmount);
+                }
+                else if (field._field == FIELD_SPLIT_TAGS)
+                {
+                    writeStringList(field._beforeTags);
+                    writeStringList(field._afterTags);
+                }
+                else
+                {
+                    writeString(field._before);
+                    writeString(field._after);
+                }
+            }
+            ++_txnCount;
+        }
+
+        /**
+         * Finish the batch. Only a closed batch can be undone.
+         * @throws IOException If the journal cannot be written.
+         */
+        void close() throws IOException
+        {
+            if (_closed) return;
+            _closed = true;
+            try
+            {
+                writeVarLong(REC_END);
+                writeVarLong(_txnCount);
+                _output.flush();
+            }
+            catch (IOException error)
+            {
+                _output.close();
+                batchAbandoned();
+                throw error;
+            }
+            _output.close();
+            batchCompleted();
+        }
+
+        /**
+         * Stop writing without finishing the batch, so it cannot be undone.
+         */
+        void abandon()
+        {
+            if (_closed) return;
+            _closed = true;
+            try
+            {
+                _output.close();
+            }
+            catch (IOException error)
+            {
+                Logger.logError("Could not close the Find and Replace journal", error);
+            }
+            batchAbandoned();
+        }
+
+        private void writeMagic() throws IOException
+        {
+            _output.write(MAGIC >>> 24);
+            _output.write(MAGIC >>> 16);
+            _output.write(MAGIC >>> 8);
+            _output.write(MAGIC);
+        }
+
+        private void writeVarLong(final long value) throws IOException
+        {
+            long remaining = value;
+            int length = 0;
+            while ((remaining & ~0x7FL) != 0)
+            {
+                _buffer[length++] = (byte)((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            _buffer[length++] = (byte)remaining;
+            _output.write(_buffer, 0, length);
+        }
+
+        private void writeSignedVarLong(final long value) throws IOException
+        {
+            // zig-zag, so small negative amounts stay short too
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeString(final String text) throws IOException
+        {
+            if (text == null)
+            {
+                writeVarLong(STRING_NULL);
+                return;
+            }
+            final Integer existing = _strings.get(text);
+            if (existing != null)
+            {
+                writeVarLong(existing.intValue());
+                return;
+            }
+            _strings.put(text, Integer.valueOf(STRING_FIRST_INDEX + _strings.size()));
+            final byte[] bytes = text.getBytes(UTF8);
+            writeVarLong(STRING_NEW);
+            writeVarLong(bytes.length);
+            _output.write(bytes);
+        }
+
+        private void writeStringList(final List<String> list) throws IOException
+        {
+            if (list == null)
+            {
+                writeVarLong(0);
+                return;
+            }
+            writeVarLong(list.size() + 1);
+            for (final String text : list)
+            {
+                writeString(text);
+            }
+        }
+    }
+
+    /**
+     * The values of a transaction that a replace command can change.
+     */
+    static class TxnState
+    {
+        private final ParentTxn _parent;
+        private final String _description;
+        private final String _memo;
+        private final String _checkNumber;
+        private final String[] _splitAccounts;
+        private final long[] _splitAmounts;
+        private final long[] _splitParentAmounts;
+        private final String[] _splitDescriptions;
+        private final List<String>[] _splitTags;
+
+        @SuppressWarnings("unchecked")
+        private TxnState(final ParentTxn parent)
+        {
+            _parent = parent;
+            _description = parent.getDescription();
+            _memo = parent.getMemo();
+            _checkNumber = parent.getCheckNumber();
+            final int splitCount = parent.getSplitCount();
+            _splitAccounts = new String[splitCount];
+            _splitAmounts = new long[splitCount];
+            _splitParentAmounts = new long[splitCount];
+            _splitDescriptions = new String[splitCount];
+            _splitTags = new List[splitCount];
+            for (int index = 0; index < splitCount; index++)
+            {
+                final SplitTxn split = parent.getSplit(index);
+                _splitAccounts[index] = getAccountID(split.getAccount());
+                _splitAmounts[index] = split.getAmount();
+                _splitParentAmounts[index] = split.getParentAmount();
+                _splitDescriptions[index] = split.getDescription();
+                final List<String> tags = split.getKeywords();
+                _splitTags[index] = (tags == null) ? null : new ArrayList<String>(tags);
+            }
+        }
+    }
+
+    /**
+     * Reads the variable length numbers and shared strings of the journal.
+     */
+    private static class JournalInput
+    {
+        private final DataInputStream _input;
+
+        JournalInput(final InputStream input)
+        {
+            _input = new DataInputStream(new BufferedInputStream(input));
+        }
+
+        int readMagic() throws IOException
+        {
+            return _input.readInt();
+        }
+
+        int readVarInt() throws IOException
+        {
+            return (int)readVarLong();
+        }
+
+        long readVarLong() throws IOException
+        {
+            long result = 0;
+            int shift = 0;
+            while (true)
+            {
+                final int next = _input.readUnsignedByte();
+                result |= (long)(next & 0x7F) << shift;
+                if ((next & 0x80) == 0)
+                {
+                    return result;
+                }
+                shift += 7;
+                if (shift > 63) throw new IOException("Malformed number in journal");
+            }
+        }
+
+        long readSignedVarLong() throws IOException
+        {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String readString(final List<String> strings) throws IOException
+        {
+            final int reference = readVarInt();
+            if (reference == STRING_NULL)
+            {
+                return null;
+            }
+            if (reference == STRING_NEW)
+            {
+                final byte[] bytes = new byte[readVarInt()];
+                _input.readFully(bytes);
+                final String text = new String(bytes, UTF8);
+                strings.add(text);
+                return text;
+            }
+            final int index = reference - STRING_FIRST_INDEX;
+            if (index >= strings.size()) throw new IOException("Malformed string in journal");
+            return strings.get(index);
+        }
+
+        List<String> readStringList(final List<String> strings) throws IOException
+        {
+            final int size = readVarInt() - 1;
+            if (size < 0)
+            {
+                return null;
+            }
+            final List<String> result = new ArrayList<String>(size);
+            for (int index = 0; index < size; index++)
+            {
+                result.add(readString(strings));
+            }
+            return result;
+        }
+
+        void close() throws IOException
+        {
+            _input.close();
+        }
+    }
+
+    private static class TxnChanges
+    {
+        private final String _txnID;
+        private final List<FieldChange> _fields = new ArrayList<FieldChange>();
+
+        TxnChanges(final String txnID)
+        {
+            _txnID = txnID;
+        }
+    }
+
+    private static class FieldChange
+    {
+        private final int _field;
+        private int _splitIndex;
+        private String _before;
+        private String _after;
+        private long _beforeAmount;
+        private long _beforeParentAmount;
+        private long _afterAmount;
+        private long _afterParentAmount;
+        private List<String> _beforeTags;
+        private List<String> _afterTags;
+
+        FieldChange(final int field)
+        {
+            _field = field;
+        }
+
+        boolean isSplitField()
+        {
+            return _field <= FIELD_SPLIT_TAGS;
+        }
+    }
+
+    /**
+     * Summary of an undo.
+     */
+    static class UndoResult
+    {
+        private int _revertedTxns = 0;
+        private int _revertedFields = 0;
+        private int _skippedFields = 0;
+
+        int getRevertedTxnCount()
+        {
+            return _revertedTxns;
+        }
+
+        int getRevertedFieldCount()
+        {
+            return _revertedFields;
+        }
+
+        /** @return Fields left alone because they were edited or deleted after the Record. */
+        int getSkippedFieldCount()
+        {
+            return _skippedFields;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Undo restored " + _revertedFields + " fields in " + _revertedTxns
+                    + " transactions, skipped " + _skippedFields;
+        }
+    }
+}
@@ -156,4 +156,62 @@ class TagsTxnFilter extends TransactionFilterBase implements ITransactionFilter
 
         return contained;
     }
-}
\ No newline at end of file
+
+    /**
+     * Answer the tag criteria from the per-tag bitmaps of the index. Only splits carry tags.
+     *
+     * @param index The index of all transactions in the data file.
+     * @return The slots of the indexed transactions that match.
+     */
+    public BitSet getCandidateSlots(final TxnSearchIndex index)
+    {
+        final boolean hasIncluded = (_includedTags != null) && (_includedTags.size() > 0);
+        BitSet result;
+        if (TagLogic.EXACT.equals(_combineLogic))
+        {
+            // same size and no tag outside of the included ones
+            result = new BitSet();
+            final BitSet splits = index.getSplitSlots();
+            final int wanted = hasIncluded ? _includedTags.size() : 0;
+            for (int slot = splits.nextSetBit(0); slot >= 0; slot = splits.nextSetBit(slot + 1))
+            {
+                if (index.getTagCount(slot) == wanted) result.set(slot);
+            }
+            if (hasIncluded)
+            {
+                result.andNot(index.getOtherTagSlots(_includedTags));
+            }
+        }
+        else if (!hasIncluded)
+        {
+            // blank included tags disable the inclusion criteria
+            result = (BitSet)index.getSplitSlots().clone();
+        }
+        else if (TagLogic.AND.equals(_combineLogic))
+        {
+            result = (BitSet)index.getSplitSlots().clone();
+            for (final String includedTag : _includedTags)
+            {
+                result.and(index.getTagSlots(includedTag));
+            }
+        }
+        else
+        {
+            result = new BitSet();
+            for (final String includedTag : _includedTags)
+            {
+                result.or(index.getTagSlots(includedTag));
+            }
+        }
+
+        if ((_excludedTags != null) && (_excludedTags.size() > 0))
+        {
+            for (final String excludedTag : _excludedTags)
+            {
+                result.andNot(index.getTagSlots(excludedTag));
+            }
+        }
+        return result;
+    }
+
+}
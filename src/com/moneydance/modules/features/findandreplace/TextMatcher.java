@@ -0,0 +1,349 @@
+/*************************************************************************\
+* Copyright (C) 2009-2015 Mennē Software Solutions, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.findandreplace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Compiled form of the free text the user searches for. Plain text, and regular expressions
+ * that are really just literals or literals separated by <code>.*</code>, are searched with
+ * Boyer-Moore-Horspool instead of a regular expression. Anything else falls back to
+ * {@link Pattern}.</p>
+ *
+ * <p>Case insensitive matchers expect text that has already been through {@link #fold}, so the
+ * same folded text can be cached and reused across searches.</p>
+ *
+ * @version Build 95
+ * @since Build 95
+ */
+abstract class TextMatcher
+{
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+    private static final String WILDCARD = ".*";
+    private static final String[] UNICODE_IGNORE_CASE_FLAGS = { "(?ui)", "(?iu)" };
+
+    /**
+     * Compile the text entered by the user, which is a regular expression if it starts with '='.
+     * @param textMatch The free text search.
+     * @return The matcher, or <code>null</code> if the user is searching for blank text.
+     */
+    static TextMatcher compile(final String textMatch)
+    {
+        if ("=".equals(textMatch) || FarUtil.isBlank(textMatch))
+        {
+            return null;
+        }
+        if (!FarUtil.hasRegularExpression(textMatch))
+        {
+            // same as the quoted, case insensitive pattern from FarUtil.buildFindPattern()
+            return new LiteralMatcher(fold(textMatch), true);
+        }
+
+        String regex = FarUtil.createRegularExpression(textMatch);
+        boolean ignoreCase = false;
+        for (final String flags : UNICODE_IGNORE_CASE_FLAGS)
+        {
+            if (regex.startsWith(flags))
+            {
+                regex = regex.substring(flags.length());
+                ignoreCase = true;
+                break;
+            }
+        }
+
+        final List<String> segments = splitWildcards(regex);
+        if (segments != null)
+        {
+            if (ignoreCase)
+            {
+                for (int index = 0; index < segments.size(); index++)
+                {
+                    segments.set(index, fold(segments.get(index)));
+                }
+            }
+            if (segments.size() == 1)
+            {
+                return new LiteralMatcher(segments.get(0), ignoreCase);
+            }
+            return new WildcardMatcher(segments, ignoreCase, FarUtil.buildFindPattern(textMatch));
+        }
+
+        return new RegexMatcher(FarUtil.buildFindPattern(textMatch));
+    }
+
+    /**
+     * Fold the case of text the same way a Unicode case insensitive regular expression compares
+     * characters. Folding never changes the length of the text.
+     * @param text The text to fold.
+     * @return The folded text, or <code>null</code> if the text is <code>null</code>.
+     */
+    static String fold(final String text)
+    {
+        if (text == null)
+        {
+            return null;
+        }
+        char[] folded = null;
+        for (int index = 0; index < text.length(); index++)
+        {
+            final char ch = text.charAt(index);
+            final char foldedChar = Character.toLowerCase(Character.toUpperCase(ch));
+            if ((foldedChar != ch) && (folded == null))
+            {
+                folded = text.toCharArray();
+            }
+            if (folded != null)
+            {
+                folded[index] = foldedChar;
+            }
+        }
+        return (folded == null) ? text : new String(folded);
+    }
+
+    /**
+     * @return True if {@link #find} expects folded text, false if it expects the original text.
+     */
+    abstract boolean isIgnoreCase();
+
+    /**
+     * @param text The non-blank text to search, folded if {@link #isIgnoreCase()}.
+     * @return True if the text contains a match.
+     */
+    abstract boolean find(String text);
+
+    /**
+     * Same rules as {@link FarUtil#isStringMatch}: blank text only matches a blank search.
+     * @param matcher The compiled search, or <code>null</code> to search for blank text.
+     * @param text    The text to search, folded if the matcher ignores case.
+     * @return True if the text matches.
+     */
+    static boolean isStringMatch(final TextMatcher matcher, final String text)
+    {
+        if (FarUtil.isBlank(text))
+        {
+            // check to see if the user is trying to find things that are blank
+            return (matcher == null);
+        }
+        return (matcher != null) && matcher.find(text);
+    }
+
+    /**
+     * @param regex A regular expression without the leading '='.
+     * @return The literal pieces between <code>.*</code> wildcards, or <code>null</code> if the
+     * expression uses any other regular expression syntax.
+     */
+    private static List<String> splitWildcards(final String regex)
+    {
+        final List<String> result = new ArrayList<String>();
+        int start = 0;
+        while (start <= regex.length())
+        {
+            int end = regex.indexOf(WILDCARD, start);
+            if (end < 0) end = regex.length();
+            final String segment = unescapeLiteral(regex.substring(start, end));
+            if (segment == null)
+            {
+                return null;
+            }
+            if (segment.length() > 0)
+            {
+                result.add(segment);
+            }
+            start = end + WILDCARD.length();
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * @param text Part of a regular expression.
+     * @return The literal text it matches, or <code>null</code> if it is not a plain literal.
+     */
+    private static String unescapeLiteral(final String text)
+    {
+        final StringBuilder result = new StringBuilder(text.length());
+        for (int index = 0; index < text.length(); index++)
+        {
+            char ch = text.charAt(index);
+            if (ch == '\\')
+            {
+                // an escaped punctuation character is a literal, escaped letters are classes
+                if (++index >= text.length()) return null;
+                ch = text.charAt(index);
+                if (Character.isLetterOrDigit(ch)) return null;
+            }
+            else if (REGEX_META_CHARS.indexOf(ch) >= 0)
+            {
+                return null;
+            }
+            result.append(ch);
+        }
+        return result.toString();
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Inner Classes
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Boyer-Moore-Horspool search for a single literal. The skip table is indexed by the low byte
+     * of each character, which keeps it small; characters that share a low byte just skip less.
+     */
+    private static class LiteralMatcher extends TextMatcher
+    {
+        private final char[] _needle;
+        private final int[] _skip = new int[256];
+        private final boolean _ignoreCase;
+
+        LiteralMatcher(final String needle, final boolean ignoreCase)
+        {
+            _needle = needle.toCharArray();
+            _ignoreCase = ignoreCase;
+            final int length = _needle.length;
+            for (int index = 0; index < _skip.length; index++)
+            {
+                _skip[index] = length;
+            }
+            for (int index = 0; index < length - 1; index++)
+            {
+                _skip[_needle[index] & 0xFF] = length - 1 - index;
+            }
+        }
+
+        boolean isIgnoreCase()
+        {
+            return _ignoreCase;
+        }
+
+        boolean find(final String text)
+        {
+            return indexOf(text, 0) >= 0;
+        }
+
+        int length()
+        {
+            return _needle.length;
+        }
+
+        /**
+         * @param text  The text to search.
+         * @param start Where to start searching.
+         * @return The index of the first match at or after start, or -1 if there is none.
+         */
+        int indexOf(final String text, final int start)
+        {
+            final int length = _needle.length;
+            final int last = text.length() - length;
+            final char lastChar = _needle[length - 1];
+            int position = start;
+            while (position <= last)
+            {
+                final char ch = text.charAt(position + length - 1);
+                if (ch == lastChar)
+                {
+                    int index = length - 2;
+                    while ((index >= 0) && (text.charAt(position + index) == _needle[index]))
+                    {
+                        --index;
+                    }
+                    if (index < 0)
+                    {
+                        return position;
+                    }
+                }
+                position += _skip[ch & 0xFF];
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Literals separated by <code>.*</code>, found left to right. The dot does not match line
+     * terminators, so text containing one is handed to the regular expression instead.
+     */
+    private static class WildcardMatcher extends TextMatcher
+    {
+        private final LiteralMatcher[] _segments;
+        private final boolean _ignoreCase;
+        private final Pattern _pattern;
+
+        WildcardMatcher(final List<String> segments, final boolean ignoreCase, final Pattern pattern)
+        {
+            _segments = new LiteralMatcher[segments.size()];
+            for (int index = 0; index < _segments.length; index++)
+            {
+                _segments[index] = new LiteralMatcher(segments.get(index), ignoreCase);
+            }
+            _ignoreCase = ignoreCase;
+            _pattern = pattern;
+        }
+
+        boolean isIgnoreCase()
+        {
+            return _ignoreCase;
+        }
+
+        boolean find(final String text)
+        {
+            if (hasLineTerminator(text))
+            {
+                // folding never changes letters into line terminators, so this is still correct
+                return _pattern.matcher(text).find();
+            }
+            int position = 0;
+            for (final LiteralMatcher segment : _segments)
+            {
+                final int found = segment.indexOf(text, position);
+                if (found < 0)
+                {
+                    return false;
+                }
+                position = found + segment.length();
+            }
+            return true;
+        }
+
+        private static boolean hasLineTerminator(final String text)
+        {
+            for (int index = text.length() - 1; index >= 0; index--)
+            {
+                final char ch = text.charAt(index);
+                if ((ch == '\n') || (ch == '\r') || (ch == '\u0085') || (ch == '\u2028') || (ch == '\u2029'))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Anything the fast paths cannot handle.
+     */
+    private static class RegexMatcher extends TextMatcher
+    {
+        private final Pattern _pattern;
+
+        RegexMatcher(final Pattern pattern)
+        {
+            _pattern = pattern;
+        }
+
+        boolean isIgnoreCase()
+        {
+            return false;
+        }
+
+        boolean find(final String text)
+        {
+            return _pattern.matcher(text).find();
+        }
+    }
+}
@@ -8,6 +8,8 @@
 
 package com.moneydance.modules.features.findandreplace;
 
+import java.util.BitSet;
+
 /**
  * <p>Base class for all filters.</p>
  *
@@ -15,7 +17,7 @@ package com.moneydance.modules.features.findandreplace;
  * @version 1.50
  * @since 1.0
  */
-abstract class TransactionFilterBase implements ITransactionFilter
+abstract class TransactionFilterBase implements IIndexedTxnFilter
 {
     private final boolean _required;
 
@@ -32,4 +34,14 @@ abstract class TransactionFilterBase implements ITransactionFilter
     {
         return _required;
     }
+
+    /**
+     * By default a filter is tested one transaction at a time.
+     * @param index The index of all transactions in the data file.
+     * @return <code>null</code>, the filter cannot use the index.
+     */
+    public BitSet getCandidateSlots(final TxnSearchIndex index)
+    {
+        return null;
+    }
 }
@@ -0,0 +1,624 @@
+/*************************************************************************\
+* Copyright (C) 2009-2015 Mennē Software Solutions, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.findandreplace;
+
+import com.moneydance.apps.md.controller.AccountFilter;
+import com.infinitekind.moneydance.model.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Persistent index of every transaction in the data file, so that a Find does not have to run
+ * each transaction through the whole filter chain. Each transaction is assigned a slot number,
+ * and the filters answer their criteria with a bitmap of matching slots.</p>
+ *
+ * <p>The index is built once on the Find thread when the dialog opens, so that opening the dialog
+ * does not wait for it, and then kept current through transaction events. Added and modified transactions are flagged as stale and checked one at a
+ * time by {@link FilterGroup} until enough of them pile up to warrant a rebuild.</p>
+ *
+ * @version Build 95
+ * @since Build 95
+ */
+class TxnSearchIndex implements TransactionListener
+{
+    /** Rebuild once more than 1/8th of the slots have been added or modified. */
+    private static final int REBUILD_DIVISOR = 8;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final AccountBook _book;
+    /** False until the first build, before which every query waits for the build. */
+    private boolean _built = false;
+
+    private AbstractTxn[] _txns = new AbstractTxn[INITIAL_CAPACITY];
+    private int _size;
+    private final Map<String, Integer> _slotByID = new HashMap<String, Integer>();
+    /** Slots holding a transaction that is still in the data file. */
+    private final BitSet _live = new BitSet();
+    /** Slots added or modified since the last build, which the bitmaps cannot answer for. */
+    private final BitSet _stale = new BitSet();
+
+    private final BitSet _parents = new BitSet();
+    private final BitSet _splits = new BitSet();
+    private final Map<Account, BitSet> _byAccount = new HashMap<Account, BitSet>();
+    private final Map<Account, BitSet> _byParentAccount = new HashMap<Account, BitSet>();
+    private final Map<String, BitSet> _byTag = new HashMap<String, BitSet>();
+    private int[] _tagCount = new int[INITIAL_CAPACITY];
+    private final BitSet _cleared = new BitSet();
+    private final BitSet _reconciling = new BitSet();
+    private final BitSet _uncleared = new BitSet();
+
+    private SortedColumn _dates;
+    private SortedColumn _taxDates;
+    private final Map<CurrencyType, SortedColumn> _amountsByCurrency =
+            new HashMap<CurrencyType, SortedColumn>();
+
+    private final FoldedTextCache _textCache = new FoldedTextCache();
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //  Construction
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Create an empty index. Events received before it is built only mark slots stale, and the
+     * build starts over from the transactions as they are by then.
+     * @param book The data file to index.
+     */
+    TxnSearchIndex(final AccountBook book)
+    {
+        _book = book;
+    }
+
+    void attach()
+    {
+        _book.getTransactionSet().addTransactionListener(this);
+    }
+
+    void detach()
+    {
+        _book.getTransactionSet().removeTransactionListener(this);
+        _textCache.clear();
+    }
+
+    AccountBook getBook()
+    {
+        return _book;
+    }
+
+    /**
+     * @return Folded text for the free text filter, kept in step with transaction changes.
+     */
+    FoldedTextCache getTextCache()
+    {
+        return _textCache;
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //  TransactionListener
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized void transactionAdded(final AbstractTxn txn)
+    {
+        markStale(txn);
+        if (txn instanceof ParentTxn)
+        {
+            // splits are indexed alongside their parent
+            markSplitsStale((ParentTxn)txn);
+        }
+    }
+
+    public synchronized void transactionModified(final AbstractTxn txn)
+    {
+        markStale(txn);
+        if (txn instanceof ParentTxn)
+        {
+            // the cleared status and account of a parent affect all of its splits
+            markSplitsStale((ParentTxn)txn);
+        }
+    }
+
+    public synchronized void transactionRemoved(final AbstractTxn txn)
+    {
+        if (txn == null) return;
+        _textCache.invalidate(txn);
+        final Integer slot = _slotByID.remove(txn.getUUID());
+        if (slot != null)
+        {
+            _live.clear(slot.intValue());
+            _stale.clear(slot.intValue());
+            _txns[slot.intValue()] = null;
+        }
+        if (txn instanceof ParentTxn)
+        {
+            final ParentTxn parent = (ParentTxn)txn;
+            for (int ii = parent.getSplitCount() - 1; ii >= 0; ii--)
+            {
+                transactionRemoved(parent.getSplit(ii));
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //  Package Private Methods
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Build the index if it has not been built yet. Called off the event thread when the dialog
+     * opens, so a Find started meanwhile waits for it instead of building it too.
+     */
+    synchronized void ensureBuilt()
+    {
+        if (!_built)
+        {
+            rebuild();
+        }
+    }
+
+    /**
+     * Build the index, or rebuild the bitmaps and sorted columns if too many slots have gone
+     * stale. Queries must synchronize on the index and call this first.
+     */
+    void ensureCurrent()
+    {
+        if (!_built ||
+            (_stale.cardinality() * REBUILD_DIVISOR > Math.max(_live.cardinality(), INITIAL_CAPACITY)))
+        {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return A new bitmap of the slots that the indexed bitmaps and columns can answer for.
+     */
+    BitSet getIndexedSlots()
+    {
+        final BitSet result = (BitSet)_live.clone();
+        result.andNot(_stale);
+        return result;
+    }
+
+    /**
+     * @return A new bitmap of the live slots added or modified since the last build.
+     */
+    BitSet getStaleSlots()
+    {
+        final BitSet result = (BitSet)_stale.clone();
+        result.and(_live);
+        return result;
+    }
+
+    AbstractTxn getTxn(final int slot)
+    {
+        return _txns[slot];
+    }
+
+    /**
+     * Transaction events keep changing the slots while a search runs outside the index's lock,
+     * so the search works from a copy taken along with its bitmaps.
+     * @return The transaction in each slot, <code>null</code> for removed slots.
+     */
+    AbstractTxn[] copyTxns()
+    {
+        return Arrays.copyOf(_txns, _size);
+    }
+
+    /**
+     * A stale split may have been detached from its parent without a separate event for the split,
+     * so check that the parent still owns it before using it in a result.
+     * @param txn The transaction to check.
+     * @return True if the transaction is still part of the data file.
+     */
+    static boolean isAttached(final AbstractTxn txn)
+    {
+        if (txn instanceof SplitTxn)
+        {
+            final ParentTxn parent = txn.getParentTxn();
+            if (parent == null) return false;
+            for (int ii = parent.getSplitCount() - 1; ii >= 0; ii--)
+            {
+                if (parent.getSplit(ii) == txn) return true;
+            }
+            return false;
+        }
+        return txn != null;
+    }
+
+    BitSet getParentSlots()
+    {
+        return _parents;
+    }
+
+    BitSet getSplitSlots()
+    {
+        return _splits;
+    }
+
+    /**
+     * @param filter       The account filter to apply.
+     * @param parentAccount True to match on the parent's account (the 'from' side), false to
+     *                      match on the transaction's own account.
+     * @return A new bitmap of the slots whose account is accepted by the filter.
+     */
+    BitSet getAccountSlots(final AccountFilter filter, final boolean parentAccount)
+    {
+        final BitSet result = new BitSet();
+        final Map<Account, BitSet> map = parentAccount ? _byParentAccount : _byAccount;
+        for (final Map.Entry<Account, BitSet> entry : map.entrySet())
+        {
+            if (filter.filter(entry.getKey()))
+            {
+                result.or(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param tag The user tag to look up.
+     * @return The bitmap of split slots with the tag. Do not modify.
+     */
+    BitSet getTagSlots(final String tag)
+    {
+        final BitSet result = _byTag.get(tag);
+        return (result == null) ? new BitSet() : result;
+    }
+
+    /**
+     * @param exceptTags Tags to leave out.
+     * @return A new bitmap of the split slots that have any tag other than the given ones.
+     */
+    BitSet getOtherTagSlots(final List<String> exceptTags)
+    {
+        final BitSet result = new BitSet();
+        for (final Map.Entry<String, BitSet> entry : _byTag.entrySet())
+        {
+            if ((exceptTags == null) || !exceptTags.contains(entry.getKey()))
+            {
+                result.or(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    int getTagCount(final int slot)
+    {
+        return _tagCount[slot];
+    }
+
+    /**
+     * @param status One of the <code>AbstractTxn.STATUS_*</code> values.
+     * @return The bitmap of slots whose parent transaction has the status. Do not modify.
+     */
+    BitSet getStatusSlots(final byte status)
+    {
+        if (AbstractTxn.STATUS_CLEARED == status) return _cleared;
+        if (AbstractTxn.STATUS_RECONCILING == status) return _reconciling;
+        return _uncleared;
+    }
+
+    /**
+     * @param minimum    Lowest date, inclusive.
+     * @param maximum    Highest date, inclusive.
+     * @param useTaxDate True to use the tax date instead of the transaction date.
+     * @return A new bitmap of the slots within the date range.
+     */
+    BitSet getDateSlots(final int minimum, final int maximum, final boolean useTaxDate)
+    {
+        final SortedColumn column = useTaxDate ? _taxDates : _dates;
+        final BitSet result = new BitSet(_size);
+        column.addRange(minimum, maximum, result);
+        return result;
+    }
+
+    /**
+     * @return The currencies that have at least one transaction in the index.
+     */
+    Iterable<CurrencyType> getAmountCurrencies()
+    {
+        return _amountsByCurrency.keySet();
+    }
+
+    /**
+     * Add the slots in a given currency whose absolute value falls within a range.
+     * @param currency The currency of the transaction's account.
+     * @param minimum  Lowest absolute value, inclusive.
+     * @param maximum  Highest absolute value, inclusive.
+     * @param result   The bitmap to add slots to.
+     */
+    void addAmountSlots(final CurrencyType currency, final long minimum, final long maximum,
+                        final BitSet result)
+    {
+        final SortedColumn column = _amountsByCurrency.get(currency);
+        if (column != null)
+        {
+            column.addRange(minimum, maximum, result);
+        }
+    }
+
+    /**
+     * Add all slots in a given currency.
+     * @param currency The currency of the transaction's account.
+     * @param result   The bitmap to add slots to.
+     */
+    void addCurrencySlots(final CurrencyType currency, final BitSet result)
+    {
+        final SortedColumn column = _amountsByCurrency.get(currency);
+        if (column != null)
+        {
+            column.addRange(Long.MIN_VALUE, Long.MAX_VALUE, result);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////
+    //  Private Methods
+    //////////////////////////////////////////////////////////////////////////////////////////////
+
+    private synchronized void rebuild()
+    {
+        _slotByID.clear();
+        _live.clear();
+        _stale.clear();
+        _parents.clear();
+        _splits.clear();
+        _byAccount.clear();
+        _byParentAccount.clear();
+        _byTag.clear();
+        _cleared.clear();
+        _reconciling.clear();
+        _uncleared.clear();
+        _amountsByCurrency.clear();
+
+        final List<AbstractTxn> all = new ArrayList<AbstractTxn>();
+        for (AbstractTxn txn : _book.getTransactionSet().iterableTxns())
+        {
+            all.add(txn);
+        }
+        _size = all.size();
+        _txns = all.toArray(new AbstractTxn[Math.max(_size, INITIAL_CAPACITY)]);
+        _tagCount = new int[_txns.length];
+
+        final long[] dates = new long[_size];
+        final long[] taxDates = new long[_size];
+        final Map<CurrencyType, ColumnBuilder> amounts = new HashMap<CurrencyType, ColumnBuilder>();
+        for (int slot = 0; slot < _size; slot++)
+        {
+            final AbstractTxn txn = _txns[slot];
+            _slotByID.put(txn.getUUID(), Integer.valueOf(slot));
+            _live.set(slot);
+
+            final ParentTxn parent = (txn instanceof SplitTxn) ? txn.getParentTxn() : (ParentTxn)txn;
+            if (txn instanceof SplitTxn)
+            {
+                _splits.set(slot);
+                final List<String> tags = ((SplitTxn)txn).getKeywords();
+                _tagCount[slot] = tags.size();
+                for (final String tag : tags)
+                {
+                    slotsFor(_byTag, tag).set(slot);
+                }
+            }
+            else
+            {
+                _parents.set(slot);
+            }
+            slotsFor(_byAccount, txn.getAccount()).set(slot);
+            slotsFor(_byParentAccount, parent.getAccount()).set(slot);
+            getStatusSlots(parent.getStatus()).set(slot);
+
+            dates[slot] = txn.getDateInt();
+            taxDates[slot] = txn.getTaxDateInt();
+
+            final CurrencyType currency = txn.getAccount().getCurrencyType();
+            ColumnBuilder builder = amounts.get(currency);
+            if (builder == null)
+            {
+                builder = new ColumnBuilder();
+                amounts.put(currency, builder);
+            }
+            builder.add(Math.abs(txn.getValue()), slot);
+        }
+
+        _dates = new SortedColumn(dates, identityOrder(_size));
+        _taxDates = new SortedColumn(taxDates, identityOrder(_size));
+        for (final Map.Entry<CurrencyType, ColumnBuilder> entry : amounts.entrySet())
+        {
+            _amountsByCurrency.put(entry.getKey(), entry.getValue().build());
+        }
+        _built = true;
+    }
+
+    private void markStale(final AbstractTxn txn)
+    {
+        if (txn == null) return;
+        _textCache.invalidate(txn);
+        final Integer existing = _slotByID.get(txn.getUUID());
+        final int slot;
+        if (existing != null)
+        {
+            slot = existing.intValue();
+        }
+        else
+        {
+            slot = _size++;
+            if (slot >= _txns.length)
+            {
+                final AbstractTxn[] grown = new AbstractTxn[_txns.length * 2];
+                System.arraycopy(_txns, 0, grown, 0, _txns.length);
+                _txns = grown;
+                final int[] grownCounts = new int[grown.length];
+                System.arraycopy(_tagCount, 0, grownCounts, 0, _tagCount.length);
+                _tagCount = grownCounts;
+            }
+            _slotByID.put(txn.getUUID(), Integer.valueOf(slot));
+        }
+        _txns[slot] = txn;
+        _live.set(slot);
+        _stale.set(slot);
+    }
+
+    private void markSplitsStale(final ParentTxn parent)
+    {
+        for (int ii = parent.getSplitCount() - 1; ii >= 0; ii--)
+        {
+            markStale(parent.getSplit(ii));
+        }
+    }
+
+    private static <K> BitSet slotsFor(final Map<K, BitSet> map, final K key)
+    {
+        BitSet result = map.get(key);
+        if (result == null)
+        {
+            result = new BitSet();
+            map.put(key, result);
+        }
+        return result;
+    }
+
+    private static int[] identityOrder(final int size)
+    {
+        final int[] result = new int[size];
+        for (int ii = 0; ii < size; ii++) result[ii] = ii;
+        return result;
+    }
+
+    /**
+     * Sort a key array and carry a parallel slot array along with it. A stable merge sort so that
+     * equal keys stay in slot order, which keeps the columns deterministic.
+     */
+    private static void sortByKey(final long[] keys, final int[] slots, final int length)
+    {
+        final long[] keyBuffer = new long[length];
+        final int[] slotBuffer = new int[length];
+        for (int width = 1; width < length; width *= 2)
+        {
+            for (int left = 0; left < length - width; left += 2 * width)
+            {
+                final int middle = left + width;
+                final int right = Math.min(left + 2 * width, length);
+                int ii = left;
+                int jj = middle;
+                int out = left;
+                while ((ii < middle) && (jj < right))
+                {
+                    if (keys[jj] < keys[ii])
+                    {
+                        keyBuffer[out] = keys[jj];
+                        slotBuffer[out++] = slots[jj++];
+                    }
+                    else
+                    {
+                        keyBuffer[out] = keys[ii];
+                        slotBuffer[out++] = slots[ii++];
+                    }
+                }
+                while (ii < middle)
+                {
+                    keyBuffer[out] = keys[ii];
+                    slotBuffer[out++] = slots[ii++];
+                }
+                while (jj < right)
+                {
+                    keyBuffer[out] = keys[jj];
+                    slotBuffer[out++] = slots[jj++];
+                }
+                System.arraycopy(keyBuffer, left, keys, left, right - left);
+                System.arraycopy(slotBuffer, left, slots, left, right - left);
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+    // Inner Classes
+    ///////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A column of values sorted ascending, with the slot each value came from.
+     */
+    private static class SortedColumn
+    {
+        private final long[] _keys;
+        private final int[] _slots;
+
+        /**
+         * @param keys  The values indexed by slot. Sorted in place.
+         * @param slots The slots, sorted along with the keys.
+         */
+        SortedColumn(final long[] keys, final int[] slots)
+        {
+            sortByKey(keys, slots, keys.length);
+            _keys = keys;
+            _slots = slots;
+        }
+
+        void addRange(final long minimum, final long maximum, final BitSet result)
+        {
+            if (minimum > maximum) return;
+            final int end = _keys.length;
+            for (int index = lowerBound(minimum); (index < end) && (_keys[index] <= maximum); index++)
+            {
+                result.set(_slots[index]);
+            }
+        }
+
+        private int lowerBound(final long key)
+        {
+            int low = 0;
+            int high = _keys.length;
+            while (low < high)
+            {
+                final int middle = (low + high) >>> 1;
+                if (_keys[middle] < key)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static class ColumnBuilder
+    {
+        private long[] _keys = new long[16];
+        private int[] _slots = new int[16];
+        private int _count = 0;
+
+        void add(final long key, final int slot)
+        {
+            if (_count == _keys.length)
+            {
+                final long[] keys = new long[_count * 2];
+                System.arraycopy(_keys, 0, keys, 0, _count);
+                _keys = keys;
+                final int[] slots = new int[_count * 2];
+                System.arraycopy(_slots, 0, slots, 0, _count);
+                _slots = slots;
+            }
+            _keys[_count] = key;
+            _slots[_count++] = slot;
+        }
+
+        SortedColumn build()
+        {
+            final long[] keys = new long[_count];
+            System.arraycopy(_keys, 0, keys, 0, _count);
+            final int[] slots = new int[_count];
+            System.arraycopy(_slots, 0, slots, 0, _count);
+            return new SortedColumn(keys, slots);
+        }
+    }
+}
@@ -28,6 +28,7 @@ public class BalPredConf
   public String extensionName = null;
   public JComboBox cbAccounts = new JComboBox();
   public ReminderSet rs = null;
+  public ReminderOccurrences occurrences = null;
   public String dateFormatStr = "MM/dd/yy";
   
   public BalPredConf(AccountBook book, String extensionName) {
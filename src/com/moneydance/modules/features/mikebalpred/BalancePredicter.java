@@ -70,6 +70,10 @@ public class BalancePredicter extends JDialog
     text.append(msg+"\n");
   }
 
+  private static int toDateInt(Calendar cal) {
+    return cal.get(Calendar.YEAR)*10000 + (cal.get(Calendar.MONTH)+1)*100 + cal.get(Calendar.DAY_OF_MONTH);
+  }
+
 
 public void run() {
     setTitle(balpredConf.extensionName);
@@ -230,7 +234,7 @@ public void run() {
 
 	      List<Date> overdueDates = r.getPastDueDates(todayCal);
 
-	      long delta =  (txnValue * r.getPastDueDates(todayCal).size());
+	      long delta =  (txnValue * overdueDates.size());
 	      if (delta == 0) continue;
 
 	      dd("found overdue Reminder.");
@@ -322,6 +326,10 @@ public void run() {
 
 	final XYSeries series = new XYSeries("Balance", false, true);
 
+    int currDate = toDateInt(curr);
+    ReminderOccurrences.Occurrences due = balpredConf.occurrences.getOccurrences(currDate, toDateInt(stop));
+    int nextDue = due.indexOf(currDate);
+
     series.add(curr.getTime().getTime(), currentBalance/100.0);
 
     while(curr.before(stop) || curr.equals(stop)) {
@@ -345,7 +353,9 @@ public void run() {
 
       }
 
-      for(Reminder r : balpredConf.rs.getRemindersOnDay(curr)) {
+      currDate = toDateInt(curr);
+      for(; nextDue<due.size() && due.getDate(nextDue)<=currDate; nextDue++) {
+        Reminder r = due.getReminder(nextDue);
         if ( r.getReminderType() != Reminder.Type.TRANSACTION || !remindersStatus.get(r)) {
           ptxn = r.getTransaction();
           if (ptxn.getAccount().equals(cacct)) {
@@ -31,6 +31,7 @@ public class Main
 
 //  private Wizard balpredWizard = null;
   private BalancePredicter win;     // main window to display
+  private ReminderOccurrences occurrences = null;
 
   public void init() {
     // the first thing we will do is register this module to be invoked
@@ -75,6 +76,22 @@ public class Main
     return getContext().getCurrentAccountBook();
   }
 
+  public void cleanup() {
+    if(occurrences!=null) {
+      occurrences.close();
+      occurrences = null;
+    }
+  }
+
+  /** The reminder occurrences of the data file, shared by every forecast until it is closed */
+  private synchronized ReminderOccurrences getOccurrences(ReminderSet rs) {
+    if(occurrences==null || occurrences.getReminderSet()!=rs) {
+      if(occurrences!=null) occurrences.close();
+      occurrences = new ReminderOccurrences(rs);
+    }
+    return occurrences;
+  }
+
   private synchronized void showBalancePredicter() {
 		System.out.println("^^^^ entering showBalancePredicter");
     if(win==null || !win.isVisible()) {
@@ -83,6 +100,7 @@ public class Main
 				System.out.println("^^^^ disposed old win");
       }
       BalPredConf conf = new BalPredConf(getBook(), getName());
+      conf.occurrences = getOccurrences(conf.rs);
 			System.out.println("^^^^ made new BalPredConf");
       FeatureModuleContext context = getContext();
       if(context instanceof com.moneydance.apps.md.controller.Main) {
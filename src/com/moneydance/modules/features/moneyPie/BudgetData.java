@@ -6,6 +6,7 @@ package com.moneydance.modules.features.moneyPie;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -19,7 +20,6 @@ import com.infinitekind.moneydance.model.*;
 
 public class BudgetData  {
 	protected Main              extension;
-	private static final int    INDEX_ACT_NAME    = 1;
 	private Account             root              = null;
 	private boolean             taxIsIncome;
 	private Account             mainAccount;
@@ -40,6 +40,11 @@ public class BudgetData  {
 	@SuppressWarnings("unchecked")
 	private Map<String, BudgetValue>[]    summaryData  = new Map[13];
 	
+	// running totals from January, in cents for spending and in dollars for the budget
+	private Map<String, long[]>           spendingToDate = new HashMap<String, long[]>();
+	private Map<String, double[]>         budgetToDate   = new HashMap<String, double[]>();
+	private BudgetSpendingCube            cube           = null;
+	
 	private int     budgetYear      = Calendar.getInstance().get(Calendar.YEAR);
 	private String  budgetName      = null;
     private Budget  budgetCurrent   = null;
@@ -122,15 +127,12 @@ public class BudgetData  {
     }
     
     public BudgetValue getSTDValue(String aName, int month){
-        BudgetValue stdValue = new BudgetValue(this, 0);
-        for(int i=1; i<= month; i++){
-        	 if(! this.isSpendingNull(aName, i)){
-        		 BudgetValue thisValue = this.getSpendingValue(aName, i);
-        		 stdValue.add(thisValue);
-             }
+        long[] sums = this.spendingToDate.get(aName);
+        if(sums == null){
+        	return new BudgetValue(this, 0);
         }
         
-        return stdValue;
+        return new BudgetValue(this, sums[month] / 100.00);
     }
     
     public BudgetValue getBudgetValue(String aName, int month){
@@ -142,15 +144,12 @@ public class BudgetData  {
     }
     
     public BudgetValue getBTDValue(String aName, int month){
-        BudgetValue btdValue = new BudgetValue(this, 0);
-        for(int i=1; i<= month; i++){
-        	 if(! this.isBudgetNull(aName, i)){
-        		 BudgetValue thisValue = this.getBudgetValue(aName, i);
-        		 btdValue.add(thisValue);
-             }
+        double[] sums = this.budgetToDate.get(aName);
+        if(sums == null){
+        	return new BudgetValue(this, 0);
         }
         
-        return btdValue;
+        return new BudgetValue(this, sums[month]);
     }
 
     public void saveSummaryData(String aName, int month, BudgetValue value){
@@ -194,6 +193,7 @@ public class BudgetData  {
 		refreshPrefs();
 		fetchSpendingData();
 		fetchBudgetData(budgetName, budgetData);
+		fetchBudgetToDate();
 	}
 	
 	protected String getCellType(String acctName, int month){
@@ -293,6 +293,76 @@ public class BudgetData  {
 	}
 	
 	private void fetchSpendingData(){
+		  // one pass over the transactions fills the account by month totals,
+		  // each account is classified once instead of once per transaction
+		  cube = new BudgetSpendingCube(taxIsIncome);
+		  if( root.getBook().getTransactionSet() != null) {
+			  TxnSet ts = root.getBook().getTransactionSet().getAllTxns();
+			  for (int i = 0; i < ts.getSize(); i++) {
+		          AbstractTxn t = (AbstractTxn)ts.getTxn(i);
+		          addToCube(t, getParentId(t));
+			  }
+		  }
+
+		  fillSpendingData();
+	}
+	
+	/**
+	 * Applies added, modified and removed transactions to the spending totals, backing
+	 * out what each one added before and adding its current state, then rebuilds the
+	 * account lists and month totals from the cube. The other transactions are not read.
+	 * 
+	 * @return false if the spending data has not been fetched yet.
+	 */
+	protected boolean applyTransactionChanges(Collection<ParentTxn> changed, Collection<ParentTxn> removed){
+		  if(cube == null) return false;
+		  
+		  for (ParentTxn t : removed) {
+			  cube.removeTransaction(t.getUUID());
+		  }
+		  for (ParentTxn t : changed) {
+			  String parentId = t.getUUID();
+			  cube.removeTransaction(parentId);
+			  addToCube(t, parentId);
+			  for (int i = 0; i < t.getSplitCount(); i++) {
+				  addToCube(t.getSplit(i), parentId);
+			  }
+		  }
+
+		  fillSpendingData();
+		  return true;
+	}
+	
+	private void addToCube(AbstractTxn t, String parentId){
+		  Account txnAccount    = t.getAccount();
+		  AbstractTxn to = t.getOtherTxn(0);
+		  if(to == null) {
+			  this.println("ERROR: " + txnAccount.getFullAccountName());
+			  return;
+		  }
+		  
+		  int txnRow = cube.getRow(txnAccount);
+		  int othRow = cube.getRow(to.getAccount());
+		  if(cube.isIgnored(txnRow)) return;
+		  if(cube.isIgnored(othRow) && cube.isExpense(othRow)) return;
+		  if(cube.isMain(txnRow)){
+			  mainAccount = txnAccount;
+			  return;
+		  }
+		  if(cube.isMain(othRow) && cube.isExpense(othRow)) return;
+
+		  int txnDate = t.getDateInt();
+		  if(txnDate / 10000 != budgetYear) return;
+		  
+		  cube.addTransaction(parentId, txnRow, getMonth(txnDate), t.getValue());
+	}
+	
+	private static String getParentId(AbstractTxn t){
+		  if(t instanceof SplitTxn) return ((SplitTxn)t).getParentTxn().getUUID();
+		  return t.getUUID();
+	}
+	
+	private void fillSpendingData(){
 		  incomeAccounts  = new HashMap<Integer, String>();
 		  expenseAccounts = new HashMap<Integer, String>();
 		  moneyAccounts   = new HashMap<Integer, String>();
@@ -300,67 +370,66 @@ public class BudgetData  {
 		  for(int i = 0; i <= 12; i++){
 			  spendingData[i]  = new HashMap<String, BudgetValue>();
 		  }
+		  spendingToDate = new HashMap<String, long[]>();
 
-		  if( root.getBook().getTransactionSet() != null) {
-			  TxnSet ts = root.getBook().getTransactionSet().getAllTxns();
-			  for (int i = 0; i < ts.getSize(); i++) {
-		          AbstractTxn t = (AbstractTxn)ts.getTxn(i);
-		          Account txnAccount    = t.getAccount();
-		          AbstractTxn to = t.getOtherTxn(0);
-		          if(to == null) {
-		        	  this.println("ERROR: " + txnAccount.getFullAccountName());
-		        	  continue;
-		          }
-		          
-		          Account othAccount    = to.getAccount();
-		          if(txnAccount.getComment().indexOf("IGNORE") > -1) continue;
-		          if(othAccount.getComment().indexOf("IGNORE") > -1 && othAccount.getAccountType() == Account.AccountType.EXPENSE) continue;
-		          if(txnAccount.getComment().indexOf("MAIN") > -1){
-		        	  mainAccount = txnAccount;
-		        	  continue;
-		          }
-		          if(othAccount.getComment().indexOf("MAIN") > -1 && othAccount.getAccountType() == Account.AccountType.EXPENSE) continue;
-
-		          Integer accNum = new Integer(txnAccount.getAccountNum());
-		          String  accName = txnAccount.getFullAccountName();
-		          
-		          if (BudgetDateUtil.isInRange(getTxnDate(t),
-		        		                 new GregorianCalendar(budgetYear, 0, 1).getTime(),
-		        		                 new GregorianCalendar(budgetYear, 11, 31).getTime())) {
-
-		        	  Account topLvlAccount = txnAccount.getParentAccount();
-			          while(topLvlAccount.getParentAccount() != null){
-			        	  if(topLvlAccount.getParentAccount().getFullAccountName().length() > 0){
-			        		  topLvlAccount = topLvlAccount.getParentAccount();
-			        	  } else {
-			        		  break;
-			        	  }
-			          }
-			          
-		        	  if( txnAccount.getAccountType() == Account.AccountType.INCOME || 
-		        		 ( taxIsIncome && topLvlAccount.getFullAccountName().indexOf("Tax") > -1) ){
-		        		  incomeAccounts.put(accNum,accName);
-		        	  } else {
-		        		  if( txnAccount.getAccountType() == Account.AccountType.EXPENSE && accName.indexOf("Bank Charges") < 0){
-		        	      	  expenseAccounts.put(accNum,accName);
-		        	      } else {
-		        	      	  moneyAccounts.put(accNum,accName);
-		        	      }
-		        	  }
-		        	  
-		        	  addTransaction(spendingData[0], t);
-		        	  addTransaction(spendingData[getTxnMonth(t)], t);
-		          }
+		  for (int row = 0; row < cube.getRowCount(); row++) {
+			  if(! cube.hasTransactions(row)) continue;
+			  
+			  Account txnAccount = cube.getAccount(row);
+			  Integer accNum  = new Integer(txnAccount.getAccountNum());
+			  String  accName = txnAccount.getFullAccountName();
+			  if(cube.isIncome(row)){
+				  incomeAccounts.put(accNum,accName);
+			  } else if(cube.isSpending(row)){
+				  expenseAccounts.put(accNum,accName);
+			  } else {
+				  moneyAccounts.put(accNum,accName);
+			  }
+			  
+			  long[] sums = spendingToDate.get(accName);
+			  if(sums == null){
+				  sums = new long[BudgetSpendingCube.MONTHS];
+				  spendingToDate.put(accName, sums);
+			  }
+			  long runningTotal = 0;
+			  for(int month = 0; month <= 12; month++){
+				  // month 0 of the running totals stays at 0, nothing is spent before January
+				  if(month > 0){
+					  runningTotal += cube.getCents(row, month);
+					  sums[month]  += runningTotal;
+				  }
+				  if(! cube.hasTransactions(row, month)) continue;
+				  
+				  BudgetValue amount = new BudgetValue(this, cube.getCents(row, month) / 100.00);
+				  if(spendingData[month].get(accName) != null){
+					  // another account with the same name
+					  amount.add(spendingData[month].get(accName));
+				  }
+				  spendingData[month].put(accName, amount);
 			  }
 		  }
-
-
+	}
+	
+	private void fetchBudgetToDate(){
+		  budgetToDate = new HashMap<String, double[]>();
+		  for (String accName : budgetData[0].keySet()) {
+			  double[] sums = new double[13];
+			  for(int month = 1; month <= 12; month++){
+				  sums[month] = sums[month - 1];
+				  if(! this.isBudgetNull(accName, month)){
+					  sums[month] += this.getBudgetValue(accName, month).doubleValue();
+				  }
+			  }
+			  budgetToDate.put(accName, sums);
+		  }
 	}
 	
 	protected int getTxnMonth(AbstractTxn t) {
-		GregorianCalendar gc = getDate((new Integer(t.getDateInt())).toString());
-		
-		return gc.get(Calendar.MONTH)+1;
+		return getMonth(t.getDateInt());
+	}
+	
+	private static int getMonth(int dateInt) {
+		return (dateInt / 100) % 100;
 	}
 	
 	protected Date getTxnDate(AbstractTxn t) {
@@ -815,47 +884,6 @@ public class BudgetData  {
 	      return amount;
 	 }
 	 
-	 private void addTransaction(Map<String, BudgetValue>  txnMap, AbstractTxn t) {
-		  addTransaction(txnMap, t, INDEX_ACT_NAME);
-	 }
-
-	 private void addTransaction(Map<String, BudgetValue> txnMap, AbstractTxn t, int mapIndex) {
-	      if (t == null) return;
-
-	      Account   txnAccount = t.getAccount();
-	      
-	      BudgetValue tValue = new BudgetValue(this, t.getValue());
-	      tValue.setAccount(txnAccount);
-		  
-	      BudgetValue amount = new BudgetValue(this, tValue);
-	      
-	      amount.divide(100.00);
-	      
-	      BudgetValue sAmount = new BudgetValue(this, 0);
-
-	      String  accName      = txnAccount.getFullAccountName();
-	      
-	      Account topLvlAccount = txnAccount.getParentAccount();
-	      while(topLvlAccount.getParentAccount() != null){
-	    	  if(topLvlAccount.getParentAccount().getFullAccountName().length() > 0){
-	    		  topLvlAccount = topLvlAccount.getParentAccount();
-	    	  } else {
-	    		  break;
-	    	  }
-	      }
-
-	      if (txnAccount.getAccountType() == Account.AccountType.INCOME || 
-	    	  ( taxIsIncome && topLvlAccount.getFullAccountName().indexOf("Tax") > -1) ){
-	    	  amount.negate();
-	      }
-
-	      if (txnMap.get(accName) != null){
-	    	  sAmount.setValue(txnMap.get(accName));
-	      }
-	      sAmount.add(amount);
-	      txnMap.put(accName,sAmount.dFormat());
-	}
-	 
     void println(String message){
 		  java.util.Date date= new java.util.Date();
 		  System.err.println(new Timestamp(date.getTime()) + " : " + message);
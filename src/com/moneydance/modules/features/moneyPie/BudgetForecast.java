@@ -205,77 +205,10 @@ public void run() {
     return nf.format((float)cents/100.0);
   }
 
-  private void addRow(String type, 
-		              long date, 
-		              String description, 
-		              long amount, 
-		              long balance, ArrayList<BudgetForecastRow> rowList) {
-    
-	BudgetForecastRow row = new BudgetForecastRow();
-    row.type = type;
-
-    Calendar cal = Calendar.getInstance();
-    cal.setTimeInMillis(date);
-
-    if (date == 0) {
-      row.date = new String("");
-    } else {
-      row.date = new Long(date).toString();
-    }
-
-    row.description = description;
-    row.amount      = new Long(amount).toString();
-
-    //Scan rowList for collision between transaction types
-    boolean foundDuplicate = false;
-    for(int i = 0; i < rowList.size(); i++){
-      BudgetForecastRow data = (BudgetForecastRow) rowList.get(i);
-  
-  	  String txnType = data.type;
-  	  long   txnDate = new Long(data.date).longValue();
-  	  String txnDesc = data.description;
-  	  long   txnAmnt = new Long(data.amount).longValue();
-
-  	  Calendar txnCal = Calendar.getInstance();
-  	  txnCal.setTime(new Date(txnDate));
-
-  	  if(! txnType.equalsIgnoreCase(type)
-  	     && txnDesc.equalsIgnoreCase(description)
-  		 && cal.get(Calendar.MONTH) == txnCal.get(Calendar.MONTH)
-  		 && cal.get(Calendar.YEAR) == txnCal.get(Calendar.YEAR)){
-
-  		data.type = row.type+txnType;
-  		data.date = row.date;
-  		
-  		long dataAmount = 0;
-  		if(txnAmnt > 0){
-  			if(txnAmnt > amount){
-  				dataAmount = txnAmnt;
-  			} else {
-  				dataAmount = amount;
-  			}
-  		} else {
-  			if(txnAmnt < amount){
-  				dataAmount = txnAmnt;
-  			} else {
-  				dataAmount = amount;
-  			}
-  		}
-  		
-  		data.amount = (new Long(dataAmount)).toString();
-  		
-  		rowList.set(i, data);
-  		foundDuplicate = true;
-  	  }
-    }
-
-    if(! foundDuplicate){
-    	rowList.add(row);
-    }
-  }
-
-  private long findBudgetTxns(Calendar curr, long startBal, Account acct, ArrayList<BudgetForecastRow> rowList) {
-	  long    balance = startBal;
+  private long findBudgetTxns(Calendar curr, Account acct, BudgetForecastRows rowList) {
+	  long    balance = 0;
+	  int     budgetYear = data.getCurrentBudgetYear();
+	  boolean isMain  = acct.getComment().indexOf("MAIN") > -1;
 	  
 	  @SuppressWarnings("unchecked")
 	  Map<String, BudgetValue>[] budgetData = new Map[13];
@@ -284,11 +217,16 @@ public void run() {
 		  budgetData[i]  = new HashMap<String, BudgetValue>();
 	  }
 	  
-	  Calendar today = Calendar.getInstance();
-      today.setTime(curr.getTime());
-
 	  if(data.getRoot() == null) return balance;
 
+	  // budgets are placed on the 2nd of their month, months that start after the forecast ends are left out
+	  int firstMonth = curr.get(Calendar.MONTH) + 1;
+	  int lastMonth  = 0;
+	  for(int month = firstMonth; month <= 12; month++){
+		  if(prDate.before(new GregorianCalendar(budgetYear, month-1, 2).getTime())) break;
+		  lastMonth = month;
+	  }
+
 	  List<Budget> budgetList = data.getBudgetList().getAllBudgets();
 	  Budget b = null;
 	  for (int i = 0; i < budgetList.size(); i++) {
@@ -299,24 +237,14 @@ public void run() {
 		          Account a = bi.getTransferAccount();
 
 		          if(bi.getIntervalStartDate() > 0){
-		        	  for(int month = 1; month <= 12; month++){
-		        		  if(today.get(Calendar.MONTH) + 1 > month) continue;
-		        		  
-		        		  Date budgetDay = new GregorianCalendar(data.getCurrentBudgetYear(), month-1, 2).getTime();
-			              Calendar start = Calendar.getInstance();
-			        	  start.setTime(budgetDay);
-			        	  Calendar stop = Calendar.getInstance();
-			      	      stop.setTime(prDate);
-
-			      	      if (stop.before(start)) break;
-			      	      
-			        	  Date startDay   = new GregorianCalendar(data.getCurrentBudgetYear(), month-1, 1).getTime();
-			        	  Date endDay     = new GregorianCalendar(data.getCurrentBudgetYear(), month-1, getMonthEndDay(month, data.getCurrentBudgetYear())).getTime();
+		        	  for(int month = firstMonth; month <= lastMonth; month++){
+			        	  Date startDay   = new GregorianCalendar(budgetYear, month-1, 1).getTime();
+			        	  Date endDay     = new GregorianCalendar(budgetYear, month-1, getMonthEndDay(month, budgetYear)).getTime();
 
 			        	  String  budgetCategory = a.getFullAccountName();
 			        	  BudgetValue budgetedAmount = new BudgetValue(data, 0);
 			        	  
-			        	  if(acct.getComment().indexOf("MAIN") > -1) {
+			        	  if(isMain) {
 			        		  budgetedAmount = getBudgetedAmount(bi,startDay,endDay).negateValue();
 			        	  } else {
 			        		  if(acct.getAccountName().equalsIgnoreCase(budgetCategory)) {
@@ -325,7 +253,6 @@ public void run() {
 			        	  }
 			        	  
 			              if (budgetedAmount.isEqual(0)) continue;
-			              //this.println("DEBUG (BUDGET): " + startDay + " - " + endDay + " --> " + month + " : " + budgetCategory + " -- " + budgetedAmount);
 
 			      	      budgetData[month].put(budgetCategory,budgetedAmount);
 
@@ -337,16 +264,11 @@ public void run() {
           }
 	  }
 	  
-	  for(int month = 1; month <= 12; month++){
-		  Date budgetDay   = new GregorianCalendar(data.getCurrentBudgetYear(), month-1, 2).getTime();
-		  Iterator<?> it = budgetData[month].entrySet().iterator();
-		  while (it.hasNext()) {
-		        @SuppressWarnings("rawtypes")
-				Map.Entry pairs = (Map.Entry)it.next();
-		        
-		        String budgetCategory = pairs.getKey().toString();
-		        long budgetedAmount = ((BudgetValue) budgetData[month].get(budgetCategory)).longValue(); 
-		        it.remove(); 
+	  for(int month = firstMonth; month <= lastMonth; month++){
+		  long budgetDay = new GregorianCalendar(budgetYear, month-1, 2).getTimeInMillis();
+		  for (Map.Entry<String, BudgetValue> pairs : budgetData[month].entrySet()) {
+		        String budgetCategory = pairs.getKey();
+		        long budgetedAmount = pairs.getValue().longValue(); 
 		        
 		        balance += budgetedAmount;
 
@@ -354,7 +276,7 @@ public void run() {
 		        if(spendingData[month].get(budgetCategory) != null) {
 		        	  long spentAmount = 0;
 
-		        	  if(acct.getComment().indexOf("MAIN") > -1) {
+		        	  if(isMain) {
 		        		  spentAmount = ((BudgetValue) spendingData[month].get(budgetCategory)).longValue();
 		        	  } else {
 		        		  spentAmount = -((BudgetValue) spendingData[month].get(budgetCategory)).longValue();
@@ -364,7 +286,7 @@ public void run() {
 		        	  type = "BT";
 		        }
 		          
-		        addRow(type, BudgetDateUtil.getLngDateTime(budgetDay), budgetCategory, budgetedAmount, balance, rowList);
+		        rowList.add(type, budgetDay, budgetYear * 100 + month, budgetCategory, budgetedAmount);
 		  }
 	  }
 	  
@@ -372,9 +294,9 @@ public void run() {
 	  return balance;
   }
 
-  private long findFutureTxns(long startBal, Account acct, ArrayList<BudgetForecastRow> rowList) {
+  private long findFutureTxns(Account acct, int today, BudgetForecastRows rowList) {
     AbstractTxn   txn;
-    long          balance = startBal;
+    long          balance = 0;
     int           i;
 
     TxnSet txns = data.getTxnSet(acct);
@@ -382,24 +304,53 @@ public void run() {
     	return balance;
     }
     
-    JDateField todayField = new JDateField(new CustomDateFormat("MM/dd/yyyy"));
-    todayField.gotoToday();
-    int today = todayField.getDateInt();
-    
     for (i=0; i<txns.getSize(); i++) {
       txn = txns.getTxn(i);
-      if (txn.getDateInt() > today){
+      int txnDate = txn.getDateInt();
+      if (txnDate > today){
     	  
-        //TODO: Limit by prDate
         balance += txn.getValue();
 
-        addRow("F", data.getTxnDate(txn).getTime(), 
-        		    txn.getDescription(), txn.getValue(), balance, rowList);
+        rowList.add("F", BudgetDateUtil.getDateYYYYMMDD(txnDate).getTime(), txnDate / 100,
+        		    txn.getDescription(), txn.getValue());
       }
     }
     return balance;
   }
 
+  /**
+   * Adds a row for each time a reminder touching the account comes due before the forecast
+   * ends. A reminder due on a day is placed on the day before, as it has always been shown.
+   */
+  private void findReminderTxns(Account cacct, long[] dayStarts, int[] dayInts, int days, BudgetForecastRows rowList) {
+    ReminderOccurrences.Occurrences due = predConf.occurrences.getOccurrences(dayInts[1], dayInts[days]);
+    int n = due.indexOf(dayInts[1]);
+
+    for (int day = 0; day < days; day++) {
+      int nextDay = dayInts[day + 1];
+
+      for (; n < due.size() && due.getDate(n) <= nextDay; n++) {
+        Reminder  r    = due.getReminder(n);
+        ParentTxn ptxn = r.getTransaction();
+            	
+        if (ptxn.getAccount().equals(cacct)) {
+          rowList.add("R", dayStarts[day], dayInts[day] / 100, r.getDescription(), ptxn.getValue());
+        }
+                
+        for(int i=0; i<ptxn.getSplitCount(); i++) {
+          SplitTxn stxn = ptxn.getSplit(i);
+          if (stxn.getAccount().equals(cacct)) {
+            long val = CurrencyTable.convertValue(stxn.getAmount(),
+                                                  stxn.getParentTxn().getAccount().getCurrencyType(),
+                                                  cacct.getCurrencyType(),
+                                                  ptxn.getDateInt());
+            rowList.add("R", dayStarts[day], dayInts[day] / 100, r.getDescription(), val);
+          }
+        }
+      }
+    }
+  }
+
   private void createChart(){
 	  calcPrDate();
 	  
@@ -509,10 +460,6 @@ private JFreeChart buildChart(XYSeriesCollection dataset, boolean showZero){
 }
 private XYSeries calcPredictedRBalance(Account cacct) {
 
-    ArrayList<BudgetForecastRow> rowList = new ArrayList<BudgetForecastRow>();
-    ArrayList<BudgetForecastRow> txnList = new ArrayList<BudgetForecastRow>();
-
-    long changes  = 0;
     long startingBalance = getAccountBalance(cacct); 
     long currentBalance  = startingBalance;
     
@@ -523,19 +470,6 @@ private XYSeries calcPredictedRBalance(Account cacct) {
 	    curr.set(Calendar.SECOND, 0);
 	    curr.set(Calendar.MILLISECOND, 0);
 
-    Calendar today = Calendar.getInstance();
-    today.setTime(curr.getTime());
-
-    addRow("S",BudgetDateUtil.getLngDateTime(Calendar.getInstance().getTime()),"Starting Balance",0,currentBalance, rowList);
-
-    findFutureTxns(currentBalance, cacct, txnList);
-    findBudgetTxns(curr, currentBalance, cacct, txnList);
-
-    final XYSeries series = new XYSeries(cacct.getAccountName(), false, true);
-    series.add(BudgetDateUtil.getLngDateTime(curr.getTime()), currentBalance/100.0);
-
-    curr.setTime(today.getTime());
-
     Calendar stop = Calendar.getInstance();
 	    stop.setTime(prDate);
 	    stop.set(Calendar.HOUR_OF_DAY, 12);
@@ -545,109 +479,90 @@ private XYSeries calcPredictedRBalance(Account cacct) {
 	    stop.set(Calendar.MILLISECOND, 0);
     if (stop.before(curr)) return null;
 
-    ParentTxn ptxn = null;
-    SplitTxn  stxn = null;
-
-    //Find all Reminders
-    //Calendar nextDay;
-    
-    while(curr.before(stop) || curr.equals(stop)) {
-
-      long currentTime = BudgetDateUtil.getLngDateTime(curr.getTime());
-      Calendar nextDay = Calendar.getInstance();
-      nextDay.setTime(curr.getTime());
-      nextDay.add(Calendar.DAY_OF_MONTH, 1);
-
-      List<Reminder> rl = predConf.rs.getRemindersOnDay(nextDay);
-      for (int n = 0; n < rl.size(); n++) {
-        Reminder r = rl.get(n);
-        //if ( (r.getReminderType() == Reminder.Type.typeForCode(Reminder.TXN_REMINDER_TYPE)) ) {
-        	//if ( ((Boolean)remindersStatus.get(r)).booleanValue() ) {
-
-            	ptxn = r.getTransaction();
-            	
-                if (ptxn.getAccount().equals(cacct)) {
-                  changes += ptxn.getValue();
-                  addRow("R", currentTime, r.getDescription(), ptxn.getValue(), currentBalance + changes, txnList);
-                }
-                
-                for(int i=0; i<ptxn.getSplitCount(); i++) {
-                  stxn = ptxn.getSplit(i);
-                  if (stxn.getAccount().equals(cacct)) {
-                    long val = CurrencyTable.convertValue(stxn.getAmount(),
-                                                          stxn.getParentTxn().getAccount().getCurrencyType(),
-                                                          cacct.getCurrencyType(),
-                                                          ptxn.getDateInt());
-                    changes += val;
-                    addRow("R", currentTime, r.getDescription(), val, currentBalance + changes, txnList);
-                  }
-                }
-            //}
-        //}
+    // the start time and date of every forecast day, with the start of the day after the last one at the end
+    long[] dayStarts = new long[64];
+    int[]  dayInts   = new int[64];
+    int    days      = 0;
+    Calendar day = (Calendar) curr.clone();
+    while(true) {
+      if (days == dayInts.length) {
+        dayStarts = Arrays.copyOf(dayStarts, days * 2);
+        dayInts   = Arrays.copyOf(dayInts, days * 2);
       }
+      dayStarts[days] = day.getTimeInMillis();
+      dayInts[days]   = day.get(Calendar.YEAR) * 10000 + (day.get(Calendar.MONTH) + 1) * 100 + day.get(Calendar.DAY_OF_MONTH);
+      if (day.after(stop)) break;
+      days++;
+      day.add(Calendar.DAY_OF_MONTH, 1);
+    }
 
-      curr.add(Calendar.DAY_OF_MONTH, 1);
+    BudgetForecastRows txnList = new BudgetForecastRows();
+    findFutureTxns(cacct, dayInts[0], txnList);
+    findBudgetTxns(curr, cacct, txnList);
+    findReminderTxns(cacct, dayStarts, dayInts, days, txnList);
+
+    // sort the rows into their forecast days in one pass, keeping their order within a day;
+    // budget rows only count toward the balance once combined with a transaction or reminder
+    int[] rowDay  = new int[txnList.size()];
+    int[] dayNext = new int[days + 1];
+    for (int i = 0; i < txnList.size(); i++) {
+      BudgetForecastRow row = txnList.get(i);
+      rowDay[i] = -1;
+      if (row.type.equalsIgnoreCase("B") || row.type.equalsIgnoreCase("BT")) continue;
+      if (row.date < dayStarts[0] || row.date >= dayStarts[days]) continue;
+
+      int index = Arrays.binarySearch(dayStarts, 0, days + 1, row.date);
+      rowDay[i] = (index >= 0) ? index : -index - 2;
+      dayNext[rowDay[i] + 1]++;
+    }
+    for (int d = 0; d < days; d++) dayNext[d + 1] += dayNext[d];
+    int[] dayRows = new int[dayNext[days]];
+    for (int i = 0; i < txnList.size(); i++) {
+      if (rowDay[i] >= 0) dayRows[dayNext[rowDay[i]]++] = i;
     }
 
-    //Loop through all found transactions and chart by date
-    curr.setTime(today.getTime());
-    changes = 0;
-    while(curr.before(stop) || curr.equals(stop)) {
-        long currentTime = BudgetDateUtil.getLngDateTime(curr.getTime());
-
-        Calendar nextDay = Calendar.getInstance();
-        nextDay.setTime(curr.getTime());
-        nextDay.add(Calendar.DAY_OF_MONTH, 1);
-
-        //Loop through array and add all found transactions
-        for(int i = 0; i < txnList.size(); i++){
-          
-          BudgetForecastRow data = (BudgetForecastRow) txnList.get(i);
-
-      	  long txnDate = new Long((String) data.date).longValue();
-      	  
-      	  if(txnDate >= curr.getTime().getTime() && txnDate < nextDay.getTime().getTime()){
-      	  	long txnAmt = new Long((String) data.amount).longValue();
-      	  	String txnType = data.type;
-
-      	  	if (! txnType.equalsIgnoreCase("B") &&
-      	  		! txnType.equalsIgnoreCase("BT")){
-      	  	    changes += txnAmt;
-      	  		addRow(txnType, txnDate, data.description, txnAmt, currentBalance + changes, rowList);
-      	  	}
-
-      	  }
-        }
+    BudgetForecastRows rowList = new BudgetForecastRows();
+    rowList.add("S", System.currentTimeMillis(), dayInts[0] / 100, "Starting Balance", 0);
 
-        series.add(currentTime, (currentBalance + changes)/100.0);
-        curr.add(Calendar.DAY_OF_MONTH, 1);
+    // a step chart only needs a point where the balance changes, and one at the end
+    final XYSeries series = new XYSeries(cacct.getAccountName(), false, true);
+    series.add(dayStarts[0], currentBalance/100.0);
+
+    int next = 0;
+    for (int d = 0; d < days; d++) {
+      boolean changed = false;
+      for (; next < dayNext[d]; next++) {
+        BudgetForecastRow data = txnList.get(dayRows[next]);
+        currentBalance += data.amount;
+        rowList.add(data.type, data.date, data.month, data.description, data.amount);
+        changed = true;
+      }
+      if (changed || d == days - 1) series.add(dayStarts[d], currentBalance/100.0);
     }
 
 
     if(cacct.getAccountName().equalsIgnoreCase(predConf.getAccount().getAccountName())){
-    	fillTable(startingBalance, rowList);
+    	fillTable(startingBalance, rowList.getRows());
     }
     
     return series;
   }
 
-  private void fillTable(long balance, ArrayList<BudgetForecastRow> rowList){
+  private void fillTable(long balance, List<BudgetForecastRow> rowList){
 
 	    Collections.sort(rowList);
 	    
 	    tabData = new Object[rowList.size()][5];
 
 	    for (int i=0; i<rowList.size(); i++) {
-	    	BudgetForecastRow row = (BudgetForecastRow) rowList.get(i);
-	    	long txnDate  = new Long((String) row.date).longValue();
-		    long txnAmt   = new Long((String) row.amount).longValue();
-		    balance = balance + txnAmt;
+	    	BudgetForecastRow row = rowList.get(i);
+		    balance = balance + row.amount;
 		    
 	    	Object[] data = new Object[5];
 	    	data[0] = row.type;
-	    	data[1] = dateFormat.format(txnDate);
+	    	data[1] = dateFormat.format(row.date);
 	    	data[2] = row.description;
-	    	data[3] = format(txnAmt);
+	    	data[3] = format(row.amount);
 	    	data[4] = format(balance);
 
 	        tabData[i] = data;
@@ -826,29 +741,10 @@ private XYSeries calcPredictedRBalance(Account cacct) {
 			          if(txnAccount.getComment().indexOf("IGNORE") > -1) continue;
 			          if(othAccount.getComment().indexOf("IGNORE") > -1 && othAccount.getAccountType() == Account.AccountType.EXPENSE) continue;
 
-			          String dt = (new Integer(t.getDateInt())).toString();
-			          GregorianCalendar gc = new GregorianCalendar();
-			          gc.set(Calendar.YEAR, new Integer(dt.substring(0,4)).intValue() );
-			          gc.set(Calendar.MONTH, new Integer(dt.substring(4,6)).intValue() - 1 );
-			          gc.set(Calendar.DAY_OF_MONTH, new Integer(dt.substring(6,8)).intValue() );
-			          gc.set(Calendar.HOUR_OF_DAY,0);
-			          gc.set(Calendar.MINUTE,0);
-			          gc.set(Calendar.SECOND,0);
-			          gc.set(Calendar.MILLISECOND,0);
-
-			          if (BudgetDateUtil.isInRange(gc.getTime(),new GregorianCalendar(data.getCurrentBudgetYear(), 0, 1).getTime()
-			        		                   ,new GregorianCalendar(data.getCurrentBudgetYear(), 11, 31).getTime())) {
-
-			        	  Account topLvlAccount = txnAccount.getParentAccount();
-				          while(topLvlAccount.getParentAccount() != null){
-				        	  if(topLvlAccount.getParentAccount().getFullAccountName().length() > 0){
-				        		  topLvlAccount = topLvlAccount.getParentAccount();
-				        	  } else {
-				        		  break;
-				        	  }
-				          }
-
-			        	  addTransaction(spendingData[gc.get(Calendar.MONTH)+1], t, gc.get(Calendar.MONTH)+1);
+			          int txnDate = t.getDateInt();
+			          if (txnDate / 10000 == data.getCurrentBudgetYear()) {
+			        	  int month = (txnDate / 100) % 100;
+			        	  addTransaction(spendingData[month], t, month);
 			          }
 		          }
 		          
@@ -23,6 +23,7 @@ public class BudgetForecastConf implements ActionListener {
   public String extensionName = null;
   public JComboBox <Account>cbAccounts = new JComboBox <Account>();
   public ReminderSet rs = null;
+  public ReminderOccurrences occurrences = null;
   public String dateFormatStr = "MM/dd/yy";
 
   public BudgetForecastConf(AccountBook root, String extensionName) {
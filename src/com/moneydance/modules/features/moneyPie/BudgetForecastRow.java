@@ -1,13 +1,16 @@
+
 package com.moneydance.modules.features.moneyPie;
 
 public class BudgetForecastRow implements Comparable<BudgetForecastRow> {
 	public String      type;
-	public String      date;
+	public long        date;
+	// year and month of the row as YYYYMM, rows are only combined within a month
+	public int         month;
 	public String      description;
-	public String      amount;
+	public long        amount;
 	
 	public int compareTo(BudgetForecastRow d){
-	    return (this.date).compareTo(d.date);
+	    return Long.compare(this.date, d.date);
 	}
 	
 	public int compare(BudgetForecastRow d, BudgetForecastRow d1){
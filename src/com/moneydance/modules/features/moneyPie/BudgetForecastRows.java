@@ -0,0 +1,80 @@
+/************************************************************\
+ *       Copyright (C) 2010 Raging Coders                   *
+\************************************************************/
+package com.moneydance.modules.features.moneyPie;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rows of a forecast. A row of one type with the same description in the same
+ * month as a row of another type (a reminder and the transaction entered for it, say)
+ * is combined into that row rather than added. The rows are indexed by description and
+ * month so that finding them does not scan the whole list.
+ */
+class BudgetForecastRows {
+	private final List<BudgetForecastRow>   rows    = new ArrayList<BudgetForecastRow>();
+	private final Map<String, List<Integer>> byMonth = new HashMap<String, List<Integer>>();
+
+	/**
+	 * Adds a row, or combines it into the rows of other types with the same description
+	 * and month. A combined row takes the new row's date and whichever of the two amounts
+	 * is larger in the direction of the existing one.
+	 *
+	 * @param type        The kind of row: S(tart), F(uture transaction), B(udget), R(eminder)...
+	 * @param date        The time of the row in milliseconds.
+	 * @param month       The year and month of the row as YYYYMM.
+	 * @param description The description of the row.
+	 * @param amount      The amount of the row in cents.
+	 */
+	void add(String type, long date, int month, String description, long amount){
+		String key = description.toLowerCase() + "\t" + month;
+
+		boolean foundDuplicate = false;
+		List<Integer> sameMonth = byMonth.get(key);
+		if(sameMonth != null){
+			for(Integer index : sameMonth){
+				BudgetForecastRow data = rows.get(index.intValue());
+				if(data.type.equalsIgnoreCase(type) || !data.description.equalsIgnoreCase(description)) continue;
+
+				data.type = type + data.type;
+				data.date = date;
+				if(data.amount > 0){
+					data.amount = Math.max(data.amount, amount);
+				} else {
+					data.amount = Math.min(data.amount, amount);
+				}
+				foundDuplicate = true;
+			}
+		}
+		if(foundDuplicate) return;
+
+		BudgetForecastRow row = new BudgetForecastRow();
+		row.type        = type;
+		row.date        = date;
+		row.month       = month;
+		row.description = description;
+		row.amount      = amount;
+
+		if(sameMonth == null){
+			sameMonth = new ArrayList<Integer>(1);
+			byMonth.put(key, sameMonth);
+		}
+		sameMonth.add(Integer.valueOf(rows.size()));
+		rows.add(row);
+	}
+
+	int size(){
+		return rows.size();
+	}
+
+	BudgetForecastRow get(int index){
+		return rows.get(index);
+	}
+
+	List<BudgetForecastRow> getRows(){
+		return rows;
+	}
+}
@@ -170,6 +170,13 @@ public class BudgetHomePageView extends JPanel {
     	generatePanel();
 	}
 	
+	protected void redraw(){
+		contentPanel.removeAll();
+		generatePanel();
+		contentPanel.revalidate();
+		contentPanel.repaint();
+	}
+	
 	private void refreshRefs(){
 		this.extension.setup();
 		this.data        = this.extension.getBudgetData();
@@ -12,6 +12,7 @@ import com.infinitekind.moneydance.model.*;
 public class BudgetHomePageViewController implements HomePageView, Observer {
   private  Main                extension;
   private  JViewport           viewport;
+  private  BudgetHomePageView  view;
   private  boolean             initialized;
 
   public BudgetHomePageViewController(Main extension) {
@@ -29,10 +30,22 @@ public class BudgetHomePageViewController implements HomePageView, Observer {
       return;
     }
 
-    this.viewport.setView(new BudgetHomePageView(extension));
+    this.view = new BudgetHomePageView(extension);
+    this.viewport.setView(this.view);
 
   }
 
+  /**
+   * Redraws the current view from the budget data as it is, without fetching it again.
+   */
+  public synchronized void dataChanged() {
+    if (this.view == null || !this.viewport.isVisible()) {
+      return;
+    }
+
+    this.view.redraw();
+  }
+
   public void update(final Observable observable, final Object object) {
     this.refresh();
   }
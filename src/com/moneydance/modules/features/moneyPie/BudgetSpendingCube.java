@@ -0,0 +1,206 @@
+/************************************************************\
+ *       Copyright (C) 2010 Raging Coders                   *
+\************************************************************/
+package com.moneydance.modules.features.moneyPie;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.infinitekind.moneydance.model.*;
+
+/**
+ * Spending for one budget year, by account and month. Each account is classified once,
+ * the first time a transaction touches it, so the transaction pass only tests flags and
+ * adds to the account's row. Month 0 holds the year total.
+ *
+ * Amounts are kept exact in hundredths of a cent and rounded to the cent when read, and
+ * what each parent transaction and its splits added is remembered, so a changed or removed
+ * transaction can be backed out again without going over the other transactions.
+ */
+class BudgetSpendingCube {
+	static final int MONTHS = 13;
+
+	private static final int IGNORED  = 1;
+	private static final int MAIN     = 2;
+	private static final int EXPENSE  = 4;
+	// income, or tax when tax counts as income; these values are negated
+	private static final int INCOME   = 8;
+	// an expense category that shows in the expense table (bank charges don't)
+	private static final int SPENDING = 16;
+
+	private final boolean taxIsIncome;
+	private final Map<Account, Integer> rows = new HashMap<Account, Integer>();
+	private Account[] accounts   = new Account[64];
+	private int[]     flags      = new int[64];
+	private long[][]  hundredths = new long[64][];
+	// the number of transactions in each cell
+	private int[][]   counts     = new int[64][];
+	private int       rowCount   = 0;
+
+	// row, month and amount of everything each parent transaction added, by parent id
+	private final Map<String, long[]> contributions = new HashMap<String, long[]>();
+
+	BudgetSpendingCube(boolean taxIsIncome){
+		this.taxIsIncome = taxIsIncome;
+	}
+
+	/**
+	 * Returns the row of an account, classifying the account the first time it is seen.
+	 */
+	int getRow(Account account){
+		Integer row = rows.get(account);
+		if(row != null) return row.intValue();
+
+		if(rowCount == accounts.length){
+			int size = rowCount * 2;
+			accounts   = Arrays.copyOf(accounts, size);
+			flags      = Arrays.copyOf(flags, size);
+			hundredths = Arrays.copyOf(hundredths, size);
+			counts     = Arrays.copyOf(counts, size);
+		}
+		accounts[rowCount]   = account;
+		flags[rowCount]      = classify(account);
+		hundredths[rowCount] = new long[MONTHS];
+		counts[rowCount]     = new int[MONTHS];
+		rows.put(account, Integer.valueOf(rowCount));
+		return rowCount++;
+	}
+
+	private int classify(Account account){
+		int result = 0;
+		String comment = account.getComment();
+		if(comment.indexOf("IGNORE") > -1) result |= IGNORED;
+		if(comment.indexOf("MAIN") > -1) result |= MAIN;
+		if(account.getAccountType() == Account.AccountType.EXPENSE) result |= EXPENSE;
+
+		Account topLvlAccount = account.getParentAccount();
+		if(topLvlAccount != null){
+			while(topLvlAccount.getParentAccount() != null){
+				if(topLvlAccount.getParentAccount().getFullAccountName().length() > 0){
+					topLvlAccount = topLvlAccount.getParentAccount();
+				} else {
+					break;
+				}
+			}
+		}
+
+		if( account.getAccountType() == Account.AccountType.INCOME ||
+			( taxIsIncome && topLvlAccount != null && topLvlAccount.getFullAccountName().indexOf("Tax") > -1) ){
+			result |= INCOME;
+		} else if( account.getAccountType() == Account.AccountType.EXPENSE &&
+				   account.getFullAccountName().indexOf("Bank Charges") < 0 ){
+			result |= SPENDING;
+		}
+		return result;
+	}
+
+	int getRowCount(){
+		return rowCount;
+	}
+
+	Account getAccount(int row){
+		return accounts[row];
+	}
+
+	boolean isIgnored(int row){
+		return (flags[row] & IGNORED) != 0;
+	}
+
+	boolean isMain(int row){
+		return (flags[row] & MAIN) != 0;
+	}
+
+	boolean isExpense(int row){
+		return (flags[row] & EXPENSE) != 0;
+	}
+
+	boolean isIncome(int row){
+		return (flags[row] & INCOME) != 0;
+	}
+
+	boolean isSpending(int row){
+		return (flags[row] & SPENDING) != 0;
+	}
+
+	boolean hasTransactions(int row){
+		return counts[row][0] > 0;
+	}
+
+	boolean hasTransactions(int row, int month){
+		return counts[row][month] > 0;
+	}
+
+	/**
+	 * The total of a cell in cents, rounded half even.
+	 */
+	long getCents(int row, int month){
+		long sum       = hundredths[row][month];
+		long quotient  = Math.floorDiv(sum, 100);
+		long remainder = sum - quotient * 100;
+		if(remainder > 50 || (remainder == 50 && (quotient & 1) != 0)) quotient++;
+		return quotient;
+	}
+
+	/**
+	 * Adds a transaction to its month and to the year total.
+	 *
+	 * @param parentId The id of the transaction's parent, which the amount is remembered under.
+	 * @param row      The row of the transaction's account.
+	 * @param month    The month of the transaction, 1 to 12.
+	 * @param value    The value of the transaction in the account's currency.
+	 */
+	void addTransaction(String parentId, int row, int month, long value){
+		long amount = toBaseHundredths(accounts[row], value);
+		if(isIncome(row)) amount = -amount;
+
+		add(row, month, amount, 1);
+
+		long[] added = contributions.get(parentId);
+		int    used  = 0;
+		if(added == null){
+			added = new long[3];
+		} else {
+			used  = added.length;
+			added = Arrays.copyOf(added, used + 3);
+		}
+		added[used]     = row;
+		added[used + 1] = month;
+		added[used + 2] = amount;
+		contributions.put(parentId, added);
+	}
+
+	/**
+	 * Backs out everything a parent transaction and its splits added.
+	 *
+	 * @param parentId The id of the parent transaction.
+	 */
+	void removeTransaction(String parentId){
+		long[] added = contributions.remove(parentId);
+		if(added == null) return;
+
+		for(int i = 0; i < added.length; i += 3){
+			add((int)added[i], (int)added[i + 1], -added[i + 2], -1);
+		}
+	}
+
+	private void add(int row, int month, long amount, int count){
+		hundredths[row][0]     += amount;
+		hundredths[row][month] += amount;
+		counts[row][0]         += count;
+		counts[row][month]     += count;
+	}
+
+	/**
+	 * The value of a transaction in hundredths of a cent of the base currency, rounded
+	 * to the cent the same way as BudgetValue.
+	 */
+	private static long toBaseHundredths(Account account, long value){
+		double rate = account.getCurrencyType().getRawRate();
+		if(rate == 1.0) return value * 100;
+		return BigDecimal.valueOf(value).divide(BigDecimal.valueOf(rate), 2, RoundingMode.HALF_UP)
+		                 .movePointRight(2).longValue();
+	}
+}
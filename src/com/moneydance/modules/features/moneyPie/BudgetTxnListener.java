@@ -0,0 +1,100 @@
+/************************************************************\
+ *       Copyright (C) 2010 Raging Coders                   *
+\************************************************************/
+package com.moneydance.modules.features.moneyPie;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.Timer;
+
+import com.infinitekind.moneydance.model.*;
+
+/**
+ * Keeps the budget spending current as transactions are entered or downloaded. Changes
+ * are collected by parent transaction, since a split is counted with its parent, and are
+ * applied together once no more have arrived for a short while, so a download of many
+ * transactions leads to one update and one repaint.
+ */
+class BudgetTxnListener implements TransactionListener, ActionListener {
+	private static final int DELAY_MILLIS = 500;
+
+	private final Main  extension;
+	private final Timer timer;
+	private final Map<String, ParentTxn> changedTxns = new LinkedHashMap<String, ParentTxn>();
+	private final Map<String, ParentTxn> removedTxns = new LinkedHashMap<String, ParentTxn>();
+
+	BudgetTxnListener(Main extension){
+		this.extension = extension;
+		this.timer     = new Timer(DELAY_MILLIS, this);
+		this.timer.setRepeats(false);
+	}
+
+	public void transactionAdded(AbstractTxn txn){
+		txnChanged(txn);
+	}
+
+	public void transactionModified(AbstractTxn txn){
+		txnChanged(txn);
+	}
+
+	public void transactionRemoved(AbstractTxn txn){
+		// removing a split changes its parent
+		if(txn instanceof SplitTxn){
+			txnChanged(txn);
+			return;
+		}
+		ParentTxn parent = getParent(txn);
+		if(parent == null) return;
+		synchronized(this){
+			changedTxns.remove(parent.getUUID());
+			removedTxns.put(parent.getUUID(), parent);
+		}
+		timer.restart();
+	}
+
+	private void txnChanged(AbstractTxn txn){
+		ParentTxn parent = getParent(txn);
+		if(parent == null) return;
+		synchronized(this){
+			removedTxns.remove(parent.getUUID());
+			changedTxns.put(parent.getUUID(), parent);
+		}
+		timer.restart();
+	}
+
+	/**
+	 * Called on the event thread once the changes have settled.
+	 */
+	public void actionPerformed(ActionEvent e){
+		List<ParentTxn> changed;
+		List<ParentTxn> removed;
+		synchronized(this){
+			changed = new ArrayList<ParentTxn>(changedTxns.values());
+			removed = new ArrayList<ParentTxn>(removedTxns.values());
+			changedTxns.clear();
+			removedTxns.clear();
+		}
+		if(changed.isEmpty() && removed.isEmpty()) return;
+
+		extension.applyTransactionChanges(changed, removed);
+	}
+
+	void stop(){
+		timer.stop();
+		synchronized(this){
+			changedTxns.clear();
+			removedTxns.clear();
+		}
+	}
+
+	private static ParentTxn getParent(AbstractTxn txn){
+		if(txn instanceof ParentTxn) return (ParentTxn)txn;
+		if(txn instanceof SplitTxn) return ((SplitTxn)txn).getParentTxn();
+		return null;
+	}
+}
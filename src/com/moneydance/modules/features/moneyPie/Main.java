@@ -8,6 +8,7 @@ import com.moneydance.apps.md.controller.FeatureModule;
 import com.moneydance.apps.md.controller.FeatureModuleContext;
 
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.Observable;
 import java.util.Observer;
 import java.io.*;
@@ -24,6 +25,8 @@ public class Main extends FeatureModule implements Observer {
   private BudgetHomePageViewController homeView   = null;
   private BudgetPreferences            prefs;
   private BudgetData                   data;
+  private BudgetTxnListener            txnListener;
+  private ReminderOccurrences          occurrences;
 
   public Main(){
 
@@ -52,6 +55,8 @@ public class Main extends FeatureModule implements Observer {
 	if(this.getRoot() != null){
 		if(this.data == null){
 			this.data = new BudgetData(this);
+			this.txnListener = new BudgetTxnListener(this);
+			this.getBook().getTransactionSet().addTransactionListener(this.txnListener);
 		}
 
 		if(mainWindow == null) {
@@ -65,6 +70,11 @@ public class Main extends FeatureModule implements Observer {
 					  "Forecast: " + this.data.getCurrentBudgetName() +
 					  " (" + data.getCurrentBudgetYear() + ") ");
 
+			if(occurrences == null){
+				occurrences = new ReminderOccurrences(conf.rs);
+			}
+			conf.occurrences = occurrences;
+
 			castWindow = new BudgetForecast(this, conf);
 		}
 
@@ -79,8 +89,18 @@ public class Main extends FeatureModule implements Observer {
   public String getName(){
 	  return "MoneyPie";
   }
-
+
   public void cleanup() {
+    if(txnListener != null) {
+      txnListener.stop();
+      if(this.getRoot() != null) {
+        this.getBook().getTransactionSet().removeTransactionListener(txnListener);
+      }
+    }
+    if(occurrences != null) {
+      occurrences.close();
+      occurrences = null;
+    }
     closeConsole();
   }
 
@@ -113,6 +133,18 @@ public class Main extends FeatureModule implements Observer {
 	  return this.data;
   }
 
+  /**
+   * Applies transaction changes to the budget data and repaints the open views from it,
+   * without going over the whole file again.
+   */
+  protected synchronized void applyTransactionChanges(Collection<ParentTxn> changed, Collection<ParentTxn> removed){
+	  if(this.data == null || !this.data.applyTransactionChanges(changed, removed)) return;
+
+	  if(mainWindow != null) mainWindow.tablePaint();
+	  if(rprtWindow != null) rprtWindow.updateReport();
+	  if(homeView != null) homeView.dataChanged();
+  }
+
 
   /** Process an invocation of this module with the given URI */
   public void invoke(String uri) {
@@ -0,0 +1,336 @@
+/*
+ * ************************************************************************
+ * Copyright (C) 2012-2015 Mennē Software Solutions, LLC
+ *
+ * This code is released as open source under the Apache 2.0 License:<br/>
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">
+ * http://www.apache.org/licenses/LICENSE-2.0</a><br />
+ * ************************************************************************
+ */
+
+package com.moneydance.modules.features.ratios;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.Account;
+import com.infinitekind.moneydance.model.AccountBook;
+import com.infinitekind.moneydance.model.AccountUtil;
+import com.infinitekind.moneydance.model.CurrencySnapshot;
+import com.infinitekind.moneydance.model.CurrencyType;
+import com.infinitekind.moneydance.model.CurrencyUtil;
+import com.infinitekind.moneydance.model.TxnSet;
+import com.moneydance.apps.md.controller.Util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Daily account balances over a date range, shared by all of the ratios of one computation. The home page ratios
+ * keep theirs from one update to the next, and each report has its own, so the two do not discard each other's
+ * balances when their date ranges differ. Each account's balances are built once from the account's transactions
+ * as a running balance for every day, along with its prefix sums, so the balance on any day and the average
+ * balance over any span of days are answered without asking Moneydance for the balance of each day.
+ * <p>
+ * Balances are in the account's own currency and are not negated. For investment accounts the value of the
+ * securities is included, converted into the account's currency. The start and end balances are converted
+ * exactly on their dates. For the daily average each security is converted with the price in effect since its
+ * most recent price change, which changes the average by at most a fraction of a cent. Those averages depend on
+ * the prices known when they were built, so an investment account's balances are built again once the prices
+ * of its securities change.
+ */
+class DailyBalanceCache {
+  // scale used to turn a price into a conversion factor for the daily security values
+  private static final long RATE_SCALE = 100000000L;
+  private final AccountBook _root;
+  private final Map<Account, Series> _seriesCache = new HashMap<Account, Series>();
+  private int _firstDate = 0;
+  private int _lastDate = 0;
+
+  DailyBalanceCache(final AccountBook root) {
+    _root = root;
+  }
+
+  /**
+   * Define the dates that will be asked for. If the range differs from the current one, all of the cached
+   * balances are discarded. Dates outside of the range can still be asked for, but are not cached.
+   * @param firstDate The first date, which is usually the day before the start of a ratio's date range.
+   * @param lastDate  The last date.
+   */
+  synchronized void setDateRange(final int firstDate, final int lastDate) {
+    if ((firstDate == _firstDate) && (lastDate == _lastDate)) return;
+    _seriesCache.clear();
+    _firstDate = firstDate;
+    _lastDate = lastDate;
+  }
+
+  /**
+   * Discard the balances of an account whose transactions have changed.
+   * @param account The account that changed.
+   */
+  synchronized void invalidate(final Account account) {
+    _seriesCache.remove(account);
+    // investment account balances include their securities
+    if (account.getAccountType() == Account.AccountType.SECURITY) {
+      _seriesCache.remove(account.getParentAccount());
+    }
+  }
+
+  /**
+   * Discard the balances of investment accounts holding a security whose prices have changed since the balances
+   * were built.
+   */
+  synchronized void invalidatePrices() {
+    final Iterator<Map.Entry<Account, Series>> iterator = _seriesCache.entrySet().iterator();
+    while (iterator.hasNext()) {
+      final Map.Entry<Account, Series> entry = iterator.next();
+      final Account account = entry.getKey();
+      if (account.getAccountType() != Account.AccountType.INVESTMENT) continue;
+      if (entry.getValue().getPriceStamp() != getPriceStamp(account)) iterator.remove();
+    }
+  }
+
+  /**
+   * @param account The account to get the balance of.
+   * @param date    The date, the balance is as of the end of the day.
+   * @return The balance of the account in its own currency, including securities for an investment account.
+   */
+  synchronized long getBalance(final Account account, final int date) {
+    if (!isInRange(date, date)) {
+      return AccountUtil.getBalancesAsOfDates(_root, account, new int[] { date }, true)[0]
+             + getSecurityBalances(account, new int[] { date })[0];
+    }
+    final int dayIndex = getDayIndex(_firstDate, date);
+    long result = getSeries(account).getBalance(dayIndex);
+    if (account.getAccountType() == Account.AccountType.INVESTMENT) {
+      for (int index = 0; index < account.getSubAccountCount(); index++) {
+        final Account security = account.getSubAccount(index);
+        result += CurrencyUtil.convertValue(getSeries(security).getBalance(dayIndex),
+                                            security.getCurrencyType(),
+                                            account.getCurrencyType(),
+                                            date);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param account   The account to get the average balance of.
+   * @param startDate The first day to include in the average.
+   * @param endDate   The last day to include in the average.
+   * @return The average of the daily balances of the account in its own currency, including securities for an
+   * investment account.
+   */
+  synchronized long getAverageBalance(final Account account, final int startDate, final int endDate) {
+    final int numDays = RatioCompute.getDaysInPeriod(startDate, endDate);
+    if (numDays <= 0) return 0;
+    final Series series;
+    final int startIndex;
+    if (isInRange(startDate, endDate)) {
+      series = getSeries(account);
+      startIndex = getDayIndex(_firstDate, startDate);
+    } else {
+      // a one-off range, such as from a report on different dates
+      series = buildSeries(account, startDate, numDays, false);
+      startIndex = 0;
+    }
+    final double total = series.getValueTotal(startIndex, startIndex + numDays);
+    return Math.round(total / (double)numDays);
+  }
+
+  private boolean isInRange(final int startDate, final int endDate) {
+    return (_firstDate != 0) && (startDate >= _firstDate) && (endDate <= _lastDate);
+  }
+
+  private Series getSeries(final Account account) {
+    Series result = _seriesCache.get(account);
+    if (result == null) {
+      result = buildSeries(account, _firstDate, RatioCompute.getDaysInPeriod(_firstDate, _lastDate), true);
+      _seriesCache.put(account, result);
+    }
+    return result;
+  }
+
+  private Series buildSeries(final Account account, final int firstDate, final int numDays, final boolean cached) {
+    final long[] balances = buildDailyBalances(account, firstDate, numDays);
+    final double[] values = new double[numDays];
+    for (int index = 0; index < numDays; index++) values[index] = balances[index];
+    // For investment accounts only, we must include the child accounts, the securities, since security accounts
+    // are not included in the filter criteria. Users assume the security accounts are part of the investment
+    // account balance. If we don't do this, all we get is the cash balance of the investment account.
+    if (account.getAccountType() == Account.AccountType.INVESTMENT) {
+      for (int index = 0; index < account.getSubAccountCount(); index++) {
+        final Account security = account.getSubAccount(index);
+        // the security balances are also needed on their own for the start and end balances
+        final long[] securityBalances = cached ? getSeries(security).getBalances()
+                                               : buildDailyBalances(security, firstDate, numDays);
+        addConvertedBalances(values, securityBalances, firstDate,
+                             security.getCurrencyType(), account.getCurrencyType());
+      }
+    }
+    return new Series(balances, values, getPriceStamp(account));
+  }
+
+  /**
+   * @return A value that changes whenever any price of the account's securities, or of the account's currency,
+   * is added, changed or removed. Only investment accounts have converted values, all others return zero.
+   */
+  private static long getPriceStamp(final Account account) {
+    if (account.getAccountType() != Account.AccountType.INVESTMENT) return 0;
+    long result = getPriceStamp(account.getCurrencyType());
+    for (int index = 0; index < account.getSubAccountCount(); index++) {
+      result = 31 * result + getPriceStamp(account.getSubAccount(index).getCurrencyType());
+    }
+    return result;
+  }
+
+  private static long getPriceStamp(final CurrencyType currency) {
+    long result = currency.getSnapshots().size();
+    for (CurrencySnapshot snapshot : currency.getSnapshots()) {
+      result = 31 * result + snapshot.getDateInt();
+      result = 31 * result + Double.doubleToLongBits(snapshot.getUserRate());
+    }
+    return result;
+  }
+
+  /**
+   * Compute the balance at the end of every day by adding up each day's transactions, starting from the balance
+   * on the first day.
+   * @param account   The account to get the balances of.
+   * @param firstDate The first date.
+   * @param numDays   The number of days to compute, including the first date.
+   * @return The balance on each day in the account's currency.
+   */
+  private long[] buildDailyBalances(final Account account, final int firstDate, final int numDays) {
+    final int lastDate = Util.incrementDate(firstDate, 0, 0, numDays - 1);
+    final long[] endBalances = AccountUtil.getBalancesAsOfDates(_root, account, new int[] { firstDate, lastDate }, true);
+    final long[] result = new long[numDays];
+    final TxnSet txns = _root.getTransactionSet().getTransactionsForAccount(account);
+    for (int index = 0; index < txns.getSize(); index++) {
+      final AbstractTxn txn = txns.getTxnAt(index);
+      final int txnDate = txn.getDateInt();
+      if ((txnDate <= firstDate) || (txnDate > lastDate)) continue;
+      result[getDayIndex(firstDate, txnDate)] += txn.getValue();
+    }
+    result[0] = endBalances[0];
+    for (int index = 1; index < numDays; index++) result[index] += result[index - 1];
+    if (result[numDays - 1] != endBalances[1]) {
+      // the transactions don't add up to the balance Moneydance reports (stock splits, for example), so fall back
+      // to asking for the balance of every day
+      final int[] dates = new int[numDays];
+      int thisDay = firstDate;
+      for (int index = 0; index < numDays; index++) {
+        dates[index] = thisDay;
+        thisDay = Util.incrementDate(thisDay);
+      }
+      return AccountUtil.getBalancesAsOfDates(_root, account, dates, true);
+    }
+    return result;
+  }
+
+  /**
+   * Add the value of a security on each day to the account values, converting only when the price changes.
+   */
+  private static void addConvertedBalances(final double[] values, final long[] balances, final int firstDate,
+                                           final CurrencyType fromCurrency, final CurrencyType toCurrency) {
+    final int numDays = values.length;
+    final int[] changeDays = getRateChangeDays(fromCurrency, toCurrency, firstDate, numDays);
+    double factor = getConversionFactor(fromCurrency, toCurrency, firstDate);
+    int nextChange = 0;
+    for (int dayIndex = 0; dayIndex < numDays; dayIndex++) {
+      if ((nextChange < changeDays.length) && (changeDays[nextChange] == dayIndex)) {
+        factor = getConversionFactor(fromCurrency, toCurrency, Util.incrementDate(firstDate, 0, 0, dayIndex));
+        nextChange++;
+      }
+      if (balances[dayIndex] != 0) values[dayIndex] += balances[dayIndex] * factor;
+    }
+  }
+
+  /**
+   * @return The sorted, distinct day indexes within the range on which either currency has a new price.
+   */
+  private static int[] getRateChangeDays(final CurrencyType fromCurrency, final CurrencyType toCurrency,
+                                         final int firstDate, final int numDays) {
+    final TreeSet<Integer> days = new TreeSet<Integer>();
+    for (CurrencySnapshot snapshot : fromCurrency.getSnapshots()) {
+      addChangeDay(days, snapshot.getDateInt(), firstDate, numDays);
+    }
+    for (CurrencySnapshot snapshot : toCurrency.getSnapshots()) {
+      addChangeDay(days, snapshot.getDateInt(), firstDate, numDays);
+    }
+    final int[] result = new int[days.size()];
+    int index = 0;
+    for (Integer day : days) result[index++] = day.intValue();
+    return result;
+  }
+
+  private static void addChangeDay(final TreeSet<Integer> days, final int date, final int firstDate,
+                                   final int numDays) {
+    if (date <= firstDate) return;
+    final int dayIndex = getDayIndex(firstDate, date);
+    if (dayIndex < numDays) days.add(Integer.valueOf(dayIndex));
+  }
+
+  private static double getConversionFactor(final CurrencyType fromCurrency, final CurrencyType toCurrency,
+                                            final int date) {
+    if (fromCurrency == toCurrency) return 1.0;
+    return CurrencyUtil.convertValue(RATE_SCALE, fromCurrency, toCurrency, date) / (double)RATE_SCALE;
+  }
+
+  private long[] getSecurityBalances(final Account account, final int[] dates) {
+    final long[] result = new long[dates.length];
+    if (account.getAccountType() != Account.AccountType.INVESTMENT) return result;
+    for (int index = 0; index < account.getSubAccountCount(); index++) {
+      final Account security = account.getSubAccount(index);
+      final long[] securityBalances = AccountUtil.getBalancesAsOfDates(_root, security, dates, true);
+      for (int dateIndex = 0; dateIndex < dates.length; dateIndex++) {
+        result[dateIndex] += CurrencyUtil.convertValue(securityBalances[dateIndex],
+                                                       security.getCurrencyType(),
+                                                       account.getCurrencyType(),
+                                                       dates[dateIndex]);
+      }
+    }
+    return result;
+  }
+
+  private static int getDayIndex(final int firstDate, final int date) {
+    return Util.calculateDaysBetween(firstDate, date);
+  }
+
+  /**
+   * The balances of one account, and the prefix sums of its value, for each day of the range.
+   */
+  private static final class Series {
+    // the account's own balance at the end of each day
+    private final long[] _balances;
+    // _valueSums[i] is the total value, including any securities, of the first i days
+    private final double[] _valueSums;
+    // the prices the values were converted with, see getPriceStamp()
+    private final long _priceStamp;
+
+    Series(final long[] balances, final double[] values, final long priceStamp) {
+      _balances = balances;
+      _priceStamp = priceStamp;
+      _valueSums = new double[values.length + 1];
+      for (int index = 0; index < values.length; index++) {
+        _valueSums[index + 1] = _valueSums[index] + values[index];
+      }
+    }
+
+    long[] getBalances() {
+      return _balances;
+    }
+
+    long getBalance(final int dayIndex) {
+      return _balances[dayIndex];
+    }
+
+    long getPriceStamp() {
+      return _priceStamp;
+    }
+
+    double getValueTotal(final int startIndex, final int endIndex) {
+      return _valueSums[endIndex] - _valueSums[startIndex];
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * ************************************************************************
+ * Copyright (C) 2012-2015 Mennē Software Solutions, LLC
+ *
+ * This code is released as open source under the Apache 2.0 License:<br/>
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">
+ * http://www.apache.org/licenses/LICENSE-2.0</a><br />
+ * ************************************************************************
+ */
+
+package com.moneydance.modules.features.ratios;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.TxnSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * One pass through the transactions that accumulates every transaction-based numerator and denominator at once.
+ * The transaction list is split in half until the slices are small, and each slice is summed on a fork/join
+ * worker into its own partial totals. The partial totals are combined as the halves are joined, so the ratio
+ * parts themselves are only read during the pass.
+ */
+class FusedTxnPass
+    extends RecursiveTask<FusedTxnPass.Totals> {
+  // large enough that the cost of forking is small compared to the work in a slice
+  private static final int SLICE_SIZE = 4096;
+  private final List<RatioPart> _parts;
+  private final TxnSet _txns;
+  private final int _start;
+  private final int _end;
+
+  /**
+   * @param parts The prepared ratio parts to compute, all of which are transaction-based.
+   * @param txns  The transactions to run through.
+   * @param start The index of the first transaction in this slice.
+   * @param end   The index after the last transaction in this slice.
+   */
+  FusedTxnPass(final List<RatioPart> parts, final TxnSet txns, final int start, final int end) {
+    _parts = parts;
+    _txns = txns;
+    _start = start;
+    _end = end;
+  }
+
+  protected Totals compute() {
+    if (_end - _start <= SLICE_SIZE) return sumSlice();
+    final int middle = (_start + _end) >>> 1;
+    final FusedTxnPass firstHalf = new FusedTxnPass(_parts, _txns, _start, middle);
+    firstHalf.fork();
+    final Totals secondTotals = new FusedTxnPass(_parts, _txns, middle, _end).compute();
+    return firstHalf.join().add(secondTotals);
+  }
+
+  private Totals sumSlice() {
+    final Totals result = new Totals(_parts);
+    final int numParts = _parts.size();
+    for (int index = _start; index < _end; index++) {
+      final AbstractTxn txn = _txns.getTxnAt(index);
+      for (int partIndex = 0; partIndex < numParts; partIndex++) {
+        final long value = _parts.get(partIndex).getTxnValue(txn);
+        if (value != 0) result.addTxn(partIndex, txn, value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The partial totals of each ratio part over some of the transactions.
+   */
+  static final class Totals {
+    private final long[] _values;
+    // for each part, what each parent transaction contributed, or null if the part doesn't track transactions
+    private final List<Map<String, Long>> _contributions;
+
+    Totals(final List<RatioPart> parts) {
+      _values = new long[parts.size()];
+      _contributions = new ArrayList<Map<String, Long>>(parts.size());
+      for (RatioPart part : parts) {
+        _contributions.add(part.isTrackingTxns() ? new HashMap<String, Long>() : null);
+      }
+    }
+
+    private void addTxn(final int partIndex, final AbstractTxn txn, final long value) {
+      _values[partIndex] += value;
+      final Map<String, Long> contributions = _contributions.get(partIndex);
+      if (contributions != null) RatioPart.addContribution(contributions, txn, value);
+    }
+
+    /**
+     * Combine the totals from another slice into these totals. A parent transaction and its splits may fall in
+     * different slices, so their contributions are added together.
+     * @param other The totals of another slice.
+     * @return This object, with the combined totals.
+     */
+    Totals add(final Totals other) {
+      for (int partIndex = 0; partIndex < _values.length; partIndex++) {
+        _values[partIndex] += other._values[partIndex];
+        final Map<String, Long> contributions = _contributions.get(partIndex);
+        if (contributions == null) continue;
+        for (Map.Entry<String, Long> entry : other._contributions.get(partIndex).entrySet()) {
+          final Long previous = contributions.get(entry.getKey());
+          contributions.put(entry.getKey(), (previous == null) ? entry.getValue()
+                                                               : Long.valueOf(previous.longValue() + entry.getValue().longValue()));
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Set each part's running total to the combined totals.
+     * @param parts The same parts the totals were computed for.
+     */
+    void applyTo(final List<RatioPart> parts) {
+      for (int partIndex = 0; partIndex < _values.length; partIndex++) {
+        parts.get(partIndex).setTxnTotal(_values[partIndex], _contributions.get(partIndex));
+      }
+    }
+  }
+}
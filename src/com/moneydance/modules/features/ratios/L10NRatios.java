@@ -53,6 +53,16 @@ public class L10NRatios
   static final String CUSTOM_DATE_MENU = "customDateMenu";
   static final String CUSTOM_DATE_TITLE = "customDateTitle";
   static final String COPY_SUFFIX = "copy";
+  // trends
+  static final String TREND_TITLE = "trendTitle";
+  static final String TREND_TOOLTIP = "trendTooltip";
+  static final String TREND_MONTHLY = "trendMonthly";
+  static final String TREND_QUARTERLY = "trendQuarterly";
+  static final String TREND_YEARS = "trendYears";
+  static final String TREND_FIRST = "trendFirst";
+  static final String TREND_LAST = "trendLast";
+  static final String TREND_LOW = "trendLow";
+  static final String TREND_HIGH = "trendHigh";
 
   public static final String USER_GUIDE = "userGuide.label";
   // dual account selector
@@ -97,6 +97,13 @@ class N12ERatios {
 
   // the name of the background thread for computing ratios
   static final String RATIO_THREAD_NAME = "Ratio Calculate";
+  // how far back the home page sparklines go
+  static final int HOME_HISTORY_YEARS = 2;
+  // how long the sparklines wait for transaction changes to settle before they are computed again, in 200ms steps
+  static final int HOME_HISTORY_DELAY_STEPS = 10;
+  // the size of the trend window
+  static final String TREND_SIZE_KEY = "gui.ratios_trend_size";
+  static final String TREND_LOC_KEY = "gui.ratios_trend_loc";
 
   /** Event fired when a new file is opened.   */
   static final String MD_OPEN_EVENT_ID = "md:file:opened";
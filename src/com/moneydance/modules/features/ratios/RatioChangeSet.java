@@ -0,0 +1,111 @@
+/*
+ * ************************************************************************
+ * Copyright (C) 2012-2015 Mennē Software Solutions, LLC
+ *
+ * This code is released as open source under the Apache 2.0 License:<br/>
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">
+ * http://www.apache.org/licenses/LICENSE-2.0</a><br />
+ * ************************************************************************
+ */
+
+package com.moneydance.modules.features.ratios;
+
+import com.infinitekind.moneydance.model.AbstractTxn;
+import com.infinitekind.moneydance.model.Account;
+import com.infinitekind.moneydance.model.ParentTxn;
+import com.infinitekind.moneydance.model.SplitTxn;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the transactions and accounts that changed since the ratios were last computed, so that
+ * only those changes need to be applied. Price changes are only noted, since Moneydance does not say which
+ * currency changed. Changes arrive on whatever thread modified the data file and
+ * are taken by the background computation thread, so all access is synchronized.
+ */
+class RatioChangeSet {
+  private final Map<String, ParentTxn> _changedTxns = new LinkedHashMap<String, ParentTxn>();
+  private final Map<String, ParentTxn> _removedTxns = new LinkedHashMap<String, ParentTxn>();
+  private final Set<Account> _changedAccounts = new HashSet<Account>();
+  private boolean _pricesChanged = false;
+
+  /**
+   * Record an added or modified transaction. A change to a split is recorded against its parent, since the
+   * ratios track what each parent transaction and all of its splits contribute together.
+   * @param txn The transaction that was added or modified.
+   */
+  synchronized void txnChanged(final AbstractTxn txn) {
+    final ParentTxn parent = getParent(txn);
+    if (parent == null) return;
+    final String txnId = parent.getUUID();
+    _removedTxns.remove(txnId);
+    _changedTxns.put(txnId, parent);
+  }
+
+  /**
+   * Record a deleted transaction. Deleting a split changes its parent rather than removing it.
+   * @param txn The transaction that was removed.
+   */
+  synchronized void txnRemoved(final AbstractTxn txn) {
+    if (txn instanceof SplitTxn) {
+      txnChanged(txn);
+      return;
+    }
+    final ParentTxn parent = getParent(txn);
+    if (parent == null) return;
+    final String txnId = parent.getUUID();
+    _changedTxns.remove(txnId);
+    _removedTxns.put(txnId, parent);
+  }
+
+  synchronized void accountChanged(final Account account) {
+    if (account != null) _changedAccounts.add(account);
+  }
+
+  /**
+   * Record that a currency or security has new prices.
+   */
+  synchronized void pricesChanged() {
+    _pricesChanged = true;
+  }
+
+  synchronized boolean isEmpty() {
+    return _changedTxns.isEmpty() && _removedTxns.isEmpty() && _changedAccounts.isEmpty() && !_pricesChanged;
+  }
+
+  /**
+   * Move all of the recorded changes into a new change set, leaving this one empty for the next changes.
+   * @return The changes recorded so far.
+   */
+  synchronized RatioChangeSet takeChanges() {
+    final RatioChangeSet result = new RatioChangeSet();
+    result._changedTxns.putAll(_changedTxns);
+    result._removedTxns.putAll(_removedTxns);
+    result._changedAccounts.addAll(_changedAccounts);
+    result._pricesChanged = _pricesChanged;
+    clear();
+    return result;
+  }
+
+  synchronized void clear() {
+    _changedTxns.clear();
+    _removedTxns.clear();
+    _changedAccounts.clear();
+    _pricesChanged = false;
+  }
+
+  synchronized Collection<ParentTxn> getChangedTxns() { return _changedTxns.values(); }
+  synchronized Collection<ParentTxn> getRemovedTxns() { return _removedTxns.values(); }
+  synchronized Collection<Account> getChangedAccounts() { return _changedAccounts; }
+  synchronized boolean isPricesChanged() { return _pricesChanged; }
+
+  private static ParentTxn getParent(final AbstractTxn txn) {
+    if (txn instanceof ParentTxn) return (ParentTxn)txn;
+    if (txn instanceof SplitTxn) return ((SplitTxn)txn).getParentTxn();
+    return null;
+  }
+}
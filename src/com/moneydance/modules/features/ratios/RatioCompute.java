@@ -12,17 +12,18 @@ package com.moneydance.modules.features.ratios;
 
 import com.infinitekind.moneydance.model.Account;
 import com.infinitekind.moneydance.model.AccountBook;
-import com.infinitekind.moneydance.model.AccountUtil;
 import com.infinitekind.moneydance.model.CurrencyType;
 import com.infinitekind.moneydance.model.CurrencyUtil;
 import com.infinitekind.moneydance.model.DateRange;
+import com.infinitekind.moneydance.model.ParentTxn;
 import com.infinitekind.moneydance.model.Txn;
 import com.infinitekind.moneydance.model.TxnIterator;
+import com.infinitekind.moneydance.model.TxnSet;
 import com.moneydance.apps.md.controller.Util;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Computes ratios efficiently using one pass through the data for each numerator or denominator.
@@ -31,24 +32,81 @@ import java.util.Map;
  */
 class RatioCompute {
   private static final double MINIMUM_DENOMINATOR = 0.00001;
+  // below this many transactions a single thread is faster than splitting up the work
+  private static final int PARALLEL_TXN_THRESHOLD = 20000;
   private final AccountBook _root;
   private final char _decimal;
-  private final Map<Account,BalanceHolder> _balanceCache;
+  private final DailyBalanceCache _balanceCache;
+  // the date range of the last full computation, which changes can be applied to
+  private DateRange _computedRange = null;
 
-  public RatioCompute(final AccountBook root, final char decimal) {
+  /**
+   * @param root         The data file.
+   * @param decimal      The decimal character for parsing constants.
+   * @param balanceCache Daily account balances, kept from one computation to the next.
+   */
+  public RatioCompute(final AccountBook root, final char decimal, final DailyBalanceCache balanceCache) {
     _root = root;
     _decimal = decimal;
-    _balanceCache = new HashMap<Account, BalanceHolder>();
+    _balanceCache = balanceCache;
   }
 
   public void computeRatios(final List<RatioEntry> ratios, DateRange dateRange) {
-    _balanceCache.clear();
+    // cached balances stay valid, changed accounts are invalidated and a new date range starts over
     computeTxnBasedValues(ratios, dateRange);
     computeBalanceBasedValues(ratios, dateRange);
     computeConstantValues(ratios, dateRange);
     computeFinalRatios(ratios);
+    _computedRange = dateRange;
+  }
+
+  /**
+   * Bring the ratios up to date with a set of changes to the data file. Each changed transaction is applied
+   * to the running totals of the transaction-based ratios, and only the balances of the changed accounts are
+   * recalculated. If the ratios were never fully computed for this date range, a full computation is done.
+   *
+   * @param ratios    The list of ratio definitions.
+   * @param dateRange The date range to compute the ratios for.
+   * @param changes   The transactions and accounts that changed since the last computation.
+   * @return True if any ratio may have changed.
+   */
+  boolean updateRatios(final List<RatioEntry> ratios, DateRange dateRange, final RatioChangeSet changes) {
+    if (!canUpdateRatios(ratios, dateRange)) {
+      computeRatios(ratios, dateRange);
+      return true;
+    }
+    boolean changed = false;
+    for (ParentTxn txn : changes.getRemovedTxns()) {
+      for (RatioEntry ratio : ratios) changed |= ratio.updateTxn(txn, true);
+    }
+    for (ParentTxn txn : changes.getChangedTxns()) {
+      for (RatioEntry ratio : ratios) changed |= ratio.updateTxn(txn, false);
+    }
+    if (!changes.getChangedAccounts().isEmpty() || changes.isPricesChanged()) {
+      for (Account account : changes.getChangedAccounts()) _balanceCache.invalidate(account);
+      // new prices change the value of securities and of accounts in other currencies
+      if (changes.isPricesChanged()) _balanceCache.invalidatePrices();
+      // balances of the accounts that did not change come from the cache
+      computeBalanceBasedValues(ratios, dateRange);
+      changed = true;
+    }
+    if (changed) computeFinalRatios(ratios);
+    return changed;
+  }
+
+  private boolean canUpdateRatios(final List<RatioEntry> ratios, final DateRange dateRange) {
+    if ((_root == null) || (_computedRange == null)) return false;
+    // relative date ranges such as 'this month' move as time passes
+    if ((_computedRange.getStartDateInt() != dateRange.getStartDateInt())
+        || (_computedRange.getEndDateInt() != dateRange.getEndDateInt())) return false;
+    for (RatioEntry ratio : ratios) {
+      // a new ratio definition has no totals yet
+      if (!ratio.isTrackingTxns()) return false;
+    }
+    return true;
   }
 
+
   static boolean shouldFlipTxn(final Account sourceAccount, final Account targetAccount,
                                final boolean isSourceRequired, final boolean isTargetRequired) {
     // if the source is a category and the target isn't, flip
@@ -67,7 +125,11 @@ class RatioCompute {
   }
 
   static int getDaysInPeriod(DateRange dateRange) {
-    return Util.calculateDaysBetween(dateRange.getStartDateInt(), dateRange.getEndDateInt()) + 1;
+    return getDaysInPeriod(dateRange.getStartDateInt(), dateRange.getEndDateInt());
+  }
+
+  static int getDaysInPeriod(final int startDate, final int endDate) {
+    return Util.calculateDaysBetween(startDate, endDate) + 1;
   }
 
   private void computeBalanceBasedValues(List<RatioEntry> ratios, DateRange dateRange) {
@@ -76,12 +138,22 @@ class RatioCompute {
       return;
     }
     final CurrencyType baseCurrency = _root.getCurrencies().getBaseType();
+    setBalanceDateRange(dateRange);
     for (RatioEntry ratio : ratios) {
       computeBalances(ratio, baseCurrency, dateRange);
     }
   }
 
-  private void computeConstantValues(List<RatioEntry> ratios, DateRange dateRange) {
+  /**
+   * Tell the balance cache which dates the balance computations will ask for: the day before the start of the
+   * range, for the starting balance, through the end of the range. Balances on other dates are computed directly.
+   * @param dateRange The date range the balances will be computed for.
+   */
+  void setBalanceDateRange(final DateRange dateRange) {
+    _balanceCache.setDateRange(Util.incrementDate(dateRange.getStartDateInt(), 0, 0, -1), dateRange.getEndDateInt());
+  }
+
+  void computeConstantValues(List<RatioEntry> ratios, DateRange dateRange) {
     for (RatioEntry ratio : ratios) {
       if (TxnMatchLogic.CONSTANT.equals(ratio.getNumeratorMatchingLogic())) {
         final double value = RatiosUtil.getConstantValue(ratio.getNumeratorLabel(), _decimal, true, 0.0);
@@ -157,29 +229,10 @@ class RatioCompute {
         Util.incrementDate(dateRange.getStartDateInt(), 0, 0, -1),
         dateRange.getEndDateInt()
     };
-    final int[] dailyDates;
-    if (useDailyAverage) {
-      // Compute the daily dates array only once, it won't change.
-      // For the daily average balance, we don't want the decremented start date calculated previously,
-      // so compute based on the dates the user specified and therefore expects
-      // Add one day since we are including both start and end days
-      int numDays = getDaysInPeriod(dateRange);
-      // fill in a daily range
-      dailyDates = new int[numDays];
-      int thisDay = dateRange.getStartDateInt();
-      for (int index = 0; index < numDays; index++) {
-        dailyDates[index] = thisDay;
-        thisDay = Util.incrementDate(thisDay);
-      }
-    } else {
-      dailyDates = null;
-    }
     for (Account account : accountList) {
       // skip any account that is not active - they are hidden by default
       if (account.getAccountOrParentIsInactive()) continue;
-      final BalanceHolder balance = useDailyAverage ?
-                                    calculateBalancesWithDailyAverage(account, _balanceCache, asOfDates, dailyDates) :
-                                    calculateBalances(account, _balanceCache, asOfDates, useStartBalance);
+      final BalanceHolder balance = calculateBalances(account, dateRange, asOfDates, useDailyAverage, useStartBalance);
       // convert to the base currency
       final long accountStartBalance = CurrencyUtil.convertValue(balance.getStartBalance(),
                                                                  account.getCurrencyType(),
@@ -204,85 +257,51 @@ class RatioCompute {
     return useDailyAverage ? averageDailyBalance : (useStartBalance ? startBalance : endBalance);
   }
 
-  private BalanceHolder calculateBalances(Account account, Map<Account, BalanceHolder> cache, int[] asOfDates, boolean useStartBalance) {
-    BalanceHolder result = (cache == null) ? null : cache.get(account);
-    if (result == null) {
-      // this will get balances in the account's currency type
-      long[] balances = AccountUtil.getBalancesAsOfDates(_root, account, asOfDates, true);
-      // For investment accounts only, we must include the child accounts, the securities, since security accounts
-      // are not included in the filter criteria. Users assume the security accounts are part of the investment
-      // account balance. If we don't do this, all we get is the cash balance of the investment account.
-      if (account.getAccountType() == Account.AccountType.INVESTMENT) {
-        for (int index = 0; index < account.getSubAccountCount(); index++) {
-          Account security = account.getSubAccount(index);
-          long[] securityBalances = AccountUtil.getBalancesAsOfDates(_root, security, asOfDates, true);
-          // convert to the account's currency type, later that will be converted to base currency
-          balances[0] += CurrencyUtil.convertValue(securityBalances[0],
-                                                   security.getCurrencyType(),
-                                                   account.getCurrencyType(),
-                                                   asOfDates[0]);
-          balances[1] += CurrencyUtil.convertValue(securityBalances[1],
-                                                   security.getCurrencyType(),
-                                                   account.getCurrencyType(),
-                                                   asOfDates[1]);
-        }
-      }
-      if (account.balanceIsNegated()) {
-        result = new BalanceHolder(account, -balances[0], -balances[1], 0, asOfDates[0], asOfDates[1], false, useStartBalance);
-      } else {
-        result = new BalanceHolder(account, balances[0], balances[1], 0, asOfDates[0], asOfDates[1], false, useStartBalance);
-      }
-      if (cache != null) cache.put(account, result);
-    }
-    return result;
-  }
-  
-  private BalanceHolder calculateBalancesWithDailyAverage(Account account, Map<Account, BalanceHolder> cache, int[] asOfDates,
-                                                          int[] datesToCompute) {
-    BalanceHolder result = (cache == null) ? null : cache.get(account);
-    if ((result == null) || !result.isAverageBalanceComputed()) {
-      final int numDays = datesToCompute.length;
-      // this will get balances in the account's currency type
-      long[] balances = AccountUtil.getBalancesAsOfDates(_root, account, datesToCompute, true);
-      // For investment accounts only, we must include the child accounts, the securities, since security accounts
-      // are not included in the filter criteria. Users assume the security accounts are part of the investment
-      // account balance. If we don't do this, all we get is the cash balance of the investment account.
-      if (account.getAccountType() == Account.AccountType.INVESTMENT) {
-        for (int index = 0; index < account.getSubAccountCount(); index++) {
-          Account security = account.getSubAccount(index);
-          long[] securityBalances = AccountUtil.getBalancesAsOfDates(_root, security, datesToCompute, true);
-          // convert to the account's currency type, later that will be converted to base currency
-          for (int dateIndex = 0; dateIndex < numDays; dateIndex++) {
-            balances[dateIndex] += CurrencyUtil.convertValue(securityBalances[dateIndex],
-                                                     security.getCurrencyType(),
-                                                     account.getCurrencyType(),
-                                                     datesToCompute[dateIndex]);
-          }
-        }
-      }
-      double average = 0;
-      for (int index = 0; index < numDays; index++) average += balances[index];
-      long averageDailyBalance = Math.round(average / (double)numDays);
-      if (account.balanceIsNegated()) {
-        result = new BalanceHolder(account, -balances[0], -balances[numDays-1], averageDailyBalance, asOfDates[0], asOfDates[1], true, false);
-      } else {
-        result = new BalanceHolder(account, balances[0], balances[numDays-1], averageDailyBalance, asOfDates[0], asOfDates[1], true, false);
-      }
-      if (cache != null) cache.put(account, result);
+  private BalanceHolder calculateBalances(Account account, DateRange dateRange, int[] asOfDates,
+                                          boolean useDailyAverage, boolean useStartBalance) {
+    // these are in the account's currency type, and include the securities of investment accounts
+    long startBalance = _balanceCache.getBalance(account, asOfDates[0]);
+    long endBalance = _balanceCache.getBalance(account, asOfDates[1]);
+    // For the daily average balance, we don't want the decremented start date calculated previously,
+    // so compute based on the dates the user specified and therefore expects
+    long averageDailyBalance = useDailyAverage ?
+                               _balanceCache.getAverageBalance(account, dateRange.getStartDateInt(),
+                                                               dateRange.getEndDateInt()) : 0;
+    if (account.balanceIsNegated()) {
+      startBalance = -startBalance;
+      endBalance = -endBalance;
+      averageDailyBalance = -averageDailyBalance;
     }
-    return result;
+    return new BalanceHolder(account, startBalance, endBalance, averageDailyBalance, asOfDates[0], asOfDates[1],
+                             useDailyAverage, !useDailyAverage && useStartBalance);
   }
 
-  void computeTransactionResult(final RatioEntry ratio, final DateRange dateRange, boolean isNumerator, final IRatioReporting reporting) {
-    ratio.prepareForTxnProcessing(_root, dateRange, isNumerator, reporting);
-    // calculate for each ratio on each matching transaction
+  /**
+   * Compute the numerator and the denominator of one ratio in a single pass through the transactions, as for a
+   * report on the ratio. Each part's matching transactions go to its own reporting object, so that they can be
+   * shown in separate sections. Parts that are not transaction-based are skipped.
+   * @param ratio                The ratio to compute. Its running totals are reset, so this should be a copy of a
+   *                             home page ratio.
+   * @param dateRange            The date range to include transactions from.
+   * @param numeratorReporting   Receives the transactions that match the numerator.
+   * @param denominatorReporting Receives the transactions that match the denominator.
+   */
+  void computeTransactionResults(final RatioEntry ratio, final DateRange dateRange,
+                                 final IRatioReporting numeratorReporting,
+                                 final IRatioReporting denominatorReporting) {
+    final boolean numerator = !ratio.isNumeratorAccountBalances() && !ratio.isNumeratorConstant();
+    final boolean denominator = !ratio.isDenominatorAccountBalances() && !ratio.isDenominatorConstant();
+    if (!numerator && !denominator) return;
+    if (numerator) ratio.prepareForTxnProcessing(_root, dateRange, true, numeratorReporting);
+    if (denominator) ratio.prepareForTxnProcessing(_root, dateRange, false, denominatorReporting);
     TxnIterator txnIterator = new TxnIterator(_root.getTransactionSet());
     while (txnIterator.hasNext()) {
       Txn txn = txnIterator.next();
-      ratio.accumulateTxn(txn, isNumerator, reporting);
+      if (numerator) ratio.accumulateTxn(txn, true, numeratorReporting);
+      if (denominator) ratio.accumulateTxn(txn, false, denominatorReporting);
     }
-    // final computation
-    ratio.endTxnProcessing(isNumerator, reporting);
+    if (numerator) ratio.endTxnProcessing(true, numeratorReporting);
+    if (denominator) ratio.endTxnProcessing(false, denominatorReporting);
   }
 
   private void computeTxnBasedValues(List<RatioEntry> ratios, DateRange dateRange) {
@@ -293,13 +312,22 @@ class RatioCompute {
     if (noTransactionPartsExist(ratios)) return;
     // setup
     for (RatioEntry ratio : ratios) ratio.prepareForTxnProcessing(_root, dateRange, true, null);
-    // calculate for each ratio on each matching transaction
-    TxnIterator txnIterator = new TxnIterator(_root.getTransactionSet());
-    while(txnIterator.hasNext()) {
-      Txn txn = txnIterator.next();
-      for (RatioEntry ratio : ratios) {
-        // with a null reporting callback, it doesn't matter whether we specify numerator or denominator, both will compute
-        ratio.accumulateTxn(txn, true, null);
+    final TxnSet txns = _root.getTransactionSet().getAllTxns();
+    if ((txns.getSize() >= PARALLEL_TXN_THRESHOLD) && (Runtime.getRuntime().availableProcessors() > 1)) {
+      // sum slices of the transactions in parallel, then combine the slices
+      final List<RatioPart> parts = new ArrayList<RatioPart>();
+      for (RatioEntry ratio : ratios) ratio.addTxnParts(parts);
+      final FusedTxnPass.Totals totals = ForkJoinPool.commonPool().invoke(new FusedTxnPass(parts, txns, 0, txns.getSize()));
+      totals.applyTo(parts);
+    } else {
+      // calculate for each ratio on each matching transaction
+      TxnIterator txnIterator = new TxnIterator(_root.getTransactionSet());
+      while(txnIterator.hasNext()) {
+        Txn txn = txnIterator.next();
+        for (RatioEntry ratio : ratios) {
+          // with a null reporting callback, it doesn't matter whether we specify numerator or denominator, both will compute
+          ratio.accumulateTxn(txn, true, null);
+        }
       }
     }
     // final computation
@@ -338,19 +366,20 @@ class RatioCompute {
   }
 
   static void computeFinalRatio(RatioEntry ratio) {
-    final double numerator = ratio.getNumeratorValue();
-    final double denominator = ratio.getDenominatorValue();
+    ratio.setValue(computeRatioValue(ratio.getNumeratorValue(), ratio.getDenominatorValue(), ratio.getAlwaysPositive()));
+  }
+
+  static double computeRatioValue(final double numerator, final double denominator, final boolean alwaysPositive) {
     if (Math.abs(denominator) < MINIMUM_DENOMINATOR) {
       // divide by zero
-      ratio.setValue(Double.NaN);
+      return Double.NaN;
     } else if (Double.isNaN(numerator) || Double.isNaN(denominator)) {
       // not defined
-      ratio.setValue(Double.NaN);
-    } else if (ratio.getAlwaysPositive()) {
-      ratio.setValue(Math.abs(numerator / denominator));
-    } else {
-      ratio.setValue(numerator / denominator);
+      return Double.NaN;
+    } else if (alwaysPositive) {
+      return Math.abs(numerator / denominator);
     }
+    return numerator / denominator;
   }
 
 }
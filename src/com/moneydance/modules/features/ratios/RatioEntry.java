@@ -13,6 +13,7 @@ package com.moneydance.modules.features.ratios;
 import com.infinitekind.moneydance.model.Account;
 import com.infinitekind.moneydance.model.AccountBook;
 import com.infinitekind.moneydance.model.DateRange;
+import com.infinitekind.moneydance.model.ParentTxn;
 import com.infinitekind.moneydance.model.Txn;
 import com.infinitekind.util.StreamTable;
 import com.moneydance.apps.md.controller.AccountFilter;
@@ -28,8 +29,8 @@ import java.util.Map;
  * @author Kevin Menningen
  */
 public class RatioEntry {
-  private final RatioPart _numerator = new RatioPart();
-  private final RatioPart _denominator = new RatioPart();
+  private final RatioPart _numerator;
+  private final RatioPart _denominator;
   private String _name;
   private int _index;
   private double _value;
@@ -39,12 +40,16 @@ public class RatioEntry {
   private String _notes;
 
   RatioEntry() {
+    _numerator = new RatioPart();
+    _denominator = new RatioPart();
     _name = N12ERatios.DEFAULT_NAME;
     _notes = N12ERatios.EMPTY;
     _index = -1;
   }
 
   RatioEntry(final StreamTable settings, final MoneydanceGUI mdGui, Map<Integer, String> tagMap) {
+    _numerator = new RatioPart();
+    _denominator = new RatioPart();
     _name = settings.getStr(N12ERatios.NAME_KEY, N12ERatios.EMPTY);
     _index = settings.getInt(N12ERatios.INDEX_KEY, -1);
     _notes = settings.getStr(N12ERatios.NOTES_KEY, N12ERatios.EMPTY);
@@ -65,6 +70,22 @@ public class RatioEntry {
                                   N12ERatios.DENOMINATOR_TAGS_KEY);
   }
 
+  /**
+   * Copy a ratio definition so that it can be computed separately, such as for a different date range, without
+   * disturbing the values of the original.
+   * @param other The ratio to copy.
+   */
+  RatioEntry(final RatioEntry other) {
+    _numerator = new RatioPart(other._numerator);
+    _denominator = new RatioPart(other._denominator);
+    _name = other._name;
+    _index = other._index;
+    _notes = other._notes;
+    _showPercent = other._showPercent;
+    _alwaysPositive = other._alwaysPositive;
+    _useTaxDate = other._useTaxDate;
+  }
+
   String getSettingsString() {
     final StreamTable settings = new StreamTable();
     settings.put(N12ERatios.NAME_KEY, _name);
@@ -216,8 +237,10 @@ public class RatioEntry {
 
   void prepareForTxnProcessing(final AccountBook root, final DateRange dateRange,
                                       final boolean isNumerator, final IRatioReporting reporting) {
-    if ((reporting == null) || isNumerator) _numerator.prepareForTxnProcessing(root, dateRange, _useTaxDate);
-    if ((reporting == null) || !isNumerator) _denominator.prepareForTxnProcessing(root, dateRange, _useTaxDate);
+    // only the home page computation keeps track of each transaction, report runs are one-off
+    final boolean trackTxns = (reporting == null);
+    if ((reporting == null) || isNumerator) _numerator.prepareForTxnProcessing(root, dateRange, _useTaxDate, trackTxns);
+    if ((reporting == null) || !isNumerator) _denominator.prepareForTxnProcessing(root, dateRange, _useTaxDate, trackTxns);
   }
 
   void accumulateTxn(final Txn txn, final boolean isNumerator, final IRatioReporting reporting) {
@@ -230,6 +253,37 @@ public class RatioEntry {
     if ((reporting == null) || !isNumerator) _denominator.endTxnProcessing();
   }
 
+  /**
+   * Add the numerator and the denominator to a list of parts to compute from the transactions, if they depend on
+   * transactions.
+   * @param parts An [in,out] list to receive the transaction-based parts.
+   */
+  void addTxnParts(final List<RatioPart> parts) {
+    if (_numerator.isTxnBased()) parts.add(_numerator);
+    if (_denominator.isTxnBased()) parts.add(_denominator);
+  }
+
+  long getNumeratorTxnValue(final Txn txn) { return _numerator.getTxnValue(txn); }
+  long getDenominatorTxnValue(final Txn txn) { return _denominator.getTxnValue(txn); }
+  boolean isNumeratorTxnBased() { return _numerator.isTxnBased(); }
+  boolean isDenominatorTxnBased() { return _denominator.isTxnBased(); }
+
+  /**
+   * Apply a change to one transaction to both the numerator and the denominator.
+   * @param parentTxn The transaction that changed.
+   * @param removed   True if the transaction has been deleted.
+   * @return True if either value changed.
+   */
+  boolean updateTxn(final ParentTxn parentTxn, final boolean removed) {
+    final boolean numeratorChanged = _numerator.updateTxn(parentTxn, removed);
+    final boolean denominatorChanged = _denominator.updateTxn(parentTxn, removed);
+    return numeratorChanged || denominatorChanged;
+  }
+
+  boolean isTrackingTxns() {
+    return _numerator.isTrackingTxns() && _denominator.isTrackingTxns();
+  }
+
   public void setNumeratorMatchingLogic(TxnMatchLogic logic) {
     _numerator.setMatchingLogic(logic);
   }
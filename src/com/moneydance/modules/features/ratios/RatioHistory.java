@@ -0,0 +1,184 @@
+/*
+ * ************************************************************************
+ * Copyright (C) 2012-2015 Mennē Software Solutions, LLC
+ *
+ * This code is released as open source under the Apache 2.0 License:<br/>
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">
+ * http://www.apache.org/licenses/LICENSE-2.0</a><br />
+ * ************************************************************************
+ */
+
+package com.moneydance.modules.features.ratios;
+
+import com.infinitekind.moneydance.model.AccountBook;
+import com.infinitekind.moneydance.model.CurrencyType;
+import com.infinitekind.moneydance.model.DateRange;
+import com.infinitekind.moneydance.model.Txn;
+import com.infinitekind.moneydance.model.TxnIterator;
+import com.moneydance.apps.md.controller.Util;
+
+import java.util.List;
+
+/**
+ * The value of each ratio for every month or quarter over a number of years, ending with the period that
+ * contains today. All of the periods are computed together: one pass through the transactions drops each
+ * matching transaction into the period it belongs to, and the balances come from a daily balance cache that
+ * covers the whole span, so moving from one period to the next costs nothing extra.
+ */
+class RatioHistory {
+  static final int MONTHLY = 1;
+  static final int QUARTERLY = 3;
+  private final List<RatioEntry> _ratios;
+  private final int _monthsPerPeriod;
+  private final int _firstMonthIndex;
+  private final int[] _startDates;
+  private final int[] _endDates;
+  // [ratio index][period index]
+  private final double[][] _values;
+
+  /**
+   * @param monthsPerPeriod {@link #MONTHLY} or {@link #QUARTERLY}.
+   * @param years           The number of years of history.
+   * @param ratios          The ratios to compute.
+   * @param today           The last date, which ends the most recent (partial) period.
+   */
+  private RatioHistory(final int monthsPerPeriod, final int years, final List<RatioEntry> ratios, final int today) {
+    _ratios = ratios;
+    _monthsPerPeriod = monthsPerPeriod;
+    final int numPeriods = Math.max(1, years * 12 / monthsPerPeriod);
+    final int todayMonthIndex = getMonthIndex(today);
+    _firstMonthIndex = todayMonthIndex - (todayMonthIndex % monthsPerPeriod) - (numPeriods - 1) * monthsPerPeriod;
+    _startDates = new int[numPeriods];
+    _endDates = new int[numPeriods];
+    for (int index = 0; index < numPeriods; index++) {
+      _startDates[index] = getFirstDayOfMonth(_firstMonthIndex + index * monthsPerPeriod);
+      final int nextStart = getFirstDayOfMonth(_firstMonthIndex + (index + 1) * monthsPerPeriod);
+      _endDates[index] = Math.min(today, Util.incrementDate(nextStart, 0, 0, -1));
+    }
+    _values = new double[ratios.size()][numPeriods];
+  }
+
+  /**
+   * Compute the history of a list of ratios. The ratios are prepared for this computation, so they should be
+   * copies of the ratios shown elsewhere.
+   *
+   * @param root            The data file.
+   * @param ratios          Copies of the ratio definitions.
+   * @param decimal         The decimal character for parsing constants.
+   * @param monthsPerPeriod {@link #MONTHLY} or {@link #QUARTERLY}.
+   * @param years           The number of years of history.
+   * @return The value of each ratio in each period.
+   */
+  static RatioHistory compute(final AccountBook root, final List<RatioEntry> ratios, final char decimal,
+                              final int monthsPerPeriod, final int years) {
+    final RatioHistory result = new RatioHistory(monthsPerPeriod, years, ratios, Util.getStrippedDateInt());
+    if (root != null) result.computeValues(root, decimal);
+    return result;
+  }
+
+  int getPeriodCount() { return _startDates.length; }
+  int getMonthsPerPeriod() { return _monthsPerPeriod; }
+  int getStartDate(final int periodIndex) { return _startDates[periodIndex]; }
+  int getEndDate(final int periodIndex) { return _endDates[periodIndex]; }
+  int getRatioCount() { return _ratios.size(); }
+  RatioEntry getRatio(final int ratioIndex) { return _ratios.get(ratioIndex); }
+
+  /**
+   * @param ratioIndex The position of the ratio in the list the history was computed for.
+   * @return The value of the ratio in each period, oldest first. Do not modify.
+   */
+  double[] getValues(final int ratioIndex) {
+    return _values[ratioIndex];
+  }
+
+  private void computeValues(final AccountBook root, final char decimal) {
+    final List<RatioEntry> ratios = _ratios;
+    final int numPeriods = getPeriodCount();
+    final int numRatios = ratios.size();
+    final CurrencyType baseCurrency = root.getCurrencies().getBaseType();
+    final DateRange span = new DateRange(_startDates[0], _endDates[numPeriods - 1]);
+
+    // transaction-based parts: one pass, each matching transaction is added to its period
+    final long[][] numeratorSums = new long[numRatios][];
+    final long[][] denominatorSums = new long[numRatios][];
+    boolean anyTxnParts = false;
+    for (int ratioIndex = 0; ratioIndex < numRatios; ratioIndex++) {
+      final RatioEntry ratio = ratios.get(ratioIndex);
+      ratio.prepareForTxnProcessing(root, span, true, null);
+      if (ratio.isNumeratorTxnBased()) numeratorSums[ratioIndex] = new long[numPeriods];
+      if (ratio.isDenominatorTxnBased()) denominatorSums[ratioIndex] = new long[numPeriods];
+      anyTxnParts |= ratio.isNumeratorTxnBased() || ratio.isDenominatorTxnBased();
+    }
+    if (anyTxnParts) {
+      TxnIterator txnIterator = new TxnIterator(root.getTransactionSet());
+      while (txnIterator.hasNext()) {
+        final Txn txn = txnIterator.next();
+        for (int ratioIndex = 0; ratioIndex < numRatios; ratioIndex++) {
+          final RatioEntry ratio = ratios.get(ratioIndex);
+          if (numeratorSums[ratioIndex] != null) {
+            final long value = ratio.getNumeratorTxnValue(txn);
+            if (value != 0) numeratorSums[ratioIndex][getPeriodIndex(txn, ratio.getUseTaxDate())] += value;
+          }
+          if (denominatorSums[ratioIndex] != null) {
+            final long value = ratio.getDenominatorTxnValue(txn);
+            if (value != 0) denominatorSums[ratioIndex][getPeriodIndex(txn, ratio.getUseTaxDate())] += value;
+          }
+        }
+      }
+    }
+
+    // balance-based parts: every period's balances come from the one cache
+    final RatioCompute balanceCompute = new RatioCompute(root, decimal, new DailyBalanceCache(root));
+    balanceCompute.setBalanceDateRange(span);
+    for (int ratioIndex = 0; ratioIndex < numRatios; ratioIndex++) {
+      final RatioEntry ratio = ratios.get(ratioIndex);
+      for (int periodIndex = 0; periodIndex < numPeriods; periodIndex++) {
+        final DateRange period = new DateRange(_startDates[periodIndex], _endDates[periodIndex]);
+        final double numerator;
+        if (numeratorSums[ratioIndex] != null) {
+          numerator = baseCurrency.getDoubleValue(numeratorSums[ratioIndex][periodIndex]);
+        } else if (ratio.isNumeratorAccountBalances()) {
+          numerator = baseCurrency.getDoubleValue(
+              balanceCompute.computeBalanceResult(period, baseCurrency, ratio.getNumeratorRequiredAccountList(),
+                                                  ratio.getNumeratorAverageBalance(),
+                                                  ratio.getNumeratorBeginningBalance(), null));
+        } else if (ratio.getNumeratorDaysInPeriod()) {
+          numerator = RatioCompute.getDaysInPeriod(period);
+        } else {
+          numerator = RatiosUtil.getConstantValue(ratio.getNumeratorLabel(), decimal, true, 0.0);
+        }
+        final double denominator;
+        if (denominatorSums[ratioIndex] != null) {
+          denominator = baseCurrency.getDoubleValue(denominatorSums[ratioIndex][periodIndex]);
+        } else if (ratio.isDenominatorAccountBalances()) {
+          denominator = baseCurrency.getDoubleValue(
+              balanceCompute.computeBalanceResult(period, baseCurrency, ratio.getDenominatorRequiredAccountList(),
+                                                  ratio.getDenominatorAverageBalance(),
+                                                  ratio.getDenominatorBeginningBalance(), null));
+        } else if (ratio.getDenominatorDaysInPeriod()) {
+          denominator = RatioCompute.getDaysInPeriod(period);
+        } else {
+          denominator = RatiosUtil.getConstantValue(ratio.getDenominatorLabel(), decimal, false, 1.0);
+        }
+        _values[ratioIndex][periodIndex] = RatioCompute.computeRatioValue(numerator, denominator,
+                                                                          ratio.getAlwaysPositive());
+      }
+    }
+  }
+
+  private int getPeriodIndex(final Txn txn, final boolean useTaxDate) {
+    final int date = useTaxDate ? txn.getTaxDateInt() : txn.getDateInt();
+    final int index = (getMonthIndex(date) - _firstMonthIndex) / _monthsPerPeriod;
+    // the transaction date filter has already limited the dates to the span of all periods
+    return Math.max(0, Math.min(_startDates.length - 1, index));
+  }
+
+  /** @return The number of months since year zero, for an integer date such as 20150423. */
+  private static int getMonthIndex(final int date) {
+    return (date / 10000) * 12 + ((date / 100) % 100) - 1;
+  }
+
+  private static int getFirstDayOfMonth(final int monthIndex) {
+    return (monthIndex / 12) * 10000 + ((monthIndex % 12) + 1) * 100 + 1;
+  }
+}
@@ -12,10 +12,11 @@ package com.moneydance.modules.features.ratios;
 
 import com.infinitekind.moneydance.model.Account;
 import com.infinitekind.moneydance.model.AccountBook;
-import com.infinitekind.moneydance.model.AcctFilter;
 import com.infinitekind.moneydance.model.CurrencyType;
 import com.infinitekind.moneydance.model.CurrencyUtil;
 import com.infinitekind.moneydance.model.DateRange;
+import com.infinitekind.moneydance.model.ParentTxn;
+import com.infinitekind.moneydance.model.SplitTxn;
 import com.infinitekind.moneydance.model.Txn;
 import com.infinitekind.util.StreamTable;
 import com.infinitekind.util.StringUtils;
@@ -28,6 +29,8 @@ import com.moneydance.apps.md.view.gui.reporttool.GraphReportUtil;
 import com.moneydance.modules.features.ratios.selector.RatioAccountSelector;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -40,14 +43,18 @@ class RatioPart {
   private final List<Account> _requiredAccounts = new ArrayList<Account>();
   private final List<Account> _disallowedAccounts = new ArrayList<Account>();
   private final List<String> _tags = new ArrayList<String>();
+  // what each parent transaction (with its splits) added to _txnValue, by transaction ID
+  private final Map<String, Long> _txnContributions = new HashMap<String, Long>();
+  private boolean _trackingTxns;
   private String _encodedRequiredAccounts;
   private String _encodedDisallowedAccounts;
   private TagLogic _tagLogic;
   private String _label;
   private long _txnValue;
   private TxnDateSearch _dateFilter;
-  private AcctFilter _requiredFilter;
-  private AcctFilter _disallowedFilter;
+  // account numbers of the required and disallowed accounts, so matching is a bit test per account
+  private BitSet _requiredBits;
+  private BitSet _disallowedBits;
   private TxnTagsFilter _tagFilter;
   private double _value;
   private TxnMatchLogic _txnMatchLogic = TxnMatchLogic.DEFAULT;
@@ -57,6 +64,21 @@ class RatioPart {
     _label = N12ERatios.EMPTY;
   }
 
+  /**
+   * Copy the definition of another part, but none of its computed values.
+   * @param other The part to copy.
+   */
+  RatioPart(final RatioPart other) {
+    _requiredAccounts.addAll(other._requiredAccounts);
+    _disallowedAccounts.addAll(other._disallowedAccounts);
+    _tags.addAll(other._tags);
+    _encodedRequiredAccounts = other._encodedRequiredAccounts;
+    _encodedDisallowedAccounts = other._encodedDisallowedAccounts;
+    _tagLogic = other._tagLogic;
+    _label = other._label;
+    _txnMatchLogic = other._txnMatchLogic;
+  }
+
   void loadFromSettings(final StreamTable settings, final MoneydanceGUI mdGui, final Map<Integer, String> tagMap,
                         final String txnMatchKey, final String labelKey,
                         final String requiredListKey, final String disallowedListKey,
@@ -198,29 +220,25 @@ class RatioPart {
     accounts.addAll(accountFilter.buildIncludedAccountList(root));
   }
 
-  void prepareForTxnProcessing(final AccountBook root, final DateRange dateRange, final boolean useTaxDate) {
+  /**
+   * Reset the running total before a pass through all of the transactions.
+   *
+   * @param root        The data file.
+   * @param dateRange   The date range to include transactions from.
+   * @param useTaxDate  True to filter on the tax date instead of the transaction date.
+   * @param trackTxns   True to remember what each transaction contributes, so that later changes to
+   *                    individual transactions can be applied with {@link #updateTxn}.
+   */
+  void prepareForTxnProcessing(final AccountBook root, final DateRange dateRange, final boolean useTaxDate,
+                               final boolean trackTxns) {
+    _txnContributions.clear();
+    _trackingTxns = trackTxns && isTxnBased();
     if (isAccountBalanceType()) return; // nothing to do
     _baseCurrency = root.getCurrencies().getBaseType();
     _txnValue = 0;
     _dateFilter = new TxnDateSearch(dateRange.getStartDateInt(), dateRange.getEndDateInt(), useTaxDate);
-    _requiredFilter = new AcctFilter() {
-      public boolean matches(Account account) {
-        return _requiredAccounts.contains(account);
-      }
-
-      public String format(Account account) {
-        return account.getFullAccountName();
-      }
-    };
-    _disallowedFilter = new AcctFilter() {
-      public boolean matches(Account account) {
-        return _disallowedAccounts.contains(account);
-      }
-
-      public String format(Account account) {
-        return account.getFullAccountName();
-      }
-    };
+    _requiredBits = buildAccountBits(_requiredAccounts);
+    _disallowedBits = buildAccountBits(_disallowedAccounts);
     if (!_tags.isEmpty()) {
       _tagFilter = new TxnTagsFilter(_tags, _tagLogic);
     } else {
@@ -228,41 +246,67 @@ class RatioPart {
     }
   }
 
+  /**
+   * Add a transaction to the running total if it matches.
+   *
+   * @param txn The transaction to test for inclusion in the numerator or denominator.
+   * @param reporting The reporting callback interface to add the transaction to.
+   */
+  void accumulateTxn(final Txn txn, final IRatioReporting reporting) {
+    final long value = matchTxn(txn, reporting);
+    if (value == 0) return;
+    _txnValue += value;
+    if (_trackingTxns) addContribution(_txnContributions, txn, value);
+  }
+
+  /**
+   * Determine what a transaction adds to this part without changing the running total. This only reads the
+   * filters set up by {@link #prepareForTxnProcessing}, so it may be called from several threads at once.
+   *
+   * @param txn The transaction to test for inclusion in the numerator or denominator.
+   * @return The value of the transaction in the base currency, or zero if it does not match.
+   */
+  long getTxnValue(final Txn txn) {
+    return matchTxn(txn, null);
+  }
+
   /**
    * The key algorithm for transaction-based computations. This method selects which transactions are
    * included or not, and the sign of the value.
-   * 
+   *
    * @param txn The transaction to test for inclusion in the numerator or denominator.
    * @param reporting The reporting callback interface to add the transaction to.
+   * @return The value of the transaction in the base currency, or zero if it does not match.
    */
-  void accumulateTxn(final Txn txn, final IRatioReporting reporting) {
-    if (isAccountBalanceType()) return; // nothing to do
-    if (!_dateFilter.matches(txn)) return; // does not match the date range
+  private long matchTxn(final Txn txn, final IRatioReporting reporting) {
+    if (isAccountBalanceType()) return 0; // nothing to do
+    if (!_dateFilter.matches(txn)) return 0; // does not match the date range
     // There is an assumption here that an account can't be simultaneously required and disallowed.
     final Account sourceAccount = txn.getAccount();
     final Account targetAccount = txn.getOtherTxn(0).getAccount();
     // If a disallowed account is on either side, then the txn is disqualified.
-    if (_disallowedFilter.matches(sourceAccount) || _disallowedFilter.matches(targetAccount)) {
+    if (isAccountIn(_disallowedBits, _disallowedAccounts, sourceAccount)
+        || isAccountIn(_disallowedBits, _disallowedAccounts, targetAccount)) {
       // do nothing, can't use this transaction
-      return;
+      return 0;
     }
     // we do not allow security accounts either
     if ((sourceAccount.getAccountType() == Account.AccountType.SECURITY)
         || (targetAccount.getAccountType() == Account.AccountType.SECURITY)) {
       // do nothing, can't use this transaction
-      return;
+      return 0;
     }
-    final boolean sourceRequired = _requiredFilter.matches(sourceAccount);
-    final boolean targetRequired = _requiredFilter.matches(targetAccount);
+    final boolean sourceRequired = isAccountIn(_requiredBits, _requiredAccounts, sourceAccount);
+    final boolean targetRequired = isAccountIn(_requiredBits, _requiredAccounts, targetAccount);
     // if neither match, both accounts are Allowed and we ignore the transaction
     // if both match, both accounts are Required and it's an 'internal' transfer, skip
-    if (!(sourceRequired ^ targetRequired)) return;
+    if (!(sourceRequired ^ targetRequired)) return 0;
     // At this point one account is Required, the other is Allowed
     // Both sides will be visited by the enumeration, we just so happen to pick the target account
     // to get the sign right.
     if (targetRequired && txnDirectionMatches(txn, targetAccount.balanceIsNegated())) {
       // we have a candidate transaction, now check both sides for a tag match if applicable
-      if ((_tagFilter != null) && !_tagFilter.matches(txn)) return;
+      if ((_tagFilter != null) && !_tagFilter.matches(txn)) return 0;
       // we have a matching transaction
       final int txnDate = txn.getDateInt();
       final long rawValue = txn.getValue();
@@ -279,11 +323,93 @@ class RatioPart {
         convertedValue = CurrencyUtil.convertValue(txnValue, sourceAccount.getCurrencyType(),
                                                     _baseCurrency, txnDate);
       }
-      _txnValue += convertedValue;
       if (reporting != null) {
         reporting.addTxn(txn, new TxnReportInfo(convertedValue, sourceRequired, targetRequired));
       }
+      return convertedValue;
+    }
+    return 0;
+  }
+
+  /**
+   * @param accounts The accounts to include.
+   * @return A set with the bit for each account's number turned on.
+   */
+  private static BitSet buildAccountBits(final List<Account> accounts) {
+    final BitSet result = new BitSet();
+    for (Account account : accounts) {
+      final int accountNum = account.getAccountNum();
+      if (accountNum >= 0) result.set(accountNum);
     }
+    return result;
+  }
+
+  private static boolean isAccountIn(final BitSet accountBits, final List<Account> accounts, final Account account) {
+    final int accountNum = account.getAccountNum();
+    // an account without a number can only be found by searching the list
+    if (accountNum < 0) return accounts.contains(account);
+    return accountBits.get(accountNum);
+  }
+
+  /**
+   * Add a transaction's value to what its parent transaction contributes.
+   * @param contributions The map of parent transaction ID to its total contribution.
+   * @param txn           The matching transaction, either a parent or a split.
+   * @param value         The value the transaction adds.
+   */
+  static void addContribution(final Map<String, Long> contributions, final Txn txn, final long value) {
+    final ParentTxn parent = (txn instanceof SplitTxn) ? ((SplitTxn)txn).getParentTxn() : (ParentTxn)txn;
+    final Long previous = contributions.get(parent.getUUID());
+    contributions.put(parent.getUUID(), Long.valueOf((previous == null) ? value : previous.longValue() + value));
+  }
+
+  /**
+   * Replace the running total with one computed elsewhere, such as by a parallel pass.
+   * @param txnValue      The total value of all matching transactions in the base currency.
+   * @param contributions What each parent transaction contributed, if transactions are being tracked.
+   */
+  void setTxnTotal(final long txnValue, final Map<String, Long> contributions) {
+    _txnValue = txnValue;
+    _txnContributions.clear();
+    if (_trackingTxns && (contributions != null)) _txnContributions.putAll(contributions);
+  }
+
+  /**
+   * Apply an added, modified or removed transaction to the running total without another pass through
+   * all of the transactions. Whatever the transaction contributed before is backed out, and its current
+   * state is added back in.
+   *
+   * @param parentTxn The transaction that changed, with its current splits.
+   * @param removed   True if the transaction has been deleted.
+   * @return True if the value of this part changed.
+   */
+  boolean updateTxn(final ParentTxn parentTxn, final boolean removed) {
+    if (!isTxnBased()) return false;
+    final String txnId = parentTxn.getUUID();
+    final Long previous = _txnContributions.remove(txnId);
+    if (previous != null) _txnValue -= previous.longValue();
+    if (!removed && (parentTxn.getSplitCount() > 0)) {
+      // both sides are visited, just as in the full pass
+      accumulateTxn(parentTxn, null);
+      for (int index = 0; index < parentTxn.getSplitCount(); index++) {
+        accumulateTxn(parentTxn.getSplit(index), null);
+      }
+    }
+    if (RatiosUtil.areEqual(previous, _txnContributions.get(txnId))) return false;
+    endTxnProcessing();
+    return true;
+  }
+
+  /**
+   * @return True if the running total is up to date with what each transaction contributed, so that
+   * {@link #updateTxn} can be used. Parts that don't depend on transactions are always up to date.
+   */
+  boolean isTrackingTxns() {
+    return !isTxnBased() || _trackingTxns;
+  }
+
+  boolean isTxnBased() {
+    return !isAccountBalanceType() && !getConstant() && !getDaysInPeriod();
   }
 
   private boolean isAccountBalanceType() {
@@ -28,6 +28,8 @@ import com.moneydance.apps.md.view.gui.reporttool.ReportGenerator;
 import javax.swing.JPanel;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -45,7 +47,8 @@ class RatioReportGenerator extends ReportGenerator {
 
   public RatioReportGenerator(final RatiosExtensionModel mainModel, final RatioEntry ratio, final Graphics2D graphics) {
     _mainModel = mainModel;
-    _ratio = ratio;
+    // the report computes its own copy, the home page ratio keeps the totals that changes are applied to
+    _ratio = mainModel.copyRatio(ratio);
     _graphics = graphics;
     setGUI(_mainModel.getGUI());
 
@@ -53,7 +56,9 @@ class RatioReportGenerator extends ReportGenerator {
     ReportSpec reportSpec = new ReportSpec(_mainModel.getRootAccount());
     reportSpec.setMemorized(false);
     setInfo(reportSpec);
-    _computer = new RatioCompute(_mainModel.getRootAccount(), _mainModel.getGUI().getPreferences().getDecimalChar());
+    // the report may be on other dates than the home page, so it has its own balances
+    _computer = new RatioCompute(_mainModel.getRootAccount(), _mainModel.getGUI().getPreferences().getDecimalChar(),
+                                 new DailyBalanceCache(_mainModel.getRootAccount()));
   }
 
   public String getName() {
@@ -91,6 +96,12 @@ class RatioReportGenerator extends ReportGenerator {
     final CurrencyType baseCurrency = book.getCurrencies().getBaseType();
     _reporting = new RatioReportingHandler(this, report, fullName, baseCurrency, widths);
     final String nanString = _mainModel.getResources().getString(L10NRatios.NAN);
+    // one pass through the transactions finds the transactions of both the numerator and the denominator
+    final TxnCollector numeratorTxns = new TxnCollector();
+    final TxnCollector denominatorTxns = new TxnCollector();
+    _computer.computeTransactionResults(_ratio, dateRange, numeratorTxns, denominatorTxns);
+    _computer.computeConstantValues(Collections.singletonList(_ratio), dateRange);
+    _computer.setBalanceDateRange(dateRange);
 
     // numerator
     report.addRow(RecordRow.BLANK_ROW);
@@ -104,7 +115,7 @@ class RatioReportGenerator extends ReportGenerator {
       addConstantRow(report, _ratio.getNumeratorConstant(), _ratio.getNumeratorLabel(), 0.0, _ratio.getNumeratorDaysInPeriod(), dateRange, widths);
     } else {
       addSubtitleRow(report, mdGUI.getStr("report_transactions"));
-      addTransactionRows(dateRange, true);
+      addTransactionRows(numeratorTxns);
     }
     addSubtotalRow(report, L10NRatios.NUMERATOR, _ratio.getNumeratorLabel(), baseCurrency, _ratio.getNumeratorValue(),
                    _ratio.isNumeratorConstant(), nanString, fm, widths);
@@ -121,7 +132,7 @@ class RatioReportGenerator extends ReportGenerator {
       addConstantRow(report,_ratio.getDenominatorConstant(), _ratio.getDenominatorLabel(), 1.0, _ratio.getDenominatorDaysInPeriod(), dateRange, widths);
     } else {
       addSubtitleRow(report, mdGUI.getStr("report_transactions"));
-      addTransactionRows(dateRange, false);
+      addTransactionRows(denominatorTxns);
     }
     addSubtotalRow(report, L10NRatios.DENOMINATOR, _ratio.getDenominatorLabel(), baseCurrency, _ratio.getDenominatorValue(),
                    _ratio.isDenominatorConstant(), nanString, fm, widths);
@@ -322,10 +333,10 @@ class RatioReportGenerator extends ReportGenerator {
     return baseCurrency.formatFancy(baseCurrency.getLongValue(value), decimal);
   }
 
-  private void addTransactionRows(final DateRange dateRange, final boolean isNumerator) {
+  private void addTransactionRows(final TxnCollector txns) {
     _reporting.startReportSection();
-    // the result will be set to either the numerator or the denominator value automatically
-    _computer.computeTransactionResult(_ratio, dateRange, isNumerator, _reporting);
+    // the numerator or the denominator value was already set by the transaction pass
+    txns.sendTo(_reporting);
     _reporting.endReportTxnSection();
   }
 
@@ -631,4 +642,26 @@ class RatioReportGenerator extends ReportGenerator {
     return (int) fm.getStringBounds(text, graphics).getWidth();
   }
 
+  /**
+   * Holds the matching transactions of one ratio part until its section of the report is started.
+   */
+  private static class TxnCollector
+      implements IRatioReporting {
+    private final List<Txn> _txns = new ArrayList<Txn>();
+    private final List<TxnReportInfo> _infos = new ArrayList<TxnReportInfo>();
+
+    public void startReportSection() { }
+    public void addAccountResult(Account account, long startBalance, long endBalance, long avgBalance,
+                                 boolean useAverage, int startDate, int endDate, boolean useStartDate) { }
+    public void addTxn(Txn txn, TxnReportInfo info) {
+      _txns.add(txn);
+      _infos.add(info);
+    }
+    public void endReportAccountSection() { }
+    public void endReportTxnSection() { }
+
+    void sendTo(final IRatioReporting reporting) {
+      for (int index = 0; index < _txns.size(); index++) reporting.addTxn(_txns.get(index), _infos.get(index));
+    }
+  }
 }
@@ -0,0 +1,100 @@
+/*
+ * ************************************************************************
+ * Copyright (C) 2012-2015 Mennē Software Solutions, LLC
+ *
+ * This code is released as open source under the Apache 2.0 License:<br/>
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">
+ * http://www.apache.org/licenses/LICENSE-2.0</a><br />
+ * ************************************************************************
+ */
+
+package com.moneydance.modules.features.ratios;
+
+import javax.swing.JComponent;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.RenderingHints;
+
+/**
+ * A small line chart of a ratio's values over time, with no axes or labels. Values that are not a number
+ * (the denominator was zero) leave a gap in the line.
+ */
+class RatioSparkline extends JComponent {
+  private static final int DOT_SIZE = 3;
+  private double[] _values = null;
+
+  RatioSparkline(final int width, final int height) {
+    final Dimension size = new Dimension(width, height);
+    setPreferredSize(size);
+    setMinimumSize(size);
+    setOpaque(false);
+  }
+
+  /**
+   * @param values The values to show, oldest first, or null to show nothing.
+   */
+  void setValues(final double[] values) {
+    _values = values;
+    repaint();
+  }
+
+  @Override
+  protected void paintComponent(final Graphics graphics) {
+    final double[] values = _values;
+    if ((values == null) || (values.length == 0)) return;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+    for (double value : values) {
+      if (!isValid(value)) continue;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    if (min > max) return; // nothing to show
+    final Insets insets = getInsets();
+    final int left = insets.left + 1;
+    final int top = insets.top + 1;
+    final int width = getWidth() - insets.left - insets.right - DOT_SIZE;
+    final int height = getHeight() - insets.top - insets.bottom - DOT_SIZE;
+    if ((width <= 0) || (height <= 0)) return;
+    final double range = (max > min) ? (max - min) : 1.0;
+    final double step = (values.length > 1) ? width / (double)(values.length - 1) : 0.0;
+
+    final Graphics2D g2 = (Graphics2D)graphics.create();
+    try {
+      g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g2.setStroke(new BasicStroke(1.2f));
+      g2.setColor(getForeground());
+      int previousX = 0;
+      int previousY = 0;
+      boolean havePrevious = false;
+      for (int index = 0; index < values.length; index++) {
+        if (!isValid(values[index])) {
+          havePrevious = false;
+          continue;
+        }
+        final int x = left + (int)Math.round(index * step);
+        // a flat line sits in the middle
+        final int y = top + ((max > min) ? (int)Math.round((max - values[index]) / range * height) : height / 2);
+        if (havePrevious) g2.drawLine(previousX, previousY, x, y);
+        previousX = x;
+        previousY = y;
+        havePrevious = true;
+      }
+      final double latest = values[values.length - 1];
+      if (havePrevious) {
+        g2.setColor((latest < 0) ? Color.RED : getForeground());
+        g2.fillOval(previousX - DOT_SIZE / 2, previousY - DOT_SIZE / 2, DOT_SIZE, DOT_SIZE);
+      }
+    } finally {
+      g2.dispose();
+    }
+  }
+
+  private static boolean isValid(final double value) {
+    return !Double.isNaN(value) && !Double.isInfinite(value);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * ************************************************************************
+ * Copyright (C) 2012-2015 Mennē Software Solutions, LLC
+ *
+ * This code is released as open source under the Apache 2.0 License:<br/>
+ * <a href="http://www.apache.org/licenses/LICENSE-2.0">
+ * http://www.apache.org/licenses/LICENSE-2.0</a><br />
+ * ************************************************************************
+ */
+
+package com.moneydance.modules.features.ratios;
+
+import com.moneydance.apps.md.view.gui.MoneydanceGUI;
+import com.moneydance.apps.md.view.gui.SecondaryDialog;
+import com.moneydance.awt.GridC;
+import com.moneydance.util.UiUtil;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import java.awt.BorderLayout;
+import java.awt.CardLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Frame;
+import java.awt.GridBagLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowEvent;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shows how every ratio has moved, month by month or quarter by quarter, over the past few years. The
+ * values for all of the ratios and periods are computed together in the background.
+ */
+class RatioTrendWindow
+    extends SecondaryDialog
+    implements ActionListener {
+  private static final String CARD_TRENDS = "trends";
+  private static final String CARD_NOTHING = "nothing";
+  private static final Integer[] YEAR_CHOICES = { 1, 2, 3, 5, 10 };
+  private final RatiosExtensionModel _mainModel;
+  private final ExecutorService _executor = Executors.newFixedThreadPool(1);
+  private JComboBox<String> _intervalChoice;
+  private JComboBox<Integer> _yearsChoice;
+  private JButton _doneButton;
+  private JPanel _trendPanel;
+  private JLabel _nothingLabel;
+  private CardLayout _cardLayout;
+  private JPanel _mainDetailView;
+  // incremented for each computation so that only the most recent one is shown
+  private int _requestId = 0;
+
+  RatioTrendWindow(final RatiosExtensionModel mainModel, final Frame parent) {
+    super(mainModel.getGUI(), parent, mainModel.getResources().getString(L10NRatios.TREND_TITLE), false);
+    _mainModel = mainModel;
+    getContentPane().add(createControls(mainModel.getGUI()));
+    setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+    enableEvents(WindowEvent.WINDOW_CLOSING);
+    pack();
+    setRememberSizeLocationKeys(N12ERatios.TREND_SIZE_KEY, N12ERatios.TREND_LOC_KEY, new Dimension(720, 480));
+    _intervalChoice.addActionListener(this);
+    _yearsChoice.addActionListener(this);
+    _doneButton.addActionListener(this);
+    startCompute();
+  }
+
+  private JPanel createControls(final MoneydanceGUI mdGUI) {
+    final ResourceProvider resources = _mainModel.getResources();
+    _intervalChoice = new JComboBox<String>(new String[] {
+        resources.getString(L10NRatios.TREND_MONTHLY), resources.getString(L10NRatios.TREND_QUARTERLY) });
+    _yearsChoice = new JComboBox<Integer>(YEAR_CHOICES);
+    _yearsChoice.setSelectedItem(Integer.valueOf(N12ERatios.HOME_HISTORY_YEARS));
+    _doneButton = new JButton(mdGUI.getStr("done"));
+    _nothingLabel = new JLabel(mdGUI.getStr("generating"), JLabel.CENTER);
+    final Font currentFont = _nothingLabel.getFont();
+    _nothingLabel.setFont(currentFont.deriveFont(Font.BOLD, currentFont.getSize() + 3f));
+    _trendPanel = new JPanel(new GridBagLayout());
+    _trendPanel.setBorder(BorderFactory.createEmptyBorder(UiUtil.DLG_VGAP, UiUtil.DLG_HGAP,
+                                                          UiUtil.DLG_VGAP, UiUtil.DLG_HGAP));
+
+    int x = 0;
+    final JPanel choicePanel = new JPanel(new GridBagLayout());
+    choicePanel.add(_intervalChoice, GridC.getc(x++, 0));
+    choicePanel.add(Box.createHorizontalStrut(UiUtil.DLG_HGAP), GridC.getc(x++, 0));
+    choicePanel.add(_yearsChoice, GridC.getc(x++, 0));
+    choicePanel.add(new JLabel(resources.getString(L10NRatios.TREND_YEARS)),
+                    GridC.getc(x++, 0).insets(0, UiUtil.HGAP, 0, 0));
+    choicePanel.add(Box.createHorizontalStrut(UiUtil.DLG_HGAP), GridC.getc(x++, 0).wx(1).fillx());
+    choicePanel.add(_doneButton, GridC.getc(x, 0));
+    choicePanel.setBorder(BorderFactory.createEmptyBorder(UiUtil.DLG_VGAP, UiUtil.DLG_HGAP,
+                                                          UiUtil.DLG_VGAP, UiUtil.DLG_HGAP));
+
+    _cardLayout = new CardLayout();
+    _mainDetailView = new JPanel(_cardLayout);
+    _mainDetailView.add(new JScrollPane(_trendPanel), CARD_TRENDS);
+    _mainDetailView.add(_nothingLabel, CARD_NOTHING);
+    _cardLayout.show(_mainDetailView, CARD_NOTHING);
+
+    final JPanel result = new JPanel(new BorderLayout());
+    result.add(_mainDetailView, BorderLayout.CENTER);
+    result.add(choicePanel, BorderLayout.SOUTH);
+    return result;
+  }
+
+  public void actionPerformed(final ActionEvent event) {
+    if (event.getSource() == _doneButton) {
+      goAwayNow();
+    } else {
+      startCompute();
+    }
+  }
+
+  @Override
+  public void goneAway() {
+    super.goneAway();
+    _executor.shutdownNow();
+  }
+
+  private void startCompute() {
+    final int monthsPerPeriod = (_intervalChoice.getSelectedIndex() == 1) ? RatioHistory.QUARTERLY
+                                                                          : RatioHistory.MONTHLY;
+    final int years = ((Integer)_yearsChoice.getSelectedItem()).intValue();
+    final int requestId = ++_requestId;
+    _cardLayout.show(_mainDetailView, CARD_NOTHING);
+    _executor.execute(new Runnable() {
+      public void run() {
+        try {
+          final RatioHistory history = _mainModel.computeHistory(monthsPerPeriod, years);
+          UiUtil.runOnUIThread(new Runnable() {
+            public void run() {
+              if (requestId == _requestId) showHistory(history);
+            }
+          });
+        } catch (Throwable error) {
+          Logger.log("Error computing ratio trends: " + error.getMessage());
+          error.printStackTrace();
+        }
+      }
+    });
+  }
+
+  private void showHistory(final RatioHistory history) {
+    final ResourceProvider resources = _mainModel.getResources();
+    final char decimal = _mainModel.getGUI().getPreferences().getDecimalChar();
+    final int decimalPlaces = _mainModel.getDecimalPlaces();
+    final String nanString = resources.getString(L10NRatios.NAN);
+    _trendPanel.removeAll();
+    int x = 2;
+    _trendPanel.add(createHeader(resources.getString(L10NRatios.TREND_FIRST)), GridC.getc(x++, 0).east());
+    _trendPanel.add(createHeader(resources.getString(L10NRatios.TREND_LAST)), GridC.getc(x++, 0).east());
+    _trendPanel.add(createHeader(resources.getString(L10NRatios.TREND_LOW)), GridC.getc(x++, 0).east());
+    _trendPanel.add(createHeader(resources.getString(L10NRatios.TREND_HIGH)), GridC.getc(x, 0).east());
+    for (int ratioIndex = 0; ratioIndex < history.getRatioCount(); ratioIndex++) {
+      final RatioEntry ratio = history.getRatio(ratioIndex);
+      final double[] values = history.getValues(ratioIndex);
+      double low = Double.NaN;
+      double high = Double.NaN;
+      for (double value : values) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) continue;
+        if (Double.isNaN(low) || (value < low)) low = value;
+        if (Double.isNaN(high) || (value > high)) high = value;
+      }
+      final JLabel name = new JLabel(ratio.toString());
+      final RatioSparkline sparkline = new RatioSparkline(240, 32);
+      sparkline.setForeground(name.getForeground());
+      sparkline.setValues(values);
+      final int y = ratioIndex + 1;
+      x = 0;
+      _trendPanel.add(name, GridC.getc(x++, y).wx(1).fillx().insets(UiUtil.VGAP, 0, UiUtil.VGAP, 0));
+      _trendPanel.add(sparkline, GridC.getc(x++, y).insets(UiUtil.VGAP, UiUtil.DLG_HGAP, UiUtil.VGAP, 0));
+      final double[] columns = { values[0], values[values.length - 1], low, high };
+      for (double value : columns) {
+        final JLabel label = new JLabel(RatiosUtil.formatRatioValue(value, decimal, decimalPlaces, nanString,
+                                                                    ratio.getShowPercent()), JLabel.RIGHT);
+        if (!Double.isNaN(value) && !Double.isInfinite(value) && (value < 0)) label.setForeground(Color.RED);
+        _trendPanel.add(label, GridC.getc(x++, y).east().insets(0, UiUtil.DLG_HGAP, 0, 0));
+      }
+    }
+    // push the rows to the top
+    _trendPanel.add(Box.createVerticalGlue(), GridC.getc(0, history.getRatioCount() + 1).wy(1));
+    _cardLayout.show(_mainDetailView, CARD_TRENDS);
+    validate();
+    repaint();
+  }
+
+  private static JLabel createHeader(final String text) {
+    final JLabel result = new JLabel(text, JLabel.RIGHT);
+    result.setFont(result.getFont().deriveFont(Font.BOLD));
+    return result;
+  }
+}
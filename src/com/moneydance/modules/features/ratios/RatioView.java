@@ -36,6 +36,7 @@ class RatioView extends JPanel {
   private final RatioEntry _ratio;
   private final String _nanString;
   private final JLabel _report;
+  private final RatioSparkline _sparkline;
   private JLabel _name;
   private JLabel _ratioValue;
 
@@ -46,6 +47,8 @@ class RatioView extends JPanel {
     _nanString = mainModel.getResources().getString(L10NRatios.NAN);
     Icon reportImage = mainModel.getGUI().getImages().getIcon(MDImages.SB_REPORT);
     _report = new JLabel(reportImage, JLabel.CENTER);
+    _sparkline = new RatioSparkline(60, 16);
+    _sparkline.setToolTipText(mainModel.getResources().getString(L10NRatios.TREND_TOOLTIP));
   }
 
   void layoutUI(int decimalPlaces, final Color alternateColor) {
@@ -62,9 +65,11 @@ class RatioView extends JPanel {
     }
     _ratioValue.setOpaque(false);
     setupReportIcon();
+    setupSparkline();
     add(_name, GridC.getc(0, 0).wx(1).fillx());
-    add(_ratioValue, GridC.getc(1, 0).east());
-    add(_report, GridC.getc(2, 0).insets(0, UiUtil.DLG_HGAP, 0, 0).east());
+    add(_sparkline, GridC.getc(1, 0).insets(0, UiUtil.DLG_HGAP, 0, UiUtil.DLG_HGAP));
+    add(_ratioValue, GridC.getc(2, 0).east());
+    add(_report, GridC.getc(3, 0).insets(0, UiUtil.DLG_HGAP, 0, 0).east());
     updateBackgroundColor(alternateColor);
     validate();
   }
@@ -88,6 +93,23 @@ class RatioView extends JPanel {
     });
   }
 
+  private void setupSparkline() {
+    _sparkline.setForeground(_name.getForeground());
+    _sparkline.setValues(_mainModel.getRecentHistory(_ratio));
+    _sparkline.addMouseListener(new MouseAdapter() {
+      public void mouseEntered(MouseEvent event) {
+        setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+      }
+      public void mouseExited(MouseEvent e) {
+        setCursor(Cursor.getDefaultCursor());
+      }
+      public void mouseClicked(MouseEvent event) {
+        RatioTrendWindow trendWindow = new RatioTrendWindow(_mainModel, AwtUtil.getFrame(RatioView.this));
+        trendWindow.setVisible(true);
+      }
+    });
+  }
+
   private void updateBackgroundColor(final Color alternateColor) {
     if (_ratio.getIndex() % 2 == 0) {
       setOpaque(true);
@@ -10,10 +10,14 @@
 
 package com.moneydance.modules.features.ratios;
 
+import com.infinitekind.moneydance.model.AbstractTxn;
 import com.infinitekind.moneydance.model.Account;
 import com.infinitekind.moneydance.model.AccountBook;
 import com.infinitekind.moneydance.model.AccountListener;
+import com.infinitekind.moneydance.model.CurrencyListener;
+import com.infinitekind.moneydance.model.CurrencyTable;
 import com.infinitekind.moneydance.model.DateRange;
+import com.infinitekind.moneydance.model.TransactionListener;
 import com.moneydance.apps.md.controller.UserPreferences;
 import com.moneydance.apps.md.view.gui.MoneydanceGUI;
 import com.moneydance.util.BasePropertyChangeReporter;
@@ -42,12 +46,23 @@ class RatiosExtensionModel
   private AccountBook _rootAccount = null;
   private UserPreferences _preferences = null;
   private final AccountListener _accountListener = new RatiosAccountListener();
+  private final TransactionListener _txnListener = new RatiosTxnListener();
+  private final CurrencyListener _currencyListener = new RatiosCurrencyListener();
 
   private final List<RatioEntry> _ratios = new ArrayList<RatioEntry>();
   private final Object _ratioSync = new Object();
   private RatioSettings _settings = null;
 
   private RatioCompute _ratioCompute = null;
+  private DailyBalanceCache _balanceCache = null;
+  // changes to apply on the next computation, and whether everything must be computed again instead
+  private final RatioChangeSet _pendingChanges = new RatioChangeSet();
+  private final AtomicBoolean _fullRecalculate = new AtomicBoolean(true);
+  // the recent history of each ratio for the home page sparklines, and the ratios it was computed for
+  private volatile RatioHistory _history = null;
+  private volatile List<RatioEntry> _historyRatios = null;
+  // whether the ratios have changed since the history was computed
+  private final AtomicBoolean _historyStale = new AtomicBoolean(true);
 
   // runs tasks on a separate thread
   private final Object _taskSync = new Object();
@@ -95,9 +110,11 @@ class RatiosExtensionModel
     if ((rootAccount != null) && !RatiosUtil.areEqual(oldRoot, rootAccount)) {
       // setup for a new file - stop any current update
       cancelCurrentTask();
+      _pendingChanges.clear();
       createSettings();
       loadRatioList();
-      _ratioCompute = new RatioCompute(rootAccount, getGUI().getPreferences().getDecimalChar());
+      _balanceCache = new DailyBalanceCache(rootAccount);
+      _ratioCompute = new RatioCompute(rootAccount, getGUI().getPreferences().getDecimalChar(), _balanceCache);
       recalculate();
     } else if (rootAccount == null) {
       // clear out the data
@@ -132,12 +149,16 @@ class RatiosExtensionModel
   private void addAccountListener() {
     if (_rootAccount != null) {
       _rootAccount.addAccountListener(_accountListener);
+      _rootAccount.getTransactionSet().addTransactionListener(_txnListener);
+      _rootAccount.getCurrencies().addCurrencyListener(_currencyListener);
     }
   }
 
   private void removeAccountListener() {
     if (_rootAccount != null) {
       _rootAccount.removeAccountListener(_accountListener);
+      _rootAccount.getTransactionSet().removeTransactionListener(_txnListener);
+      _rootAccount.getCurrencies().removeCurrencyListener(_currencyListener);
     }
   }
 
@@ -243,7 +264,19 @@ class RatiosExtensionModel
     _eventNotify.firePropertyChange(N12ERatios.DATE_RANGE_OPTION, oldOption, N12ERatios.CUSTOM_DATE_KEY);
   }
 
+  /**
+   * Compute all of the ratios again from scratch, as when the ratio definitions or the date range change.
+   */
   void recalculate() {
+    _fullRecalculate.set(true);
+    scheduleUpdate();
+  }
+
+  /**
+   * Bring the ratios up to date with the pending changes on the background thread. A full recalculation is
+   * only done if one has been requested.
+   */
+  private void scheduleUpdate() {
     if (_ratioCompute != null) {
       setCurrentTask(new BackgroundRecalculateTask(), true);
       final Runnable computeTask = getCurrentTask();
@@ -263,6 +296,54 @@ class RatiosExtensionModel
     }
   }
 
+  /**
+   * Compute the value of every ratio for each period over a number of years. This may take a while for a
+   * large file, so it should not be called on the UI thread.
+   * @param monthsPerPeriod {@link RatioHistory#MONTHLY} or {@link RatioHistory#QUARTERLY}.
+   * @param years           The number of years of history.
+   * @return The history of the ratios, in the same order as the ratio list.
+   */
+  RatioHistory computeHistory(final int monthsPerPeriod, final int years) {
+    final List<RatioEntry> copies;
+    synchronized (_ratioSync) {
+      copies = copyRatios(_ratios);
+    }
+    return RatioHistory.compute(_rootAccount, copies, getGUI().getPreferences().getDecimalChar(),
+                                monthsPerPeriod, years);
+  }
+
+  /**
+   * @param ratio A ratio in the list.
+   * @return A copy of the ratio that can be computed on its own, as for a report, without disturbing the running
+   * totals of the home page ratios.
+   */
+  RatioEntry copyRatio(final RatioEntry ratio) {
+    synchronized (_ratioSync) {
+      return new RatioEntry(ratio);
+    }
+  }
+
+  private static List<RatioEntry> copyRatios(final List<RatioEntry> ratios) {
+    final List<RatioEntry> result = new ArrayList<RatioEntry>(ratios.size());
+    for (RatioEntry ratio : ratios) result.add(new RatioEntry(ratio));
+    return result;
+  }
+
+  /**
+   * @param ratio A ratio in the list.
+   * @return The value of the ratio in each month of the recent past, oldest first, or null if it has not been
+   * computed yet.
+   */
+  double[] getRecentHistory(final RatioEntry ratio) {
+    final RatioHistory history = _history;
+    final List<RatioEntry> historyRatios = _historyRatios;
+    if ((history == null) || (historyRatios == null)) return null;
+    for (int index = 0; index < historyRatios.size(); index++) {
+      if (historyRatios.get(index) == ratio) return history.getValues(index);
+    }
+    return null;
+  }
+
   RatioView getRatioView(final int index) {
     synchronized (_ratioSync) {
       return new RatioView(_ratios.get(index), this);
@@ -330,8 +411,9 @@ class RatiosExtensionModel
     }
 
     public void accountBalanceChanged(Account account) {
-      // any change of any balance should be responded to
-      recalculate();
+      // any change of any balance should be responded to, but only that account's balance needs to be computed
+      _pendingChanges.accountChanged(account);
+      scheduleUpdate();
     }
 
     public void accountDeleted(Account account, Account account1) {
@@ -347,6 +429,40 @@ class RatiosExtensionModel
     }
   }
 
+  /**
+   * Applies each transaction change to the transaction-based ratios, instead of running through all of the
+   * transactions again.
+   */
+  private class RatiosTxnListener
+      implements TransactionListener {
+    public void transactionAdded(AbstractTxn txn) {
+      _pendingChanges.txnChanged(txn);
+      scheduleUpdate();
+    }
+
+    public void transactionModified(AbstractTxn txn) {
+      _pendingChanges.txnChanged(txn);
+      scheduleUpdate();
+    }
+
+    public void transactionRemoved(AbstractTxn txn) {
+      _pendingChanges.txnRemoved(txn);
+      scheduleUpdate();
+    }
+  }
+
+  /**
+   * New prices, such as from a quote download, change the value of investment accounts without changing any
+   * balance, so the balance listener does not see them.
+   */
+  private class RatiosCurrencyListener
+      implements CurrencyListener {
+    public void currencyTableModified(CurrencyTable table) {
+      _pendingChanges.pricesChanged();
+      scheduleUpdate();
+    }
+  }
+
   /**
    * Class to compute the ratios on a background thread, which does two things for us:
    * 1) Prevents long-running tasks on the main UI thread
@@ -360,24 +476,33 @@ class RatiosExtensionModel
       // name this thread
       Thread.currentThread().setName(N12ERatios.RATIO_THREAD_NAME);
       // first wait 1/2 second to make sure we don't get an avalanche of recalculate commands
-      int count = 3;
-      while (!_cancelTasks.get() && count > 0) {
-        try {
-          Thread.sleep(200);
-          --count;
-        } catch (InterruptedException e) {
-          // definitely do not proceed
-          _cancelTasks.set(true);
-        }
-      }
-      if (!_cancelTasks.get()) {
+      if (pause(3)) {
         // go ahead with the computation
         try {
+          boolean changed = false;
+          boolean fullCompute = false;
           synchronized (_ratioSync) {
-            _ratioCompute.computeRatios(_ratios, _settings.getDateRange());
+            if (_fullRecalculate.getAndSet(false)) {
+              _ratioCompute.computeRatios(_ratios, _settings.getDateRange());
+              changed = true;
+              fullCompute = true;
+            }
+            // changes that arrived during a full computation may or may not have been included in it, but
+            // applying a transaction change twice has the same result as applying it once
+            if (!_pendingChanges.isEmpty()) {
+              changed |= _ratioCompute.updateRatios(_ratios, _settings.getDateRange(), _pendingChanges.takeChanges());
+            }
           }
+          if (changed) _historyStale.set(true);
+          if (fullCompute) computeRecentHistory();
           // notify the UI on the main thread
-          firePropertyChange(_eventNotify, N12ERatios.RECALCULATE, null, null);
+          if (changed) firePropertyChange(_eventNotify, N12ERatios.RECALCULATE, null, null);
+          // the sparklines go over years of transactions, so after a change they wait for a download or a
+          // series of edits to finish. If another change comes in first, its task computes them instead.
+          if (_historyStale.get() && pause(N12ERatios.HOME_HISTORY_DELAY_STEPS)) {
+            computeRecentHistory();
+            firePropertyChange(_eventNotify, N12ERatios.RECALCULATE, null, null);
+          }
           currentTaskDone();
         } catch (Throwable error) {
           Logger.log("Error computing ratios: " + error.getMessage());
@@ -387,5 +512,39 @@ class RatiosExtensionModel
         Logger.log("Background recalculate task was canceled.");
       }
     } // run()
+
+    /**
+     * Wait unless the task is canceled.
+     * @param count The number of 200ms steps to wait.
+     * @return True if the task should go ahead, false if it was canceled.
+     */
+    private boolean pause(int count) {
+      while (!_cancelTasks.get() && count > 0) {
+        try {
+          Thread.sleep(200);
+          --count;
+        } catch (InterruptedException e) {
+          // definitely do not proceed
+          _cancelTasks.set(true);
+        }
+      }
+      return !_cancelTasks.get();
+    }
+
+    private void computeRecentHistory() {
+      // changes from here on mark the history stale again
+      _historyStale.set(false);
+      final List<RatioEntry> ratios;
+      final List<RatioEntry> copies;
+      synchronized (_ratioSync) {
+        ratios = new ArrayList<RatioEntry>(_ratios);
+        copies = copyRatios(_ratios);
+      }
+      final RatioHistory history = RatioHistory.compute(_rootAccount, copies,
+                                                        getGUI().getPreferences().getDecimalChar(),
+                                                        RatioHistory.MONTHLY, N12ERatios.HOME_HISTORY_YEARS);
+      _historyRatios = ratios;
+      _history = history;
+    }
   }
 }
@@ -1 +1 @@
-/* * ************************************************************************ * Copyright (C) 2015 Mennē Software Solutions, LLC * * This code is released as open source under the Apache 2.0 License:<br/> * <a href="http://www.apache.org/licenses/LICENSE-2.0"> * http://www.apache.org/licenses/LICENSE-2.0</a><br /> * ************************************************************************ */package com.moneydance.modules.features.ratios;import com.infinitekind.moneydance.model.ParentTxn;import com.infinitekind.moneydance.model.Txn;import com.infinitekind.moneydance.model.TxnSearch;import com.moneydance.apps.md.view.gui.TagLogic;import java.util.ArrayList;import java.util.List;/** * This is a special filter just for the Ratios extension. It looks at both sides of a transaction to see if the tags match. Ratios is * different from other calculations because it depends on the flow direction of each transaction. However, the user intent of filtering * on tags is that the tags match on either side of each split, irrespective of the flow direction. */public class TxnTagsFilter  implements TxnSearch {  private final List<String> _includedTags;  private final TagLogic _combineLogic;  TxnTagsFilter(final List<String> included, final TagLogic combine) {    _includedTags = new ArrayList<String>(included);    _combineLogic = combine;  }  public boolean matches(Txn txn) {    // only splits have value, and ratio calculations only need the transactions with value    if (txn instanceof ParentTxn) return false;    // check the first side for a tag match    if (txnSideMatches(txn)) return true;    // check the other side    return txnSideMatches(txn.getOtherTxn(0));  }  private boolean txnSideMatches(Txn txn) {    boolean isMatch;    if (TagLogic.EXACT.equals(_combineLogic)) {      isMatch = isExactMatch(txn);    } else if (TagLogic.AND.equals(_combineLogic)) {      isMatch = isAllMatch(txn);    } else {      isMatch = isAnyMatch(txn); // OR logic    }    return isMatch;  }  public boolean matchesAll() {    return !TagLogic.EXACT.equals(_combineLogic) && _includedTags.isEmpty();  }  ///////////////////////////////////////////////////////////////////////////////////////////////  // Private Methods  ///////////////////////////////////////////////////////////////////////////////////////////////  private boolean isAllMatch(final Txn txn) {    // if the included tags are blank, that effectively disables the inclusion criteria and all transactions should match    if (_includedTags.isEmpty()) return true;    // the transaction can have a different number of tags, but must have all of the tags the user has included    List<String> splitTags = txn.getKeywords();    return splitTags.containsAll(_includedTags);  }  private boolean isAnyMatch(final Txn txn) {    // if the included tags are blank, that effectively disables the inclusion criteria and all transactions should match    if (_includedTags.isEmpty()) return true;    // the transaction must have at least one of the tags the user has chosen in order to match    List<String> splitTags = txn.getKeywords();    for (final String includedTag : _includedTags) {      if (splitTags.contains(includedTag)) {        return true;      }    }    return false;  }  private boolean isExactMatch(final Txn txn) {    // All tags defined in the split must be in the included tags, and the two lists must be the same size    final List<String> txnTags = txn.getKeywords();    if (txnTags.size() != _includedTags.size()) {      // can't be an exact match, included tags are defined and the split doesn't have any      return false;    }    return _includedTags.isEmpty() || txnTags.containsAll(_includedTags);  }}
\ No newline at end of file
+/* * ************************************************************************ * Copyright (C) 2015 Mennē Software Solutions, LLC * * This code is released as open source under the Apache 2.0 License:<br/> * <a href="http://www.apache.org/licenses/LICENSE-2.0"> * http://www.apache.org/licenses/LICENSE-2.0</a><br /> * ************************************************************************ */package com.moneydance.modules.features.ratios;import com.infinitekind.moneydance.model.ParentTxn;import com.infinitekind.moneydance.model.Txn;import com.infinitekind.moneydance.model.TxnSearch;import com.moneydance.apps.md.view.gui.TagLogic;import java.util.ArrayList;import java.util.HashMap;import java.util.List;import java.util.Map;/** * This is a special filter just for the Ratios extension. It looks at both sides of a transaction to see if the tags match. Ratios is * different from other calculations because it depends on the flow direction of each transaction. However, the user intent of filtering * on tags is that the tags match on either side of each split, irrespective of the flow direction. */public class TxnTagsFilter  implements TxnSearch {  private final List<String> _includedTags;  private final TagLogic _combineLogic;  // each included tag is given a bit, so comparing a split's tags is a mask test instead of list searches.  // Null if there are too many tags for one mask, in which case the lists are searched.  private final Map<String, Long> _tagBits;  private final long _includedMask;  TxnTagsFilter(final List<String> included, final TagLogic combine) {    _includedTags = new ArrayList<String>(included);    _combineLogic = combine;    if (_includedTags.size() <= Long.SIZE) {      _tagBits = new HashMap<String, Long>();      long mask = 0;      for (final String tag : _includedTags) {        if (!_tagBits.containsKey(tag)) _tagBits.put(tag, Long.valueOf(1L << _tagBits.size()));        mask |= _tagBits.get(tag).longValue();      }      _includedMask = mask;    } else {      _tagBits = null;      _includedMask = 0;    }  }  public boolean matches(Txn txn) {    // only splits have value, and ratio calculations only need the transactions with value    if (txn instanceof ParentTxn) return false;    // check the first side for a tag match    if (txnSideMatches(txn)) return true;    // check the other side    return txnSideMatches(txn.getOtherTxn(0));  }  private boolean txnSideMatches(Txn txn) {    boolean isMatch;    if (TagLogic.EXACT.equals(_combineLogic)) {      isMatch = isExactMatch(txn);    } else if (TagLogic.AND.equals(_combineLogic)) {      isMatch = isAllMatch(txn);    } else {      isMatch = isAnyMatch(txn); // OR logic    }    return isMatch;  }  public boolean matchesAll() {    return !TagLogic.EXACT.equals(_combineLogic) && _includedTags.isEmpty();  }  ///////////////////////////////////////////////////////////////////////////////////////////////  // Private Methods  ///////////////////////////////////////////////////////////////////////////////////////////////  private boolean isAllMatch(final Txn txn) {    // if the included tags are blank, that effectively disables the inclusion criteria and all transactions should match    if (_includedTags.isEmpty()) return true;    // the transaction can have a different number of tags, but must have all of the tags the user has included    List<String> splitTags = txn.getKeywords();    if (_tagBits != null) return (getTagMask(splitTags) & _includedMask) == _includedMask;    return splitTags.containsAll(_includedTags);  }  private boolean isAnyMatch(final Txn txn) {    // if the included tags are blank, that effectively disables the inclusion criteria and all transactions should match    if (_includedTags.isEmpty()) return true;    // the transaction must have at least one of the tags the user has chosen in order to match    List<String> splitTags = txn.getKeywords();    if (_tagBits != null) return (getTagMask(splitTags) & _includedMask) != 0;    for (final String includedTag : _includedTags) {      if (splitTags.contains(includedTag)) {        return true;      }    }    return false;  }  private boolean isExactMatch(final Txn txn) {    // All tags defined in the split must be in the included tags, and the two lists must be the same size    final List<String> txnTags = txn.getKeywords();    if (txnTags.size() != _includedTags.size()) {      // can't be an exact match, included tags are defined and the split doesn't have any      return false;    }    if (_includedTags.isEmpty()) return true;    if (_tagBits != null) return (getTagMask(txnTags) & _includedMask) == _includedMask;    return txnTags.containsAll(_includedTags);  }  /**   * @param tags The tags of a split.   * @return The bits of the included tags that the split has.   */  private long getTagMask(final List<String> tags) {    long result = 0;    for (final String tag : tags) {      final Long bit = _tagBits.get(tag);      if (bit != null) result |= bit.longValue();    }    return result;  }}
\ No newline at end of file
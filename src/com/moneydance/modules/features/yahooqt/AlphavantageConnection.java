@@ -30,7 +30,9 @@ import java.util.List;
  */
 public class AlphavantageConnection extends APIKeyConnection
 {
-  private static final SimpleDateFormat SNAPSHOT_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+  private static final String SNAPSHOT_DATE_PATTERN = "yyyy-MM-dd";
+  /** The compact output holds the last 100 trading days, which is about this many calendar days */
+  private static final int COMPACT_HISTORY_DAYS = 140;
   
   public static final String PREFS_KEY = "alphavantage";
   private SimpleDateFormat refreshDateFmt;
@@ -59,8 +61,17 @@ public class AlphavantageConnection extends APIKeyConnection
 //    }
   }
   
+  /**
+   * The pace of Alphavantage requests is set by the throttle time, but a second request can be
+   * waiting on the network while the first one is parsed.
+   */
+  @Override
+  public int getMaxConcurrentRequests() {
+    return 2;
+  }
   
-  public String getAPIKey(final StockQuotesModel model, final boolean evenIfAlreadySet) {
+  
+  public synchronized String getAPIKey(final StockQuotesModel model, final boolean evenIfAlreadySet) {
     if(!evenIfAlreadySet && cachedAPIKey!=null) return cachedAPIKey;
     
     if(model==null) return null;
@@ -132,6 +143,11 @@ public class AlphavantageConnection extends APIKeyConnection
     return cachedAPIKey;
   } 
   
+  /** Use the given API key without asking, as when running from the command line. */
+  static void setAPIKey(String apiKey) {
+    cachedAPIKey = apiKey;
+  }
+  
 	
   public String toString() {
     StockQuotesModel model = getModel();
@@ -173,11 +189,14 @@ public class AlphavantageConnection extends APIKeyConnection
     }
     */
     
+    QuoteResponseCache cache = model.getResponseCache();
     try {
-      URL url = new URL(urlStr);
-      ByteArrayOutputStream bout = new ByteArrayOutputStream();
-      IOUtils.copyStream(url.openConnection().getInputStream(), bout);
-      JsonReader jsonReader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(bout.toByteArray()), StandardCharsets.UTF_8));
+      QuoteResponseCache.Response response = cache.fetch(urlStr, QuoteResponseCache.CURRENT_PRICE_TTL, null);
+      if (!response.isSuccess()) {
+        downloadInfo.recordError("Connection Error: "+response.code+" "+response.message);
+        return;
+      }
+      JsonReader jsonReader = new JsonReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8));
       Gson gson = new Gson();
       Map gsonData = gson.fromJson(jsonReader, Map.class);
       
@@ -188,7 +207,9 @@ public class AlphavantageConnection extends APIKeyConnection
         Object rateDateObj = rateInfo.get("6. Last Refreshed");
         long rateDate = DateUtil.firstMinuteInDay(new Date()).getTime();
         if(rateDateObj!=null) {
-          rateDate = refreshDateFmt.parse(String.valueOf(rateDateObj)).getTime();
+          synchronized (refreshDateFmt) {
+            rateDate = refreshDateFmt.parse(String.valueOf(rateDateObj)).getTime();
+          }
         }
         
         if (rateObj != null) {
@@ -198,10 +219,13 @@ public class AlphavantageConnection extends APIKeyConnection
           }
         }
       }
-      try {
-        downloadInfo.setTestMessage(new String(bout.toByteArray(), "UTF8"));
-      } catch (Throwable t){}
+      if (downloadInfo.getRate() <= 0) {
+        // probably a quota message, so ask again next time
+        cache.invalidate(urlStr);
+      }
+      downloadInfo.setTestMessage(response.getBodyText());
     } catch (Exception connEx) {
+      cache.invalidate(urlStr);
       downloadInfo.recordError("Connection Error: "+connEx);
     }
   }
@@ -212,13 +236,21 @@ public class AlphavantageConnection extends APIKeyConnection
   }
   
   public String getHistoryURL(String fullTickerSymbol) {
+    return getHistoryURL(fullTickerSymbol, false);
+  }
+
+  /**
+   * @param fullHistory true to request the full series, for a gap that the compact series
+   *                    doesn't cover.
+   */
+  public String getHistoryURL(String fullTickerSymbol, boolean fullHistory) {
     String apiKey = getAPIKey(getModel(), false);
     return apiKey==null ? null :
            "https://www.alphavantage.co/query?function=TIME_SERIES_DAILY_ADJUSTED"+
            "&symbol="+SQUtil.urlEncode(fullTickerSymbol)+
            "&apikey="+SQUtil.urlEncode(apiKey)+
            "&datatype=csv"+
-           "&outputsize=compact";
+           "&outputsize="+(fullHistory ? "full" : "compact");
   }
 
 
@@ -230,20 +262,23 @@ public class AlphavantageConnection extends APIKeyConnection
   @Override
   public void updateSecurity(DownloadInfo downloadInfo) {
     System.err.println("alphavantage: getting history for "+downloadInfo.fullTickerSymbol);
-    String urlStr = getHistoryURL(downloadInfo.fullTickerSymbol);
+    // the compact series is enough unless there is stored history and the gap since is longer
+    String urlStr = getHistoryURL(downloadInfo.fullTickerSymbol,
+                                  downloadInfo.getMissingDays() > COMPACT_HISTORY_DAYS);
     if (urlStr == null) {
       // this basically means that an API key wasn't available
       downloadInfo.recordError("No API Key Available");
       return;
     }
     
-    char decimal = model.getPreferences().getDecimalChar();
+    char decimal = model.getDecimalDisplayChar();
     SnapshotImporterFromURL importer = 
       new SnapshotImporterFromURL(urlStr, getCookie(), model.getResources(),
-                                  downloadInfo, SNAPSHOT_DATE_FORMAT, 
+                                  downloadInfo, new SimpleDateFormat(SNAPSHOT_DATE_PATTERN), 
                                   TimeZone.getTimeZone(getTimeZoneID()), decimal);
     importer.setColumnsFromHeader(getCurrentPriceHeader());
     importer.setPriceMultiplier(downloadInfo.priceMultiplier);
+    importer.setResponseCache(model.getResponseCache(), QuoteResponseCache.DAILY_HISTORY_TTL);
     
     // the return value is negative for general errors, 0 for success with no error, or a positive
     // value for overall success but one or more errors
@@ -25,12 +25,14 @@ import java.util.*;
 public abstract class BaseConnection {
   static final int HISTORY_SUPPORT = 1;
   static final int EXCHANGE_RATES_SUPPORT = 4;
+  static final int BATCH_SUPPORT = 8;
   static final int ALL_SUPPORT = HISTORY_SUPPORT | EXCHANGE_RATES_SUPPORT;
   static final int FOREX_HISTORY_INTERVAL = 7; // snapshot minimum frequency, in days
 
   private final String connectionID;
   private final int _capabilities;
   protected final StockQuotesModel model;
+  private RateLimiter rateLimiter = null;
   
   private BaseConnection() {
     model = null;
@@ -88,63 +90,103 @@ public abstract class BaseConnection {
   
   /** Update the currencies in the given list */
   public boolean updateExchangeRates(List<DownloadInfo> currenciesToUpdate) {
-    ResourceProvider res = model.getResources();
-    float progressPercent = 0.0f;
+    final ResourceProvider res = model.getResources();
     final float progressIncrement = currenciesToUpdate.isEmpty() ? 1.0f :
                                     1.0f / (float)currenciesToUpdate.size();
-    for (DownloadInfo downloadInfo : currenciesToUpdate) {
+    return model.getDownloadScheduler().run(this, currenciesToUpdate, downloadInfo -> {
       System.err.println("updating currency: "+downloadInfo.security+" ("+downloadInfo.fullTickerSymbol+")");
       updateExchangeRate(downloadInfo);
-      double rate = downloadInfo.getRate();
-      progressPercent += progressIncrement;
-      final String message, logMessage;
-      if (rate <= 0.0) {
-        message = MessageFormat.format( res.getString(L10NStockQuotes.ERROR_EXCHANGE_RATE_FMT),
-                                        downloadInfo.security.getIDString(),
-                                        downloadInfo.relativeCurrency.getIDString());
-        logMessage = MessageFormat.format("Unable to get rate from {0} to {1}",
-                                          downloadInfo.security.getIDString(),
-                                          downloadInfo.relativeCurrency.getIDString());
-      } else {
-        message = downloadInfo.buildRateDisplayText(model);
-        logMessage = downloadInfo.buildRateLogText(model);
+    }, new DownloadScheduler.ItemListener() {
+      private float progressPercent = 0.0f;
+
+      public void downloaded(DownloadInfo downloadInfo) {
+        progressPercent += progressIncrement;
+        rateUpdated(downloadInfo, progressPercent);
       }
-      model.showProgress(progressPercent, message);
-      if(Main.DEBUG_YAHOOQT) System.err.println(logMessage);
-      didUpdateItem(downloadInfo);
-    }
-    
-    return true;
+    });
   }
   
   public boolean updateSecurities(List<DownloadInfo> securitiesToUpdate) {
-    ResourceProvider res = model.getResources();
-    float progressPercent = 0.0f;
     final float progressIncrement = securitiesToUpdate.isEmpty() ? 1.0f :
                                     1.0f / (float)securitiesToUpdate.size();
-    boolean success = true;
-    for (DownloadInfo downloadInfo : securitiesToUpdate) {
+    model.getDownloadScheduler().run(this, securitiesToUpdate, downloadInfo -> {
       System.err.println("updating security: "+downloadInfo.security+" ("+downloadInfo.fullTickerSymbol+")");
       updateSecurity(downloadInfo);
-      progressPercent += progressIncrement;
-      final String message, logMessage;
-      if (!downloadInfo.wasSuccess()) {
-        message = MessageFormat.format( res.getString(L10NStockQuotes.ERROR_EXCHANGE_RATE_FMT),
+    }, new DownloadScheduler.ItemListener() {
+      private float progressPercent = 0.0f;
+
+      public void downloaded(DownloadInfo downloadInfo) {
+        progressPercent += progressIncrement;
+        priceUpdated(downloadInfo, progressPercent);
+      }
+    });
+    return Boolean.TRUE;
+  }
+  
+  /**
+   * Update the currencies in the given list with as few requests as possible. This is only
+   * called for connections that {@link #canBatch()}, with no more than {@link #getMaxBatchSize()}
+   * currencies at a time. The default implementation requests each currency in turn.
+   */
+  public boolean updateExchangeRatesBatch(List<DownloadInfo> currenciesToUpdate) {
+    for (DownloadInfo downloadInfo : currenciesToUpdate) {
+      updateExchangeRate(downloadInfo);
+    }
+    return true;
+  }
+  
+  /**
+   * Update the securities in the given list with as few requests as possible. This is only
+   * called for connections that {@link #canBatch()}, with no more than {@link #getMaxBatchSize()}
+   * securities at a time. The default implementation requests each security in turn.
+   */
+  public boolean updateSecuritiesBatch(List<DownloadInfo> securitiesToUpdate) {
+    for (DownloadInfo downloadInfo : securitiesToUpdate) {
+      updateSecurity(downloadInfo);
+    }
+    return true;
+  }
+  
+  /** Show the progress message for a currency that has been updated. */
+  void rateUpdated(DownloadInfo downloadInfo, float progressPercent) {
+    final ResourceProvider res = model.getResources();
+    double rate = downloadInfo.getRate();
+    final String message, logMessage;
+    if (rate <= 0.0) {
+      message = MessageFormat.format( res.getString(L10NStockQuotes.ERROR_EXCHANGE_RATE_FMT),
+                                      downloadInfo.security.getIDString(),
+                                      downloadInfo.relativeCurrency.getIDString());
+      logMessage = MessageFormat.format("Unable to get rate from {0} to {1}",
                                         downloadInfo.security.getIDString(),
                                         downloadInfo.relativeCurrency.getIDString());
-        logMessage = MessageFormat.format("Unable to get rate from {0} to {1}",
-                                          downloadInfo.security.getIDString(),
-                                          downloadInfo.relativeCurrency.getIDString());
-      } else {
-        message = downloadInfo.buildPriceDisplayText(model);
-        logMessage = downloadInfo.buildPriceLogText(model);
-      }
-      model.showProgress(progressPercent, message);
-      if(Main.DEBUG_YAHOOQT) System.err.println(logMessage);
-      
-      didUpdateItem(downloadInfo);
+    } else {
+      message = downloadInfo.buildRateDisplayText(model);
+      logMessage = downloadInfo.buildRateLogText(model);
     }
-    return Boolean.TRUE;
+    model.showProgress(progressPercent, message);
+    if(Main.DEBUG_YAHOOQT) System.err.println(logMessage);
+    didUpdateItem(downloadInfo);
+  }
+  
+  /** Show the progress message for a security that has been updated. */
+  void priceUpdated(DownloadInfo downloadInfo, float progressPercent) {
+    final ResourceProvider res = model.getResources();
+    final String message, logMessage;
+    if (!downloadInfo.wasSuccess()) {
+      message = MessageFormat.format( res.getString(L10NStockQuotes.ERROR_EXCHANGE_RATE_FMT),
+                                      downloadInfo.security.getIDString(),
+                                      downloadInfo.relativeCurrency.getIDString());
+      logMessage = MessageFormat.format("Unable to get rate from {0} to {1}",
+                                        downloadInfo.security.getIDString(),
+                                        downloadInfo.relativeCurrency.getIDString());
+    } else {
+      message = downloadInfo.buildPriceDisplayText(model);
+      logMessage = downloadInfo.buildPriceLogText(model);
+    }
+    model.showProgress(progressPercent, message);
+    if(Main.DEBUG_YAHOOQT) System.err.println(logMessage);
+    
+    didUpdateItem(downloadInfo);
   }
 
 
@@ -174,30 +216,65 @@ public abstract class BaseConnection {
   }
   
   /**
-   * Return the number of milliseconds by which the connection should be throttled.
-   * The default is zero.
+   * Return true if this connection can fetch many symbols in one request, in which case the
+   * download task calls {@link #updateSecuritiesBatch} and {@link #updateExchangeRatesBatch}
+   * instead of {@link #updateSecurities} and {@link #updateExchangeRates}.
+   */
+  public boolean canBatch() {
+    return ((_capabilities & BATCH_SUPPORT) != 0);
+  }
+  
+  /**
+   * Return the largest number of symbols the provider accepts in one batch request. Each batch
+   * counts as a single request for the {@link RateLimiter}.
+   */
+  public int getMaxBatchSize() {
+    return 1;
+  }
+  
+  /**
+   * Return the average number of milliseconds between requests to this connection's provider.
+   * Requests are paced by a {@link RateLimiter} built from this value. The default is zero,
+   * which means no limit.
    */
   public long getPerConnectionThrottleTime() {
     return 0;
   }
   
+  /**
+   * Return the number of requests that can be sent back to back before the throttle time
+   * applies. The default is one.
+   */
+  public int getThrottleBurst() {
+    return 1;
+  }
+  
+  /**
+   * Return the number of requests that may be in flight at once. Connections that override this
+   * must make {@link #updateSecurity} and {@link #updateExchangeRate} safe to call from several
+   * threads. The default is one request at a time.
+   */
+  public int getMaxConcurrentRequests() {
+    return 1;
+  }
+  
+  /**
+   * Return the rate limiter shared by all requests made through this connection.
+   */
+  synchronized RateLimiter getRateLimiter() {
+    if (rateLimiter == null) {
+      long interval = getPerConnectionThrottleTime();
+      rateLimiter = (interval > 0) ? new RateLimiter(interval, getThrottleBurst()) : RateLimiter.UNLIMITED;
+    }
+    return rateLimiter;
+  }
   
   /** 
-   * This is called after an item is updated.  If the error parameter is non-null then it
-   * means there was a problem performing the update.  The default implementation checks
-   * for a per-connection/item throttling time and if it is a positive number will
-   * sleep/wait for the appropriate number of milliseconds.
+   * This is called after an item is updated, in the order the items were given, on the thread
+   * that requested the update. The default implementation does nothing; throttling is handled
+   * by the connection's {@link RateLimiter} before each request.
    */
   public void didUpdateItem(DownloadInfo downloadInfo) {
-    long delay = getPerConnectionThrottleTime();
-    if (delay > 0) {
-      try {
-        Thread.sleep(delay);
-      } catch (InterruptedException e) {
-        System.err.println(
-          "Unexpected error while sleeping throttled connection: " + e);
-      }
-    }
   }
 
   /**
@@ -433,44 +510,55 @@ public abstract class BaseConnection {
                       "GLF", "GU"));
     }
     
-    List<DownloadInfo> currencies = new ArrayList<>();
-    List<DownloadInfo> securities = new ArrayList<>();
-
+    if(currencyConnection!=null) {
+      DownloadTask.updateExchangeRates(currencyConnection, createTestCurrencies(currencyConnection, currencySymbols));
+    }
     if(securityConnection!=null) {
-      CurrencyTable ctable = securityConnection.getModel().getBook().getCurrencies();
-      for(String symbol : securitySymbols) {
-        CurrencyType security = ctable.getCurrencyByTickerSymbol(symbol);
-        if (security == null) {
-          security = new CurrencyType(ctable);
-          security.setCurrencyType(CurrencyType.Type.SECURITY);
-          security.setTickerSymbol(symbol);
-          security.setName(symbol);
-          security.setIDString("^" + symbol);
-          security.setDecimalPlaces(4);
-          ctable.addCurrencyType(security);
-        }
-        securities.add(new DownloadInfo(security, securityConnection));
+      DownloadTask.updateSecurities(securityConnection, createTestSecurities(securityConnection, securitySymbols));
+    }
+  }
+  
+  /**
+   * Find or create a security for each ticker symbol in the connection's data file, for tests.
+   */
+  static List<DownloadInfo> createTestSecurities(BaseConnection securityConnection, List<String> securitySymbols) {
+    List<DownloadInfo> securities = new ArrayList<>();
+    CurrencyTable ctable = securityConnection.getModel().getBook().getCurrencies();
+    for(String symbol : securitySymbols) {
+      CurrencyType security = ctable.getCurrencyByTickerSymbol(symbol);
+      if (security == null) {
+        security = new CurrencyType(ctable);
+        security.setCurrencyType(CurrencyType.Type.SECURITY);
+        security.setTickerSymbol(symbol);
+        security.setName(symbol);
+        security.setIDString("^" + symbol);
+        security.setDecimalPlaces(4);
+        ctable.addCurrencyType(security);
       }
+      securities.add(new DownloadInfo(security, securityConnection));
     }
-    
-    if(currencyConnection!=null) {
-      CurrencyTable ctable = currencyConnection.getModel().getBook().getCurrencies();
-      for (String symbol : currencySymbols) {
-        CurrencyType currency = ctable.getCurrencyByIDString(symbol);
-        if (currency == null) {
-          currency = new CurrencyType(ctable);
-          currency.setCurrencyType(CurrencyType.Type.CURRENCY);
-          currency.setName(symbol);
-          currency.setIDString(symbol);
-          currency.setDecimalPlaces(2);
-          ctable.addCurrencyType(currency);
-        }
-        currencies.add(new DownloadInfo(currency, currencyConnection));
+    return securities;
+  }
+  
+  /**
+   * Find or create a currency for each currency code in the connection's data file, for tests.
+   */
+  static List<DownloadInfo> createTestCurrencies(BaseConnection currencyConnection, List<String> currencySymbols) {
+    List<DownloadInfo> currencies = new ArrayList<>();
+    CurrencyTable ctable = currencyConnection.getModel().getBook().getCurrencies();
+    for (String symbol : currencySymbols) {
+      CurrencyType currency = ctable.getCurrencyByIDString(symbol);
+      if (currency == null) {
+        currency = new CurrencyType(ctable);
+        currency.setCurrencyType(CurrencyType.Type.CURRENCY);
+        currency.setName(symbol);
+        currency.setIDString(symbol);
+        currency.setDecimalPlaces(2);
+        ctable.addCurrencyType(currency);
       }
+      currencies.add(new DownloadInfo(currency, currencyConnection));
     }
-    
-    if(currencyConnection!=null) currencyConnection.updateExchangeRates(currencies);
-    if(securityConnection!=null) securityConnection.updateSecurities(securities);
+    return currencies;
   }
   
 }
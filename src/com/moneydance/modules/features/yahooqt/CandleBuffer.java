@@ -0,0 +1,91 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Daily prices for one security held column by column in primitive arrays, so that a long
+ * history can be decoded without an object per day. Prices are as downloaded, in terms of the
+ * price currency; they are only turned into rates when converted to {@link StockRecord}s.
+ */
+class CandleBuffer {
+  private static final int INITIAL_CAPACITY = 32;
+
+  private int size = 0;
+  private int[] dates;
+  private long[] dateTimes;
+  private double[] opens;
+  private double[] highs;
+  private double[] lows;
+  private double[] closes;
+  private long[] volumes;
+
+  CandleBuffer() {
+    dates = new int[INITIAL_CAPACITY];
+    dateTimes = new long[INITIAL_CAPACITY];
+    opens = new double[INITIAL_CAPACITY];
+    highs = new double[INITIAL_CAPACITY];
+    lows = new double[INITIAL_CAPACITY];
+    closes = new double[INITIAL_CAPACITY];
+    volumes = new long[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Add one day of prices.
+   * @param date     The integer date, YYYYMMDD.
+   * @param dateTime The time of the prices, in milliseconds since 1970.
+   */
+  void add(int date, long dateTime, double open, double high, double low, double close, long volume) {
+    if (size == dates.length) {
+      int capacity = size * 2;
+      dates = Arrays.copyOf(dates, capacity);
+      dateTimes = Arrays.copyOf(dateTimes, capacity);
+      opens = Arrays.copyOf(opens, capacity);
+      highs = Arrays.copyOf(highs, capacity);
+      lows = Arrays.copyOf(lows, capacity);
+      closes = Arrays.copyOf(closes, capacity);
+      volumes = Arrays.copyOf(volumes, capacity);
+    }
+    dates[size] = date;
+    dateTimes[size] = dateTime;
+    opens[size] = open;
+    highs[size] = high;
+    lows[size] = low;
+    closes[size] = close;
+    volumes[size] = volume;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Convert the prices to history records.
+   * @param priceMultiplier The multiplier for the security's stock exchange.
+   */
+  List<StockRecord> toStockRecords(double priceMultiplier) {
+    List<StockRecord> records = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      StockRecord record = new StockRecord();
+      record.date = dates[i];
+      record.dateTimeGMT = dateTimes[i];
+      record.volume = volumes[i];
+      record.open = StockRecord.priceToRate(opens[i], priceMultiplier);
+      record.highRate = StockRecord.priceToRate(highs[i], priceMultiplier);
+      record.lowRate = StockRecord.priceToRate(lows[i], priceMultiplier);
+      record.closeRate = StockRecord.priceToRate(closes[i], priceMultiplier);
+      records.add(record);
+    }
+    return records;
+  }
+}
@@ -0,0 +1,290 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads delimited text one row at a time straight out of a character buffer. Each row is split
+ * into field offsets once, and dates and numbers are parsed from the buffer without creating a
+ * string for every field. As in {@link SnapshotImporter}, quote characters and whitespace within a
+ * field are ignored.
+ */
+class DelimitedTextParser {
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+  private static final int INITIAL_FIELD_COUNT = 16;
+  /** Powers of ten that are exact as doubles */
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  /** Largest mantissa that converts to a double exactly */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  private final Reader reader;
+  private char delimiter;
+  private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+  private int bufferEnd = 0;
+  private int nextRowStart = 0;
+  private boolean endOfInput = false;
+
+  private int rowStart = 0;
+  private int rowEnd = 0;
+  private int fieldCount = 0;
+  private int[] fieldStarts = new int[INITIAL_FIELD_COUNT];
+  private int[] fieldEnds = new int[INITIAL_FIELD_COUNT];
+
+  DelimitedTextParser(Reader reader, char delimiter) {
+    this.reader = reader;
+    this.delimiter = delimiter;
+  }
+
+  /**
+   * Change the column delimiter, splitting the current row again with the new delimiter.
+   */
+  void setDelimiter(char delimiter) {
+    this.delimiter = delimiter;
+    splitFields();
+  }
+
+  /**
+   * Advance to the next row. A row ends with '\n', '\r' or "\r\n", or at the end of the input.
+   * @return false if there are no more rows.
+   */
+  boolean nextRow() throws IOException {
+    int scan = nextRowStart;
+    while (true) {
+      while (scan < bufferEnd) {
+        char ch = buffer[scan];
+        if (ch == '\n' || ch == '\r') {
+          // a "\r\n" pair needs the next character, which may not have been read yet
+          if (ch == '\r' && scan + 1 >= bufferEnd && !endOfInput) break;
+          rowStart = nextRowStart;
+          rowEnd = scan;
+          nextRowStart = (ch == '\r' && scan + 1 < bufferEnd && buffer[scan + 1] == '\n') ? scan + 2 : scan + 1;
+          splitFields();
+          return true;
+        }
+        scan++;
+      }
+      if (endOfInput) {
+        if (nextRowStart >= bufferEnd) {
+          rowStart = rowEnd = bufferEnd;
+          fieldCount = 0;
+          return false;
+        }
+        // the last row has no line ending
+        rowStart = nextRowStart;
+        rowEnd = bufferEnd;
+        nextRowStart = bufferEnd;
+        splitFields();
+        return true;
+      }
+      scan -= fillBuffer();
+    }
+  }
+
+  /**
+   * Move the unread text to the front of the buffer, growing it if a single row fills it, and
+   * read more input after it.
+   * @return The number of characters the unread text moved towards the front.
+   */
+  private int fillBuffer() throws IOException {
+    int shift = nextRowStart;
+    int remaining = bufferEnd - nextRowStart;
+    if (remaining >= buffer.length) {
+      char[] larger = new char[buffer.length * 2];
+      System.arraycopy(buffer, nextRowStart, larger, 0, remaining);
+      buffer = larger;
+    } else if (shift > 0) {
+      System.arraycopy(buffer, nextRowStart, buffer, 0, remaining);
+    }
+    nextRowStart = 0;
+    bufferEnd = remaining;
+    int count = reader.read(buffer, bufferEnd, buffer.length - bufferEnd);
+    if (count < 0) {
+      endOfInput = true;
+    } else {
+      bufferEnd += count;
+    }
+    return shift;
+  }
+
+  private void splitFields() {
+    fieldCount = 0;
+    if (rowEnd <= rowStart) return;
+    int start = rowStart;
+    for (int index = rowStart; index <= rowEnd; index++) {
+      if (index == rowEnd || buffer[index] == delimiter) {
+        if (fieldCount == fieldStarts.length) {
+          int[] starts = new int[fieldCount * 2];
+          int[] ends = new int[fieldCount * 2];
+          System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+          System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+          fieldStarts = starts;
+          fieldEnds = ends;
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = index;
+        fieldCount++;
+        start = index + 1;
+      }
+    }
+  }
+
+  /** The whole text of the current row, without the line ending. */
+  String getRowText() {
+    return new String(buffer, rowStart, rowEnd - rowStart);
+  }
+
+  /** The number of fields in the current row, or zero if the row is empty. */
+  int getFieldCount() {
+    return fieldCount;
+  }
+
+  /** The raw text of a field, or an empty string if the row doesn't have that field. */
+  String getField(int field) {
+    if (field < 0 || field >= fieldCount) return "";
+    return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+  }
+
+  /** True if the field is missing or contains only whitespace and quotes. */
+  boolean isBlank(int field) {
+    if (field < 0 || field >= fieldCount) return true;
+    for (int index = fieldStarts[field]; index < fieldEnds[field]; index++) {
+      if (!isIgnorable(buffer[index])) return false;
+    }
+    return true;
+  }
+
+  /** True if the field contains the text N/A, in any case. */
+  boolean isNA(int field) {
+    if (field < 0 || field >= fieldCount) return false;
+    final String expected = "N/A";
+    int matched = 0;
+    for (int index = fieldStarts[field]; index < fieldEnds[field]; index++) {
+      char ch = buffer[index];
+      if (isIgnorable(ch)) continue;
+      if (matched == expected.length() || Character.toUpperCase(ch) != expected.charAt(matched)) return false;
+      matched++;
+    }
+    return matched == expected.length();
+  }
+
+  /** True if the field contains a digit or is N/A, the test for a usable value. */
+  boolean hasDigitsOrNA(int field) {
+    if (field < 0 || field >= fieldCount) return false;
+    for (int index = fieldStarts[field]; index < fieldEnds[field]; index++) {
+      if (Character.isDigit(buffer[index])) return true;
+    }
+    return isNA(field);
+  }
+
+  /**
+   * Parse a date in year, month, day order, such as 2018-09-14, into an integer date. The year
+   * must have four digits and the month and day one or two.
+   * @param field     The field index.
+   * @param separator The character between the year, month and day.
+   * @return The date as YYYYMMDD, or zero if the field is not a valid date in that form.
+   */
+  int parseYearMonthDay(int field, char separator) {
+    if (field < 0 || field >= fieldCount) return 0;
+    int year = 0;
+    int month = 0;
+    int day = 0;
+    int part = 0;
+    int digits = 0;
+    for (int index = fieldStarts[field]; index < fieldEnds[field]; index++) {
+      char ch = buffer[index];
+      if (ch >= '0' && ch <= '9') {
+        if (++digits > (part == 0 ? 4 : 2)) return 0;
+        if (part == 0) {
+          year = year * 10 + (ch - '0');
+        } else if (part == 1) {
+          month = month * 10 + (ch - '0');
+        } else {
+          day = day * 10 + (ch - '0');
+        }
+      } else if (ch == separator && part < 2) {
+        if (digits == 0 || (part == 0 && digits != 4)) return 0;
+        part++;
+        digits = 0;
+      } else if (!isIgnorable(ch)) {
+        return 0;
+      }
+    }
+    if (part != 2 || digits == 0) return 0;
+    if (month < 1 || month > 12 || day < 1 || day > 31) return 0;
+    return year * 10000 + month * 100 + day;
+  }
+
+  /**
+   * Parse a plain decimal number such as -123.4567 from the field. Numbers with grouping
+   * characters, exponents or too many digits to convert exactly are not handled here.
+   * @param field   The field index.
+   * @param decimal The decimal point character.
+   * @return The value, or {@link Double#NaN} if the field is not a plain decimal number.
+   */
+  double parseDecimal(int field, char decimal) {
+    if (field < 0 || field >= fieldCount) return Double.NaN;
+    long mantissa = 0;
+    int scale = 0;
+    boolean negative = false;
+    boolean afterDecimal = false;
+    boolean anyDigits = false;
+    for (int index = fieldStarts[field]; index < fieldEnds[field]; index++) {
+      char ch = buffer[index];
+      if (ch >= '0' && ch <= '9') {
+        mantissa = mantissa * 10 + (ch - '0');
+        if (mantissa >= MAX_EXACT_MANTISSA) return Double.NaN;
+        if (afterDecimal) scale++;
+        anyDigits = true;
+      } else if (ch == decimal && !afterDecimal) {
+        afterDecimal = true;
+      } else if ((ch == '-' || ch == '+') && !anyDigits && !afterDecimal && !negative) {
+        negative = (ch == '-');
+      } else if (!isIgnorable(ch)) {
+        return Double.NaN;
+      }
+    }
+    if (!anyDigits || scale >= POWERS_OF_TEN.length) return Double.NaN;
+    // both values are exact, so the division is correctly rounded
+    double value = mantissa / POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parse a whole number from the field.
+   * @return The value, or <code>defaultValue</code> if the field is not a whole number.
+   */
+  long parseLong(int field, long defaultValue) {
+    if (field < 0 || field >= fieldCount) return defaultValue;
+    long value = 0;
+    boolean negative = false;
+    int digits = 0;
+    for (int index = fieldStarts[field]; index < fieldEnds[field]; index++) {
+      char ch = buffer[index];
+      if (ch >= '0' && ch <= '9') {
+        if (++digits > 18) return defaultValue;
+        value = value * 10 + (ch - '0');
+      } else if (ch == '-' && digits == 0 && !negative) {
+        negative = true;
+      } else if (!isIgnorable(ch)) {
+        return defaultValue;
+      }
+    }
+    if (digits == 0) return defaultValue;
+    return negative ? -value : value;
+  }
+
+  private static boolean isIgnorable(char ch) {
+    return ch == '"' || ch == '\'' || Character.isWhitespace(ch);
+  }
+}
@@ -11,19 +11,24 @@ package com.moneydance.modules.features.yahooqt;
 import com.infinitekind.moneydance.model.CurrencySnapshot;
 import com.infinitekind.moneydance.model.CurrencyType;
 import com.infinitekind.util.DateUtil;
-import com.moneydance.modules.features.yahooqt.tdameritrade.Candle;
-import com.moneydance.modules.features.yahooqt.tdameritrade.History;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.TimeZone;
 
 /**
  * Stores the result of an attempt to retrieve information for a security or currency
  */
 public class DownloadInfo {
+  /** Security parameter holding the time the most recent prices were downloaded */
+  private static final String DOWNLOAD_TIME_KEY = "price_download_time";
+  /** Closing time, in minutes after midnight, for exchanges that don't list their trading hours */
+  private static final int DEFAULT_CLOSE_MINUTES = 16 * 60;
+  
   CurrencyType security;
   CurrencyType relativeCurrency; // the currency in which prices are specified by the source
   String fullTickerSymbol;
@@ -32,6 +37,8 @@ public class DownloadInfo {
   boolean isValidForDownload = false;
   
   boolean skipped = false;
+  int lastSnapshotDate = 0; // date of the most recent stored price, or zero if there are none
+  long lastDownloadTime = 0; // time the most recent prices were downloaded, or zero if unknown
   
   private double rate = 0.0;
   private long dateTimeStamp = 0;
@@ -103,6 +110,65 @@ public class DownloadInfo {
     
     // if we're here then we must have a valid symbol
     isValidForDownload = true;
+    for (CurrencySnapshot snap : security.getSnapshots()) {
+      lastSnapshotDate = Math.max(lastSnapshotDate, snap.getDateInt());
+    }
+    lastDownloadTime = security.getLongParameter(DOWNLOAD_TIME_KEY, 0);
+  }
+  
+  /**
+   * Return true if today's price was downloaded after the market closed, so it is final and
+   * there is nothing to download. A price stored during the day is an intraday price that the
+   * close still has to replace.
+   */
+  boolean isUpToDate() {
+    if (lastSnapshotDate < DateUtil.getStrippedDateInt()) return false;
+    return lastDownloadTime >= getMarketCloseTime();
+  }
+  
+  /**
+   * Return the time today's session closes on the security's exchange. The exchange hours are in
+   * its standard time, so during daylight saving time this is an hour after the actual close.
+   */
+  private long getMarketCloseTime() {
+    StockExchange closeExchange = (exchange == null) ? StockExchange.DEFAULT : exchange;
+    int closeMinutes = DEFAULT_CLOSE_MINUTES;
+    String hours = closeExchange.getTimeRangeMarket();
+    if (!SQUtil.isBlank(hours)) {
+      // hours are listed as '09:30 - 16:00'
+      String close = hours.substring(hours.lastIndexOf('-') + 1).trim();
+      int colon = close.indexOf(':');
+      try {
+        closeMinutes = Integer.parseInt(close.substring(0, colon).trim()) * 60
+                       + Integer.parseInt(close.substring(colon + 1).trim());
+      } catch (RuntimeException e) {
+        if(Main.DEBUG_YAHOOQT) System.err.println("Unrecognized market hours for "+closeExchange+": "+hours);
+      }
+    }
+    int today = DateUtil.getStrippedDateInt();
+    Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+    cal.clear();
+    cal.set(today / 10000, (today / 100) % 100 - 1, today % 100);
+    cal.add(Calendar.MINUTE, closeMinutes - Math.round(closeExchange.getGMTDiff() * 60));
+    return cal.getTimeInMillis();
+  }
+  
+  /**
+   * Return the first date that needs to be downloaded. This is the date of the most recent stored
+   * price, so that its close is refreshed, or the given date if there is no history that recent.
+   * @param earliestDate The oldest date the connection would request for a new security.
+   */
+  int getHistoryStartDate(int earliestDate) {
+    return Math.max(earliestDate, lastSnapshotDate);
+  }
+  
+  /**
+   * Return the number of days between the most recent stored price and today, or -1 if there is
+   * no stored price.
+   */
+  int getMissingDays() {
+    if (lastSnapshotDate == 0) return -1;
+    return Math.max(0, DateUtil.calculateDaysBetween(lastSnapshotDate, DateUtil.getStrippedDateInt()));
   }
 
   
@@ -123,9 +189,7 @@ public class DownloadInfo {
 
   void apply() {
     // apply any historical prices
-    for (StockRecord record : history) {
-      record.apply(security, relativeCurrency);
-    }
+    SnapshotImporter.applyRecords(history, security, relativeCurrency);
     
     int dateStampInt = DateUtil.convertLongDateToInt(dateTimeStamp);
     StockRecord mostRecentRecord = findMostRecentValidRecord();
@@ -162,6 +226,11 @@ public class DownloadInfo {
       }
     }
     
+    if (wasSuccess()) {
+      // remember when the prices were stored, so that a download after the close is known to be final
+      security.setParameter(DOWNLOAD_TIME_KEY, System.currentTimeMillis());
+      security.syncItem();
+    }
   }
   
   public String toString() { return security.getName(); }
@@ -189,7 +258,12 @@ public class DownloadInfo {
 
   
   public void addHistoryRecords(List<StockRecord> snapshots) {
-    this.history.addAll(snapshots);
+    for (StockRecord record : snapshots) {
+      // providers may send more than the gap that was asked for; prices already stored are kept
+      if (record.date >= lastSnapshotDate) {
+        this.history.add(record);
+      }
+    }
   }
   
   public int getHistoryCount() {
@@ -343,17 +417,4 @@ public class DownloadInfo {
       return N12EStockQuotes.RED_FONT_BEGIN + "&#x2716;" + N12EStockQuotes.FONT_END;
     }
   }
-  
-  public void addHistory(History history)
-  {
-  	if (history.candles != null)
-	{
-		history.candles.stream().forEach(candle -> addDayOfData(candle));
-	}
-  }
-  
-  private void addDayOfData(Candle candle)
-  {
-  	history.add(new StockRecord(candle, priceMultiplier));
-  }
 }
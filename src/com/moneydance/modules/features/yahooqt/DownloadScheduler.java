@@ -0,0 +1,110 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the individual requests of a connection on worker threads. Each connection gets at most
+ * {@link BaseConnection#getMaxConcurrentRequests()} requests in flight, paced by its
+ * {@link RateLimiter}. Results are handed back on the calling thread in the original list order,
+ * so progress messages still appear in order.
+ */
+class DownloadScheduler {
+  /** Downloads one item, on a worker thread. */
+  interface ItemDownloader {
+    void download(DownloadInfo downloadInfo);
+  }
+
+  /** Receives each finished item in list order, on the thread that called {@link #run}. */
+  interface ItemListener {
+    void downloaded(DownloadInfo downloadInfo);
+  }
+
+  private final ExecutorService executor;
+
+  DownloadScheduler() {
+    executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger threadCount = new AtomicInteger(0);
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, N12EStockQuotes.DOWNLOAD_THREAD_NAME + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Download every item and report each one as it completes, in order.
+   * @param connection The connection that supplies the concurrency and rate limits.
+   * @param items      The items to download.
+   * @param downloader Performs the request for one item.
+   * @param listener   Notified of each finished item, in list order.
+   * @return false if the download was interrupted before every item was reported.
+   */
+  boolean run(BaseConnection connection, List<DownloadInfo> items,
+              final ItemDownloader downloader, ItemListener listener) {
+    final RateLimiter limiter = connection.getRateLimiter();
+    final List<FutureTask<DownloadInfo>> tasks = new ArrayList<>(items.size());
+    for (final DownloadInfo downloadInfo : items) {
+      tasks.add(new FutureTask<>(() -> {
+        limiter.acquire();
+        downloader.download(downloadInfo);
+        return downloadInfo;
+      }));
+    }
+
+    // a fixed set of workers pulls the next item off the list, which caps the requests in flight
+    final AtomicInteger nextTask = new AtomicInteger(0);
+    Runnable worker = () -> {
+      int index;
+      while ((index = nextTask.getAndIncrement()) < tasks.size()) {
+        tasks.get(index).run();
+      }
+    };
+    int workerCount = Math.max(1, Math.min(connection.getMaxConcurrentRequests(), tasks.size()));
+    for (int i = 0; i < workerCount; i++) {
+      executor.execute(worker);
+    }
+
+    try {
+      for (int i = 0; i < tasks.size(); i++) {
+        DownloadInfo downloadInfo = items.get(i);
+        try {
+          tasks.get(i).get();
+        } catch (ExecutionException e) {
+          // the connection should record its own errors; this is something unexpected
+          downloadInfo.recordError("Unexpected error: " + e.getCause());
+        }
+        listener.downloaded(downloadInfo);
+      }
+      return true;
+    } catch (InterruptedException | CancellationException e) {
+      for (FutureTask<DownloadInfo> task : tasks) {
+        task.cancel(true);
+      }
+      nextTask.set(tasks.size());
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+}
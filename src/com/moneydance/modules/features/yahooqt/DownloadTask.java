@@ -83,6 +83,13 @@ public class DownloadTask implements Callable<Boolean> {
         skippedList.add(currInfo);
         currInfo.skipped = true;
         currInfo.updateResultSummary(_model);
+      } else if(isSecurity && pricesDownloader!=null && !getIncludeTestInfo() && currInfo.isUpToDate()) {
+        // today's closing price has already been downloaded
+        skippedList.add(currInfo);
+        currInfo.skipped = true;
+        currInfo.updateResultSummary(_model);
+        skippedCount++;
+        if(Main.DEBUG_YAHOOQT) System.err.println("Skipping "+curr+", closing price is already stored");
       } else if(isSecurity) {
         securityList.add(currInfo);
         if(tableEntry!=null) {
@@ -177,7 +184,7 @@ public class DownloadTask implements Callable<Boolean> {
     
     currencyList = sortedCurrencies;
     
-    boolean successFlag = ratesDownloader.updateExchangeRates(currencyList);
+    boolean successFlag = updateExchangeRates(ratesDownloader, currencyList);
 
     for(DownloadInfo result : currencyList) {
       result.updateResultSummary(model);
@@ -207,7 +214,7 @@ public class DownloadTask implements Callable<Boolean> {
   private boolean downloadPrices(StockQuotesModel model, List<DownloadInfo> securityList, BaseConnection pricesDownloader) {
     AccountBook book = model.getBook();
     
-    boolean successFlag = pricesDownloader.updateSecurities(securityList);
+    boolean successFlag = updateSecurities(pricesDownloader, securityList);
     
     for (DownloadInfo downloadInfo : securityList) {
       downloadInfo.updateResultSummary(model);
@@ -242,8 +249,57 @@ public class DownloadTask implements Callable<Boolean> {
 
     return successFlag;
   }
-
-
+  
+  
+  /**
+   * Update the given currencies, in provider-sized batches if the connection supports them.
+   */
+  static boolean updateExchangeRates(BaseConnection connection, List<DownloadInfo> currencyList) {
+    if(!connection.canBatch()) return connection.updateExchangeRates(currencyList);
+    return updateInBatches(connection, currencyList, true);
+  }
+  
+  
+  /**
+   * Update the given securities, in provider-sized batches if the connection supports them.
+   */
+  static boolean updateSecurities(BaseConnection connection, List<DownloadInfo> securityList) {
+    if(!connection.canBatch()) return connection.updateSecurities(securityList);
+    return updateInBatches(connection, securityList, false);
+  }
+  
+  
+  private static boolean updateInBatches(BaseConnection connection, List<DownloadInfo> items, boolean rates) {
+    final int batchSize = Math.max(1, connection.getMaxBatchSize());
+    final float progressIncrement = items.isEmpty() ? 1.0f : 1.0f / (float)items.size();
+    float progressPercent = 0.0f;
+    boolean successFlag = true;
+    for(int start = 0; start < items.size(); start += batchSize) {
+      List<DownloadInfo> batch = items.subList(start, Math.min(start + batchSize, items.size()));
+      try {
+        // each batch is a single request as far as the provider's quota is concerned
+        connection.getRateLimiter().acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      if(Main.DEBUG_YAHOOQT) System.err.println("updating "+batch.size()+(rates ? " currencies" : " securities")+" from "+connection);
+      if(rates) {
+        successFlag &= connection.updateExchangeRatesBatch(batch);
+      } else {
+        successFlag &= connection.updateSecuritiesBatch(batch);
+      }
+      for(DownloadInfo downloadInfo : batch) {
+        progressPercent += progressIncrement;
+        if(rates) {
+          connection.rateUpdated(downloadInfo, progressPercent);
+        } else {
+          connection.priceUpdated(downloadInfo, progressPercent);
+        }
+      }
+    }
+    return successFlag;
+  }
 
 
 }
\ No newline at end of file
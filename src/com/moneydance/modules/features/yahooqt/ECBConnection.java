@@ -12,6 +12,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathFactory;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -30,7 +31,7 @@ public class ECBConnection extends BaseConnection {
   private DateFormat dateFormat;
   
   public ECBConnection(StockQuotesModel model) {
-    super(PREFS_KEY, model, EXCHANGE_RATES_SUPPORT);
+    super(PREFS_KEY, model, EXCHANGE_RATES_SUPPORT | BATCH_SUPPORT);
     dateFormat = new SimpleDateFormat("yyyy-MM-dd");
     dateFormat.setLenient(true);
   }
@@ -48,16 +49,36 @@ public class ECBConnection extends BaseConnection {
   }
 
   
+  /**
+   * Every rate comes from the one daily XML file, so all currencies are updated in one batch.
+   */
+  @Override
+  public int getMaxBatchSize() {
+    return Integer.MAX_VALUE;
+  }
+  
   /** Update the currencies in the given list */
   @Override
   public boolean updateExchangeRates(List<DownloadInfo> currenciesToUpdate) {
+    return updateExchangeRatesBatch(currenciesToUpdate);
+  }
+  
+  /** Update the currencies in the given list from a single download of the daily rates */
+  @Override
+  public boolean updateExchangeRatesBatch(List<DownloadInfo> currenciesToUpdate) {
     if(currenciesToUpdate.size()<=0) return true;
     
     // download the page of exchange rates, and update any matching items in currenciesToUpdate
     Document ratesDoc = null;
+    QuoteResponseCache cache = getModel().getResponseCache();
     try {
-      ratesDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(FXRATES_URL);
+      QuoteResponseCache.Response response = cache.fetch(FXRATES_URL, QuoteResponseCache.DAILY_RATES_TTL, null);
+      if (!response.isSuccess()) {
+        throw new IOException("HTTP "+response.code+" "+response.message);
+      }
+      ratesDoc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(response.getBody());
     } catch (Exception e) {
+      cache.invalidate(FXRATES_URL);
       for(DownloadInfo info : currenciesToUpdate) {
         info.recordError("Enable to retrieve rates from ECB: "+e);
       }
@@ -103,6 +124,7 @@ public class ECBConnection extends BaseConnection {
         }
       }
     } catch (Exception e) {
+      cache.invalidate(FXRATES_URL);
       for(DownloadInfo info : currenciesToUpdate) {
         info.recordError("Error parsing response from ECB: "+e);
       }
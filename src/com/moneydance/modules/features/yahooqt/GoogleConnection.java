@@ -90,7 +90,9 @@ public class GoogleConnection extends BaseConnection {
   @Override
   public void updateSecurity(DownloadInfo downloadInfo) {
     System.err.println("google finance: getting history for "+downloadInfo.fullTickerSymbol);
-    String urlStr = getHistoryURL(downloadInfo.fullTickerSymbol);
+    int endDate = DateUtil.getStrippedDateInt();
+    int startDate = downloadInfo.getHistoryStartDate(DateUtil.incrementDate(endDate, 0, -4, 0));
+    String urlStr = getHistoryURL(downloadInfo.fullTickerSymbol, startDate, endDate);
     
     char decimal = model.getPreferences().getDecimalChar();
     SnapshotImporterFromURL importer =
@@ -99,6 +101,7 @@ public class GoogleConnection extends BaseConnection {
                                   TimeZone.getTimeZone(getTimeZoneID()), decimal);
     importer.setColumnsFromHeader(getCurrentPriceHeader());
     importer.setPriceMultiplier(downloadInfo.priceMultiplier);
+    importer.setResponseCache(model.getResponseCache(), QuoteResponseCache.DAILY_HISTORY_TTL);
 
     // the return value is negative for general errors, 0 for success with no error, or a positive
     // value for overall success but one or more errors
@@ -118,10 +121,7 @@ public class GoogleConnection extends BaseConnection {
     downloadInfo.addHistoryRecords(recordList);
   }
 
-  public String getHistoryURL(String fullTickerSymbol) {
-    int endDate = DateUtil.getStrippedDateInt();
-    int startDate = DateUtil.incrementDate(endDate, 0, -4, 0);
-    
+  public String getHistoryURL(String fullTickerSymbol, int startDate, int endDate) {
     // encoding the dates appears to break Google, so just leave the commas and plus signs in there
     // (Note: their encoder leaves the + signs, but encodes the commas as %2C, but the built-in
     // encoder will do both which is perhaps the problem)
@@ -1,17 +1,12 @@
 package com.moneydance.modules.features.yahooqt;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.infinitekind.moneydance.model.*;
-import com.infinitekind.util.DateUtil;
 import com.infinitekind.util.StringUtils;
 
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 
@@ -21,14 +16,10 @@ import java.util.*;
 public class IEXConnection extends BaseConnection {
   
   public static final String PREFS_KEY = "iex";
-
-  private DateFormat dateFormat;
-  
+  private static final int MAX_CHART_DAYS = 5; // most recent records requested per security
   
   public IEXConnection(StockQuotesModel model) {
-    super(PREFS_KEY, model, HISTORY_SUPPORT);
-    dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-    dateFormat.setLenient(true);
+    super(PREFS_KEY, model, HISTORY_SUPPORT | BATCH_SUPPORT);
   }
   
   /**
@@ -93,57 +84,62 @@ public class IEXConnection extends BaseConnection {
   }
   
   /**
-   * Download price history for a security.
-   * @param securityCurrencies The list of securities to be updated
-   * applying (for testing).
-   * @return The security price history that was downloaded.
+   * The batch endpoint accepts up to 100 symbols per request.
    */
-  @Override 
-  public boolean updateSecurities(List<DownloadInfo> securityCurrencies) {
-    // if we have more than 200 securities in the list, split this into multiple updates...
-    boolean success = false;
-    int startIdx = 0;
-    while (startIdx < securityCurrencies.size()) {
-      success = updateLimitedSecurities(securityCurrencies.subList(startIdx, Math.min(startIdx+100, securityCurrencies.size())));
-      startIdx += 100;
-    }
-    return success;
+  @Override
+  public int getMaxBatchSize() {
+    return 100;
   }
   
-    
-  private boolean updateLimitedSecurities(List<DownloadInfo> securityCurrencies) {  
+  /**
+   * Download recent price history for a batch of securities in a single request.
+   * @param securityCurrencies The list of securities to be updated, no more than
+   * {@link #getMaxBatchSize()} long.
+   * @return true if the request succeeded.
+   */
+  @Override
+  public boolean updateSecuritiesBatch(List<DownloadInfo> securityCurrencies) {
     char decimal = model.getDecimalDisplayChar();
     StringBuilder symbolList = new StringBuilder();
     
     Map<String, DownloadInfo> results = new HashMap<>();
+    int chartLast = 1;
     // build the symbol list for all valid securities and a SecurityDownloadInfo list to hold the symbols and results
     for(DownloadInfo secInfo : securityCurrencies) {
       if(symbolList.length()>0) symbolList.append(",");
       symbolList.append(SQUtil.urlEncode(secInfo.fullTickerSymbol));
       results.put(secInfo.fullTickerSymbol.toLowerCase(), secInfo);
+      // ask for enough days to fill the largest gap in the batch, up to the original five
+      int missingDays = secInfo.getMissingDays();
+      chartLast = Math.max(chartLast, missingDays < 0 ? MAX_CHART_DAYS : Math.min(missingDays + 1, MAX_CHART_DAYS));
     }
     
     String urlStr = "https://api.iextrading.com/1.0/stock/market/batch?symbols="
                     + symbolList.toString()
-                    + "&types=chart&range=1m&chartLast=5";
+                    + "&types=chart&range=1m&chartLast=" + chartLast;
     System.err.println("getting history using url: "+ urlStr);
 
-    Map<String,Map<String,List<Map<String,Object>>>> info;
+    Map<String, CandleBuffer> info;
+    QuoteResponseCache cache = model.getResponseCache();
     try {
-      URL url = new URL(urlStr);
-      Reader reader = new InputStreamReader(url.openConnection().getInputStream(),
-                                            StandardCharsets.UTF_8);
-      //JsonReader jsonReader = new JsonReader(reader);
-      Gson gson = new Gson();
-      //Map gsonData = gson.fromJson(jsonReader, Map.class);
-      info = gson.fromJson(reader, new TypeToken<Map<String, Map<String, List<Map<String, Object>>>>>() {
-      }.getType());
+      QuoteResponseCache.Response response = cache.fetch(urlStr, QuoteResponseCache.DAILY_HISTORY_TTL, null);
+      if (!response.isSuccess()) {
+        throw new IOException("HTTP "+response.code+" "+response.message);
+      }
+      try (Reader reader = new InputStreamReader(response.getBody(), StandardCharsets.UTF_8)) {
+        info = PriceHistoryJson.readIEXBatchChart(reader);
+      }
     } catch (Exception e) {
-      
+      cache.invalidate(urlStr);
+      for(DownloadInfo downloadInfo : securityCurrencies) {
+        downloadInfo.recordError("Unable to retrieve prices from IEXTrading: "+e);
+      }
+      e.printStackTrace();
       return false;
     }
     
-    for(String tickerStr : info.keySet()) {
+    for(Map.Entry<String, CandleBuffer> entry : info.entrySet()) {
+      String tickerStr = entry.getKey();
       DownloadInfo downloadInfo = results.get(tickerStr.toLowerCase());
       if(downloadInfo==null) {
         System.err.println("iextrading: received result for unrecognized security '"+tickerStr+"'");
@@ -153,52 +149,10 @@ public class IEXConnection extends BaseConnection {
         System.err.println("iextrading: received result for invalid security '"+tickerStr+"'. That shouldn't happen.");
         continue;
       }
-      List<Map<String,Object>> chartInfo = info.get(tickerStr).get("chart");
-      if(chartInfo==null) {
-        System.err.println("iextrading: response for symbol "+tickerStr+" doesn't include 'chart' data: "+info.get(tickerStr).keySet());
-        continue;
-      }
       
-      List<StockRecord> snaps = new ArrayList<>();
-      for(Map<String,Object> historyInfo : chartInfo) {
-        try {
-          
-        /* parse the JSON dictionary for one snapshot
-        {
-        "date": "2018-09-14",
-        "open": 225.75,
-        "high": 226.84,
-        "low": 222.522,
-        "close": 223.84,
-        "volume": 31999289,
-        "unadjustedVolume": 31999289,
-        "change": -2.57,
-        "changePercent": -1.135,
-        "vwap": 224.319,
-        "label": "Sep 14",
-        "changeOverTime": 0.038893530121600274
-        }
-        */
-          
-          StockRecord snap = new StockRecord();
-          String dateStr = String.valueOf(historyInfo.getOrDefault("date", "0000-00-00"));
-          snap.date = DateUtil.convertDateToInt(dateFormat.parse(dateStr));
-          snap.dateTimeGMT = DateUtil.lastMinuteInDay(DateUtil.convertIntDateToLong(snap.date)).getTime();
-          snap.volume = Math.round(Double.parseDouble(String.valueOf(historyInfo.getOrDefault("volume", "0"))));
-          
-          snap.lowRate = safeInversion(Double.parseDouble(String.valueOf(historyInfo.getOrDefault("low", "0"))));
-          snap.highRate = safeInversion(Double.parseDouble(String.valueOf(historyInfo.getOrDefault("high", "0"))));
-          snap.closeRate = safeInversion(Double.parseDouble(String.valueOf(historyInfo.getOrDefault("close", "0"))));
-          snap.open =  safeInversion(Double.parseDouble(String.valueOf(historyInfo.getOrDefault("open", "0"))));
-          
-          long amount = (snap.closeRate == 0.0) ? 0 : downloadInfo.relativeCurrency.getLongValue(1.0 / snap.closeRate);
-          snap.priceDisplay = downloadInfo.relativeCurrency.formatFancy(amount, decimal);
-          snaps.add(snap);
-        } catch (Exception e) {
-          System.err.println("iextrading: error reading record: "+historyInfo);
-          e.printStackTrace(System.err);
-          downloadInfo.errors.add(new DownloadException(downloadInfo, "Error reading record", e));
-        }
+      List<StockRecord> snaps = entry.getValue().toStockRecords(downloadInfo.priceMultiplier);
+      for(StockRecord snap : snaps) {
+        snap.updatePriceDisplay(downloadInfo.relativeCurrency, decimal);
       }
       downloadInfo.addHistoryRecords(snaps);
       downloadInfo.buildPriceDisplay(downloadInfo.relativeCurrency, decimal);
@@ -214,11 +168,6 @@ public class IEXConnection extends BaseConnection {
   }
   
   
-  private static double safeInversion(double rate) {
-    return rate==0.0 ? 0.0 : 1/rate;
-  }
-  
-  
   public static void main(String[] args) throws Exception {
     IEXConnection iexConn = new IEXConnection(createEmptyTestModel());
     BaseConnection.runTests(null, iexConn, args);
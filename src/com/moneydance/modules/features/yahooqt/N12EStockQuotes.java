@@ -64,6 +64,21 @@ class N12EStockQuotes {
   /** Event fired when the application is exiting completely.   */
   static final String MD_EXITING_EVENT_ID = "md:app:exiting";
 
+  //////////////////////////////////////////////////////////////////////////////////////////////
+  //  Downloading
+  //////////////////////////////////////////////////////////////////////////////////////////////
+
+  /** Prefix for the names of the threads that send requests to the quote providers. */
+  static final String DOWNLOAD_THREAD_NAME = "Quote Download ";
+  /** Prefix for the names of the threads that run the shared HTTP client. */
+  static final String HTTP_THREAD_NAME = "Quote HTTP ";
+  /** Folder under the Moneydance data folder that holds cached provider responses. */
+  static final String CACHE_FOLDER = "yahooqt_cache";
+  /** File extension of a cached provider response. */
+  static final String CACHE_EXTENSION = ".qrc";
+  /** Query parameters that hold credentials, which are left out of the cache key. */
+  static final String[] CACHE_KEY_EXCLUDED_PARAMS = { "apikey", "token" };
+
   //////////////////////////////////////////////////////////////////////////////////////////////
   //  Properties for Property Change Notifications
   //////////////////////////////////////////////////////////////////////////////////////////////
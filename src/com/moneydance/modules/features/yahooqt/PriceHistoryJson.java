@@ -0,0 +1,156 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.infinitekind.util.DateUtil;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes price history responses with a streaming {@link JsonReader}, writing each day straight
+ * into a {@link CandleBuffer} instead of building maps or objects for the whole response.
+ */
+class PriceHistoryJson {
+
+  private PriceHistoryJson() {}
+
+  /**
+   * Read a TDAmeritrade price history response:
+   * <pre>
+   * {"candles":[{"open":320.25,"high":323.33,"low":317.5188,"close":318.31,
+   *              "volume":36634380,"datetime":1579845600000}],
+   *  "symbol":"AAPL","empty":false}
+   * </pre>
+   */
+  static CandleBuffer readTDAmeritradeHistory(Reader reader) throws IOException {
+    CandleBuffer candles = new CandleBuffer();
+    JsonReader json = new JsonReader(reader);
+    json.beginObject();
+    while (json.hasNext()) {
+      if ("candles".equals(json.nextName()) && json.peek() == JsonToken.BEGIN_ARRAY) {
+        readCandles(json, candles);
+      } else {
+        json.skipValue();
+      }
+    }
+    json.endObject();
+    return candles;
+  }
+
+  /**
+   * Read an IEX batch chart response, which holds the history of each symbol requested:
+   * <pre>
+   * {"AAPL":{"chart":[{"date":"2018-09-14","open":225.75,"high":226.84,"low":222.522,
+   *                    "close":223.84,"volume":31999289,"label":"Sep 14",...}]},...}
+   * </pre>
+   * @return The history of each symbol that had chart data, by symbol as given in the response.
+   */
+  static Map<String, CandleBuffer> readIEXBatchChart(Reader reader) throws IOException {
+    Map<String, CandleBuffer> results = new LinkedHashMap<>();
+    JsonReader json = new JsonReader(reader);
+    json.beginObject();
+    while (json.hasNext()) {
+      String symbol = json.nextName();
+      if (json.peek() != JsonToken.BEGIN_OBJECT) {
+        json.skipValue();
+        continue;
+      }
+      json.beginObject();
+      while (json.hasNext()) {
+        if ("chart".equals(json.nextName()) && json.peek() == JsonToken.BEGIN_ARRAY) {
+          CandleBuffer candles = new CandleBuffer();
+          readCandles(json, candles);
+          results.put(symbol, candles);
+        } else {
+          json.skipValue();
+        }
+      }
+      json.endObject();
+      if (!results.containsKey(symbol)) {
+        System.err.println("iextrading: response for symbol "+symbol+" doesn't include 'chart' data");
+      }
+    }
+    json.endObject();
+    return results;
+  }
+
+  /**
+   * Read an array of daily prices. The day is given either by a "datetime" in milliseconds or by
+   * a "date" in yyyy-MM-dd form; days without either are skipped.
+   */
+  private static void readCandles(JsonReader json, CandleBuffer candles) throws IOException {
+    json.beginArray();
+    while (json.hasNext()) {
+      int date = 0;
+      long dateTime = 0;
+      double open = 0, high = 0, low = 0, close = 0;
+      long volume = 0;
+      json.beginObject();
+      while (json.hasNext()) {
+        switch (json.nextName()) {
+          case "open": open = readDouble(json); break;
+          case "high": high = readDouble(json); break;
+          case "low": low = readDouble(json); break;
+          case "close": close = readDouble(json); break;
+          case "volume": volume = Math.round(readDouble(json)); break;
+          case "datetime":
+            dateTime = (long)readDouble(json);
+            date = DateUtil.convertDateToInt(new Date(dateTime));
+            break;
+          case "date":
+            date = (json.peek() == JsonToken.STRING) ? parseDate(json.nextString()) : 0;
+            if (date != 0 && dateTime == 0) {
+              dateTime = DateUtil.lastMinuteInDay(DateUtil.convertIntDateToLong(date)).getTime();
+            }
+            break;
+          default: json.skipValue(); break;
+        }
+      }
+      json.endObject();
+      if (date != 0) {
+        candles.add(date, dateTime, open, high, low, close, volume);
+      }
+    }
+    json.endArray();
+  }
+
+  private static double readDouble(JsonReader json) throws IOException {
+    JsonToken token = json.peek();
+    if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+      try {
+        return json.nextDouble();
+      } catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+    json.skipValue();
+    return 0;
+  }
+
+  /** Parse a yyyy-MM-dd date to an integer date, or return zero if it isn't in that form. */
+  static int parseDate(String value) {
+    if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') return 0;
+    int date = 0;
+    for (int index = 0; index < value.length(); index++) {
+      if (index == 4 || index == 7) continue;
+      char ch = value.charAt(index);
+      if (ch < '0' || ch > '9') return 0;
+      date = date * 10 + (ch - '0');
+    }
+    int month = (date / 100) % 100;
+    int day = date % 100;
+    return (month < 1 || month > 12 || day < 1 || day > 31) ? 0 : date;
+  }
+}
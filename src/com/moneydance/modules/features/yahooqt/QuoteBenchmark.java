@@ -0,0 +1,205 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times the download path end to end against {@link QuoteProviderSimulator}, with no network
+ * access. Each iteration downloads every security (or currency) through a real connection, the
+ * shared {@link QuoteHttpClient} and the connection's parser, and reports the securities per
+ * second, the request latency percentiles and the bytes allocated. Run it from the command line:
+ * <pre>
+ * QuoteBenchmark [-provider iex|alphavantage|tdameritrade|ecb] [-securities 200] [-iterations 5]
+ *                [-latency 50] [-jitter 25] [-errors 0.02] [-ratelimits 0.01] [-days 260]
+ * </pre>
+ * The connections' own rate limits still apply, so the numbers show what a user would see.
+ * TDAmeritrade pauses for a minute after 120 requests, so keep its runs below that.
+ */
+class QuoteBenchmark {
+  private final String provider;
+  private final int securityCount;
+  private final int iterations;
+  private final QuoteProviderSimulator simulator;
+  private final List<Long> latencies = new ArrayList<>();
+
+  private QuoteBenchmark(String provider, int securityCount, int iterations, QuoteProviderSimulator simulator) {
+    this.provider = provider;
+    this.securityCount = securityCount;
+    this.iterations = iterations;
+    this.simulator = simulator;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String provider = "iex";
+    int securityCount = 200;
+    int iterations = 5;
+    long latency = 50;
+    long jitter = 25;
+    double errorRate = 0;
+    double rateLimitRate = 0;
+    int days = 260;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      String value = args[i + 1];
+      switch (args[i]) {
+        case "-provider": provider = value.toLowerCase(Locale.US); break;
+        case "-securities": securityCount = Integer.parseInt(value); break;
+        case "-iterations": iterations = Integer.parseInt(value); break;
+        case "-latency": latency = Long.parseLong(value); break;
+        case "-jitter": jitter = Long.parseLong(value); break;
+        case "-errors": errorRate = Double.parseDouble(value); break;
+        case "-ratelimits": rateLimitRate = Double.parseDouble(value); break;
+        case "-days": days = Integer.parseInt(value); break;
+        default:
+          System.err.println("unknown option: " + args[i]);
+          System.exit(-1);
+      }
+    }
+
+    QuoteProviderSimulator simulator = new QuoteProviderSimulator(QuoteHttpClient.DEFAULT_MAX_REQUESTS_PER_HOST * 2);
+    simulator.setLatency(latency, jitter);
+    simulator.setErrorRate(errorRate);
+    simulator.setRateLimitRate(rateLimitRate);
+    simulator.setHistoryDays(days);
+    simulator.start();
+    try {
+      new QuoteBenchmark(provider, securityCount, iterations, simulator).run();
+    } finally {
+      simulator.stop();
+    }
+    System.exit(0);
+  }
+
+  private void run() {
+    QuoteHttpClient httpClient = QuoteHttpClient.getShared();
+    httpClient.setEndpointOverride(simulator.getBaseURI());
+    httpClient.setRequestObserver((uri, code, elapsedNanos) -> {
+      synchronized (latencies) {
+        latencies.add(Long.valueOf(elapsedNanos));
+      }
+    });
+
+    StockQuotesModel model = BaseConnection.createEmptyTestModel();
+    // nothing is stored on disk, so every request reaches the simulator
+    model.setResponseCache(new QuoteResponseCache(httpClient, null, 0));
+    BaseConnection connection = createConnection(model);
+    boolean exchangeRates = "ecb".equals(provider);
+    List<String> symbols = exchangeRates ? getCurrencyCodes() : getTickerSymbols();
+    System.err.println("benchmark: " + connection + " with " + symbols.size()
+                       + (exchangeRates ? " currencies" : " securities") + " against " + simulator.getBaseURI());
+
+    runIteration(connection, symbols, exchangeRates, "warmup");
+    for (int iteration = 1; iteration <= iterations; iteration++) {
+      runIteration(connection, symbols, exchangeRates, "run " + iteration);
+    }
+    httpClient.setRequestObserver(null);
+    httpClient.setEndpointOverride(null);
+  }
+
+  private void runIteration(BaseConnection connection, List<String> symbols, boolean exchangeRates, String label) {
+    List<DownloadInfo> items = exchangeRates ? BaseConnection.createTestCurrencies(connection, symbols)
+                                             : BaseConnection.createTestSecurities(connection, symbols);
+    synchronized (latencies) {
+      latencies.clear();
+    }
+    simulator.resetCounts();
+    System.gc();
+    final long startBytes = getAllocatedBytes();
+    final long startTime = System.nanoTime();
+    if (exchangeRates) {
+      DownloadTask.updateExchangeRates(connection, items);
+    } else {
+      DownloadTask.updateSecurities(connection, items);
+    }
+    final double seconds = (System.nanoTime() - startTime) / 1e9;
+    final long allocatedBytes = getAllocatedBytes() - startBytes;
+
+    int successCount = 0;
+    int historyCount = 0;
+    for (DownloadInfo downloadInfo : items) {
+      if (downloadInfo.wasSuccess()) successCount++;
+      historyCount += downloadInfo.getHistoryCount();
+    }
+    long[] sorted;
+    synchronized (latencies) {
+      sorted = new long[latencies.size()];
+      for (int i = 0; i < sorted.length; i++) {
+        sorted[i] = latencies.get(i).longValue();
+      }
+    }
+    Arrays.sort(sorted);
+
+    System.out.println(String.format(Locale.US,
+      "%-8s %4d/%d ok  %8.1f items/s  %7d prices  requests=%d (503=%d 429=%d)  "
+      + "latency p50=%.1fms p99=%.1fms max=%.1fms  alloc=%.1fMB/s %.0fKB/item",
+      label, successCount, items.size(), items.size() / seconds, historyCount,
+      simulator.getRequestCount(), simulator.getErrorCount(), simulator.getRateLimitCount(),
+      getPercentile(sorted, 0.50) / 1e6, getPercentile(sorted, 0.99) / 1e6,
+      getPercentile(sorted, 1.0) / 1e6,
+      allocatedBytes < 0 ? Double.NaN : allocatedBytes / seconds / (1024 * 1024),
+      allocatedBytes < 0 ? Double.NaN : allocatedBytes / 1024.0 / Math.max(1, items.size())));
+  }
+
+  private BaseConnection createConnection(StockQuotesModel model) {
+    switch (provider) {
+      case "alphavantage":
+        AlphavantageConnection.setAPIKey("simulator");
+        return new AlphavantageConnection(model);
+      case "tdameritrade":
+        TDAmeritradeConnection.setAPIKey("simulator");
+        return new TDAmeritradeConnection(model);
+      case "ecb":
+        return new ECBConnection(model);
+      case "iex":
+        return new IEXConnection(model);
+      default:
+        throw new IllegalArgumentException("unknown provider: " + provider);
+    }
+  }
+
+  private List<String> getTickerSymbols() {
+    List<String> symbols = new ArrayList<>(securityCount);
+    for (int i = 0; i < securityCount; i++) {
+      symbols.add(String.format(Locale.US, "SIM%04d", i));
+    }
+    return symbols;
+  }
+
+  private List<String> getCurrencyCodes() {
+    List<String> codes = Arrays.asList("EUR", "JPY", "GBP", "CHF", "CAD", "AUD", "SEK", "NOK", "DKK",
+                                       "PLN", "CZK", "HUF", "NZD", "SGD", "HKD", "ZAR", "MXN", "INR");
+    return codes.subList(0, Math.min(codes.size(), Math.max(1, securityCount)));
+  }
+
+  private static long getPercentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) return 0;
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  /**
+   * The bytes allocated so far by all live threads, or -1 if the JVM can't tell. Threads that
+   * finish during an iteration take their count with them, so this slightly undercounts.
+   */
+  private static long getAllocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) return -1;
+    long total = 0;
+    for (long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (bytes > 0) total += bytes;
+    }
+    return total;
+  }
+}
@@ -0,0 +1,342 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP client that every quote connection sends its requests through. A single client keeps
+ * connections alive between requests and uses HTTP/2 where the provider supports it, so sockets
+ * and TLS sessions are reused over a whole download. Responses are requested gzip-compressed.
+ * Each host has a limit on the requests in flight, and requests that fail with a network error or
+ * a busy/unavailable response are retried after an exponential delay with random jitter.
+ */
+class QuoteHttpClient {
+  /** Told about every request once it finishes, for measuring the download path. */
+  interface RequestObserver {
+    /**
+     * @param uri          The URI that was requested.
+     * @param code         The final response code, or -1 if no response was received.
+     * @param elapsedNanos The time from sending the request to the final response, including any
+     *                     wait for the host and any retries.
+     */
+    void requestFinished(URI uri, int code, long elapsedNanos);
+  }
+
+  static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+  static final int DEFAULT_MAX_RETRIES = 2;
+  static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(15);
+  static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(60);
+  /** The delay before the first retry, doubled for each retry after that */
+  private static final long BASE_RETRY_DELAY_MILLIS = 500;
+  private static final long MAX_RETRY_DELAY_MILLIS = 10000;
+
+  private static QuoteHttpClient sharedClient = null;
+
+  private final HttpClient client;
+  private final int maxRequestsPerHost;
+  private final int maxRetries;
+  private final Duration requestTimeout;
+  private final Map<String, HostQueue> hostQueues = new ConcurrentHashMap<>();
+  private volatile URI endpointOverride = null;
+  private volatile RequestObserver requestObserver = null;
+
+  /**
+   * @param maxRequestsPerHost The most requests to have in flight to any one host.
+   * @param maxRetries         How many times to retry a request that failed in a way that may
+   *                           succeed if tried again.
+   * @param connectTimeout     How long to wait for a connection to be established.
+   * @param requestTimeout     How long to wait for each response.
+   */
+  QuoteHttpClient(int maxRequestsPerHost, int maxRetries, Duration connectTimeout, Duration requestTimeout) {
+    this.maxRequestsPerHost = Math.max(1, maxRequestsPerHost);
+    this.maxRetries = Math.max(0, maxRetries);
+    this.requestTimeout = requestTimeout;
+    final AtomicInteger threadCount = new AtomicInteger(0);
+    client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .followRedirects(HttpClient.Redirect.NORMAL)
+      .connectTimeout(connectTimeout)
+      .executor(Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, N12EStockQuotes.HTTP_THREAD_NAME + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }))
+      .build();
+  }
+
+  /** The client shared by all of the quote connections. */
+  static synchronized QuoteHttpClient getShared() {
+    if (sharedClient == null) {
+      sharedClient = new QuoteHttpClient(DEFAULT_MAX_REQUESTS_PER_HOST, DEFAULT_MAX_RETRIES,
+                                         DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+    }
+    return sharedClient;
+  }
+
+  /**
+   * Send every request to the given server instead of the host in its URL, keeping the path and
+   * query. This is for running the download code against {@link QuoteProviderSimulator}.
+   * @param baseURI The scheme, host and port to send requests to, or null to stop redirecting.
+   */
+  void setEndpointOverride(URI baseURI) {
+    endpointOverride = baseURI;
+  }
+
+  /** Set the observer told about each finished request, or null for none. */
+  void setRequestObserver(RequestObserver observer) {
+    requestObserver = observer;
+  }
+
+  /**
+   * Send a GET request and wait for the response.
+   * @param url            The URL to request.
+   * @param requestHeaders Additional request headers such as a cookie, or null.
+   * @return The response, which may be an error response.
+   * @throws IOException if the host couldn't be reached after all retries, or the calling thread
+   * was interrupted while waiting.
+   */
+  Result send(String url, Map<String, String> requestHeaders) throws IOException {
+    CompletableFuture<Result> future = sendAsync(url, requestHeaders);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while requesting " + url);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Send a GET request without waiting for the response. The request waits its turn if the host
+   * already has the maximum number of requests in flight.
+   * @param url            The URL to request.
+   * @param requestHeaders Additional request headers such as a cookie, or null.
+   * @return The response, which may be an error response, or an exception if the host couldn't be
+   * reached after all retries.
+   */
+  CompletableFuture<Result> sendAsync(String url, Map<String, String> requestHeaders) {
+    final HttpRequest request;
+    try {
+      URI uri = new URI(url);
+      URI override = endpointOverride;
+      if (override != null) {
+        uri = new URI(override.getScheme() + "://" + override.getRawAuthority() + uri.getRawPath()
+                      + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery()));
+      }
+      HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+        .timeout(requestTimeout)
+        .header("Accept-Encoding", "gzip");
+      if (requestHeaders != null) {
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+          builder.header(header.getKey(), header.getValue());
+        }
+      }
+      request = builder.GET().build();
+    } catch (Exception e) {
+      CompletableFuture<Result> failed = new CompletableFuture<>();
+      failed.completeExceptionally(new IOException("Invalid request for " + url + ": " + e.getMessage(), e));
+      return failed;
+    }
+    CompletableFuture<Result> result = new CompletableFuture<>();
+    final RequestObserver observer = requestObserver;
+    if (observer != null) {
+      final long startTime = System.nanoTime();
+      result.whenComplete((response, error) ->
+        observer.requestFinished(request.uri(), response == null ? -1 : response.code, System.nanoTime() - startTime));
+    }
+    attempt(request, 0, result);
+    return result;
+  }
+
+  private void attempt(HttpRequest request, int attemptNumber, CompletableFuture<Result> result) {
+    if (result.isDone()) return; // cancelled while waiting
+    final HostQueue queue = hostQueues.computeIfAbsent(String.valueOf(request.uri().getHost()),
+                                                        host -> new HostQueue(maxRequestsPerHost));
+    queue.submit(() -> {
+      if (result.isDone()) { // cancelled while queued
+        queue.release();
+        return;
+      }
+      try {
+        client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+          .whenComplete((response, error) -> {
+            queue.release();
+            onResponse(request, attemptNumber, result, response, error);
+          });
+      } catch (RuntimeException e) {
+        queue.release();
+        result.completeExceptionally(new IOException("Unable to send request to " + request.uri().getHost(), e));
+      }
+    });
+  }
+
+  /** Complete the result with the response, or schedule another attempt if it is worth retrying. */
+  private void onResponse(HttpRequest request, int attemptNumber, CompletableFuture<Result> result,
+                          HttpResponse<byte[]> response, Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) error = error.getCause();
+    if (error != null && !(error instanceof IOException)) {
+      result.completeExceptionally(error);
+      return;
+    }
+    boolean retry = attemptNumber < maxRetries
+                    && (error != null || isRetryableStatus(response.statusCode()));
+    if (retry) {
+      long delay = getRetryDelay(attemptNumber, response);
+      if (Main.DEBUG_YAHOOQT) {
+        System.err.println("http: retrying " + request.uri().getHost() + " in " + delay + "ms after "
+                           + (error != null ? error.toString() : "HTTP " + response.statusCode()));
+      }
+      CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+        .execute(() -> attempt(request, attemptNumber + 1, result));
+    } else if (error != null) {
+      result.completeExceptionally(error);
+    } else {
+      try {
+        result.complete(new Result(response.statusCode(), response.headers(),
+                                   decode(response.body(), response.headers())));
+      } catch (IOException e) {
+        result.completeExceptionally(e);
+      }
+    }
+  }
+
+  /** True for the responses that mean the provider is busy or briefly unavailable. */
+  private static boolean isRetryableStatus(int code) {
+    return code == 429 || code == 502 || code == 503 || code == 504;
+  }
+
+  /**
+   * The delay before retrying: the provider's Retry-After if it gave one, otherwise an exponential
+   * delay with random jitter so that concurrent requests don't all retry at the same moment.
+   */
+  private static long getRetryDelay(int attemptNumber, HttpResponse<byte[]> response) {
+    if (response != null) {
+      String retryAfter = response.headers().firstValue("Retry-After").orElse(null);
+      if (retryAfter != null) {
+        try {
+          return Math.min(MAX_RETRY_DELAY_MILLIS, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException ignore) {
+          // an HTTP date, use the usual delay instead
+        }
+      }
+    }
+    long ceiling = Math.min(MAX_RETRY_DELAY_MILLIS, BASE_RETRY_DELAY_MILLIS << attemptNumber);
+    return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+  }
+
+  private static byte[] decode(byte[] body, HttpHeaders headers) throws IOException {
+    String encoding = headers.firstValue("Content-Encoding").orElse("");
+    if (!"gzip".equalsIgnoreCase(encoding.trim()) || body.length == 0) return body;
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  /** Runs requests to one host, no more than a fixed number at a time. */
+  private static class HostQueue {
+    private final int limit;
+    private final Deque<Runnable> waiting = new ArrayDeque<>();
+    private int active = 0;
+
+    HostQueue(int limit) {
+      this.limit = limit;
+    }
+
+    void submit(Runnable request) {
+      synchronized (this) {
+        if (active >= limit) {
+          waiting.add(request);
+          return;
+        }
+        active++;
+      }
+      request.run();
+    }
+
+    void release() {
+      Runnable next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          active--;
+          return;
+        }
+      }
+      next.run();
+    }
+  }
+
+  /** A response from the provider, with the body already decompressed. */
+  static class Result {
+    final int code;
+    private final HttpHeaders headers;
+    private final byte[] body;
+
+    Result(int code, HttpHeaders headers, byte[] body) {
+      this.code = code;
+      this.headers = headers;
+      this.body = body;
+    }
+
+    boolean isSuccess() {
+      return code >= 200 && code < 300;
+    }
+
+    /** A description of the status for messages, since HTTP/2 has no reason phrase. */
+    String getStatusText() {
+      return "HTTP " + code;
+    }
+
+    /** The first value of the given response header, or null if there isn't one. */
+    String getHeader(String name) {
+      return headers.firstValue(name).orElse(null);
+    }
+
+    byte[] getBodyBytes() {
+      return body;
+    }
+
+    InputStream getBody() {
+      return new ByteArrayInputStream(body);
+    }
+  }
+}
@@ -0,0 +1,414 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP server that answers requests the way the quote providers do, so the download code
+ * can be exercised and timed without network access or API quotas. It serves the Alphavantage
+ * daily history CSV and exchange rate JSON, the IEX batch chart JSON, the TDAmeritrade price
+ * history JSON and the ECB daily rates XML. Prices are generated from the symbol, so the same
+ * request always gets the same answer. Each response can be delayed, and a configurable share of
+ * them fail with a server error or a rate limit response.
+ * <p>
+ * Point the shared {@link QuoteHttpClient} at the server with
+ * {@link QuoteHttpClient#setEndpointOverride(URI)} and every provider request goes to it instead.
+ */
+class QuoteProviderSimulator {
+  /** Trading days in the Alphavantage compact series */
+  private static final int COMPACT_HISTORY_DAYS = 100;
+  private static final String[] ECB_CURRENCIES = {
+    "USD", "JPY", "BGN", "CZK", "DKK", "GBP", "HUF", "PLN", "RON", "SEK", "CHF", "ISK", "NOK",
+    "TRY", "AUD", "BRL", "CAD", "CNY", "HKD", "IDR", "ILS", "INR", "KRW", "MXN", "MYR", "NZD",
+    "PHP", "SGD", "THB", "ZAR"
+  };
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private volatile long latencyMillis = 0;
+  private volatile long latencyJitterMillis = 0;
+  private volatile double errorRate = 0;
+  private volatile double rateLimitRate = 0;
+  private volatile int historyDays = 260;
+
+  private final AtomicInteger requestCount = new AtomicInteger(0);
+  private final AtomicInteger errorCount = new AtomicInteger(0);
+  private final AtomicInteger rateLimitCount = new AtomicInteger(0);
+
+  /**
+   * Create the server on a free port of the loopback address. Call {@link #start()} to begin
+   * answering requests.
+   * @param threadCount The number of requests that can be answered at the same time.
+   */
+  QuoteProviderSimulator(int threadCount) throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    executor = Executors.newFixedThreadPool(Math.max(1, threadCount), runnable -> {
+      Thread thread = new Thread(runnable, "Quote Simulator");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.createContext("/query", this::handleAlphavantage);
+    server.createContext("/1.0/stock/market/batch", this::handleIEX);
+    server.createContext("/v1/marketdata/", this::handleTDAmeritrade);
+    server.createContext("/stats/eurofxref/", this::handleECB);
+  }
+
+  void start() {
+    server.start();
+  }
+
+  void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /** The address to send requests to, such as http://127.0.0.1:54321 */
+  URI getBaseURI() {
+    InetSocketAddress address = server.getAddress();
+    return URI.create("http://" + address.getAddress().getHostAddress() + ":" + address.getPort());
+  }
+
+  /**
+   * Delay every response.
+   * @param millis       The minimum delay.
+   * @param jitterMillis The most extra delay to add at random.
+   */
+  void setLatency(long millis, long jitterMillis) {
+    latencyMillis = Math.max(0, millis);
+    latencyJitterMillis = Math.max(0, jitterMillis);
+  }
+
+  /** The share of requests, from 0 to 1, that get a 503 Service Unavailable response. */
+  void setErrorRate(double rate) {
+    errorRate = rate;
+  }
+
+  /** The share of requests, from 0 to 1, that get a 429 Too Many Requests response. */
+  void setRateLimitRate(double rate) {
+    rateLimitRate = rate;
+  }
+
+  /** The number of trading days returned when the full history is requested. */
+  void setHistoryDays(int days) {
+    historyDays = Math.max(1, days);
+  }
+
+  int getRequestCount() { return requestCount.get(); }
+
+  int getErrorCount() { return errorCount.get(); }
+
+  int getRateLimitCount() { return rateLimitCount.get(); }
+
+  void resetCounts() {
+    requestCount.set(0);
+    errorCount.set(0);
+    rateLimitCount.set(0);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////
+  // Providers
+  ///////////////////////////////////////////////////////////////////////////////////////////////
+
+  private void handleAlphavantage(HttpExchange exchange) throws IOException {
+    if (!beginResponse(exchange)) return;
+    Map<String, String> params = getQueryParams(exchange);
+    String function = params.getOrDefault("function", "");
+    String symbol = params.getOrDefault("symbol", "");
+    StringBuilder body = new StringBuilder();
+    if ("CURRENCY_EXCHANGE_RATE".equals(function)) {
+      String from = params.getOrDefault("from_currency", "");
+      String to = params.getOrDefault("to_currency", "");
+      body.append("{\"Realtime Currency Exchange Rate\":{")
+        .append("\"1. From_Currency Code\":\"").append(from).append("\",")
+        .append("\"3. To_Currency Code\":\"").append(to).append("\",")
+        .append("\"5. Exchange Rate\":\"").append(formatPrice(getBasePrice(from + to) / 100)).append("\",")
+        .append("\"6. Last Refreshed\":\"").append(formatDate(toDateInt(Calendar.getInstance()))).append(" 16:00:00\",")
+        .append("\"7. Time Zone\":\"UTC\"}}");
+      sendResponse(exchange, 200, "application/json", body);
+      return;
+    }
+    int days = "full".equals(params.get("outputsize")) ? historyDays : Math.min(COMPACT_HISTORY_DAYS, historyDays);
+    body.append("timestamp,open,high,low,close,adjusted_close,volume,dividend_amount,split_coefficient\n");
+    new PriceSeries(symbol, days).forEachNewestFirst((date, open, high, low, close, volume) ->
+      body.append(formatDate(date)).append(',')
+        .append(formatPrice(open)).append(',')
+        .append(formatPrice(high)).append(',')
+        .append(formatPrice(low)).append(',')
+        .append(formatPrice(close)).append(',')
+        .append(formatPrice(close)).append(',')
+        .append(volume).append(",0.0000,1.0000\n"));
+    sendResponse(exchange, 200, "text/csv", body);
+  }
+
+  private void handleIEX(HttpExchange exchange) throws IOException {
+    if (!beginResponse(exchange)) return;
+    Map<String, String> params = getQueryParams(exchange);
+    int chartLast = parseInt(params.get("chartLast"), 20);
+    int days = Math.min(chartLast, historyDays);
+    StringBuilder body = new StringBuilder("{");
+    boolean firstSymbol = true;
+    for (String symbol : params.getOrDefault("symbols", "").split(",")) {
+      if (symbol.isEmpty()) continue;
+      if (!firstSymbol) body.append(',');
+      firstSymbol = false;
+      body.append('"').append(symbol.toUpperCase(Locale.US)).append("\":{\"chart\":[");
+      final boolean[] firstDay = {true};
+      new PriceSeries(symbol, days).forEachOldestFirst((date, open, high, low, close, volume) -> {
+        if (!firstDay[0]) body.append(',');
+        firstDay[0] = false;
+        body.append("{\"date\":\"").append(formatDate(date))
+          .append("\",\"open\":").append(formatPrice(open))
+          .append(",\"high\":").append(formatPrice(high))
+          .append(",\"low\":").append(formatPrice(low))
+          .append(",\"close\":").append(formatPrice(close))
+          .append(",\"volume\":").append(volume)
+          .append(",\"unadjustedVolume\":").append(volume)
+          .append(",\"change\":0,\"changePercent\":0,\"vwap\":").append(formatPrice(close))
+          .append(",\"label\":\"").append(formatDate(date)).append("\",\"changeOverTime\":0}");
+      });
+      body.append("]}");
+    }
+    body.append('}');
+    sendResponse(exchange, 200, "application/json", body);
+  }
+
+  private void handleTDAmeritrade(HttpExchange exchange) throws IOException {
+    if (!beginResponse(exchange)) return;
+    // the path is /v1/marketdata/{symbol}/pricehistory
+    String path = exchange.getRequestURI().getPath();
+    String[] parts = path.split("/");
+    String symbol = parts.length > 3 ? parts[3] : "";
+    Map<String, String> params = getQueryParams(exchange);
+    int days = historyDays;
+    String startDate = params.get("startDate");
+    if (startDate != null) {
+      long millis = System.currentTimeMillis() - Long.parseLong(startDate);
+      days = (int) Math.max(1, Math.min(historyDays, millis / (24L * 60 * 60 * 1000) * 5 / 7 + 1));
+    }
+    StringBuilder body = new StringBuilder("{\"candles\":[");
+    final boolean[] firstDay = {true};
+    new PriceSeries(symbol, days).forEachOldestFirst((date, open, high, low, close, volume) -> {
+      if (!firstDay[0]) body.append(',');
+      firstDay[0] = false;
+      body.append("{\"open\":").append(formatPrice(open))
+        .append(",\"high\":").append(formatPrice(high))
+        .append(",\"low\":").append(formatPrice(low))
+        .append(",\"close\":").append(formatPrice(close))
+        .append(",\"volume\":").append(volume)
+        .append(",\"datetime\":").append(toMillis(date)).append('}');
+    });
+    body.append("],\"symbol\":\"").append(symbol).append("\",\"empty\":").append(firstDay[0]).append('}');
+    sendResponse(exchange, 200, "application/json", body);
+  }
+
+  private void handleECB(HttpExchange exchange) throws IOException {
+    if (!beginResponse(exchange)) return;
+    StringBuilder body = new StringBuilder();
+    body.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+      .append("<gesmes:Envelope xmlns:gesmes=\"http://www.gesmes.org/xml/2002-08-01\"")
+      .append(" xmlns=\"http://www.ecb.int/vocabulary/2002-08-01/eurofxref\">\n")
+      .append("<gesmes:subject>Reference rates</gesmes:subject>\n")
+      .append("<gesmes:Sender><gesmes:name>European Central Bank</gesmes:name></gesmes:Sender>\n")
+      .append("<Cube><Cube time=\"").append(formatDate(toDateInt(Calendar.getInstance()))).append("\">\n");
+    for (String currency : ECB_CURRENCIES) {
+      body.append("<Cube currency=\"").append(currency).append("\" rate=\"")
+        .append(formatPrice(getBasePrice(currency) / 50)).append("\"/>\n");
+    }
+    body.append("</Cube></Cube>\n</gesmes:Envelope>\n");
+    sendResponse(exchange, 200, "text/xml", body);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////////////////////////
+  // Private Methods
+  ///////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Count the request, wait out the latency and inject any error.
+   * @return false if an error response was already sent.
+   */
+  private boolean beginResponse(HttpExchange exchange) throws IOException {
+    requestCount.incrementAndGet();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long delay = latencyMillis + (latencyJitterMillis > 0 ? random.nextLong(latencyJitterMillis + 1) : 0);
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    double roll = random.nextDouble();
+    if (roll < rateLimitRate) {
+      rateLimitCount.incrementAndGet();
+      exchange.getResponseHeaders().set("Retry-After", "1");
+      sendResponse(exchange, 429, "text/plain", new StringBuilder("Too Many Requests"));
+      return false;
+    }
+    if (roll < rateLimitRate + errorRate) {
+      errorCount.incrementAndGet();
+      sendResponse(exchange, 503, "text/plain", new StringBuilder("Service Unavailable"));
+      return false;
+    }
+    return true;
+  }
+
+  private static void sendResponse(HttpExchange exchange, int code, String contentType,
+                                   CharSequence body) throws IOException {
+    byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+    String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+      try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+        out.write(bytes);
+      }
+      bytes = compressed.toByteArray();
+      exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+    }
+    exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+    exchange.sendResponseHeaders(code, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static Map<String, String> getQueryParams(HttpExchange exchange) {
+    Map<String, String> params = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null) return params;
+    for (String param : query.split("&")) {
+      int equalsIndex = param.indexOf('=');
+      if (equalsIndex <= 0) continue;
+      try {
+        params.put(param.substring(0, equalsIndex),
+                   URLDecoder.decode(param.substring(equalsIndex + 1), "UTF-8"));
+      } catch (Exception e) {
+        params.put(param.substring(0, equalsIndex), param.substring(equalsIndex + 1));
+      }
+    }
+    return params;
+  }
+
+  private static int parseInt(String value, int defaultValue) {
+    try {
+      return value == null ? defaultValue : Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /** A made up but stable price for a symbol, between 5 and 500. */
+  private static double getBasePrice(String symbol) {
+    return 5 + new Random(symbol.hashCode()).nextDouble() * 495;
+  }
+
+  private static String formatPrice(double price) {
+    return String.format(Locale.US, "%.4f", price);
+  }
+
+  private static String formatDate(int date) {
+    return String.format(Locale.US, "%04d-%02d-%02d", date / 10000, (date / 100) % 100, date % 100);
+  }
+
+  private static int toDateInt(Calendar calendar) {
+    return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+           + calendar.get(Calendar.DAY_OF_MONTH);
+  }
+
+  private static long toMillis(int date) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(date / 10000, (date / 100) % 100 - 1, date % 100, 6, 0);
+    return calendar.getTimeInMillis();
+  }
+
+  /** Receives one trading day of a generated price series. */
+  private interface DayConsumer {
+    void accept(int date, double open, double high, double low, double close, long volume);
+  }
+
+  /**
+   * A random walk of daily prices for the most recent trading days, seeded by the symbol so the
+   * same symbol always has the same history.
+   */
+  private static class PriceSeries {
+    private final int[] dates;
+    private final double[] opens;
+    private final double[] highs;
+    private final double[] lows;
+    private final double[] closes;
+    private final long[] volumes;
+
+    PriceSeries(String symbol, int days) {
+      dates = new int[days];
+      opens = new double[days];
+      highs = new double[days];
+      lows = new double[days];
+      closes = new double[days];
+      volumes = new long[days];
+
+      // the trading days, newest first, skipping weekends
+      Calendar calendar = Calendar.getInstance();
+      for (int index = 0; index < days; index++) {
+        while (calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY
+               || calendar.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY) {
+          calendar.add(Calendar.DAY_OF_MONTH, -1);
+        }
+        dates[days - 1 - index] = toDateInt(calendar);
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+      }
+
+      Random random = new Random(symbol.toUpperCase(Locale.US).hashCode());
+      double price = getBasePrice(symbol.toUpperCase(Locale.US));
+      for (int index = 0; index < days; index++) {
+        double open = price;
+        double close = Math.max(0.01, open * (1 + random.nextGaussian() * 0.015));
+        opens[index] = open;
+        closes[index] = close;
+        highs[index] = Math.max(open, close) * (1 + random.nextDouble() * 0.01);
+        lows[index] = Math.min(open, close) * (1 - random.nextDouble() * 0.01);
+        volumes[index] = 100000 + random.nextInt(5000000);
+        price = close;
+      }
+    }
+
+    void forEachOldestFirst(DayConsumer consumer) {
+      for (int index = 0; index < dates.length; index++) {
+        consumer.accept(dates[index], opens[index], highs[index], lows[index], closes[index], volumes[index]);
+      }
+    }
+
+    void forEachNewestFirst(DayConsumer consumer) {
+      for (int index = dates.length - 1; index >= 0; index--) {
+        consumer.accept(dates[index], opens[index], highs[index], lows[index], closes[index], volumes[index]);
+      }
+    }
+  }
+}
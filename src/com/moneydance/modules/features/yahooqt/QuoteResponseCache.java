@@ -0,0 +1,295 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import com.moneydance.apps.md.controller.Common;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk cache of the responses from quote providers, so that running an update again shortly
+ * afterwards doesn't go back to the network. Responses are keyed by their URL with the query
+ * parameters sorted and any API key removed. A response younger than the time to live given by
+ * the caller is used as is; an older one is revalidated with its ETag or Last-Modified date when
+ * the provider sent one. The least recently used responses are deleted once the cache grows past
+ * its size limit.
+ */
+class QuoteResponseCache {
+  /** Time to live for a current price or exchange rate */
+  static final long CURRENT_PRICE_TTL = TimeUnit.MINUTES.toMillis(5);
+  /** Time to live for daily price history, which only changes once a trading day closes */
+  static final long DAILY_HISTORY_TTL = TimeUnit.HOURS.toMillis(4);
+  /** Time to live for the ECB reference rates, which are published once each afternoon */
+  static final long DAILY_RATES_TTL = TimeUnit.HOURS.toMillis(1);
+
+  private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+  private static final int FORMAT_VERSION = 1;
+
+  private final QuoteHttpClient httpClient;
+  private final File folder;
+  private final long maxBytes;
+  private long totalBytes = -1; // not known until the folder is first scanned
+
+  /**
+   * @param httpClient The client that sends requests for responses that aren't cached.
+   * @param folder     The folder to keep the responses in, or null to not cache at all.
+   * @param maxBytes   The size the cache is trimmed back to after each new response.
+   */
+  QuoteResponseCache(QuoteHttpClient httpClient, File folder, long maxBytes) {
+    this.httpClient = httpClient;
+    this.folder = folder;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Create the cache in the extension's folder under the Moneydance data folder. */
+  static QuoteResponseCache createDefault() {
+    File folder = new File(Common.getDataRootDirectory(), N12EStockQuotes.CACHE_FOLDER);
+    if (!folder.isDirectory() && !folder.mkdirs()) {
+      System.err.println("Unable to create quote cache folder "+folder+", responses will not be cached");
+      folder = null;
+    }
+    return new QuoteResponseCache(QuoteHttpClient.getShared(), folder, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Return the response for the given URL, from the cache if it is recent enough or the provider
+   * says it hasn't changed, otherwise from the network.
+   * @param url            The URL to request.
+   * @param ttlMillis      How long a response can be used without asking the provider again.
+   * @param requestHeaders Additional request headers such as a cookie, or null.
+   * @return The response. Error responses are returned but not cached.
+   * @throws IOException if the provider couldn't be reached.
+   */
+  Response fetch(String url, long ttlMillis, Map<String, String> requestHeaders) throws IOException {
+    final String key = getCacheKey(url);
+    final File file = getFile(key);
+    final Entry cached = read(file, key);
+    final long now = System.currentTimeMillis();
+    if (cached != null && now - cached.fetchTime < ttlMillis) {
+      touch(file, now);
+      return new Response(HttpURLConnection.HTTP_OK, "OK", cached.body, true);
+    }
+
+    Map<String, String> headers = new HashMap<>();
+    if (requestHeaders != null) headers.putAll(requestHeaders);
+    if (cached != null) {
+      if (!SQUtil.isBlank(cached.etag)) headers.put("If-None-Match", cached.etag);
+      if (!SQUtil.isBlank(cached.lastModified)) headers.put("If-Modified-Since", cached.lastModified);
+    }
+    QuoteHttpClient.Result result = httpClient.send(url, headers);
+    if (result.code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+      if(Main.DEBUG_YAHOOQT) System.err.println("quote cache: not modified: "+key);
+      store(file, new Entry(key, now, cached.etag, cached.lastModified, cached.body));
+      return new Response(HttpURLConnection.HTTP_OK, "OK", cached.body, true);
+    }
+    if (!result.isSuccess()) {
+      return new Response(result.code, result.getStatusText(), null, false);
+    }
+    byte[] body = result.getBodyBytes();
+    store(file, new Entry(key, now, result.getHeader("ETag"), result.getHeader("Last-Modified"), body));
+    return new Response(result.code, result.getStatusText(), body, false);
+  }
+
+  /**
+   * Forget the response for the given URL. Call this when a provider returned a response that
+   * couldn't be used, such as a quota message, so the next run asks again.
+   */
+  void invalidate(String url) {
+    if (folder == null) return;
+    delete(getFile(getCacheKey(url)));
+  }
+
+  /**
+   * Return the URL with its query parameters sorted and any credentials removed, so that the
+   * same request matches whatever order the parameters were added in and whoever's key is used.
+   */
+  static String getCacheKey(String url) {
+    int queryStart = url.indexOf('?');
+    if (queryStart < 0) return url;
+    List<String> params = new ArrayList<>();
+    for (String param : url.substring(queryStart + 1).split("&")) {
+      if (param.isEmpty()) continue;
+      int equalsIndex = param.indexOf('=');
+      String name = (equalsIndex < 0) ? param : param.substring(0, equalsIndex);
+      if (!isExcludedParam(name)) params.add(param);
+    }
+    if (params.isEmpty()) return url.substring(0, queryStart);
+    Collections.sort(params);
+    return url.substring(0, queryStart) + '?' + String.join("&", params);
+  }
+
+  private static boolean isExcludedParam(String name) {
+    for (String excluded : N12EStockQuotes.CACHE_KEY_EXCLUDED_PARAMS) {
+      if (excluded.equalsIgnoreCase(name)) return true;
+    }
+    return false;
+  }
+
+  private File getFile(String key) {
+    if (folder == null) return null;
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder(digest.length * 2 + N12EStockQuotes.CACHE_EXTENSION.length());
+      for (byte b : digest) {
+        name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      name.append(N12EStockQuotes.CACHE_EXTENSION);
+      return new File(folder, name.toString());
+    } catch (NoSuchAlgorithmException e) {
+      // every Java implementation has SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private Entry read(File file, String key) {
+    if (file == null || !file.isFile()) return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FORMAT_VERSION) return null;
+      String storedKey = in.readUTF();
+      if (!storedKey.equals(key)) return null; // a hash collision, treat it as a miss
+      long fetchTime = in.readLong();
+      String etag = in.readUTF();
+      String lastModified = in.readUTF();
+      byte[] body = new byte[in.readInt()];
+      in.readFully(body);
+      return new Entry(storedKey, fetchTime, etag, lastModified, body);
+    } catch (IOException e) {
+      System.err.println("quote cache: discarding unreadable entry "+file.getName()+": "+e);
+      delete(file);
+      return null;
+    }
+  }
+
+  /**
+   * Delete an entry and take its size off the running total used for eviction.
+   */
+  private synchronized void delete(File file) {
+    long length = file.length();
+    if (file.delete() && totalBytes >= 0) {
+      totalBytes -= length;
+    }
+  }
+
+  private synchronized void store(File file, Entry entry) {
+    if (file == null) return;
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeUTF(entry.key);
+      out.writeLong(entry.fetchTime);
+      out.writeUTF(entry.etag == null ? "" : entry.etag);
+      out.writeUTF(entry.lastModified == null ? "" : entry.lastModified);
+      out.writeInt(entry.body.length);
+      out.write(entry.body);
+    } catch (IOException e) {
+      System.err.println("quote cache: unable to save response: "+e);
+      tempFile.delete();
+      return;
+    }
+    long oldLength = file.length();
+    file.delete();
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      return;
+    }
+    if (totalBytes < 0) {
+      totalBytes = sumFileLengths(listEntries());
+    } else {
+      totalBytes += file.length() - oldLength;
+    }
+    if (totalBytes > maxBytes) {
+      evict();
+    }
+  }
+
+  /** Delete the least recently used responses until the cache fits within its size limit. */
+  private void evict() {
+    File[] entries = listEntries();
+    Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+    totalBytes = sumFileLengths(entries);
+    for (int i = 0; i < entries.length && totalBytes > maxBytes; i++) {
+      long length = entries[i].length();
+      if (entries[i].delete()) {
+        totalBytes -= length;
+      }
+    }
+  }
+
+  private File[] listEntries() {
+    File[] entries = folder.listFiles((dir, name) -> name.endsWith(N12EStockQuotes.CACHE_EXTENSION));
+    return (entries == null) ? new File[0] : entries;
+  }
+
+  private static long sumFileLengths(File[] files) {
+    long total = 0;
+    for (File file : files) {
+      total += file.length();
+    }
+    return total;
+  }
+
+  /** Mark a response as recently used, for eviction. */
+  private static void touch(File file, long now) {
+    if (!file.setLastModified(now) && Main.DEBUG_YAHOOQT) {
+      System.err.println("quote cache: unable to update the time of "+file.getName());
+    }
+  }
+
+  /** One cached response, as stored on disk. */
+  private static class Entry {
+    final String key;
+    final long fetchTime;
+    final String etag;
+    final String lastModified;
+    final byte[] body;
+
+    Entry(String key, long fetchTime, String etag, String lastModified, byte[] body) {
+      this.key = key;
+      this.fetchTime = fetchTime;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.body = body;
+    }
+  }
+
+  /** A response from the provider or the cache. */
+  static class Response {
+    final int code;
+    final String message;
+    final boolean fromCache;
+    private final byte[] body;
+
+    Response(int code, String message, byte[] body, boolean fromCache) {
+      this.code = code;
+      this.message = message;
+      this.body = body;
+      this.fromCache = fromCache;
+    }
+
+    boolean isSuccess() {
+      return code >= 200 && code < 300;
+    }
+
+    /** The response body, or an empty stream for an error response. */
+    InputStream getBody() {
+      return new ByteArrayInputStream(body == null ? new byte[0] : body);
+    }
+
+    /** The response body decoded as UTF-8. */
+    String getBodyText() {
+      return body == null ? "" : new String(body, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*************************************************************************\
+* Copyright (C) 2010 The Infinite Kind, LLC
+*
+* This code is released as open source under the Apache 2.0 License:<br/>
+* <a href="http://www.apache.org/licenses/LICENSE-2.0">
+* http://www.apache.org/licenses/LICENSE-2.0</a><br />
+\*************************************************************************/
+
+package com.moneydance.modules.features.yahooqt;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that limits how often requests are sent to a quote provider. The bucket holds up
+ * to <code>burst</code> tokens and refills at a steady rate; each request takes one token and
+ * waits only if the bucket is empty. Unlike sleeping after every request, the time a request
+ * spends on the network counts towards the wait for the next one.
+ */
+class RateLimiter {
+  /** Limiter that never waits, for connections without a quota. */
+  static final RateLimiter UNLIMITED = new RateLimiter(0, 1);
+
+  private final double nanosPerToken;
+  private final double maxTokens;
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * @param minimumIntervalMillis Average number of milliseconds between requests, or zero for
+   *                              no limit.
+   * @param burst                 Number of requests that may be sent back to back after an idle
+   *                              period.
+   */
+  RateLimiter(long minimumIntervalMillis, int burst) {
+    this.nanosPerToken = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minimumIntervalMillis));
+    this.maxTokens = Math.max(1, burst);
+    this.tokens = this.maxTokens;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  boolean isUnlimited() {
+    return nanosPerToken <= 0;
+  }
+
+  /**
+   * Wait until a request may be sent.
+   * @throws InterruptedException if the download is canceled while waiting.
+   */
+  void acquire() throws InterruptedException {
+    long waitNanos = reserve();
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Take a token, going into debt if there is none, so that concurrent callers queue up behind
+   * each other in order.
+   * @return how long the caller must wait before using the token, in nanoseconds.
+   */
+  private synchronized long reserve() {
+    if (isUnlimited()) return 0;
+    long now = System.nanoTime();
+    tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) / nanosPerToken);
+    lastRefillNanos = now;
+    tokens -= 1;
+    return tokens >= 0 ? 0 : (long)Math.ceil(-tokens * nanosPerToken);
+  }
+}
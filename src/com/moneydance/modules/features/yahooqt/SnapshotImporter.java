@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Imports price history / exchange rate history from a text stream into a list of
@@ -154,24 +155,23 @@ public abstract class SnapshotImporter
     int validItemCount = -1;
     try {
       // find the first nonblank line and see if we have textual data
-      String header = in.readLine();
-      if (header == null) return ERROR_NO_VALID_DATA;        // stream is blank, no data
-      while (in.ready() && SQUtil.isBlank(header)) header = in.readLine();
+      DelimitedTextParser parser = new DelimitedTextParser(in, _columnDelim);
+      if (!parser.nextRow()) return ERROR_NO_VALID_DATA;        // stream is blank, no data
+      String header = parser.getRowText();
+      while (SQUtil.isBlank(header) && parser.nextRow()) header = parser.getRowText();
       if (containsNoText(header)) return ERROR_NOT_TEXT_DATA; // not the right kind of data
       _columnDelim = detectDelimiter(header);
+      parser.setDelimiter(_columnDelim);
       if (_columnDelim != ',') {
         // comma-separated data requires a decimal point '.', but other delimiters don't
         _decimal = _userDecimal;
       }
-      if (StringUtils.countFields(header, _columnDelim) < 2) return ERROR_NO_COLUMNS; // not enough columns
+      if (parser.getFieldCount() < 2) return ERROR_NO_COLUMNS; // not enough columns
       boolean headerDefined = setColumnsFromHeader(header);
-      if (!headerDefined && !isValidItem(header)) return ERROR_MALFORMED_TEXT;  // malformed
+      if (!headerDefined && !isValidItem(parser)) return ERROR_MALFORMED_TEXT;  // malformed
       validItemCount = headerDefined ? 0 : 1;
-      String lineItem = in.readLine();
-      while (lineItem != null) {
-        if (isValidItem(lineItem)) ++validItemCount;
-        // next line
-        lineItem = in.readLine();
+      while (parser.nextRow()) {
+        if (isValidItem(parser)) ++validItemCount;
       }
     }
     catch (IOException e) {
@@ -272,6 +272,18 @@ public abstract class SnapshotImporter
    * integer if one or more candidate lines in the input stream could not be imported.
    */
   public int importData() {
+    return importData(_importRecords::add);
+  }
+
+  /**
+   * Import the history items, handing each one to the consumer as soon as its line is read
+   * instead of collecting them for {@link #getImportedRecords()}, which stays empty.
+   *
+   * @param consumer Receives each imported record, in the order of the input stream.
+   * @return A number less than zero if a system error occurred, zero for no error, and a positive
+   * integer if one or more candidate lines in the input stream could not be imported.
+   */
+  public int importData(Consumer<StockRecord> consumer) {
     _importRecords.clear();
     if (!isInputStreamValid()) return ERROR_NO_INPUT_STREAM;
     onBeginImport();
@@ -297,42 +309,37 @@ public abstract class SnapshotImporter
     int errorCount = ERROR_NO_VALID_DATA;
     try {
       // find the first non-blank line and see if we have textual data
-      String header = in.readLine();
-      if (header == null) return ERROR_NO_DATA;    // stream is blank, no data
+      DelimitedTextParser parser = new DelimitedTextParser(in, _columnDelim);
+      if (!parser.nextRow()) return ERROR_NO_DATA;    // stream is blank, no data
+      String header = parser.getRowText();
       if(Main.DEBUG_YAHOOQT) System.err.println("h:"+header);
-      while (in.ready() && SQUtil.isBlank(header)) {
-        header = in.readLine();
+      while (SQUtil.isBlank(header) && parser.nextRow()) {
+        header = parser.getRowText();
         if(Main.DEBUG_YAHOOQT) System.err.println("h:"+header);
       }
       if (containsNoText(header)) return ERROR_READING_DATA; // not the right kind of input stream
-      String lineItem;
       if (_autoDetectFormat) {
         if (!setColumnsFromHeader(header)) return ERROR_NO_HEADER;
       }
-      if (isValidItem(header)) {
-        lineItem = header;
-      } else {
-        // skip the header and move on to the next line
-        lineItem = in.readLine();
-        if(Main.DEBUG_YAHOOQT) System.err.println("dh:"+lineItem);
-      }
+      // use the first line as data if it is valid, otherwise skip the header
+      boolean haveLine = isValidItem(parser) || parser.nextRow();
       
       errorCount = 0;
-      while (lineItem != null) {
-        if (isValidItem(lineItem)) {
-          final StockRecord record = parseStockRecordFromCSV(lineItem);
+      while (haveLine) {
+        if(Main.DEBUG_YAHOOQT) System.err.println("dl:"+parser.getRowText());
+        if (isValidItem(parser)) {
+          final StockRecord record = parseStockRecord(parser);
           if (record == null) {
             ++errorCount;
           } else {
-            _importRecords.add(record);
+            consumer.accept(record);
           }
         } else {
-          System.err.println("Import error: skipping invalid line: "+lineItem);
+          System.err.println("Import error: skipping invalid line: "+parser.getRowText());
           ++errorCount;
         }
         // next line
-        lineItem = in.readLine();
-        if(Main.DEBUG_YAHOOQT) System.err.println("dl:"+lineItem);
+        haveLine = parser.nextRow();
       }
     } catch (IOException error) {
       System.err.println("Error while importing history: "+error);
@@ -358,13 +365,65 @@ public abstract class SnapshotImporter
    * @return True if successful, false if there was nothing applied.
    */
   public boolean apply() {
-    if (_importRecords.isEmpty()) return false;
+    return applyRecords(_importRecords, downloadInfo.security, downloadInfo.relativeCurrency);
+  }
+
+  /**
+   * Store price records into a security's history in one pass. The records are sorted by date and
+   * merged against the existing snapshots, which are also in date order, so each record finds its
+   * snapshot without a search. Snapshots that already hold the downloaded values are left alone,
+   * the price currency's rate is looked up once per date, and the changed snapshots are synced
+   * together at the end.
+   * @param records       The downloaded prices, in any order. A later record for a date replaces
+   *                      an earlier one.
+   * @param security      The security to update.
+   * @param priceCurrency The currency that the prices are in.
+   * @return True if any of the records gave the security a valid rate.
+   */
+  static boolean applyRecords(List<StockRecord> records, CurrencyType security, CurrencyType priceCurrency) {
+    if (records.isEmpty()) return false;
+    // a stable sort keeps records for the same date in their original order
+    List<StockRecord> sorted = new ArrayList<>(records);
+    Collections.sort(sorted);
+    List<CurrencySnapshot> existing = new ArrayList<>(security.getSnapshots());
+    existing.sort(Comparator.comparingInt(CurrencySnapshot::getDateInt));
+
+    List<CurrencySnapshot> changed = new ArrayList<>();
     boolean success = false;
-    for (StockRecord record : _importRecords) {
-      CurrencySnapshot snap = addOrUpdateSnapshot(downloadInfo, record);
-      //System.err.println("security updated snapshot: "+snap);
+    int existingIndex = 0;
+    for (int index = 0; index < sorted.size(); index++) {
+      StockRecord record = sorted.get(index);
+      if (index + 1 < sorted.size() && sorted.get(index + 1).date == record.date) continue;
+      while (existingIndex < existing.size() && existing.get(existingIndex).getDateInt() < record.date) {
+        existingIndex++;
+      }
+      CurrencySnapshot snap = null;
+      if (existingIndex < existing.size() && existing.get(existingIndex).getDateInt() == record.date) {
+        snap = existing.get(existingIndex);
+      }
+
+      // all snapshots are recorded in terms of the base currency.
+      final double priceRate = priceCurrency.getUserRateByDateInt(record.date);
+      final double newRate = priceRate * record.closeRate;
+      final double newHigh = priceRate * record.highRate;
+      final double newLow = priceRate * record.lowRate;
+      if (snap == null || !snapshotMatches(snap, newRate, newHigh, newLow, record.volume)) {
+        snap = security.setSnapshotInt(record.date, newRate);
+        // downloaded values are prices in a certain currency, change to rates for the stock history
+        snap.setUserDailyHigh(newHigh);
+        snap.setUserDailyLow(newLow);
+        snap.setDailyVolume(record.volume);
+        changed.add(snap);
+      }
       success |= (snap.getUserRate() > 0.0);
     }
+
+    for (CurrencySnapshot snap : changed) {
+      snap.syncItem();
+    }
+    if (Main.DEBUG_YAHOOQT) {
+      System.err.println("applied "+changed.size()+" of "+sorted.size()+" price records to "+security);
+    }
     return success;
   }
 
@@ -378,18 +437,11 @@ public abstract class SnapshotImporter
   protected abstract BufferedReader getInputStream() 
           throws IOException, DownloadException, NumberFormatException;
 
-  private static CurrencySnapshot addOrUpdateSnapshot(DownloadInfo downloadInfo,
-                                                      StockRecord record)
-  {
-    // all snapshots are recorded in terms of the base currency.
-    final double newRate = convertToBasePrice(record.closeRate, downloadInfo.relativeCurrency, record.date);
-    CurrencySnapshot result = downloadInfo.security.setSnapshotInt(record.date, newRate);
-    // downloaded values are prices in a certain currency, change to rates for the stock history
-    result.setUserDailyHigh(convertToBasePrice(record.highRate, downloadInfo.relativeCurrency, record.date));
-    result.setUserDailyLow(convertToBasePrice(record.lowRate, downloadInfo.relativeCurrency, record.date));
-    result.setDailyVolume(record.volume);
-    result.syncItem();
-    return result;
+  /** True if the snapshot already holds exactly the given values, so it needn't be saved again. */
+  private static boolean snapshotMatches(CurrencySnapshot snap, double rate, double high, double low,
+                                         long volume) {
+    return snap.getUserRate() == rate && snap.getUserDailyHigh() == high
+           && snap.getUserDailyLow() == low && snap.getDailyVolume() == volume;
   }
   
   
@@ -397,21 +449,6 @@ public abstract class SnapshotImporter
   // Private Methods
   ///////////////////////////////////////////////////////////////////////////////////////////////
 
-  /**
-   * Convert the given price (in terms of the given currency) to a price in terms of the base
-   * currency.
-   * <p/>
-   * This is copied from CurrencyTable.convertToBasePrice() to avoid an unnecessary conversion to
-   * an integer date, which is already available.
-   * @param priceFromCurr The downloaded price, in terms of <code>priceCurrency</code>
-   * @param priceCurrency The currency that the price is defined in.
-   * @param date          Integer date of the conversion.
-   * @return The price, converted to the base currency of the file.
-   */
-  private static double convertToBasePrice(double priceFromCurr, CurrencyType priceCurrency, int date) {
-    return priceCurrency.getUserRateByDateInt(date)*priceFromCurr;
-  }
-
   /**
    * Finds all the Unicode characters in the Special block, which are used to identify the Unicode
    * stream's Byte Order Mark or BOM. For example, Google adds character 0xFEFF = 65279 as the first
@@ -433,55 +470,53 @@ public abstract class SnapshotImporter
   }
 
   /**
-   * Determine if the line given is a valid line for a price history.
-   * @param line The line of text to test.
+   * Determine if the current line is a valid line for a price history.
+   * @param line The parser positioned on the line to test.
    * @return True if valid, false if one or more fields are not defined.
    */
-  private boolean isValidItem(String line) {
-    if (SQUtil.isBlank(line)) return false;
-    int columnCount = StringUtils.countFields(line, _columnDelim);
+  private boolean isValidItem(DelimitedTextParser line) {
+    if (line.getFieldCount() == 0) return false;
+    int columnCount = line.getFieldCount();
     // check the required columns
-    final String dateStr = stripQuotes(StringUtils.fieldIndex(line, _columnDelim, _dateIndex));
-    if ((_dateIndex >= columnCount) || hasNoDigits(dateStr)) {
+    if ((_dateIndex >= columnCount) || !line.hasDigitsOrNA(_dateIndex)) {
       return false;
     }
-    if (!_dateDelimDetected && Character.isDigit(dateStr.charAt(0)) ) {
-      for (int index = 0; index < dateStr.length(); index++) {
-        char ch = dateStr.charAt(index);
-        if (!Character.isDigit(ch)) {
-          _dateDelim = ch;
-          _dateDelimDetected = true;
-          StringBuilder formatStr = new StringBuilder("yyyy");
-          formatStr.append(_dateDelim);
-          formatStr.append("MM");
-          formatStr.append(_dateDelim);
-          formatStr.append("dd");
-          _defaultDateFormat = new SimpleDateFormat(formatStr.toString());
-          break;
+    if (!_dateDelimDetected) {
+      final String dateStr = stripQuotes(line.getField(_dateIndex));
+      if (!dateStr.isEmpty() && Character.isDigit(dateStr.charAt(0))) {
+        for (int index = 0; index < dateStr.length(); index++) {
+          char ch = dateStr.charAt(index);
+          if (!Character.isDigit(ch)) {
+            _dateDelim = ch;
+            _dateDelimDetected = true;
+            StringBuilder formatStr = new StringBuilder("yyyy");
+            formatStr.append(_dateDelim);
+            formatStr.append("MM");
+            formatStr.append(_dateDelim);
+            formatStr.append("dd");
+            _defaultDateFormat = new SimpleDateFormat(formatStr.toString());
+            break;
+          }
         }
       }
     }
 
-    if ((_closeIndex >= columnCount) ||
-            hasNoDigits(StringUtils.fieldIndex(line, _columnDelim, _closeIndex))) {
+    if ((_closeIndex >= columnCount) || !line.hasDigitsOrNA(_closeIndex)) {
       return false;
     }
     // check the optional fields
     if (_highIndex >= 0) {
-      if ((_highIndex >= columnCount) ||
-              hasNoDigits(StringUtils.fieldIndex(line, _columnDelim, _highIndex))) {
+      if ((_highIndex >= columnCount) || !line.hasDigitsOrNA(_highIndex)) {
         return false;
       }
     }
     if (_lowIndex >= 0) {
-      if ((_lowIndex >= columnCount) ||
-              hasNoDigits(StringUtils.fieldIndex(line, _columnDelim, _lowIndex))) {
+      if ((_lowIndex >= columnCount) || !line.hasDigitsOrNA(_lowIndex)) {
         return false;
       }
     }
     if (_volumeIndex >= 0) {
-      if ((_volumeIndex >= columnCount) ||
-              hasNoDigits(StringUtils.fieldIndex(line, _columnDelim, _volumeIndex))) {
+      if ((_volumeIndex >= columnCount) || !line.hasDigitsOrNA(_volumeIndex)) {
         return false;
       }
     }
@@ -490,58 +525,37 @@ public abstract class SnapshotImporter
   }
 
   /**
-   * Test if a string has a numeric digit somewhere in it, or not.
-   * @param text The text to test.
-   * @return True if there is a numeric digit in the string, false otherwise.
-   */
-  private static boolean hasNoDigits(String text) {
-    if (SQUtil.isBlank(text)) return true;
-    final String number = text.trim();
-    if (isNA(number)) return false; // allowed value
-    for (int index = 0; index < number.length(); index++) {
-      if (Character.isDigit(number.charAt(index))) return false;
-    }
-    return true;
-  }
-
-  private static boolean isNA(final String text) { return text.compareToIgnoreCase("N/A") == 0; }
-
-  /**
-   * Convert a string line from the import stream into a history entry.
-   * @param record The line from the import stream.
+   * Convert the current line from the import stream into a history entry.
+   * @param line The parser positioned on the line to convert.
    * @return The history snapshot, or <code>null</code> if the line contains invalid data.
    */
-  private StockRecord parseStockRecordFromCSV(String record) {
-    int date = parseDate(StringUtils.fieldIndex(record, _columnDelim, _dateIndex));
+  private StockRecord parseStockRecord(DelimitedTextParser line) {
+    int date = parseDate(line, _dateIndex);
     if(date==0) {
-      System.err.println("Import error: discarding currency snapshot with zero date: "+record);
+      System.err.println("Import error: discarding currency snapshot with zero date: "+line.getRowText());
       return null;
     }
     // we have enough data to create a valid price snapshot
-    final double rate = parseUserRate(
-            StringUtils.fieldIndex(record, _columnDelim, _closeIndex), 0.0, _priceMultiplier);
+    final double rate = parseUserRate(line, _closeIndex, 0.0, _priceMultiplier);
     if (rate == 0.0) {
-      System.err.println("Import error: discarding currency snapshot with zero price: "+record);
+      System.err.println("Import error: discarding currency snapshot with zero price: "+line.getRowText());
       return null;
     }
     StockRecord result = new StockRecord();
     result.date = date;
     result.closeRate = rate;         // for saving in the snapshot
     if (_volumeIndex >= 0) {
-      result.volume = parseLong(
-              StringUtils.fieldIndex(record, _columnDelim, _volumeIndex), 0);
+      result.volume = parseLong(line, _volumeIndex, 0);
     }
     if (_lowIndex >= 0) {
-      result.lowRate = parseUserRate(
-              StringUtils.fieldIndex(record, _columnDelim, _lowIndex), 0.0, _priceMultiplier);
+      result.lowRate = parseUserRate(line, _lowIndex, 0.0, _priceMultiplier);
     }
     if (_highIndex >= 0) {
-      result.highRate = parseUserRate(
-              StringUtils.fieldIndex(record, _columnDelim, _highIndex), 0.0, _priceMultiplier);
+      result.highRate = parseUserRate(line, _highIndex, 0.0, _priceMultiplier);
     }
     if (_timeIndex >= 0) {
       // this time will be as of the connection time (Yahoo U.S. = EDT, Yahoo U.K. = GMT)
-      result.dateTimeGMT = parseTimeInGMT(date, StringUtils.fieldIndex(record, _columnDelim, _timeIndex));
+      result.dateTimeGMT = parseTimeInGMT(date, line.getField(_timeIndex));
     } else {
       // this will set the time to midnight so that it will generally be less than the current price
       // update time
@@ -550,6 +564,19 @@ public abstract class SnapshotImporter
     return result;
   }
 
+  /**
+   * Decipher the date in a field. Dates in year, month, day order are read straight from the
+   * line, anything else goes through the date formats.
+   * @param line  The parser positioned on the line.
+   * @param field The index of the date field.
+   * @return The date in integer format.
+   */
+  private int parseDate(DelimitedTextParser line, int field) {
+    int date = line.parseYearMonthDay(field, _dateDelim);
+    if (date != 0) return date;
+    return parseDate(line.getField(field));
+  }
+
   /**
    * Decipher the date. The date needs to be in YYYY*MM*DD format.
    * @param dateStr The string date to parse.
@@ -631,28 +658,27 @@ public abstract class SnapshotImporter
     return matches;
   }
 
-  private double parseUserRate(String doubleStr, double defaultValue, double multiplier) {
-    String value = stripQuotes(doubleStr);
-    if (SQUtil.isBlank(value)) return defaultValue;
-    if (isNA(value)) return defaultValue;
-    double userPrice = StringUtils.parseDouble(value, defaultValue, _decimal);
+  private double parseUserRate(DelimitedTextParser line, int field, double defaultValue, double multiplier) {
+    if (line.isBlank(field)) return defaultValue;
+    if (line.isNA(field)) return defaultValue;
+    double userPrice = line.parseDecimal(field, _decimal);
+    if (Double.isNaN(userPrice)) {
+      // grouping characters, exponents and the like
+      userPrice = StringUtils.parseDouble(stripQuotes(line.getField(field)), defaultValue, _decimal);
+    }
     if (userPrice == 0.0) return 0.0;
     userPrice *= multiplier;
     // the rate is the inverse of the price
     return 1.0 / Util.safeRate(userPrice);
   }
 
-  private long parseLong(String longStr, long defaultValue) {
-    String value = stripQuotes(longStr);
-    if (SQUtil.isBlank(value)) return defaultValue;
-    if (isNA(value)) return 0;
-
-    try {
-      return Long.valueOf(value);
-    } catch (NumberFormatException e) {
-      System.err.println("encountered bad integer value: " + defaultValue);
-      return defaultValue;
-    }
+  private long parseLong(DelimitedTextParser line, int field, long defaultValue) {
+    if (line.isBlank(field)) return defaultValue;
+    if (line.isNA(field)) return 0;
+    long value = line.parseLong(field, Long.MIN_VALUE);
+    if (value != Long.MIN_VALUE) return value;
+    System.err.println("encountered bad integer value: " + line.getField(field));
+    return defaultValue;
   }
 
   private char detectDelimiter(String header) {
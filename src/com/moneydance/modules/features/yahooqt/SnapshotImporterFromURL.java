@@ -11,11 +11,12 @@ package com.moneydance.modules.features.yahooqt;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.function.Consumer;
 
 /**
  * Imports snapshot price data from a URL, assumes CSV format is returned.
@@ -25,6 +26,8 @@ import java.util.TimeZone;
 public class SnapshotImporterFromURL extends SnapshotImporter {
   private final String _urlString;
   private final String _cookieString;
+  private QuoteResponseCache _cache = null;
+  private long _cacheTTL = 0;
 
   /**
    * Constructor to allow input fields to be final.
@@ -44,6 +47,30 @@ public class SnapshotImporterFromURL extends SnapshotImporter {
     _cookieString = cookie;
   }
 
+  /**
+   * Read the data through the given cache instead of always going to the network.
+   * @param cache     The response cache.
+   * @param ttlMillis How long a cached response can be used without asking the provider again.
+   */
+  void setResponseCache(QuoteResponseCache cache, long ttlMillis) {
+    _cache = cache;
+    _cacheTTL = ttlMillis;
+  }
+
+  @Override
+  public int importData(Consumer<StockRecord> consumer) {
+    final int[] recordCount = {0};
+    int result = super.importData(record -> {
+      recordCount[0]++;
+      consumer.accept(record);
+    });
+    if (_cache != null && (result != 0 || recordCount[0] == 0)) {
+      // don't keep serving a quota message or other unusable response until it expires
+      _cache.invalidate(_urlString);
+    }
+    return result;
+  }
+
   @Override
   protected void onBeginImport() {
     if(Main.DEBUG_YAHOOQT) System.err.println("Importing history from URL: "+ _urlString);
@@ -63,37 +90,46 @@ public class SnapshotImporterFromURL extends SnapshotImporter {
   protected BufferedReader getInputStream()
     throws IOException, DownloadException, NumberFormatException
   {
-    URL url = new URL(_urlString);
-    HttpURLConnection urlConn = (HttpURLConnection) url.openConnection();
-    if (_cookieString != null) {
-      urlConn.setRequestProperty("Cookie", _cookieString);
-    }
-    int respCode = 0;
-    String errorText = null;
-    boolean error = true;
+    if (_cache != null) return getCachedInputStream();
+    QuoteHttpClient.Result result;
     try {
-      respCode = urlConn.getResponseCode();
-      error = false;
+      result = QuoteHttpClient.getShared().send(_urlString, getRequestHeaders());
     } catch (IOException e) {
-      errorText = _resources.getString(L10NStockQuotes.IMPORT_ERROR_COMM);
-    } catch (NumberFormatException e) {
-      errorText = _resources.getString(L10NStockQuotes.IMPORT_ERROR_NUMBER);
-    } catch (Exception ex) {
-      errorText = ex.getMessage();
+      final String message = MessageFormat.format(
+        _resources.getString(L10NStockQuotes.IMPORT_ERROR_URL_FMT),
+        _resources.getString(L10NStockQuotes.IMPORT_ERROR_COMM), e.getMessage());
+      throw new DownloadException(downloadInfo, message);
     }
-    if (error) {
-      final String responseMessage = urlConn.getResponseMessage();
+    if (!result.isSuccess()) {
+      final String message = MessageFormat.format(
+        _resources.getString(L10NStockQuotes.IMPORT_ERROR_URL_CODE_FMT),
+        Integer.valueOf(result.code), result.getStatusText());
+      throw new DownloadException(downloadInfo, message);
+    }
+    return new BufferedReader(new InputStreamReader(result.getBody(), "UTF8"));
+  }
+
+  private Map<String, String> getRequestHeaders() {
+    return _cookieString == null ? null : Collections.singletonMap("Cookie", _cookieString);
+  }
+
+  private BufferedReader getCachedInputStream() throws IOException, DownloadException {
+    QuoteResponseCache.Response response;
+    try {
+      response = _cache.fetch(_urlString, _cacheTTL, getRequestHeaders());
+    } catch (IOException e) {
       final String message = MessageFormat.format(
-        _resources.getString(L10NStockQuotes.IMPORT_ERROR_URL_FMT), errorText, responseMessage);
+        _resources.getString(L10NStockQuotes.IMPORT_ERROR_URL_FMT),
+        _resources.getString(L10NStockQuotes.IMPORT_ERROR_COMM), e.getMessage());
       throw new DownloadException(downloadInfo, message);
     }
-    if (respCode < 200 || respCode >= 300) {
-      final String responseMessage = urlConn.getResponseMessage();
+    if (!response.isSuccess()) {
       final String message = MessageFormat.format(
         _resources.getString(L10NStockQuotes.IMPORT_ERROR_URL_CODE_FMT),
-        Integer.valueOf(respCode), responseMessage);
+        Integer.valueOf(response.code), response.message);
       throw new DownloadException(downloadInfo, message);
     }
-    return new BufferedReader(new InputStreamReader(urlConn.getInputStream(), "UTF8"));
+    if(Main.DEBUG_YAHOOQT && response.fromCache) System.err.println("Using cached response for "+ _urlString);
+    return new BufferedReader(new InputStreamReader(response.getBody(), "UTF8"));
   }
-}
\ No newline at end of file
+}
@@ -58,6 +58,10 @@ public class StockQuotesModel extends BasePropertyChangeReporter
   private ConnectionTask _currentTask;
   private final Object _taskSync = new Object();
   private final ExecutorService _executor = Executors.newFixedThreadPool(1);
+  // runs the individual requests of a download task, possibly several at once
+  private final DownloadScheduler _downloadScheduler = new DownloadScheduler();
+  // responses from the quote providers, kept on disk between runs
+  private QuoteResponseCache _responseCache = null;
 
   StockQuotesModel(FeatureModuleContext extensionContext) {
     this.extensionContext = extensionContext;
@@ -76,6 +80,19 @@ public class StockQuotesModel extends BasePropertyChangeReporter
     NO_CONNECTION.setDisplayName(resources.getString(L10NStockQuotes.NO_CONNECTION));
   }
   ResourceProvider getResources() { return _resources; }
+  DownloadScheduler getDownloadScheduler() { return _downloadScheduler; }
+
+  synchronized QuoteResponseCache getResponseCache() {
+    if (_responseCache == null) {
+      _responseCache = QuoteResponseCache.createDefault();
+    }
+    return _responseCache;
+  }
+
+  /** Replace the response cache, such as with one that doesn't store anything for benchmarks. */
+  synchronized void setResponseCache(QuoteResponseCache cache) {
+    _responseCache = cache;
+  }
   SecuritySymbolTableModel getTableModel() { return _tableModel; }
   
   /**
@@ -98,6 +115,7 @@ public class StockQuotesModel extends BasePropertyChangeReporter
   void cleanUp() {
     try {
       _executor.shutdownNow();
+      _downloadScheduler.shutdown();
     } catch (SecurityException ignore) {
       // do nothing
     }
@@ -8,13 +8,8 @@
 
 package com.moneydance.modules.features.yahooqt;
 
-import com.infinitekind.moneydance.model.CurrencySnapshot;
 import com.infinitekind.moneydance.model.CurrencyType;
-import com.infinitekind.util.DateUtil;
 import com.moneydance.apps.md.controller.Util;
-import com.moneydance.modules.features.yahooqt.tdameritrade.Candle;
-
-import java.util.Date;
 
 /**
  * Stores a single entry for a historical price entry (snapshot) for a security.
@@ -38,27 +33,12 @@ public class StockRecord implements Comparable<StockRecord> {
   double closeRate = -1.0;
   
   String priceDisplay = "";
-  private double multiplier;
   
   public StockRecord()
   {
   	super();
   }
   
-  public StockRecord(Candle candle, double multiplier)
-  {
-  	super();
-  	this.multiplier = multiplier;
-  	this.dateTimeGMT = candle.datetime;
-  	Date dateObj = new Date(this.dateTimeGMT);
-
-  	this.date = DateUtil.convertDateToInt(dateObj);
-  	this.volume = candle.volume;
-  	this.highRate = parseUserRate(candle.high);
-  	this.lowRate = parseUserRate(candle.low);
-  	this.open = parseUserRate(candle.open);
-  	this.closeRate = parseUserRate(candle.close);
-  }
   @Override
   public String toString() {
     return "close="+ closeRate +"; volume="+volume+"; high="+ highRate +"; low="+ lowRate +"; date="+date;
@@ -73,26 +53,16 @@ public class StockRecord implements Comparable<StockRecord> {
     long amount = (closeRate == 0.0) ? 0 : priceCurrency.getLongValue(1.0 / closeRate);
     priceDisplay = priceCurrency.formatFancy(amount, decimal);
   }
-  
-  CurrencySnapshot apply(CurrencyType security, CurrencyType priceCurrency) {
-    // all snapshots are recorded in terms of the base currency.
-    double newRate = priceCurrency.getUserRateByDateInt(date)*closeRate;
-    CurrencySnapshot result = security.setSnapshotInt(date, newRate);
-    // downloaded values are prices in a certain currency, change to rates for the stock history
-    result.setUserDailyHigh(priceCurrency.getUserRateByDateInt(date)*highRate);
-    result.setUserDailyLow(priceCurrency.getUserRateByDateInt(date)*lowRate);
-    result.setDailyVolume(volume);
-    result.syncItem();
-    return result;
-  }
 	
-	private double parseUserRate(double value)
+	/**
+	 * Convert a downloaded price to a rate, applying the exchange's price multiplier.
+	 * A zero price stays zero.
+	 */
+	static double priceToRate(double price, double multiplier)
 	{
-		double userPrice = value;
-		if (userPrice == 0.0) return 0.0;
-		userPrice *= multiplier;
+		if (price == 0.0) return 0.0;
 		// the rate is the inverse of the price
-		return 1.0 / Util.safeRate(userPrice);
+		return 1.0 / Util.safeRate(price * multiplier);
 	}
 	
 }
@@ -1,14 +1,12 @@
 package com.moneydance.modules.features.yahooqt;
 
-import com.google.gson.Gson;
 import com.infinitekind.moneydance.model.Account;
 import com.infinitekind.moneydance.model.AccountBook;
+import com.infinitekind.util.DateUtil;
 import com.infinitekind.util.StringUtils;
 import com.moneydance.awt.GridC;
 import com.moneydance.awt.JLinkLabel;
 import com.moneydance.awt.JTextPanel;
-import com.moneydance.modules.features.yahooqt.tdameritrade.History;
-import static java.lang.Thread.sleep;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -17,19 +15,14 @@ import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.text.MessageFormat;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
+import java.util.Date;
 
 /**
  * Download quotes and exchange rates from tdameritrade.com
@@ -46,11 +39,10 @@ public class TDAmeritradeConnection extends APIKeyConnection
 	public static final String PREFS_KEY = "tdameritrade";
 	private SimpleDateFormat refreshDateFmt;
 	
-	//TDAmeritrade limits all non-order related requests to 120 per minute.
-	private int BURST_RATE_PER_MINUTE = 120;
-	
 	private static String apiKey = "";
 	private static String HISTORY_URL = "https://api.tdameritrade.com/v1/marketdata/%s/pricehistory?apikey=%s&periodType=month&period=1&frequencyType=daily";
+	private static String HISTORY_RANGE_URL = "https://api.tdameritrade.com/v1/marketdata/%s/pricehistory?apikey=%s&periodType=month&frequencyType=daily&startDate=%d&endDate=%d";
+	private static final int HISTORY_PERIOD_DAYS = 31;
 	
 	public TDAmeritradeConnection(StockQuotesModel model)
 	{
@@ -62,8 +54,6 @@ public class TDAmeritradeConnection extends APIKeyConnection
 	private static String cachedAPIKey = null;
 	private static long suppressAPIKeyRequestUntilTime = 0;
 	
-	private List<DownloadInfo> remainingToUpdate;
-	
 	public String getAPIKey(final StockQuotesModel model, final boolean evenIfAlreadySet)
 	{
 		if (!evenIfAlreadySet && cachedAPIKey != null) return cachedAPIKey;
@@ -155,6 +145,12 @@ public class TDAmeritradeConnection extends APIKeyConnection
 		return cachedAPIKey;
 	}
 	
+	/** Use the given API key without asking, as when running from the command line. */
+	static void setAPIKey(String apiKey)
+	{
+		cachedAPIKey = apiKey;
+	}
+	
 	
 	public String toString()
 	{
@@ -172,151 +168,82 @@ public class TDAmeritradeConnection extends APIKeyConnection
 	{
 	}
 	
-	private URI getHistoryURI(String fullTickerSymbol) throws URISyntaxException
+	/**
+	 * TDAmeritrade limits all non-order related requests to 120 per minute. A burst of 60 followed
+	 * by one request a second never sends more than 120 in any minute.
+	 */
+	@Override
+	public long getPerConnectionThrottleTime()
+	{
+		return 1000;
+	}
+	
+	@Override
+	public int getThrottleBurst()
+	{
+		return 60;
+	}
+	
+	private URI getHistoryURI(DownloadInfo stock) throws URISyntaxException
 	{
 		String apiKey = getAPIKey(getModel(), false);
-		String uriStr = String.format(HISTORY_URL, SQUtil.urlEncode(fullTickerSymbol), SQUtil.urlEncode(apiKey));
+		String uriStr;
+		int missingDays = stock.getMissingDays();
+		if (missingDays >= 0 && missingDays < HISTORY_PERIOD_DAYS)
+		{
+			// only ask for the days since the most recent stored price
+			long startDate = DateUtil.firstMinuteInDay(DateUtil.convertIntDateToLong(stock.lastSnapshotDate)).getTime();
+			uriStr = String.format(HISTORY_RANGE_URL, SQUtil.urlEncode(stock.fullTickerSymbol), SQUtil.urlEncode(apiKey),
+								   startDate, DateUtil.lastMinuteInDay(new Date()).getTime());
+		}
+		else
+		{
+			uriStr = String.format(HISTORY_URL, SQUtil.urlEncode(stock.fullTickerSymbol), SQUtil.urlEncode(apiKey));
+		}
 
 		System.out.println(uriStr);
 		return new URI(uriStr);
 	}
 	
-//	int processors = Runtime.getRuntime().availableProcessors();
-//	ExecutorService executorService = Executors.newFixedThreadPool(processors);
-	
-	HttpClient client = HttpClient.newBuilder()
-//			.executor(executorService)
-			.version(HttpClient.Version.HTTP_2)
-			.build();
-	
 	@Override
-	public boolean updateSecurities(List<DownloadInfo> securitiesToUpdate)
+	protected void updateSecurity(DownloadInfo stock)
 	{
-		ResourceProvider res = model.getResources();
-		float progressPercent = 0.0f;
-		final float progressIncrement = securitiesToUpdate.isEmpty() ? 1.0f :
-				100.0f / (float)securitiesToUpdate.size();
-		boolean success = true;
-		
-		this.remainingToUpdate = new ArrayList<>(securitiesToUpdate);
-		List<DownloadInfo> retry = new ArrayList<>();
-		int remaining;
-		int completedCount = 0;
-		do
+		QuoteResponseCache cache = model.getResponseCache();
+		String uriStr = null;
+		try
 		{
-			List<DownloadInfo> completed = updateSecurities();
-			int requests = completed.size();
-			int original = securitiesToUpdate.size();
-			for (DownloadInfo downloadInfo: completed)
+			uriStr = getHistoryURI(stock).toString();
+			QuoteResponseCache.Response response = cache.fetch(uriStr, QuoteResponseCache.DAILY_HISTORY_TTL, null);
+			if (response.isSuccess())
 			{
-				if (downloadInfo.getHistoryCount() == 0)
+				// decode the candles straight into arrays, without an object per day
+				CandleBuffer candles;
+				try (Reader reader = new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))
 				{
-					retry.add(downloadInfo);
-				}
-				else
-				{
-					progressPercent += progressIncrement;
-					final String message, logMessage;
-					if (!downloadInfo.wasSuccess())
-					{
-						message = MessageFormat.format(res.getString(L10NStockQuotes.ERROR_EXCHANGE_RATE_FMT),
-													   downloadInfo.security.getIDString(),
-													   downloadInfo.relativeCurrency.getIDString());
-						logMessage = MessageFormat.format("Unable to get rate from {0} to {1}",
-														  downloadInfo.security.getIDString(),
-														  downloadInfo.relativeCurrency.getIDString());
-					}
-					else
-					{
-						message = downloadInfo.buildPriceDisplayText(model);
-						logMessage = downloadInfo.buildPriceLogText(model);
-					}
-					model.showProgress(progressPercent, message);
-					didUpdateItem(downloadInfo);
+					candles = PriceHistoryJson.readTDAmeritradeHistory(reader);
 				}
+				if (Main.DEBUG_YAHOOQT) System.err.println(stock.fullTickerSymbol + ": " + candles.size() + " days of history");
+				stock.addHistoryRecords(candles.toStockRecords(stock.priceMultiplier));
 			}
-			this.remainingToUpdate.removeAll(completed);
-
-			remaining = this.remainingToUpdate.size();
-			completedCount = original - remaining;
-			System.out.println(String.format("Updated %d quotes out of %d", completedCount, original));
-			
-			if (remaining > 0 && requests > 119)
+			else
 			{
-				try
-				{
-					System.out.println("WAIT: 1 minute");
-					sleep(60000);
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-				}
+				System.err.println(stock.fullTickerSymbol + ": " + response.code + " " + response.message);
+			}
+			if (stock.getHistoryCount() == 0)
+			{
+				// an error or an empty response, so ask again next time
+				cache.invalidate(uriStr);
 			}
-		}
-		while (remaining > 0 && completedCount > 0);
-		return true;
-	}
-	
-	private List<DownloadInfo> updateSecurities()
-	{
-		int count = Math.min(BURST_RATE_PER_MINUTE, remainingToUpdate.size());
-		System.out.println(String.format("Updates %d quotes out of %d", count, remainingToUpdate.size()));
-		
-		return this.remainingToUpdate.stream()
-										.map(this::updateOneSecurity)
-										.limit(BURST_RATE_PER_MINUTE)
-										.collect(Collectors.toList());
-	}
-	
-	@Override
-	protected void updateSecurity(DownloadInfo downloadInfo)
-	{
-		//don't use this one
-	}
-	
-	protected DownloadInfo updateOneSecurity(DownloadInfo stock)
-	{
-		if (stock.getHistoryCount() > 0)
-			return stock;
-		
-		CompletableFuture<DownloadInfo> di = null;
-		try
-		{
-			URI uri = getHistoryURI(stock.fullTickerSymbol);
-
-			 di = client.sendAsync(HttpRequest.newBuilder(uri).GET().build(),
-								   HttpResponse.BodyHandlers.ofString())
-					.thenApply(response -> {
-						System.out.println(stock.fullTickerSymbol + ":\n" + response.body());
-						Gson gson = new Gson();
-						
-						// 1. JSON file to Java object
-						History history = gson.fromJson(response.body(), History.class);
-						stock.addHistory(history);
-						return stock;
-					});
 		}
 		catch (URISyntaxException uri)
 		{
 			uri.printStackTrace();
 		}
-		
-		DownloadInfo stockReturn = null;
-		try
-		{
-			stockReturn = di.get();
-		}
-		catch (InterruptedException e)
+		catch (Exception e)
 		{
+			if (uriStr != null) cache.invalidate(uriStr);
 			e.printStackTrace();
 		}
-		catch (ExecutionException e)
-		{
-			e.printStackTrace();
-		}
-		
-		return stockReturn;
 	}
 	
 	public static void main(String[] args)
@@ -8,19 +8,18 @@
 
 package com.moneydance.modules.features.yahooqt;
 
-import com.infinitekind.moneydance.model.CurrencySnapshot;
 import com.infinitekind.moneydance.model.DateRange;
 import com.infinitekind.util.DateUtil;
 import com.infinitekind.util.StringUtils;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 import java.util.TimeZone;
 import java.util.regex.Matcher;
@@ -253,10 +252,11 @@ public class YahooConnection extends BaseConnection {
     boolean foundRate = false;
     Exception error = null;
     try {
-      URL url = new URL(urlStr.toString());
-      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-      //conn.addRequestProperty("user-agent", "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_9_1) AppleWebKit/537.73.11 (KHTML, like Gecko) Version/7.0.1 Safari/537.73.11");
-      BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF8"));
+      QuoteHttpClient.Result response = QuoteHttpClient.getShared().send(urlStr.toString(), null);
+      if (!response.isSuccess()) {
+        throw new IOException(response.getStatusText()+" for "+urlStr);
+      }
+      BufferedReader in = new BufferedReader(new InputStreamReader(response.getBody(), "UTF8"));
       // read the message...
       while (true) {
         String line = in.readLine();
@@ -307,11 +307,7 @@ public class YahooConnection extends BaseConnection {
   public void updateSecurity(DownloadInfo downloadInfo) {
     System.err.println("yahoo: updating security: "+downloadInfo.fullTickerSymbol);
     int today = DateUtil.getStrippedDateInt();
-    List<CurrencySnapshot> history = downloadInfo.security.getSnapshots();
-    int firstDate = DateUtil.incrementDate(today, 0, -6, -0);
-    if(history!=null && history.size()>0) {
-      firstDate = Math.max(history.get(history.size()-1).getDateInt(), firstDate);
-    }
+    int firstDate = downloadInfo.getHistoryStartDate(DateUtil.incrementDate(today, 0, -6, -0));
 
     if (!setCookieAndCrumble(downloadInfo.fullTickerSymbol)) {
       downloadInfo.recordError("Unable to get cookie or crumbs from Yahoo");
@@ -392,23 +388,22 @@ public class YahooConnection extends BaseConnection {
     long startTime = System.currentTimeMillis();
     try {
       String urlString = String.format(crumbleLink, fullTickerSymbol);
-      URL url = new URL(urlString);
-      HttpURLConnection urlConn = (HttpURLConnection)url.openConnection();
-      urlConn.setRequestProperty("User-Agent", "Mozilla/5.0 (X11; U; Linux i686) Gecko/20071127 Firefox/2.0.0.11");
+      QuoteHttpClient.Result response = QuoteHttpClient.getShared().send(urlString,
+        Collections.singletonMap("User-Agent", "Mozilla/5.0 (X11; U; Linux i686) Gecko/20071127 Firefox/2.0.0.11"));
 
-      int respCode = urlConn.getResponseCode();
+      int respCode = response.code;
       if (respCode < 200 | respCode >= 300) {
-        System.err.println("non-success response for cookie/crumble request; code="+respCode+" msg="+urlConn.getResponseMessage());
+        System.err.println("non-success response for cookie/crumble request; code="+respCode+" msg="+response.getStatusText());
         return false;
       }
       
-      String cookieValue = urlConn.getHeaderField("set-cookie");
+      String cookieValue = response.getHeader("set-cookie");
       if(cookieValue!=null) {
         int endIdx = cookieValue.indexOf(";");
         cookie = endIdx >= 0 ? cookieValue.substring(0, endIdx) : cookieValue.trim();
       }
       Pattern p = Pattern.compile(crumbleRegEx);
-      BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(urlConn.getInputStream()));
+      BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getBody()));
       String line = null;
       while ((line = bufferedReader.readLine()) != null) {
         Matcher m = p.matcher(line);
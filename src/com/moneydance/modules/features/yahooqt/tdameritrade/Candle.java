@@ -1,22 +0,0 @@
-package com.moneydance.modules.features.yahooqt.tdameritrade;
-
-public class Candle
-{
-	public double open;
-	public double high;
-	public double low;
-	public double close;
-	public long volume;
-	public long datetime;
-}
-//	{
-//		"candles": [
-//		{
-//			"open": 320.25,
-//				"high": 323.33,
-//				"low": 317.5188,
-//				"close": 318.31,
-//				"volume": 36634380,
-//				"datetime": 1579845600000
-//		}]
-//}
@@ -1,8 +0,0 @@
-package com.moneydance.modules.features.yahooqt.tdameritrade;
-
-import java.util.List;
-
-public class History
-{
-	public List<Candle> candles;
-}